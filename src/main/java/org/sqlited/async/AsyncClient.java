@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.async;
+
+import org.sqlited.jdbc.tcp.JdbcTcpDriver;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Non-blocking client of the tcp protocol: a few event loop threads
+ * drive the IO of all connections, e.g.
+ * <pre>
+ * AsyncClient client = new AsyncClient();
+ * client.connect("jdbc:sqlited://localhost:3525/test", info)
+ *     .thenCompose(conn -&gt; conn.executeUpdate("insert ..."));
+ * </pre>
+ */
+public class AsyncClient implements AutoCloseable {
+
+    private static final AtomicInteger ID = new AtomicInteger();
+
+    protected final JdbcTcpDriver driver = new JdbcTcpDriver();
+    private final EventLoop[] loops;
+    private final AtomicInteger next = new AtomicInteger();
+
+    public AsyncClient() throws IOException {
+        this(Math.min(Runtime.getRuntime().availableProcessors(), 4));
+    }
+
+    public AsyncClient(int threads) throws IOException {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads " + threads);
+        }
+        int id = ID.incrementAndGet();
+        EventLoop[] loops = new EventLoop[threads];
+        boolean failed = true;
+        try {
+            for (int i = 0; i < threads; ++i) {
+                String name = "sqlited-async-" + id + "-" + i;
+                loops[i] = new EventLoop(name);
+            }
+            failed = false;
+        } finally {
+            if (failed) {
+                for (EventLoop loop: loops) {
+                    if (loop != null) loop.selector.close();
+                }
+            }
+        }
+        for (EventLoop loop: loops) loop.start();
+        this.loops = loops;
+    }
+
+    /** Connect with the tcp url as the JDBC driver, without the
+     * replicas and endpoints balancing.
+     */
+    public CompletableFuture<AsyncConnection> connect(String url, Properties info) {
+        try {
+            if (!this.driver.acceptsURL(url)) {
+                throw new SQLException("Malformed url '" + url + "'");
+            }
+            Properties copy = new Properties();
+            copy.putAll(info);
+            Properties props = this.driver.parseURL(url, copy);
+            EventLoop[] loops = this.loops;
+            int i = (this.next.getAndIncrement() & Integer.MAX_VALUE) % loops.length;
+            return AsyncConnection.connect(loops[i], props, copy);
+        } catch (SQLException | RuntimeException e) {
+            return AsyncConnection.failed(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        for (EventLoop loop: this.loops) loop.close();
+    }
+
+}
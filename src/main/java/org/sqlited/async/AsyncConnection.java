@@ -0,0 +1,565 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.async;
+
+import org.sqlited.io.Transfer;
+import org.sqlited.util.IOUtils;
+import org.sqlited.util.MDUtils;
+import org.sqlited.util.logging.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.security.MessageDigest;
+import java.sql.*;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/** A non-blocking connection driven by an event loop. Requests are
+ * pipelined and their futures completed in the order of the responses,
+ * in the event loop thread: callbacks shouldn't block.
+ */
+public class AsyncConnection implements AutoCloseable {
+    static final Logger log = LoggerFactory.getLogger(AsyncConnection.class);
+
+    static final int IO_SIZE = 4096;
+
+    protected final EventLoop loop;
+    protected final SocketChannel channel;
+    protected final Properties props;
+    protected final Transfer in;
+    protected final Transfer out;
+    // Event loop only
+    private final ArrayDeque<Request<?>> pending = new ArrayDeque<>();
+    private final Inbound inbound = new Inbound();
+    private ByteBuffer outBuffer = ByteBuffer.allocate(IO_SIZE);
+    private final CompletableFuture<Void> connected = new CompletableFuture<>();
+    private SelectionKey key;
+    // Inbound offset where the decoding of a partial response resumes
+    private int mark;
+    private volatile SQLException failure;
+    // Statement for the updates of this connection
+    private AsyncStatement statement;
+
+    protected AsyncConnection(EventLoop loop, SocketChannel channel,
+                              Properties props) {
+        this.loop = loop;
+        this.channel = channel;
+        this.props = props;
+        int maxBufferSize = Integer.decode(props.getProperty("maxBufferSize"));
+        this.in = new Transfer(this.inbound, null, maxBufferSize);
+        this.out = new Transfer(null, new Outbound(), maxBufferSize);
+    }
+
+    static CompletableFuture<AsyncConnection> connect(EventLoop loop,
+                                                      Properties props,
+                                                      Properties info) {
+        AsyncConnection conn;
+        try {
+            SocketChannel channel = SocketChannel.open();
+            boolean failed = true;
+            try {
+                boolean tcpNoDelay = Boolean.parseBoolean(props.getProperty("tcpNoDelay"));
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, tcpNoDelay);
+                conn = new AsyncConnection(loop, channel, props);
+                failed = false;
+            } finally {
+                if (failed) IOUtils.close(channel);
+            }
+        } catch (IOException e) {
+            String s = "Connection failure";
+            return failed(new SQLNonTransientConnectionException(s, "08001", e));
+        }
+
+        String host = props.getProperty("host");
+        int port = Integer.decode(props.getProperty("port"));
+        long timeout = Long.decode(props.getProperty("connectTimeout"))
+                + Long.decode(props.getProperty("loginTimeout"));
+        EventLoop.Timer timer = loop.schedule(() -> {
+            String s = "Connect timeout";
+            conn.fail(new SQLNonTransientConnectionException(s, "08001"));
+        }, timeout);
+        loop.execute(() -> conn.open(new InetSocketAddress(host, port)));
+
+        boolean readOnly = Boolean.parseBoolean(props.getProperty("readOnly"));
+        CompletableFuture<AsyncConnection> future = new CompletableFuture<>();
+        conn.connected.thenCompose(v -> conn.login())
+                .thenCompose(v -> conn.openDB(props.getProperty("db"), info))
+                .thenCompose(v -> readOnly? conn.setReadOnly(true):
+                        CompletableFuture.<Void>completedFuture(null))
+                .thenCompose(v -> conn.createStatement())
+                .whenComplete((stmt, e) -> {
+                    timer.cancel();
+                    if (e == null) {
+                        conn.statement = stmt;
+                        future.complete(conn);
+                    } else {
+                        conn.close();
+                        future.completeExceptionally(unwrap(e));
+                    }
+                });
+        return future;
+    }
+
+    protected void open(InetSocketAddress endpoint) {
+        if (this.failure != null) return;
+        try {
+            EventLoop loop = this.loop;
+            SocketChannel channel = this.channel;
+            if (channel.connect(endpoint)) {
+                this.key = channel.register(loop.selector, SelectionKey.OP_READ, this);
+                this.connected.complete(null);
+            } else {
+                this.key = channel.register(loop.selector, SelectionKey.OP_CONNECT, this);
+            }
+        } catch (IOException e) {
+            String s = "Connection failure";
+            fail(new SQLNonTransientConnectionException(s, "08001", e));
+        }
+    }
+
+    protected CompletableFuture<Void> login() {
+        // In: version, auth-method, challenge, server-info
+        CompletableFuture<byte[]> handshake = receive(ch -> {
+            int version = ch.read(true);
+            if (version != Transfer.VERSION) {
+                throw new IOException("Unknown server protocol " + version);
+            }
+            byte[] a = new byte[9];
+            a[0] = (byte) ch.read(true);
+            ch.readFully(a, 1, 8);
+            ch.readString();
+            return a;
+        });
+        // Out: version, auth-method, auth-data, user, client-info
+        return handshake.thenCompose(a -> send(ch -> {
+            Properties props = this.props;
+            MessageDigest md5 = MDUtils.md5();
+            md5.update(a, 1, 8);
+            String password = props.getProperty("password");
+            if (password != null) md5.update(password.getBytes(UTF_8));
+            ch.write(Transfer.VERSION)
+                    .write(a[0])
+                    .write(md5.digest())
+                    .writeString(props.getProperty("user"))
+                    .writeString(props.getProperty("client", "SQLited-async"));
+        }, AsyncConnection::readOK)).thenApply(a -> null);
+    }
+
+    protected CompletableFuture<Void> openDB(String url, Properties info) {
+        return send(ch -> {
+            ch.writeString(url);
+            ch.writeInt(info.size());
+            for (Map.Entry<Object, Object> i: info.entrySet()) {
+                String name = (String) i.getKey();
+                String value = (String) i.getValue();
+                ch.writeString(name).writeString(value);
+            }
+        }, AsyncConnection::readOK).thenApply(a -> null);
+    }
+
+    public CompletableFuture<AsyncStatement> createStatement() {
+        return send(ch -> ch.write(Transfer.CMD_CREATE_STMT)
+                        .writeInt(ResultSet.TYPE_FORWARD_ONLY)
+                        .writeInt(ResultSet.CONCUR_READ_ONLY)
+                        .writeInt(ResultSet.CLOSE_CURSORS_AT_COMMIT),
+                ch -> new AsyncStatement(this, (int) readOK(ch)[0]));
+    }
+
+    /** Execute the update in the statement of this connection.
+     * @return the update count, or -1 if the result is a result set
+     */
+    public CompletableFuture<Long> executeUpdate(String sql) {
+        return this.statement.executeUpdate(sql);
+    }
+
+    /** Execute the query in a new statement, which is closed after
+     * the publisher completed or cancelled. Rows are fetched on the
+     * demand of the subscriber.
+     */
+    public Flow.Publisher<Object[]> query(String sql) {
+        return subscriber -> {
+            CompletableFuture<AsyncStatement> stmt = createStatement();
+            AsyncResultSet.RowSubscription subscription;
+            subscription = new AsyncResultSet.RowSubscription(this.loop,
+                    subscriber, () -> stmt.thenCompose(s -> s.executeQuery(sql)),
+                    () -> stmt.thenAccept(AsyncStatement::close));
+            subscriber.onSubscribe(subscription);
+        };
+    }
+
+    public CompletableFuture<Void> setAutoCommit(boolean autoCommit) {
+        return send(ch -> ch.write(Transfer.CMD_SET_AC)
+                .writeBoolean(autoCommit), AsyncConnection::readOK)
+                .thenApply(a -> null);
+    }
+
+    public CompletableFuture<Void> setReadOnly(boolean readOnly) {
+        return send(ch -> ch.write(Transfer.CMD_SET_RO)
+                .writeBoolean(readOnly), AsyncConnection::readOK)
+                .thenApply(a -> null);
+    }
+
+    public CompletableFuture<Void> commit() {
+        return send(ch -> ch.write(Transfer.CMD_COMMIT), AsyncConnection::readOK)
+                .thenApply(a -> null);
+    }
+
+    public CompletableFuture<Void> rollback() {
+        return send(ch -> ch.write(Transfer.CMD_ROLLBACK).writeArray(null),
+                AsyncConnection::readOK).thenApply(a -> null);
+    }
+
+    /** Run the work in a transaction: commit if the work completed,
+     * otherwise rollback. The connection shouldn't be used by others
+     * before the returned future completed.
+     */
+    public <T> CompletableFuture<T> inTransaction(
+            Function<? super AsyncConnection, ? extends CompletableFuture<T>> work) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        setAutoCommit(false)
+                .thenCompose(v -> work.apply(this))
+                .whenComplete((result, error) -> {
+                    if (error == null) {
+                        commit().thenCompose(v -> setAutoCommit(true))
+                                .whenComplete((v, e) -> {
+                                    if (e == null) future.complete(result);
+                                    else future.completeExceptionally(unwrap(e));
+                                });
+                    } else {
+                        rollback().thenCompose(v -> setAutoCommit(true))
+                                .whenComplete((v, e) -> future
+                                        .completeExceptionally(unwrap(error)));
+                    }
+                });
+        return future;
+    }
+
+    protected <T> CompletableFuture<T> receive(Decoder<T> decoder) {
+        return send(null, decoder);
+    }
+
+    protected <T> CompletableFuture<T> send(Transfer.Encoder encoder,
+                                            Decoder<T> decoder) {
+        Request<T> request = new Request<>(decoder);
+        this.loop.execute(() -> {
+            if (this.failure == null && this.loop.isClosed()) {
+                String s = "Async client closed";
+                fail(new SQLNonTransientConnectionException(s, "08003"));
+            }
+            SQLException failure = this.failure;
+            if (failure != null) {
+                request.future.completeExceptionally(failure);
+                return;
+            }
+            try {
+                if (encoder != null) {
+                    encoder.encode(this.out);
+                    this.out.flush();
+                }
+                this.pending.add(request);
+                write();
+                // The response may be received already, e.g. the handshake
+                if (this.pending.size() == 1) decode();
+            } catch (IOException e) {
+                SQLException cause = handle("Send request error", e);
+                request.future.completeExceptionally(cause);
+                fail(cause);
+            }
+        });
+        return request.future;
+    }
+
+    void handle(SelectionKey key) {
+        try {
+            if (key.isConnectable()) {
+                this.channel.finishConnect();
+                key.interestOps(SelectionKey.OP_READ);
+                this.connected.complete(null);
+            }
+            if (key.isValid() && key.isReadable()) read();
+            if (key.isValid() && key.isWritable()) write();
+        } catch (IOException e) {
+            fail(handle("Network failure", e));
+        }
+    }
+
+    protected void write() throws IOException {
+        ByteBuffer buf = this.outBuffer;
+        buf.flip();
+        try {
+            this.channel.write(buf);
+        } finally {
+            buf.compact();
+        }
+        boolean more = buf.position() > 0;
+        int ops = SelectionKey.OP_READ | (more? SelectionKey.OP_WRITE: 0);
+        SelectionKey key = this.key;
+        if (key.interestOps() != ops) key.interestOps(ops);
+        if (!more && buf.capacity() > IO_SIZE) {
+            this.outBuffer = ByteBuffer.allocate(IO_SIZE);
+        }
+    }
+
+    protected void read() throws IOException {
+        Inbound inbound = this.inbound;
+        int n;
+        do {
+            n = this.channel.read(inbound.writable());
+            if (n > 0) inbound.end += n;
+        } while (n > 0);
+
+        decode();
+        if (n == -1 && this.failure == null) {
+            String s = "Connection closed by server";
+            fail(new SQLNonTransientConnectionException(s, "08006"));
+        }
+    }
+
+    protected void decode() {
+        Transfer ch = this.in;
+        Inbound inbound = this.inbound;
+        Request<?> request;
+
+        while ((request = this.pending.peek()) != null) {
+            checkpoint();
+            try {
+                request.decode(ch);
+            } catch (EOFException e) {
+                // Partial response: decode it again after more bytes read,
+                // from the start or the last checkpoint of the decoder; the
+                // transfer buffer is empty here
+                inbound.pos = this.mark;
+                break;
+            } catch (IOException | RuntimeException e) {
+                // Out of sync with the server
+                fail(new SQLNonTransientConnectionException(
+                        "Decode response error", "08000", e));
+                return;
+            }
+            this.pending.poll();
+            request.complete();
+        }
+        inbound.discard(inbound.pos - ch.getInSize());
+    }
+
+    /** Keep the progress of a resumable decoder: decoding the partial
+     * response again resumes from here.
+     */
+    protected void checkpoint() {
+        this.mark = this.inbound.pos - this.in.getInSize();
+    }
+
+    protected int peek() throws EOFException {
+        // The next byte to decode: kept in the inbound until decoded
+        Inbound inbound = this.inbound;
+        int i = inbound.pos - this.in.getInSize();
+        if (i >= inbound.end) throw new EOFException();
+        return inbound.data[i] & 0xff;
+    }
+
+    protected void fail(SQLException e) {
+        if (this.failure != null) return;
+        this.failure = e;
+        log.fine(() -> "Connection failed: " + e.getMessage());
+        IOUtils.close(this.channel);
+        this.connected.completeExceptionally(e);
+        Request<?> request;
+        while ((request = this.pending.poll()) != null) {
+            request.fail(e);
+        }
+    }
+
+    public boolean isClosed() {
+        return this.failure != null;
+    }
+
+    @Override
+    public void close() {
+        String s = "Connection closed";
+        this.loop.execute(() -> fail(new SQLNonTransientConnectionException(s, "08003")));
+    }
+
+    static long[] readOK(Transfer ch) throws IOException, SQLException {
+        return readOK(ch, ch.read(true));
+    }
+
+    static long[] readOK(Transfer ch, int result) throws IOException, SQLException {
+        if (Transfer.RESULT_OK == result) {
+            ch.readInt(); // status
+            return new long[] {
+                    ch.readLong(), // last ID
+                    ch.readLong()  // affected rows
+            };
+        } else if (Transfer.RESULT_ER == result) {
+            String s = ch.readString();
+            String sqlState = ch.readString();
+            int vendorCode = ch.readInt();
+            if ("HYT00".equals(sqlState)) {
+                throw new SQLTimeoutException(s, sqlState, vendorCode);
+            }
+            if ("53000".equals(sqlState)) {
+                throw new SQLTransientException(s, sqlState, vendorCode);
+            }
+            throw new SQLException(s, sqlState, vendorCode);
+        } else {
+            throw new IOException("Unknown server result type: " + result);
+        }
+    }
+
+    static SQLException handle(String message, IOException e) {
+        return new SQLNonTransientConnectionException(message, "08000", e);
+    }
+
+    static Throwable unwrap(Throwable e) {
+        if (e instanceof CompletionException && e.getCause() != null) {
+            return e.getCause();
+        }
+        return e;
+    }
+
+    static <T> CompletableFuture<T> failed(Throwable e) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+    }
+
+    /** A decoder called again on the partial response with more bytes:
+     * from the start, or if it has state, from its last checkpoint. A
+     * decoder with resources is AutoCloseable, closed if abandoned.
+     */
+    @FunctionalInterface
+    interface Decoder<T> {
+        // Throws EOFException if the response is incomplete
+        T decode(Transfer ch) throws IOException, SQLException;
+    }
+
+    static class Request<T> {
+        final Decoder<T> decoder;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        private T result;
+        private SQLException error;
+
+        Request(Decoder<T> decoder) {
+            this.decoder = decoder;
+        }
+
+        void decode(Transfer ch) throws IOException {
+            try {
+                this.result = this.decoder.decode(ch);
+            } catch (SQLException e) {
+                this.error = e;
+            }
+        }
+
+        void complete() {
+            if (this.error == null) this.future.complete(this.result);
+            else this.future.completeExceptionally(this.error);
+        }
+
+        void fail(SQLException e) {
+            Decoder<T> decoder = this.decoder;
+            if (decoder instanceof AutoCloseable) {
+                IOUtils.close((AutoCloseable) decoder);
+            }
+            this.future.completeExceptionally(e);
+        }
+    }
+
+    /** The bytes received, kept from the start of the response decoding,
+     * or its last checkpoint, for decoding it again if incomplete.
+     */
+    static class Inbound extends InputStream {
+        byte[] data = new byte[IO_SIZE];
+        int pos, end;
+
+        ByteBuffer writable() {
+            if (this.end == this.data.length) {
+                byte[] a = new byte[this.data.length << 1];
+                System.arraycopy(this.data, 0, a, 0, this.end);
+                this.data = a;
+            }
+            return ByteBuffer.wrap(this.data, this.end, this.data.length - this.end);
+        }
+
+        void discard(int n) {
+            if (n <= 0) return;
+            System.arraycopy(this.data, n, this.data, 0, this.end - n);
+            this.pos -= n;
+            this.end -= n;
+            if (this.end == 0 && this.data.length > IO_SIZE) {
+                this.data = new byte[IO_SIZE];
+            }
+        }
+
+        @Override
+        public int read() {
+            if (this.pos >= this.end) return -1;
+            return this.data[this.pos++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) return 0;
+            int n = Math.min(len, this.end - this.pos);
+            if (n <= 0) return -1;
+            System.arraycopy(this.data, this.pos, b, off, n);
+            this.pos += n;
+            return n;
+        }
+    }
+
+    class Outbound extends OutputStream {
+
+        @Override
+        public void write(int b) {
+            ensure(1).put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensure(len).put(b, off, len);
+        }
+
+        ByteBuffer ensure(int n) {
+            ByteBuffer buf = outBuffer;
+            if (buf.remaining() < n) {
+                int size = Math.max(buf.capacity() << 1, buf.position() + n);
+                ByteBuffer a = ByteBuffer.allocate(size);
+                buf.flip();
+                a.put(buf);
+                buf = outBuffer = a;
+            }
+            return buf;
+        }
+    }
+
+}
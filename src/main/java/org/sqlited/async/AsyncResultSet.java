@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.async;
+
+import org.sqlited.jdbc.JdbcResultSetMetaData;
+import org.sqlited.result.ResultSetMetaData;
+import org.sqlited.result.RowIterator;
+import org.sqlited.util.IOUtils;
+import org.sqlited.util.logging.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/** Rows of a query in batches: a LOB value larger than the spool size
+ * is a SpooledLob, valid until the next batch fetched.
+ */
+public class AsyncResultSet implements Flow.Publisher<Object[]> {
+    static final Logger log = LoggerFactory.getLogger(AsyncResultSet.class);
+
+    // The server fetches 50 to 500 rows in a batch
+    static final int MAX_FETCH_SIZE = 500;
+
+    protected final AsyncStatement stmt;
+    protected final ResultSetMetaData metaData;
+    protected volatile RowIterator rows;
+
+    protected AsyncResultSet(AsyncStatement stmt, ResultSetMetaData metaData,
+                             RowIterator rows) {
+        this.stmt = stmt;
+        this.metaData = metaData;
+        this.rows = rows;
+    }
+
+    public AsyncStatement getStatement() {
+        return this.stmt;
+    }
+
+    /** @return null if the result set is empty */
+    public java.sql.ResultSetMetaData getMetaData() {
+        ResultSetMetaData metaData = this.metaData;
+        return metaData == null? null: new JdbcResultSetMetaData(metaData);
+    }
+
+    public boolean isLast() {
+        RowIterator rows = this.rows;
+        return rows.isLast() && !rows.hasNext();
+    }
+
+    /** @return the rows of the next batch, empty if no more rows */
+    public CompletableFuture<List<Object[]>> nextBatch() {
+        return nextBatch(this.stmt.getFetchSize());
+    }
+
+    protected CompletableFuture<List<Object[]>> nextBatch(int size) {
+        RowIterator rows = this.rows;
+        if (rows.hasNext()) {
+            return CompletableFuture.completedFuture(drain(rows));
+        } else if (rows.isLast()) {
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        } else {
+            return fetch(size).thenApply(AsyncResultSet::drain);
+        }
+    }
+
+    public CompletableFuture<List<Object[]>> fetchAll() {
+        CompletableFuture<List<Object[]>> future = new CompletableFuture<>();
+        fetchAll(new ArrayList<>(), future);
+        return future;
+    }
+
+    protected void fetchAll(List<Object[]> all,
+                            CompletableFuture<List<Object[]>> future) {
+        nextBatch().whenComplete((batch, e) -> {
+            if (e != null) {
+                future.completeExceptionally(AsyncConnection.unwrap(e));
+            } else if (batch.isEmpty()) {
+                future.complete(all);
+            } else {
+                all.addAll(batch);
+                fetchAll(all, future);
+            }
+        });
+    }
+
+    protected CompletableFuture<RowIterator> fetch(int size) {
+        return this.stmt.fetchRows(size, this.metaData).thenApply(rows -> {
+            IOUtils.close(this.rows);
+            return (this.rows = rows);
+        });
+    }
+
+    static List<Object[]> drain(RowIterator rows) {
+        List<Object[]> list = new ArrayList<>();
+        while (rows.hasNext()) list.add(rows.next());
+        return list;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super Object[]> subscriber) {
+        EventLoop loop = this.stmt.conn.loop;
+        CompletableFuture<AsyncResultSet> rs = CompletableFuture.completedFuture(this);
+        subscriber.onSubscribe(new RowSubscription(loop, subscriber, () -> rs, () -> {}));
+    }
+
+    /** Emits rows on the demand of the subscriber: a batch is fetched
+     * only after the last one consumed, sized by the outstanding demand.
+     */
+    static class RowSubscription implements Flow.Subscription {
+
+        final EventLoop loop;
+        final Flow.Subscriber<? super Object[]> subscriber;
+        final Supplier<CompletableFuture<AsyncResultSet>> opener;
+        final Runnable closer;
+        // Event loop only
+        private AsyncResultSet rs;
+        private long demand;
+        private boolean busy, draining, done;
+
+        RowSubscription(EventLoop loop, Flow.Subscriber<? super Object[]> subscriber,
+                        Supplier<CompletableFuture<AsyncResultSet>> opener,
+                        Runnable closer) {
+            this.loop = loop;
+            this.subscriber = subscriber;
+            this.opener = opener;
+            this.closer = closer;
+        }
+
+        @Override
+        public void request(long n) {
+            this.loop.execute(() -> {
+                if (this.done) return;
+                if (n <= 0) {
+                    String s = "Non-positive request: " + n;
+                    error(new IllegalArgumentException(s));
+                    return;
+                }
+                this.demand += n;
+                if (this.demand < 0) this.demand = Long.MAX_VALUE;
+                drain();
+            });
+        }
+
+        @Override
+        public void cancel() {
+            this.loop.execute(() -> {
+                if (this.done) return;
+                this.done = true;
+                this.closer.run();
+            });
+        }
+
+        protected void drain() {
+            // Not reentrant: the subscriber may request in onNext()
+            if (this.draining) return;
+            this.draining = true;
+            try {
+                while (!this.done) {
+                    AsyncResultSet rs = this.rs;
+                    if (rs == null) {
+                        if (this.demand > 0 && !this.busy) open();
+                        return;
+                    }
+                    RowIterator rows = rs.rows;
+                    if (rows.hasNext()) {
+                        if (this.demand == 0) return;
+                        --this.demand;
+                        this.subscriber.onNext(rows.next());
+                    } else if (rows.isLast()) {
+                        this.done = true;
+                        this.closer.run();
+                        this.subscriber.onComplete();
+                    } else {
+                        if (this.demand > 0 && !this.busy) fetch();
+                        return;
+                    }
+                }
+            } catch (RuntimeException e) {
+                // Subscriber failure
+                log.log(Level.WARNING, "Subscriber error", e);
+                this.done = true;
+                this.closer.run();
+            } finally {
+                this.draining = false;
+            }
+        }
+
+        protected void open() {
+            this.busy = true;
+            this.opener.get().whenComplete((rs, e) -> this.loop.execute(() -> {
+                this.busy = false;
+                if (e != null) {
+                    error(AsyncConnection.unwrap(e));
+                } else {
+                    this.rs = rs;
+                    drain();
+                }
+            }));
+        }
+
+        protected void fetch() {
+            this.busy = true;
+            int size = (int) Math.min(this.demand, MAX_FETCH_SIZE);
+            this.rs.fetch(size).whenComplete((rows, e) -> this.loop.execute(() -> {
+                this.busy = false;
+                if (e != null) error(AsyncConnection.unwrap(e));
+                else drain();
+            }));
+        }
+
+        protected void error(Throwable e) {
+            if (this.done) return;
+            this.done = true;
+            this.closer.run();
+            this.subscriber.onError(e);
+        }
+    }
+
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.async;
+
+import org.sqlited.io.Transfer;
+import org.sqlited.result.ResultSetMetaData;
+import org.sqlited.result.RowIterator;
+import org.sqlited.result.UnboxedRowIterator;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.CompletableFuture;
+
+/** A server statement of the async connection. A new execution closes
+ * the result set of the last one, so run concurrent queries in their
+ * own statements.
+ */
+public class AsyncStatement implements AutoCloseable {
+
+    protected final AsyncConnection conn;
+    protected final int id;
+    protected volatile int fetchSize;
+
+    protected AsyncStatement(AsyncConnection conn, int id) {
+        this.conn = conn;
+        this.id = id;
+    }
+
+    public AsyncConnection getConnection() {
+        return this.conn;
+    }
+
+    public int getFetchSize() {
+        return this.fetchSize;
+    }
+
+    public void setFetchSize(int rows) throws SQLException {
+        if (rows < 0) throw new SQLException("Fetch size negative: " + rows);
+        this.fetchSize = rows;
+    }
+
+    /** Execute the update.
+     * @return the update count, or -1 if the result is a result set
+     */
+    public CompletableFuture<Long> executeUpdate(String sql) {
+        return this.conn.send(ch -> encodeExecute(ch, sql), new UpdateDecoder());
+    }
+
+    public CompletableFuture<AsyncResultSet> executeQuery(String sql) {
+        return this.conn.send(ch -> encodeExecute(ch, sql), new QueryDecoder());
+    }
+
+    /** Execute the query on the first demand of the subscriber. */
+    public Flow.Publisher<Object[]> query(String sql) {
+        return subscriber -> subscriber.onSubscribe(new AsyncResultSet
+                .RowSubscription(this.conn.loop, subscriber,
+                () -> executeQuery(sql), () -> {}));
+    }
+
+    protected CompletableFuture<RowIterator> fetchRows(int size,
+                                                       ResultSetMetaData metaData) {
+        return this.conn.send(ch -> ch.write(Transfer.CMD_FETCH_ROWS)
+                .writeInt(this.id)
+                .writeInt(size), new RowsDecoder(metaData));
+    }
+
+    protected Transfer encodeExecute(Transfer ch, String sql) throws IOException {
+        return ch.write(Transfer.CMD_EXECUTE)
+                .writeInt(this.id)
+                .writeString(sql)
+                .writeInt(Statement.NO_GENERATED_KEYS)
+                .writeArray(null);
+    }
+
+
+    @Override
+    public void close() {
+        this.conn.send(ch -> ch.write(Transfer.CMD_CLOSE_STMT)
+                .writeInt(this.id), AsyncConnection::readOK);
+    }
+
+    /** Decodes the rows of a partial response once: the rows and LOB
+     * parts read are kept, and the decoding resumes after them.
+     */
+    class RowsDecoder implements AsyncConnection.Decoder<RowIterator>, AutoCloseable {
+        protected final ResultSetMetaData metaData;
+        protected UnboxedRowIterator rows;
+
+        RowsDecoder(ResultSetMetaData metaData) {
+            this.metaData = metaData;
+        }
+
+        @Override
+        public RowIterator decode(Transfer ch) throws IOException, SQLException {
+            // Format: [row ..., ] null(row end), status; or an error
+            AsyncConnection conn = AsyncStatement.this.conn;
+            UnboxedRowIterator rows = this.rows;
+            if (rows == null) {
+                if (conn.peek() == Transfer.RESULT_ER) {
+                    AsyncConnection.readOK(ch);
+                }
+                rows = this.rows = new UnboxedRowIterator(0, 0, false, this.metaData);
+                conn.checkpoint();
+            }
+            rows.readRows(ch, conn::checkpoint);
+            int status = ch.read(true);
+            rows.setLast((status & 0x01) == 0x00);
+            return rows;
+        }
+
+        @Override
+        public void close() {
+            UnboxedRowIterator rows = this.rows;
+            if (rows != null) rows.close();
+        }
+    }
+
+    class QueryDecoder implements AsyncConnection.Decoder<AsyncResultSet>, AutoCloseable {
+        protected RowsDecoder rows;
+        // Update count if not a result set
+        protected long count = -1;
+
+        @Override
+        public AsyncResultSet decode(Transfer ch) throws IOException, SQLException {
+            AsyncStatement stmt = AsyncStatement.this;
+            if (this.rows == null) {
+                int result = ch.read(true);
+                if (Transfer.RESULT_SET != result) {
+                    this.count = AsyncConnection.readOK(ch, result)[1];
+                    return new AsyncResultSet(stmt, null, RowIterator.empty(null));
+                }
+                // - ResultSet status flag
+                ch.readInt();
+                this.rows = new RowsDecoder(ResultSetMetaData.read(ch));
+            }
+            RowIterator rows = this.rows.decode(ch);
+            return new AsyncResultSet(stmt, this.rows.metaData, rows);
+        }
+
+        @Override
+        public void close() {
+            RowsDecoder rows = this.rows;
+            if (rows != null) rows.close();
+        }
+    }
+
+    class UpdateDecoder implements AsyncConnection.Decoder<Long>, AutoCloseable {
+        protected final QueryDecoder query = new QueryDecoder();
+
+        @Override
+        public Long decode(Transfer ch) throws IOException, SQLException {
+            this.query.decode(ch);
+            // The rows of a result set not returned
+            this.query.close();
+            return this.query.count;
+        }
+
+        @Override
+        public void close() {
+            this.query.close();
+        }
+    }
+
+}
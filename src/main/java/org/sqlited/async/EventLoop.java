@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.async;
+
+import org.sqlited.util.IOUtils;
+import org.sqlited.util.logging.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.sql.SQLNonTransientConnectionException;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/** A selector thread driving the IO of many connections. The connection
+ * state is only accessed in this thread, so no locks are needed.
+ */
+class EventLoop implements Runnable {
+    static final Logger log = LoggerFactory.getLogger(EventLoop.class);
+
+    final Selector selector;
+    final Thread thread;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final PriorityQueue<Timer> timers = new PriorityQueue<>();
+    private volatile boolean closed;
+
+    EventLoop(String name) throws IOException {
+        this.selector = Selector.open();
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        this.thread.start();
+    }
+
+    boolean inEventLoop() {
+        return Thread.currentThread() == this.thread;
+    }
+
+    boolean isClosed() {
+        return this.closed;
+    }
+
+    void execute(Runnable task) {
+        if (inEventLoop() || this.closed) {
+            // The connections fail the task after the loop closed
+            task.run();
+            return;
+        }
+        this.tasks.add(task);
+        this.selector.wakeup();
+        if (this.closed && this.tasks.remove(task)) task.run();
+    }
+
+    Timer schedule(Runnable task, long delayMillis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+        Timer timer = new Timer(deadline, task);
+        execute(() -> this.timers.add(timer));
+        return timer;
+    }
+
+    @Override
+    public void run() {
+        Selector selector = this.selector;
+        try {
+            while (!this.closed) {
+                long timeout = runTimers();
+                selector.select(timeout);
+                Set<SelectionKey> keys = selector.selectedKeys();
+                for (SelectionKey key: keys) {
+                    AsyncConnection conn = (AsyncConnection) key.attachment();
+                    conn.handle(key);
+                }
+                keys.clear();
+                runTasks();
+            }
+        } catch (IOException | RuntimeException e) {
+            log.log(Level.WARNING, "Event loop failure", e);
+        } finally {
+            this.closed = true;
+            String s = "Async client closed";
+            for (SelectionKey key: selector.keys()) {
+                AsyncConnection conn = (AsyncConnection) key.attachment();
+                conn.fail(new SQLNonTransientConnectionException(s, "08003"));
+            }
+            runTasks();
+            IOUtils.close(selector);
+        }
+    }
+
+    protected void runTasks() {
+        Runnable task;
+        while ((task = this.tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                log.log(Level.WARNING, "Event loop task failure", e);
+            }
+        }
+    }
+
+    protected long runTimers() {
+        // Return the select timeout in millis, 0 if no timer
+        PriorityQueue<Timer> timers = this.timers;
+        long now = System.nanoTime();
+        Timer timer;
+        while ((timer = timers.peek()) != null) {
+            if (timer.cancelled) {
+                timers.poll();
+                continue;
+            }
+            long delay = timer.deadline - now;
+            if (delay > 0) {
+                return Math.max(TimeUnit.NANOSECONDS.toMillis(delay), 1);
+            }
+            timers.poll();
+            try {
+                timer.task.run();
+            } catch (RuntimeException e) {
+                log.log(Level.WARNING, "Event loop timer failure", e);
+            }
+        }
+        return 0;
+    }
+
+    void close() {
+        this.closed = true;
+        this.selector.wakeup();
+    }
+
+    static class Timer implements Comparable<Timer> {
+        final long deadline;
+        final Runnable task;
+        volatile boolean cancelled;
+
+        Timer(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+
+        void cancel() {
+            this.cancelled = true;
+        }
+
+        @Override
+        public int compareTo(Timer o) {
+            return Long.compare(this.deadline - o.deadline, 0);
+        }
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.cdc;
+
+import org.sqlited.io.Transfer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** A committed row change of a database.
+ */
+public class Change {
+
+    public enum Op { INSERT, UPDATE, DELETE }
+
+    protected final Op op;
+    protected final String database;
+    protected final String table;
+    protected final long rowId;
+    protected Map<String, Object> image;
+
+    public Change(Op op, String database, String table, long rowId) {
+        this.op = op;
+        this.database = database;
+        this.table = table;
+        this.rowId = rowId;
+    }
+
+    public Op getOp() {
+        return this.op;
+    }
+
+    public String getDatabase() {
+        return this.database;
+    }
+
+    public String getTable() {
+        return this.table;
+    }
+
+    public long getRowId() {
+        return this.rowId;
+    }
+
+    /** The row image after the commit, null if not requested or the row
+     * has been deleted.
+     */
+    public Map<String, Object> getImage() {
+        return this.image;
+    }
+
+    public void setImage(Map<String, Object> image) {
+        this.image = image;
+    }
+
+    public static void writeBatch(Transfer ch, List<Change> batch, boolean image)
+            throws IOException {
+        // Format: count, [op, database, table, rowId, columns(-1: no image),
+        // [name, value]...]...
+        ch.writeInt(batch.size());
+        for (Change c: batch) {
+            ch.write(c.op.ordinal())
+                    .writeString(c.database)
+                    .writeString(c.table)
+                    .writeLong(c.rowId);
+            Map<String, Object> m = c.image;
+            if (!image || m == null) {
+                ch.writeInt(-1);
+                continue;
+            }
+            ch.writeInt(m.size());
+            for (Map.Entry<String, Object> e: m.entrySet()) {
+                ch.writeString(e.getKey()).writeObject(e.getValue());
+            }
+        }
+    }
+
+    public static List<Change> readBatch(Transfer ch) throws IOException {
+        int n = ch.readInt();
+        if (n == 0) return Collections.emptyList();
+        List<Change> batch = new ArrayList<>(n);
+        Op[] ops = Op.values();
+        for (int i = 0; i < n; ++i) {
+            Op op = ops[ch.read(true)];
+            String database = ch.readString();
+            String table = ch.readString();
+            long rowId = ch.readLong();
+            Change c = new Change(op, database, table, rowId);
+            int m = ch.readInt();
+            if (m >= 0) {
+                Map<String, Object> image = new LinkedHashMap<>(m << 1);
+                for (int j = 0; j < m; ++j) {
+                    String name = ch.readString();
+                    image.put(name, ch.readObject());
+                }
+                c.image = image;
+            }
+            batch.add(c);
+        }
+        return batch;
+    }
+
+    @Override
+    public String toString() {
+        return this.op + " " + this.database + "." + this.table + "#" + this.rowId;
+    }
+
+}
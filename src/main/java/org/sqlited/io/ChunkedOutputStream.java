@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/** Writes the bytes into the transfer in chunks of the chunk size, in
+ * the format [chunk-length, chunk, ...] 0(end), which the peer reads by
+ * Transfer.readChunks(). The end is written when closed, and the transfer
+ * is left open.
+ */
+public class ChunkedOutputStream extends OutputStream {
+
+    protected final Transfer ch;
+    private final byte[] buffer;
+    private int count;
+    private long total;
+    private boolean closed;
+
+    public ChunkedOutputStream(Transfer ch, int chunkSize) {
+        if (chunkSize <= 0) throw new IllegalArgumentException("chunkSize " + chunkSize);
+        this.ch = ch;
+        this.buffer = new byte[chunkSize];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (this.count == this.buffer.length) writeChunk();
+        this.buffer[this.count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        byte[] buf = this.buffer;
+        while (len > 0) {
+            if (this.count == buf.length) writeChunk();
+            int n = Math.min(len, buf.length - this.count);
+            System.arraycopy(b, off, buf, this.count, n);
+            this.count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    protected void writeChunk() throws IOException {
+        if (this.closed) throw new IOException("Chunked stream closed");
+        int n = this.count;
+        if (n == 0) return;
+        Transfer ch = this.ch;
+        ch.writeInt(n).drain();
+        ch.out.write(this.buffer, 0, n);
+        this.total += n;
+        this.count = 0;
+    }
+
+    /** Bytes written into the transfer. */
+    public long getTotal() {
+        return this.total;
+    }
+
+    @Override
+    public void flush() {
+        // Keep chunks large: only full chunks and the last go out
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.closed) return;
+        writeChunk();
+        this.closed = true;
+        this.ch.writeInt(0);
+    }
+
+}
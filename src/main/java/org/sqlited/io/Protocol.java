@@ -10,6 +10,10 @@ public interface Protocol {
     byte CMD_EXECUTE      = 0x02;
     byte CMD_FETCH_ROWS   = 0x03;
     byte CMD_CLOSE_STMT   = 0x04;
+    byte CMD_SET_QT       = 0x05; // set query timeout
+    byte CMD_SCRIPT       = 0x06; // execute statements in one round trip
+    byte CMD_REGISTER     = 0x07; // register a named statement
+    byte CMD_EXEC_NAMED   = 0x08; // execute a named statement
     // - tx command
     byte CMD_SET_TI       = 0x51; // set tx isolation
     byte CMD_SET_RO       = 0x52; // set readonly
@@ -19,11 +23,26 @@ public interface Protocol {
     byte CMD_COMMIT       = 0x56;
     byte CMD_ROLLBACK     = 0x57; // rollback [savepoint]
     byte CMD_SET_HD       = 0x58; // set holdability
+    // - Maintenance commands
+    byte CMD_BACKUP       = 0x61; // online backup
+    byte CMD_RESTORE      = 0x62; // restore from a backup
+    byte CMD_SUBSCRIBE    = 0x63; // subscribe to committed changes
+    byte CMD_REPL_LAG     = 0x64; // replication lag of a replica
+    byte CMD_IMPORT       = 0x65; // bulk import rows
+    byte CMD_EXPORT       = 0x66; // bulk export a query
+    byte CMD_PRAGMAS      = 0x67; // tuning pragmas in effect
+    // - Metadata commands
+    byte CMD_CATALOG      = 0x71; // schema catalog snapshot
+
+    // Export formats
+    byte EXPORT_CSV    = 1;
+    byte EXPORT_BINARY = 2;
 
     // Results
     byte RESULT_OK  = 0;
     byte RESULT_ER  = 1;
     byte RESULT_SET = 2;
+    byte RESULT_KEYS = 3; // generated keys in ranges
 
     // Types
     // - Object
@@ -38,5 +57,8 @@ public interface Protocol {
     byte TYPE_ARR_String  = 108;  // String[]
     byte TYPE_ARR_long    = 109;  // long[]
     byte TYPE_ARR_Object  = 110;  // Object[]: INT/REAL/TEXT/BLOB/NULL
+    // - Chunked object: [chunk-length, chunk, ...] 0(end)
+    byte TYPE_OBJ_TEXT_CHUNKED = 111;  // UTF-8 String in chunks
+    byte TYPE_OBJ_BLOB_CHUNKED = 112;  // byte[] in chunks
 
 }
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.io;
+
+import org.sqlited.util.IOUtils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/** A large BLOB or TEXT value received in chunks and spooled into a temp
+ * file, so that it isn't held in heap.
+ */
+public class SpooledLob implements AutoCloseable {
+
+    static final String PREFIX = "sqlited-lob-";
+
+    protected final File file;
+    protected final long length;
+    protected final boolean text;
+
+    protected SpooledLob(File file, long length, boolean text) {
+        this.file = file;
+        this.length = length;
+        this.text = text;
+    }
+
+    /** Read a chunked value: it's spooled if larger than spoolSize,
+     * otherwise returned as a byte[] or String.
+     */
+    public static Object read(Transfer ch, boolean text, int spoolSize)
+            throws IOException {
+        Spooler spooler = new Spooler(text, spoolSize);
+        boolean failed = true;
+        try {
+            Object value = spooler.read(ch, null);
+            failed = false;
+            return value;
+        } finally {
+            if (failed) spooler.close();
+        }
+    }
+
+    public long length() {
+        return this.length;
+    }
+
+    public boolean isText() {
+        return this.text;
+    }
+
+    public InputStream getInputStream() throws IOException {
+        return new BufferedInputStream(new FileInputStream(this.file));
+    }
+
+    public Reader getReader() throws IOException {
+        return new InputStreamReader(getInputStream(), StandardCharsets.UTF_8);
+    }
+
+    public byte[] getBytes() throws IOException {
+        if (this.length > Integer.MAX_VALUE - 8) {
+            throw new IOException("LOB too large: " + this.length);
+        }
+        return Files.readAllBytes(this.file.toPath());
+    }
+
+    /** The value as a byte[] for BLOB or a String for TEXT. */
+    public Object getValue() throws IOException {
+        byte[] data = getBytes();
+        if (this.text) return new String(data, StandardCharsets.UTF_8);
+        else return data;
+    }
+
+    @Override
+    public void close() {
+        this.file.delete();
+    }
+
+    @Override
+    public String toString() {
+        return (this.text? "TEXT": "BLOB") + "(" + this.length + ")";
+    }
+
+    /** Reads a chunked value in parts. After an EOFException the read can
+     * be resumed from the last checkpoint, run when a part is read, once
+     * more bytes received; close it if abandoned.
+     */
+    public static class Spooler implements AutoCloseable {
+        protected final boolean text;
+        protected final int spoolSize;
+        private ByteArrayOutputStream mem = new ByteArrayOutputStream(Transfer.IO_SIZE);
+        private OutputStream out = this.mem;
+        private File file;
+        private long length;
+        // Bytes left in the current chunk
+        private int remaining;
+
+        public Spooler(boolean text, int spoolSize) {
+            this.text = text;
+            this.spoolSize = spoolSize;
+        }
+
+        public boolean isText() {
+            return this.text;
+        }
+
+        public Object read(Transfer ch, Runnable checkpoint) throws IOException {
+            // Format: [chunk-length, chunk, ...] 0(end)
+            byte[] a = new byte[Transfer.IO_SIZE];
+            while (true) {
+                if (this.remaining == 0) {
+                    int n = ch.readInt();
+                    if (n == 0) break;
+                    if (n < 0) throw new IOException("Invalid chunk length: " + n);
+                    this.remaining = n;
+                    if (checkpoint != null) checkpoint.run();
+                }
+                int i = Math.min(this.remaining, a.length);
+                ch.readFully(a, 0, i);
+                if (this.file == null && this.length + i > this.spoolSize) {
+                    this.file = Files.createTempFile(PREFIX, ".tmp").toFile();
+                    this.out = new BufferedOutputStream(new FileOutputStream(this.file));
+                    this.mem.writeTo(this.out);
+                    this.mem = null;
+                }
+                this.out.write(a, 0, i);
+                this.length += i;
+                this.remaining -= i;
+                if (checkpoint != null) checkpoint.run();
+            }
+            this.out.close();
+
+            File file = this.file;
+            this.file = null;
+            if (file != null) {
+                return new SpooledLob(file, this.length, this.text);
+            } else if (this.text) {
+                return new String(this.mem.toByteArray(), StandardCharsets.UTF_8);
+            } else {
+                return this.mem.toByteArray();
+            }
+        }
+
+        @Override
+        public void close() {
+            IOUtils.close(this.out);
+            File file = this.file;
+            this.file = null;
+            if (file != null) file.delete();
+        }
+    }
+
+}
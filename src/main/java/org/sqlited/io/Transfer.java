@@ -16,9 +16,13 @@
 
 package org.sqlited.io;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.io.OutputStream;
 import java.net.Socket;
 import java.nio.ByteBuffer;
@@ -26,6 +30,7 @@ import static java.nio.ByteBuffer.*;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
+import java.util.Arrays;
 
 public class Transfer implements Protocol {
 
@@ -39,6 +44,8 @@ public class Transfer implements Protocol {
     // read/write first a complete packet into buffer
     private final ByteBuffer inBuffer;
     private ByteBuffer outBuffer;
+    // Bytes written out to the stream
+    private long outCount;
 
     public Transfer(InputStream in, OutputStream out, int maxBufferSize)
         throws IllegalArgumentException {
@@ -59,6 +66,27 @@ public class Transfer implements Protocol {
         this(socket.getInputStream(), socket.getOutputStream(), maxBufferSize);
     }
 
+    public static void writeExternal(ObjectOutput out, Encoder encoder)
+            throws IOException {
+        // Format: length, payload
+        // Note: length prefixed for the transfer reading ahead in buffer
+        // Note: the whole payload kept in the output buffer, written from it
+        Transfer ch = new Transfer(null, null, Integer.MAX_VALUE);
+        encoder.encode(ch);
+        ByteBuffer buf = ch.outBuffer;
+        out.writeInt(buf.position());
+        out.write(buf.array(), 0, buf.position());
+    }
+
+    public static Transfer readExternal(ObjectInput in) throws IOException {
+        int n = in.readInt();
+        if (n < 0) throw new IOException("Invalid external length: " + n);
+        byte[] data = new byte[n];
+        in.readFully(data);
+        InputStream buf = new ByteArrayInputStream(data);
+        return new Transfer(buf, null, IO_SIZE);
+    }
+
     public boolean readBoolean() throws IOException {
         int i = read(true);
         return i == 0x01;
@@ -86,6 +114,22 @@ public class Transfer implements Protocol {
         }
     }
 
+    /** Read ahead into the empty buffer, without consuming any byte.
+     * @return the bytes in the buffer, or -1 if the end of stream
+     */
+    public int peek() throws IOException {
+        ByteBuffer buf = this.inBuffer;
+
+        if (buf.hasRemaining()) return buf.remaining();
+        int i = this.in.read(buf.array());
+        if (i == -1) {
+            buf.position(0).limit(0);
+        } else {
+            buf.position(0).limit(i);
+        }
+        return i;
+    }
+
     public int read(boolean check) throws IOException {
         int i = read();
         if (check && i == -1) throw new EOFException();
@@ -102,14 +146,14 @@ public class Transfer implements Protocol {
         ByteBuffer buf = this.outBuffer;
 
         if (buf.remaining() < n) {
-            int cap = buf.capacity() + Math.max(IO_SIZE, n);
+            // Doubled for the amortized copy of the large results
+            long need = (long) buf.position() + n;
             int max = this.maxBufferSize;
-            if (cap > max) {
-                cap = buf.position() + n;
-                if (cap > max) {
-                    throw new IOException("Output buffer overflow");
-                }
+            if (need > max) {
+                throw new IOException("Output buffer overflow");
             }
+            long dbl = Math.max(buf.capacity() * 2L, IO_SIZE);
+            int cap = (int) Math.min(Math.max(dbl, need), max);
             ByteBuffer newBuf = allocate(cap);
             buf.flip();
             newBuf.put(buf);
@@ -127,18 +171,22 @@ public class Transfer implements Protocol {
     }
 
     public byte[] readFully(int n) throws IOException {
-        InputStream in = this.in;
         byte[] data = new byte[n];
+        return readFully(data, 0, n);
+    }
+
+    public byte[] readFully(byte[] data, int off, int n) throws IOException {
+        InputStream in = this.in;
         ByteBuffer buf = this.inBuffer;
         int i = 0;
 
         if (buf.hasRemaining()) {
             int rem = buf.remaining();
             i = Math.min(n, rem);
-            buf.get(data, 0, i);
+            buf.get(data, off, i);
         }
         while (i < n) {
-            int x = in.read(data, i, n - i);
+            int x = in.read(data, off + i, n - i);
             if (x < 0) throw new EOFException();
             else i += x;
         }
@@ -184,6 +232,117 @@ public class Transfer implements Protocol {
         return this;
     }
 
+    public Transfer writeChunked(byte[] data, int chunkSize) throws IOException {
+        // Format: BLOB_CHUNKED, [chunk-length, chunk, ...] 0(end)
+        write(TYPE_OBJ_BLOB_CHUNKED);
+        for (int i = 0, n = data.length; i < n; i += chunkSize) {
+            writeChunk(data, i, Math.min(chunkSize, n - i));
+        }
+        return writeInt(0);
+    }
+
+    public Transfer writeChunked(String s, int chunkSize) throws IOException {
+        // Format: TEXT_CHUNKED, [chunk-length, chunk, ...] 0(end)
+        write(TYPE_OBJ_TEXT_CHUNKED);
+        for (int i = 0, n = s.length(); i < n; ) {
+            int j = Math.min(i + chunkSize, n);
+            // Don't split a surrogate pair
+            if (j < n && Character.isHighSurrogate(s.charAt(j - 1))) --j;
+            byte[] chunk = s.substring(i, j).getBytes(CHARSET);
+            writeChunk(chunk, 0, chunk.length);
+            i = j;
+        }
+        return writeInt(0);
+    }
+
+    public long writeChunks(InputStream in, int chunkSize) throws IOException {
+        // Format: [chunk-length, chunk, ...] 0(end)
+        byte[] a = new byte[Math.min(chunkSize, 1 << 20)];
+        long n = 0;
+        for (int i; (i = in.read(a)) != -1; n += i) {
+            if (i == 0) continue;
+            writeChunk(a, 0, i);
+        }
+        writeInt(0);
+        return n;
+    }
+
+    protected void writeChunk(byte[] data, int i, int n) throws IOException {
+        writeInt(n);
+        // Kept in the output buffer without the stream, e.g. externalized
+        if (this.out == null) {
+            write(data, i, n);
+        } else {
+            drain();
+            this.out.write(data, i, n);
+        }
+    }
+
+    public long readChunks(OutputStream out) throws IOException {
+        // Format: [chunk-length, chunk, ...] 0(end)
+        byte[] a = new byte[IO_SIZE];
+        long total = 0;
+        for (int n = readInt(); n != 0; n = readInt()) {
+            if (n < 0) throw new IOException("Invalid chunk length: " + n);
+            total += n;
+            while (n > 0) {
+                int i = Math.min(n, a.length);
+                readFully(a, 0, i);
+                out.write(a, 0, i);
+                n -= i;
+            }
+        }
+        return total;
+    }
+
+    public Object readChunked(boolean text) throws IOException {
+        // Format: [chunk-length, chunk, ...] 0(end)
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(IO_SIZE);
+        readChunks(buf);
+        if (text) return new String(buf.toByteArray(), CHARSET);
+        else return buf.toByteArray();
+    }
+
+    public long getOutCount() {
+        return this.outCount;
+    }
+
+    public int getOutSize() {
+        return this.outBuffer.position();
+    }
+
+    /** Discard the output buffered after the size, e.g. a result in part
+     * replaced by an error.
+     */
+    public Transfer truncate(int size) throws IllegalArgumentException {
+        ByteBuffer buf = this.outBuffer;
+        if (size < 0 || size > buf.position()) {
+            throw new IllegalArgumentException("Truncate size " + size);
+        }
+        buf.position(size);
+        return this;
+    }
+
+    public int getInSize() {
+        // Bytes read ahead into the buffer, not consumed yet
+        return this.inBuffer.remaining();
+    }
+
+    protected Transfer drain() throws IOException {
+        // Write the buffered bytes out without flushing the stream
+        ByteBuffer buf = this.outBuffer;
+        this.out.write(buf.array(), 0, buf.position());
+        this.outCount += buf.position();
+        buf.clear();
+        return this;
+    }
+
+    public byte[] toByteArray() {
+        // Copy of the output buffered and not flushed yet
+        ByteBuffer buf = this.outBuffer;
+        return Arrays.copyOf(buf.array(), buf.position());
+    }
+
     public Transfer flush() throws IOException {
         ByteBuffer buf = this.outBuffer;
         byte[] data = buf.array();
@@ -192,6 +351,7 @@ public class Transfer implements Protocol {
 
         out.write(data, 0, n);
         out.flush();
+        this.outCount += n;
         if (buf.capacity() > IO_SIZE)
             this.outBuffer = allocate(IO_SIZE);
         else buf.clear();
@@ -390,12 +550,16 @@ public class Transfer implements Protocol {
 
     public Transfer sendOK(int status, long lastId, long affectedRows)
             throws IOException {
+        return writeOK(status, lastId, affectedRows).flush();
+    }
+
+    public Transfer writeOK(int status, long lastId, long affectedRows)
+            throws IOException {
         // Format: OK, status, lastId, affectedRows
         return write(RESULT_OK)
                 .writeInt(status)
                 .writeLong(lastId)
-                .writeLong(affectedRows)
-                .flush();
+                .writeLong(affectedRows);
     }
 
     public Transfer sendError(String message) throws IOException {
@@ -417,16 +581,20 @@ public class Transfer implements Protocol {
     }
 
     public Transfer sendError(SQLException e) throws IOException {
+        return resetOutBuffer()
+                .writeError(e)
+                .flush();
+    }
+
+    public Transfer writeError(SQLException e) throws IOException {
         String message = e.getMessage();
         String sqlState = e.getSQLState();
         int vendorCode = e.getErrorCode();
         // format: ER,message,sqlState,vendorCode
-        return resetOutBuffer()
-                .write(RESULT_ER)
+        return write(RESULT_ER)
                 .writeString(message)
                 .writeString(sqlState)
-                .writeInt(vendorCode)
-                .flush();
+                .writeInt(vendorCode);
     }
 
     public Object readArray() throws IOException {
@@ -567,6 +735,10 @@ public class Transfer implements Protocol {
                 return readBytes();
             case TYPE_OBJ_NULL:
                 return null;
+            case TYPE_OBJ_TEXT_CHUNKED:
+                return readChunked(true);
+            case TYPE_OBJ_BLOB_CHUNKED:
+                return readChunked(false);
             default:
                 String s = "Unknown object type: " + type;
                 throw new IOException(s);
@@ -638,9 +810,16 @@ public class Transfer implements Protocol {
         }
     }
 
-    protected double readDouble() throws IOException {
+    public double readDouble() throws IOException {
         long l = readLong();
         return Double.longBitsToDouble(l);
     }
 
+    @FunctionalInterface
+    public interface Encoder {
+
+        void encode(Transfer ch) throws IOException;
+
+    }
+
 }
@@ -18,6 +18,7 @@ package org.sqlited.jdbc;
 
 import org.sqlited.jdbc.adapter.DriverAdapter;
 import org.sqlited.jdbc.rmi.JdbcRMIDriver;
+import org.sqlited.jdbc.shard.JdbcShardDriver;
 import org.sqlited.jdbc.tcp.JdbcTcpDriver;
 import org.sqlited.util.logging.LoggerFactory;
 
@@ -44,6 +45,7 @@ public class Driver extends DriverAdapter {
 
     private final java.sql.Driver[] drivers = {
             new JdbcRMIDriver(), // jdbc:sqlited:rmi:
+            new JdbcShardDriver(), // jdbc:sqlited:shard:
             new JdbcTcpDriver()  // jdbc:sqlited:[tcp:]
     };
 
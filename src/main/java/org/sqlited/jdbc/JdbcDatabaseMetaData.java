@@ -0,0 +1,1408 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.jdbc;
+
+import org.sqlited.jdbc.adapter.DatabaseMetaDataAdapter;
+import org.sqlited.meta.Catalog;
+import org.sqlited.result.ResultSetMetaData;
+import org.sqlited.result.RowIterator;
+
+import java.sql.*;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.sqlited.meta.Catalog.*;
+
+public class JdbcDatabaseMetaData extends DatabaseMetaDataAdapter {
+
+    static final String SQL_KEYWORDS = "ABORT,ACTION,AFTER,ANALYZE,ATTACH," +
+            "AUTOINCREMENT,BEFORE,CASCADE,CONFLICT,DATABASE,DEFERRABLE," +
+            "DEFERRED,DESC,DETACH,EXCLUSIVE,EXPLAIN,FAIL,GLOB,IGNORE,INDEX," +
+            "INDEXED,INITIALLY,INSTEAD,ISNULL,KEY,LIMIT,NOTNULL,OFFSET,PLAN," +
+            "PRAGMA,QUERY,RAISE,REGEXP,REINDEX,RENAME,REPLACE,RESTRICT,TEMP," +
+            "TEMPORARY,TRANSACTION,VACUUM,VIEW,VIRTUAL";
+    static final String ESCAPE = "\\";
+    static final Pattern TYPE_SIZE = Pattern.compile(
+            "\\(\\s*(\\d+)\\s*(?:,\\s*(\\d+)\\s*)?\\)");
+    static final int DEFAULT_SIZE = 2000000000;
+
+    protected final Connection conn;
+    protected final String url;
+    protected final String user;
+    protected final CatalogLoader loader;
+    private Catalog catalog;
+
+    public JdbcDatabaseMetaData(Connection conn, String url, String user,
+                                CatalogLoader loader) {
+        this.conn = conn;
+        this.url = url;
+        this.user = user;
+        this.loader = loader;
+    }
+
+    public synchronized Catalog getCatalog() throws SQLException {
+        // Revalidate the cached catalog by schema version: the server
+        // replies with a new catalog only after a schema change
+        Catalog cached = this.catalog;
+        long version = cached == null ? -1: cached.getVersion();
+        Catalog catalog = this.loader.load(version);
+        if (catalog != null) {
+            this.catalog = cached = catalog;
+        } else if (cached == null) {
+            throw new SQLException("No catalog loaded", "08000");
+        }
+        return cached;
+    }
+
+    @Override
+    public String getURL() {
+        return this.url;
+    }
+
+    @Override
+    public String getUserName() {
+        return this.user;
+    }
+
+    @Override
+    public boolean isReadOnly() throws SQLException {
+        return this.conn.isReadOnly();
+    }
+
+    @Override
+    public Connection getConnection() {
+        return this.conn;
+    }
+
+    @Override
+    public String getDatabaseProductName() {
+        return "SQLite";
+    }
+
+    @Override
+    public String getDatabaseProductVersion() throws SQLException {
+        return getCatalog().getProductVersion();
+    }
+
+    @Override
+    public int getDatabaseMajorVersion() throws SQLException {
+        return version(getDatabaseProductVersion(), 0);
+    }
+
+    @Override
+    public int getDatabaseMinorVersion() throws SQLException {
+        return version(getDatabaseProductVersion(), 1);
+    }
+
+    @Override
+    public String getDriverName() {
+        return "SQLited JDBC";
+    }
+
+    @Override
+    public String getDriverVersion() {
+        String version = getClass().getPackage().getImplementationVersion();
+        return version == null ? "0.0": version;
+    }
+
+    @Override
+    public int getDriverMajorVersion() {
+        return version(getDriverVersion(), 0);
+    }
+
+    @Override
+    public int getDriverMinorVersion() {
+        return version(getDriverVersion(), 1);
+    }
+
+    @Override
+    public boolean supportsConvert(int fromType, int toType) {
+        return false;
+    }
+
+    @Override
+    public boolean supportsTransactionIsolationLevel(int level) {
+        return level == Connection.TRANSACTION_SERIALIZABLE
+                || level == Connection.TRANSACTION_READ_UNCOMMITTED;
+    }
+
+    @Override
+    public boolean supportsResultSetType(int type) {
+        return type == ResultSet.TYPE_FORWARD_ONLY;
+    }
+
+    @Override
+    public boolean supportsResultSetConcurrency(int type, int concurrency) {
+        return type == ResultSet.TYPE_FORWARD_ONLY
+                && concurrency == ResultSet.CONCUR_READ_ONLY;
+    }
+
+    @Override
+    public boolean supportsResultSetHoldability(int holdability) {
+        return holdability == ResultSet.CLOSE_CURSORS_AT_COMMIT;
+    }
+
+    @Override
+    public boolean allProceduresAreCallable() {
+        return false;
+    }
+
+    @Override
+    public boolean allTablesAreSelectable() {
+        return true;
+    }
+
+    @Override
+    public boolean nullsAreSortedHigh() {
+        return false;
+    }
+
+    @Override
+    public boolean nullsAreSortedLow() {
+        return true;
+    }
+
+    @Override
+    public boolean nullsAreSortedAtStart() {
+        return false;
+    }
+
+    @Override
+    public boolean nullsAreSortedAtEnd() {
+        return false;
+    }
+
+    @Override
+    public boolean usesLocalFiles() {
+        return false;
+    }
+
+    @Override
+    public boolean usesLocalFilePerTable() {
+        return false;
+    }
+
+    @Override
+    public boolean supportsMixedCaseIdentifiers() {
+        return false;
+    }
+
+    @Override
+    public boolean storesUpperCaseIdentifiers() {
+        return false;
+    }
+
+    @Override
+    public boolean storesLowerCaseIdentifiers() {
+        return false;
+    }
+
+    @Override
+    public boolean storesMixedCaseIdentifiers() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsMixedCaseQuotedIdentifiers() {
+        return false;
+    }
+
+    @Override
+    public boolean storesUpperCaseQuotedIdentifiers() {
+        return false;
+    }
+
+    @Override
+    public boolean storesLowerCaseQuotedIdentifiers() {
+        return false;
+    }
+
+    @Override
+    public boolean storesMixedCaseQuotedIdentifiers() {
+        return true;
+    }
+
+    @Override
+    public String getIdentifierQuoteString() {
+        return "\"";
+    }
+
+    @Override
+    public String getSQLKeywords() {
+        return SQL_KEYWORDS;
+    }
+
+    @Override
+    public String getNumericFunctions() {
+        return "ABS,MAX,MIN,RANDOM,ROUND";
+    }
+
+    @Override
+    public String getStringFunctions() {
+        return "CHAR,GLOB,HEX,INSTR,LENGTH,LIKE,LOWER,LTRIM,PRINTF,QUOTE,REPLACE,RTRIM,SUBSTR,TRIM,UNICODE,UPPER";
+    }
+
+    @Override
+    public String getSystemFunctions() {
+        return "CHANGES,COALESCE,IFNULL,LAST_INSERT_ROWID,NULLIF,SQLITE_VERSION,TOTAL_CHANGES,TYPEOF";
+    }
+
+    @Override
+    public String getTimeDateFunctions() {
+        return "DATE,TIME,DATETIME,JULIANDAY,STRFTIME";
+    }
+
+    @Override
+    public String getSearchStringEscape() {
+        return ESCAPE;
+    }
+
+    @Override
+    public String getExtraNameCharacters() {
+        return "";
+    }
+
+    @Override
+    public boolean supportsAlterTableWithAddColumn() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsAlterTableWithDropColumn() {
+        return false;
+    }
+
+    @Override
+    public boolean supportsColumnAliasing() {
+        return true;
+    }
+
+    @Override
+    public boolean nullPlusNonNullIsNull() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsConvert() {
+        return false;
+    }
+
+    @Override
+    public boolean supportsTableCorrelationNames() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsDifferentTableCorrelationNames() {
+        return false;
+    }
+
+    @Override
+    public boolean supportsExpressionsInOrderBy() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsOrderByUnrelated() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsGroupBy() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsGroupByUnrelated() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsGroupByBeyondSelect() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsLikeEscapeClause() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsMultipleResultSets() {
+        return false;
+    }
+
+    @Override
+    public boolean supportsMultipleTransactions() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsNonNullableColumns() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsMinimumSQLGrammar() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsCoreSQLGrammar() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsExtendedSQLGrammar() {
+        return false;
+    }
+
+    @Override
+    public boolean supportsANSI92EntryLevelSQL() {
+        return false;
+    }
+
+    @Override
+    public boolean supportsANSI92IntermediateSQL() {
+        return false;
+    }
+
+    @Override
+    public boolean supportsANSI92FullSQL() {
+        return false;
+    }
+
+    @Override
+    public boolean supportsIntegrityEnhancementFacility() {
+        return false;
+    }
+
+    @Override
+    public boolean supportsOuterJoins() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsFullOuterJoins() {
+        return false;
+    }
+
+    @Override
+    public boolean supportsLimitedOuterJoins() {
+        return true;
+    }
+
+    @Override
+    public String getSchemaTerm() {
+        return "schema";
+    }
+
+    @Override
+    public String getProcedureTerm() {
+        return "procedure";
+    }
+
+    @Override
+    public String getCatalogTerm() {
+        return "catalog";
+    }
+
+    @Override
+    public boolean isCatalogAtStart() {
+        return true;
+    }
+
+    @Override
+    public String getCatalogSeparator() {
+        return ".";
+    }
+
+    @Override
+    public boolean supportsSchemasInDataManipulation() {
+        return false;
+    }
+
+    @Override
+    public boolean supportsSchemasInProcedureCalls() {
+        return false;
+    }
+
+    @Override
+    public boolean supportsSchemasInTableDefinitions() {
+        return false;
+    }
+
+    @Override
+    public boolean supportsSchemasInIndexDefinitions() {
+        return false;
+    }
+
+    @Override
+    public boolean supportsSchemasInPrivilegeDefinitions() {
+        return false;
+    }
+
+    @Override
+    public boolean supportsCatalogsInDataManipulation() {
+        return false;
+    }
+
+    @Override
+    public boolean supportsCatalogsInProcedureCalls() {
+        return false;
+    }
+
+    @Override
+    public boolean supportsCatalogsInTableDefinitions() {
+        return false;
+    }
+
+    @Override
+    public boolean supportsCatalogsInIndexDefinitions() {
+        return false;
+    }
+
+    @Override
+    public boolean supportsCatalogsInPrivilegeDefinitions() {
+        return false;
+    }
+
+    @Override
+    public boolean supportsPositionedDelete() {
+        return false;
+    }
+
+    @Override
+    public boolean supportsPositionedUpdate() {
+        return false;
+    }
+
+    @Override
+    public boolean supportsSelectForUpdate() {
+        return false;
+    }
+
+    @Override
+    public boolean supportsStoredProcedures() {
+        return false;
+    }
+
+    @Override
+    public boolean supportsSubqueriesInComparisons() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsSubqueriesInExists() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsSubqueriesInIns() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsSubqueriesInQuantifieds() {
+        return false;
+    }
+
+    @Override
+    public boolean supportsCorrelatedSubqueries() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsUnion() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsUnionAll() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsOpenCursorsAcrossCommit() {
+        return false;
+    }
+
+    @Override
+    public boolean supportsOpenCursorsAcrossRollback() {
+        return false;
+    }
+
+    @Override
+    public boolean supportsOpenStatementsAcrossCommit() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsOpenStatementsAcrossRollback() {
+        return true;
+    }
+
+    @Override
+    public int getMaxBinaryLiteralLength() {
+        return 0;
+    }
+
+    @Override
+    public int getMaxCharLiteralLength() {
+        return 0;
+    }
+
+    @Override
+    public int getMaxColumnNameLength() {
+        return 0;
+    }
+
+    @Override
+    public int getMaxColumnsInGroupBy() {
+        return 0;
+    }
+
+    @Override
+    public int getMaxColumnsInIndex() {
+        return 0;
+    }
+
+    @Override
+    public int getMaxColumnsInOrderBy() {
+        return 0;
+    }
+
+    @Override
+    public int getMaxColumnsInSelect() {
+        return 0;
+    }
+
+    @Override
+    public int getMaxColumnsInTable() {
+        return 0;
+    }
+
+    @Override
+    public int getMaxConnections() {
+        return 0;
+    }
+
+    @Override
+    public int getMaxCursorNameLength() {
+        return 0;
+    }
+
+    @Override
+    public int getMaxIndexLength() {
+        return 0;
+    }
+
+    @Override
+    public int getMaxSchemaNameLength() {
+        return 0;
+    }
+
+    @Override
+    public int getMaxProcedureNameLength() {
+        return 0;
+    }
+
+    @Override
+    public int getMaxCatalogNameLength() {
+        return 0;
+    }
+
+    @Override
+    public int getMaxRowSize() {
+        return 0;
+    }
+
+    @Override
+    public boolean doesMaxRowSizeIncludeBlobs() {
+        return false;
+    }
+
+    @Override
+    public int getMaxStatementLength() {
+        return 0;
+    }
+
+    @Override
+    public int getMaxStatements() {
+        return 0;
+    }
+
+    @Override
+    public int getMaxTableNameLength() {
+        return 0;
+    }
+
+    @Override
+    public int getMaxTablesInSelect() {
+        return 0;
+    }
+
+    @Override
+    public int getMaxUserNameLength() {
+        return 0;
+    }
+
+    @Override
+    public int getDefaultTransactionIsolation() {
+        return Connection.TRANSACTION_SERIALIZABLE;
+    }
+
+    @Override
+    public boolean supportsTransactions() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsDataDefinitionAndDataManipulationTransactions() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsDataManipulationTransactionsOnly() {
+        return false;
+    }
+
+    @Override
+    public boolean dataDefinitionCausesTransactionCommit() {
+        return false;
+    }
+
+    @Override
+    public boolean dataDefinitionIgnoredInTransactions() {
+        return false;
+    }
+
+    @Override
+    public boolean supportsBatchUpdates() {
+        return false;
+    }
+
+    @Override
+    public boolean supportsSavepoints() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsNamedParameters() {
+        return false;
+    }
+
+    @Override
+    public boolean supportsMultipleOpenResults() {
+        return false;
+    }
+
+    @Override
+    public boolean supportsGetGeneratedKeys() {
+        return true;
+    }
+
+    @Override
+    public int getResultSetHoldability() {
+        return ResultSet.CLOSE_CURSORS_AT_COMMIT;
+    }
+
+    @Override
+    public int getJDBCMajorVersion() {
+        return 4;
+    }
+
+    @Override
+    public int getJDBCMinorVersion() {
+        return 2;
+    }
+
+    @Override
+    public int getSQLStateType() {
+        return sqlStateSQL;
+    }
+
+    @Override
+    public boolean locatorsUpdateCopy() {
+        return false;
+    }
+
+    @Override
+    public boolean supportsStatementPooling() {
+        return false;
+    }
+
+    @Override
+    public RowIdLifetime getRowIdLifetime() {
+        return RowIdLifetime.ROWID_UNSUPPORTED;
+    }
+
+    @Override
+    public boolean supportsStoredFunctionsUsingCallSyntax() {
+        return false;
+    }
+
+    @Override
+    public boolean autoCommitFailureClosesAllResultSets() {
+        return false;
+    }
+
+    @Override
+    public boolean generatedKeyAlwaysReturned() {
+        return false;
+    }
+
+    @Override
+    public boolean ownUpdatesAreVisible(int type) {
+        return false;
+    }
+
+    @Override
+    public boolean ownDeletesAreVisible(int type) {
+        return false;
+    }
+
+    @Override
+    public boolean ownInsertsAreVisible(int type) {
+        return false;
+    }
+
+    @Override
+    public boolean othersUpdatesAreVisible(int type) {
+        return false;
+    }
+
+    @Override
+    public boolean othersDeletesAreVisible(int type) {
+        return false;
+    }
+
+    @Override
+    public boolean othersInsertsAreVisible(int type) {
+        return false;
+    }
+
+    @Override
+    public boolean updatesAreDetected(int type) {
+        return false;
+    }
+
+    @Override
+    public boolean deletesAreDetected(int type) {
+        return false;
+    }
+
+    @Override
+    public boolean insertsAreDetected(int type) {
+        return false;
+    }
+
+    @Override
+    public ResultSet getTables(String catalog, String schemaPattern,
+                               String tableNamePattern, String[] types)
+            throws SQLException {
+        Pattern p = like(tableNamePattern);
+        Set<String> typeSet = types == null ? null: new HashSet<>(Arrays.asList(types));
+        List<Object[]> rows = new ArrayList<>();
+        for (Object[] t : getCatalog().getTables()) {
+            String name = (String) t[TABLE_NAME];
+            String type = tableType(name, (String) t[TABLE_TYPE]);
+            if ((typeSet == null || typeSet.contains(type)) && matches(p, name)) {
+                rows.add(new Object[] { null, null, name, type, null,
+                        null, null, null, null, null });
+            }
+        }
+        rows.sort(order(4, 3));
+        return result(rows, "TABLE_CAT, TABLE_SCHEM, TABLE_NAME, TABLE_TYPE, " +
+                "REMARKS, TYPE_CAT, TYPE_SCHEM, TYPE_NAME, " +
+                "SELF_REFERENCING_COL_NAME, REF_GENERATION");
+    }
+
+    @Override
+    public ResultSet getTableTypes() throws SQLException {
+        List<Object[]> rows = new ArrayList<>();
+        rows.add(new Object[] { "SYSTEM TABLE" });
+        rows.add(new Object[] { "TABLE" });
+        rows.add(new Object[] { "VIEW" });
+        return result(rows, "TABLE_TYPE");
+    }
+
+    @Override
+    public ResultSet getColumns(String catalog, String schemaPattern,
+                                String tableNamePattern, String columnNamePattern)
+            throws SQLException {
+        Catalog c = getCatalog();
+        Pattern tp = like(tableNamePattern), cp = like(columnNamePattern);
+        List<Object[]> rows = new ArrayList<>();
+        String table = null;
+        int ordinal = 0;
+        for (Object[] col : c.getColumns()) {
+            String t = (String) col[COL_TABLE];
+            long hidden = num(col[COL_HIDDEN]);
+            if (!t.equals(table)) {
+                table = t;
+                ordinal = 0;
+            }
+            // Virtual table hidden columns aren't visible
+            if (hidden == 1) continue;
+            ++ordinal;
+            String name = (String) col[COL_NAME];
+            if (!matches(tp, t) || !matches(cp, name)) continue;
+
+            String declared = (String) col[COL_TYPE];
+            int sqlType = sqlType(declared);
+            Matcher m = TYPE_SIZE.matcher(declared);
+            boolean sized = m.find();
+            int size = sized ? Integer.parseInt(m.group(1)): DEFAULT_SIZE;
+            Integer scale = sized && m.group(2) != null ?
+                    Integer.valueOf(m.group(2)): null;
+            boolean autoInc = isRowIdAlias(c, t, name);
+            boolean notNull = autoInc || num(col[COL_NOTNULL]) != 0;
+            rows.add(new Object[] { null, null, t, name, sqlType,
+                    declared.isEmpty() ? "BLOB": declared, size, null, scale,
+                    10, notNull ? columnNoNulls: columnNullable, null,
+                    col[COL_DEFAULT], null, null, size, ordinal,
+                    notNull ? "NO": "YES", null, null, null, null,
+                    autoInc ? "YES": "NO", hidden >= 2 ? "YES": "NO" });
+        }
+        return result(rows, "TABLE_CAT, TABLE_SCHEM, TABLE_NAME, " +
+                "COLUMN_NAME, DATA_TYPE:i, TYPE_NAME, COLUMN_SIZE:i, " +
+                "BUFFER_LENGTH:i, DECIMAL_DIGITS:i, NUM_PREC_RADIX:i, " +
+                "NULLABLE:i, REMARKS, COLUMN_DEF, SQL_DATA_TYPE:i, " +
+                "SQL_DATETIME_SUB:i, CHAR_OCTET_LENGTH:i, ORDINAL_POSITION:i, " +
+                "IS_NULLABLE, SCOPE_CATALOG, SCOPE_SCHEMA, SCOPE_TABLE, " +
+                "SOURCE_DATA_TYPE:s, IS_AUTOINCREMENT, IS_GENERATEDCOLUMN");
+    }
+
+    @Override
+    public ResultSet getPrimaryKeys(String catalog, String schema, String table)
+            throws SQLException {
+        List<Object[]> rows = new ArrayList<>();
+        String pkName = null;
+        for (Object[] col : primaryKey(getCatalog(), table)) {
+            rows.add(new Object[] { null, null, col[COL_TABLE], col[COL_NAME],
+                    col[COL_PK], pkName });
+        }
+        rows.sort(order(4));
+        return result(rows, "TABLE_CAT, TABLE_SCHEM, TABLE_NAME, " +
+                "COLUMN_NAME, KEY_SEQ:s, PK_NAME");
+    }
+
+    @Override
+    public ResultSet getBestRowIdentifier(String catalog, String schema,
+                                          String table, int scope,
+                                          boolean nullable)
+            throws SQLException {
+        Catalog c = getCatalog();
+        List<Object[]> rows = new ArrayList<>();
+        List<Object[]> pk = primaryKey(c, table);
+        if (pk.isEmpty()) {
+            if (findTable(c, table) != null && !isWithoutRowId(c, table)) {
+                rows.add(new Object[] { (long) bestRowSession, "rowid",
+                        Types.INTEGER, "INTEGER", 19, null, 0,
+                        (long) bestRowPseudo });
+            }
+        } else {
+            for (Object[] col : pk) {
+                String declared = (String) col[COL_TYPE];
+                rows.add(new Object[] { (long) bestRowSession, col[COL_NAME],
+                        sqlType(declared), declared, DEFAULT_SIZE, null, 0,
+                        (long) bestRowNotPseudo });
+            }
+        }
+        return result(rows, "SCOPE:s, COLUMN_NAME, DATA_TYPE:i, TYPE_NAME, " +
+                "COLUMN_SIZE:i, BUFFER_LENGTH:i, DECIMAL_DIGITS:s, " +
+                "PSEUDO_COLUMN:s");
+    }
+
+    @Override
+    public ResultSet getIndexInfo(String catalog, String schema, String table,
+                                  boolean unique, boolean approximate)
+            throws SQLException {
+        List<Object[]> rows = new ArrayList<>();
+        for (Object[] idx : getCatalog().getIndexes()) {
+            String t = (String) idx[IDX_TABLE];
+            boolean nonUnique = num(idx[IDX_UNIQUE]) == 0;
+            if (!t.equalsIgnoreCase(table) || (unique && nonUnique)) continue;
+            Object partial = num(idx[IDX_PARTIAL]) != 0 ? "partial": null;
+            rows.add(new Object[] { null, null, t, nonUnique ? 1: 0, null,
+                    idx[IDX_NAME], (long) tableIndexOther,
+                    num(idx[IDX_SEQ]) + 1, idx[IDX_COLUMN],
+                    num(idx[IDX_DESC]) != 0 ? "D": "A", 0L, 0L, partial });
+        }
+        rows.sort(order(4, 6, 8));
+        return result(rows, "TABLE_CAT, TABLE_SCHEM, TABLE_NAME, " +
+                "NON_UNIQUE:b, INDEX_QUALIFIER, INDEX_NAME, TYPE:s, " +
+                "ORDINAL_POSITION:s, COLUMN_NAME, ASC_OR_DESC, " +
+                "CARDINALITY:l, PAGES:l, FILTER_CONDITION");
+    }
+
+    @Override
+    public ResultSet getImportedKeys(String catalog, String schema, String table)
+            throws SQLException {
+        return foreignKeys(null, table, order(3, 9));
+    }
+
+    @Override
+    public ResultSet getExportedKeys(String catalog, String schema, String table)
+            throws SQLException {
+        return foreignKeys(table, null, order(7, 9));
+    }
+
+    @Override
+    public ResultSet getCrossReference(String parentCatalog, String parentSchema,
+                                       String parentTable, String foreignCatalog,
+                                       String foreignSchema, String foreignTable)
+            throws SQLException {
+        return foreignKeys(parentTable, foreignTable, order(7, 9));
+    }
+
+    protected ResultSet foreignKeys(String parent, String foreign,
+                                    Comparator<Object[]> order)
+            throws SQLException {
+        Catalog c = getCatalog();
+        List<Object[]> rows = new ArrayList<>();
+        for (Object[] fk : c.getForeignKeys()) {
+            String table = (String) fk[FK_TABLE];
+            String parentTable = (String) fk[FK_PARENT];
+            if (parent != null && !parent.equalsIgnoreCase(parentTable)
+                    || foreign != null && !foreign.equalsIgnoreCase(table)) {
+                continue;
+            }
+            Object to = fk[FK_TO];
+            long seq = num(fk[FK_SEQ]);
+            if (to == null) {
+                // References the parent primary key implicitly
+                List<Object[]> pk = primaryKey(c, parentTable);
+                to = seq < pk.size() ? pk.get((int) seq)[COL_NAME]: null;
+            }
+            Object[] p = findTable(c, parentTable);
+            if (p != null) parentTable = (String) p[TABLE_NAME];
+            String fkName = "fk_" + table + "_" + fk[FK_ID];
+            rows.add(new Object[] { null, null, parentTable, to,
+                    null, null, table, fk[FK_FROM], seq + 1,
+                    rule((String) fk[FK_ON_UPDATE]),
+                    rule((String) fk[FK_ON_DELETE]), fkName, null,
+                    (long) importedKeyNotDeferrable });
+        }
+        rows.sort(order);
+        return result(rows, "PKTABLE_CAT, PKTABLE_SCHEM, PKTABLE_NAME, " +
+                "PKCOLUMN_NAME, FKTABLE_CAT, FKTABLE_SCHEM, FKTABLE_NAME, " +
+                "FKCOLUMN_NAME, KEY_SEQ:s, UPDATE_RULE:s, DELETE_RULE:s, " +
+                "FK_NAME, PK_NAME, DEFERRABILITY:s");
+    }
+
+    @Override
+    public ResultSet getTypeInfo() throws SQLException {
+        List<Object[]> rows = new ArrayList<>();
+        rows.add(typeInfo("NULL", Types.NULL, 0, false));
+        rows.add(typeInfo("INTEGER", Types.INTEGER, 19, true));
+        rows.add(typeInfo("REAL", Types.REAL, 17, true));
+        rows.add(typeInfo("TEXT", Types.VARCHAR, DEFAULT_SIZE, false));
+        rows.add(typeInfo("BLOB", Types.BLOB, DEFAULT_SIZE, false));
+        rows.sort(order(2));
+        return result(rows, "TYPE_NAME, DATA_TYPE:i, PRECISION:i, " +
+                "LITERAL_PREFIX, LITERAL_SUFFIX, CREATE_PARAMS, NULLABLE:s, " +
+                "CASE_SENSITIVE:b, SEARCHABLE:s, UNSIGNED_ATTRIBUTE:b, " +
+                "FIXED_PREC_SCALE:b, AUTO_INCREMENT:b, LOCAL_TYPE_NAME, " +
+                "MINIMUM_SCALE:s, MAXIMUM_SCALE:s, SQL_DATA_TYPE:i, " +
+                "SQL_DATETIME_SUB:i, NUM_PREC_RADIX:i");
+    }
+
+    static Object[] typeInfo(String name, int type, int precision,
+                             boolean numeric) {
+        String quote = type == Types.VARCHAR ? "'": null;
+        return new Object[] { name, type, precision, quote, quote, null,
+                (long) typeNullable, numeric ? 0: 1, (long) typeSearchable,
+                numeric ? 0: 1, 0, name.equals("INTEGER") ? 1: 0, null,
+                0L, 0L, null, null, numeric ? 10: null };
+    }
+
+    @Override
+    public ResultSet getCatalogs() throws SQLException {
+        return result(null, "TABLE_CAT");
+    }
+
+    @Override
+    public ResultSet getSchemas() throws SQLException {
+        return result(null, "TABLE_SCHEM, TABLE_CATALOG");
+    }
+
+    @Override
+    public ResultSet getSchemas(String catalog, String schemaPattern)
+            throws SQLException {
+        return getSchemas();
+    }
+
+    @Override
+    public ResultSet getProcedures(String catalog, String schemaPattern,
+                                   String procedureNamePattern)
+            throws SQLException {
+        return result(null, "PROCEDURE_CAT, PROCEDURE_SCHEM, PROCEDURE_NAME, " +
+                "RESERVED1, RESERVED2, RESERVED3, REMARKS, PROCEDURE_TYPE:s, " +
+                "SPECIFIC_NAME");
+    }
+
+    @Override
+    public ResultSet getProcedureColumns(String catalog, String schemaPattern,
+                                         String procedureNamePattern,
+                                         String columnNamePattern)
+            throws SQLException {
+        return result(null, "PROCEDURE_CAT, PROCEDURE_SCHEM, PROCEDURE_NAME, " +
+                "COLUMN_NAME, COLUMN_TYPE:s, DATA_TYPE:i, TYPE_NAME, " +
+                "PRECISION:i, LENGTH:i, SCALE:s, RADIX:s, NULLABLE:s, " +
+                "REMARKS, COLUMN_DEF, SQL_DATA_TYPE:i, SQL_DATETIME_SUB:i, " +
+                "CHAR_OCTET_LENGTH:i, ORDINAL_POSITION:i, IS_NULLABLE, " +
+                "SPECIFIC_NAME");
+    }
+
+    @Override
+    public ResultSet getFunctions(String catalog, String schemaPattern,
+                                  String functionNamePattern)
+            throws SQLException {
+        return result(null, "FUNCTION_CAT, FUNCTION_SCHEM, FUNCTION_NAME, " +
+                "REMARKS, FUNCTION_TYPE:s, SPECIFIC_NAME");
+    }
+
+    @Override
+    public ResultSet getFunctionColumns(String catalog, String schemaPattern,
+                                        String functionNamePattern,
+                                        String columnNamePattern)
+            throws SQLException {
+        return result(null, "FUNCTION_CAT, FUNCTION_SCHEM, FUNCTION_NAME, " +
+                "COLUMN_NAME, COLUMN_TYPE:s, DATA_TYPE:i, TYPE_NAME, " +
+                "PRECISION:i, LENGTH:i, SCALE:s, RADIX:s, NULLABLE:s, " +
+                "REMARKS, CHAR_OCTET_LENGTH:i, ORDINAL_POSITION:i, " +
+                "IS_NULLABLE, SPECIFIC_NAME");
+    }
+
+    @Override
+    public ResultSet getColumnPrivileges(String catalog, String schema,
+                                         String table, String columnNamePattern)
+            throws SQLException {
+        return result(null, "TABLE_CAT, TABLE_SCHEM, TABLE_NAME, " +
+                "COLUMN_NAME, GRANTOR, GRANTEE, PRIVILEGE, IS_GRANTABLE");
+    }
+
+    @Override
+    public ResultSet getTablePrivileges(String catalog, String schemaPattern,
+                                        String tableNamePattern)
+            throws SQLException {
+        return result(null, "TABLE_CAT, TABLE_SCHEM, TABLE_NAME, " +
+                "GRANTOR, GRANTEE, PRIVILEGE, IS_GRANTABLE");
+    }
+
+    @Override
+    public ResultSet getVersionColumns(String catalog, String schema,
+                                       String table) throws SQLException {
+        return result(null, "SCOPE:s, COLUMN_NAME, DATA_TYPE:i, TYPE_NAME, " +
+                "COLUMN_SIZE:i, BUFFER_LENGTH:i, DECIMAL_DIGITS:s, " +
+                "PSEUDO_COLUMN:s");
+    }
+
+    @Override
+    public ResultSet getUDTs(String catalog, String schemaPattern,
+                             String typeNamePattern, int[] types)
+            throws SQLException {
+        return result(null, "TYPE_CAT, TYPE_SCHEM, TYPE_NAME, CLASS_NAME, " +
+                "DATA_TYPE:i, REMARKS, BASE_TYPE:s");
+    }
+
+    @Override
+    public ResultSet getSuperTypes(String catalog, String schemaPattern,
+                                   String typeNamePattern) throws SQLException {
+        return result(null, "TYPE_CAT, TYPE_SCHEM, TYPE_NAME, " +
+                "SUPERTYPE_CAT, SUPERTYPE_SCHEM, SUPERTYPE_NAME");
+    }
+
+    @Override
+    public ResultSet getSuperTables(String catalog, String schemaPattern,
+                                    String tableNamePattern) throws SQLException {
+        return result(null, "TABLE_CAT, TABLE_SCHEM, TABLE_NAME, " +
+                "SUPERTABLE_NAME");
+    }
+
+    @Override
+    public ResultSet getAttributes(String catalog, String schemaPattern,
+                                   String typeNamePattern,
+                                   String attributeNamePattern)
+            throws SQLException {
+        return result(null, "TYPE_CAT, TYPE_SCHEM, TYPE_NAME, ATTR_NAME, " +
+                "DATA_TYPE:i, ATTR_TYPE_NAME, ATTR_SIZE:i, DECIMAL_DIGITS:i, " +
+                "NUM_PREC_RADIX:i, NULLABLE:i, REMARKS, ATTR_DEF, " +
+                "SQL_DATA_TYPE:i, SQL_DATETIME_SUB:i, CHAR_OCTET_LENGTH:i, " +
+                "ORDINAL_POSITION:i, IS_NULLABLE, SCOPE_CATALOG, " +
+                "SCOPE_SCHEMA, SCOPE_TABLE, SOURCE_DATA_TYPE:s");
+    }
+
+    @Override
+    public ResultSet getClientInfoProperties() throws SQLException {
+        return result(null, "NAME, MAX_LEN:i, DEFAULT_VALUE, DESCRIPTION");
+    }
+
+    @Override
+    public ResultSet getPseudoColumns(String catalog, String schemaPattern,
+                                      String tableNamePattern,
+                                      String columnNamePattern)
+            throws SQLException {
+        return result(null, "TABLE_CAT, TABLE_SCHEM, TABLE_NAME, " +
+                "COLUMN_NAME, DATA_TYPE:i, COLUMN_SIZE:i, DECIMAL_DIGITS:i, " +
+                "NUM_PREC_RADIX:i, COLUMN_USAGE, REMARKS, " +
+                "CHAR_OCTET_LENGTH:i, IS_NULLABLE");
+    }
+
+    protected ResultSet result(List<Object[]> rows, String columns) {
+        return result(this.conn, rows, columns);
+    }
+
+    public static ResultSet result(Connection conn, List<Object[]> rows,
+                                   String columns) {
+        // Column spec: "NAME[:type], ..." where type is i(int), s(short),
+        // b(boolean) or l(long), and text by default
+        String[] specs = columns.split(",\\s*");
+        int n = specs.length;
+        String[] names = new String[n];
+        String[] typeNames = new String[n];
+        int[] types = new int[n];
+        boolean[][] metas = new boolean[n][];
+        for (int i = 0; i < n; ++i) {
+            String spec = specs[i];
+            metas[i] = new boolean[3];
+            int j = spec.indexOf(':');
+            char type = j == -1 ? 't': spec.charAt(j + 1);
+            names[i] = j == -1 ? spec: spec.substring(0, j);
+            switch (type) {
+                case 'i':
+                    types[i] = Types.INTEGER;
+                    typeNames[i] = "INTEGER";
+                    break;
+                case 's':
+                    types[i] = Types.SMALLINT;
+                    typeNames[i] = "SMALLINT";
+                    break;
+                case 'b':
+                    types[i] = Types.BOOLEAN;
+                    typeNames[i] = "BOOLEAN";
+                    break;
+                case 'l':
+                    types[i] = Types.BIGINT;
+                    typeNames[i] = "BIGINT";
+                    break;
+                default:
+                    types[i] = Types.VARCHAR;
+                    typeNames[i] = "TEXT";
+                    break;
+            }
+        }
+        ResultSetMetaData meta = new ResultSetMetaData(names, metas,
+                typeNames, types, new int[n]);
+        if (rows == null) rows = Collections.emptyList();
+        return new MetaResultSet(conn, new RowIterator(rows, true, meta));
+    }
+
+    static class MetaResultSet extends JdbcResultSet {
+
+        MetaResultSet(Connection conn, RowIterator rowItr) {
+            super(conn, null, rowItr);
+        }
+
+        @Override
+        protected RowIterator fetchRows(boolean meta) {
+            // All rows are in memory
+            return RowIterator.empty(null);
+        }
+
+    }
+
+    static Comparator<Object[]> order(int... columns) {
+        return (a, b) -> {
+            for (int column : columns) {
+                int i = column - 1;
+                int c = compare(a[i], b[i]);
+                if (c != 0) return c;
+            }
+            return 0;
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    static int compare(Object a, Object b) {
+        if (a == b) return 0;
+        if (a == null) return -1;
+        if (b == null) return 1;
+        if (a instanceof Number && b instanceof Number) {
+            return Long.compare(((Number) a).longValue(),
+                    ((Number) b).longValue());
+        }
+        return ((Comparable<Object>) a).compareTo(b);
+    }
+
+    static Pattern like(String pattern) {
+        // JDBC search pattern: '%', '_' and '\' escape, case-insensitive
+        // as SQLite identifiers are
+        if (pattern == null || "%".equals(pattern)) return null;
+        StringBuilder sb = new StringBuilder();
+        int n = pattern.length();
+        for (int i = 0; i < n; ++i) {
+            char c = pattern.charAt(i);
+            if (c == '\\' && i + 1 < n) {
+                sb.append(Pattern.quote(pattern.substring(i + 1, i + 2)));
+                ++i;
+            } else if (c == '%') {
+                sb.append(".*");
+            } else if (c == '_') {
+                sb.append('.');
+            } else {
+                sb.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(sb.toString(),
+                Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    }
+
+    static boolean matches(Pattern p, String s) {
+        return p == null || p.matcher(s).matches();
+    }
+
+    static String tableType(String name, String type) {
+        if (name.toLowerCase().startsWith("sqlite_")) {
+            return "SYSTEM TABLE";
+        }
+        return "view".equals(type) ? "VIEW": "TABLE";
+    }
+
+    static Object[] findTable(Catalog c, String table) {
+        for (Object[] t : c.getTables()) {
+            if (((String) t[TABLE_NAME]).equalsIgnoreCase(table)) return t;
+        }
+        return null;
+    }
+
+    static boolean isWithoutRowId(Catalog c, String table) {
+        Object[] t = findTable(c, table);
+        String sql = t == null ? null: (String) t[TABLE_SQL];
+        return sql != null && sql.toUpperCase()
+                .matches("(?s).*\\)\\s*WITHOUT\\s+ROWID\\s*(,.*)?;?\\s*$");
+    }
+
+    static List<Object[]> primaryKey(Catalog c, String table) {
+        List<Object[]> pk = new ArrayList<>();
+        for (Object[] col : c.getColumns()) {
+            if (num(col[COL_PK]) > 0
+                    && ((String) col[COL_TABLE]).equalsIgnoreCase(table)) {
+                pk.add(col);
+            }
+        }
+        pk.sort(order(COL_PK + 1));
+        return pk;
+    }
+
+    static boolean isRowIdAlias(Catalog c, String table, String column) {
+        List<Object[]> pk = primaryKey(c, table);
+        if (pk.size() != 1) return false;
+        Object[] col = pk.get(0);
+        return column.equals(col[COL_NAME])
+                && "INTEGER".equalsIgnoreCase((String) col[COL_TYPE])
+                && !isWithoutRowId(c, table);
+    }
+
+    static long rule(String action) {
+        if (action == null) return importedKeyNoAction;
+        switch (action.toUpperCase()) {
+            case "CASCADE":
+                return importedKeyCascade;
+            case "RESTRICT":
+                return importedKeyRestrict;
+            case "SET NULL":
+                return importedKeySetNull;
+            case "SET DEFAULT":
+                return importedKeySetDefault;
+            default:
+                return importedKeyNoAction;
+        }
+    }
+
+    static int sqlType(String declared) {
+        String type = declared.toUpperCase();
+        int i = type.indexOf('(');
+        if (i != -1) type = type.substring(0, i);
+        type = type.trim();
+        switch (type) {
+            case "":
+            case "BLOB":
+                return Types.BLOB;
+            case "BOOLEAN":
+                return Types.BOOLEAN;
+            case "TINYINT":
+                return Types.TINYINT;
+            case "SMALLINT":
+                return Types.SMALLINT;
+            case "BIGINT":
+                return Types.BIGINT;
+            case "CHAR":
+            case "CHARACTER":
+                return Types.CHAR;
+            case "CLOB":
+                return Types.CLOB;
+            case "DATE":
+                return Types.DATE;
+            case "TIME":
+                return Types.TIME;
+            case "DATETIME":
+            case "TIMESTAMP":
+                return Types.TIMESTAMP;
+            case "DECIMAL":
+                return Types.DECIMAL;
+            case "FLOAT":
+                return Types.FLOAT;
+            case "DOUBLE":
+            case "DOUBLE PRECISION":
+                return Types.DOUBLE;
+            case "REAL":
+                return Types.REAL;
+        }
+        // SQLite column affinity rules
+        if (type.contains("INT")) return Types.INTEGER;
+        if (type.contains("CHAR") || type.contains("CLOB")
+                || type.contains("TEXT")) return Types.VARCHAR;
+        if (type.contains("BLOB")) return Types.BLOB;
+        if (type.contains("REAL") || type.contains("FLOA")
+                || type.contains("DOUB")) return Types.REAL;
+        return Types.NUMERIC;
+    }
+
+    static long num(Object value) {
+        return value == null ? 0: ((Number) value).longValue();
+    }
+
+    static int version(String version, int part) {
+        String[] parts = version.split("\\.");
+        try {
+            return part < parts.length ? Integer.parseInt(parts[part]): 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    @FunctionalInterface
+    public interface CatalogLoader {
+        // Returns null if the catalog of the given version is current
+        Catalog load(long version) throws SQLException;
+    }
+
+}
@@ -16,24 +16,36 @@
 
 package org.sqlited.jdbc;
 
+import org.sqlited.io.SpooledLob;
 import org.sqlited.jdbc.adapter.ResultSetAdapter;
 import org.sqlited.result.ResultSetMetaData;
 import org.sqlited.result.RowIterator;
 import org.sqlited.util.IOUtils;
 
+import java.io.*;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.nio.charset.StandardCharsets;
 import java.sql.*;
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoField;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
 
+import static org.sqlited.io.Protocol.*;
+
 public abstract class JdbcResultSet extends ResultSetAdapter {
 
-    protected static final String DATE_FORMAT = "yyyy-MM-dd HH:mm:ss.SSS";
+    // Immutable and thread-safe: fraction of second is optional
+    protected static final DateTimeFormatter DATE_FORMATTER = new DateTimeFormatterBuilder()
+            .appendPattern("yyyy-MM-dd HH:mm:ss")
+            .optionalStart()
+            .appendFraction(ChronoField.NANO_OF_SECOND, 0, 9, true)
+            .optionalEnd()
+            .toFormatter();
 
     protected final Connection conn;
     protected final Statement stmt;
@@ -83,6 +95,8 @@ public abstract class JdbcResultSet extends ResultSetAdapter {
             throws SQLException;
 
     protected void initRowItr(RowIterator rowItr) {
+        RowIterator old = this.rowItr;
+        if (old != null && old != rowItr) old.close();
         ResultSetMetaData d = rowItr.getMetaData();
         if (d != null) {
             this.metaData = new JdbcResultSetMetaData(d);
@@ -100,10 +114,71 @@ public abstract class JdbcResultSet extends ResultSetAdapter {
     @Override
     public Object getObject(int column) throws SQLException {
         int i = checkColumn(column);
-        Object[] row = this.rowItr.get();
-        Object value = row[i];
+        Object value = this.rowItr.getObject(i);
         this.column = column;
-        return value;
+        if (value instanceof SpooledLob) {
+            try {
+                return ((SpooledLob) value).getValue();
+            } catch (IOException e) {
+                throw new SQLException("Read LOB error", e);
+            }
+        } else {
+            return value;
+        }
+    }
+
+    @Override
+    public InputStream getBinaryStream(int column) throws SQLException {
+        int i = checkColumn(column);
+        Object value = this.rowItr.getObject(i);
+        this.column = column;
+        if (value == null) {
+            return null;
+        } else if (value instanceof SpooledLob) {
+            try {
+                return ((SpooledLob) value).getInputStream();
+            } catch (IOException e) {
+                throw new SQLException("Read LOB error", e);
+            }
+        } else if (value instanceof byte[]) {
+            return new ByteArrayInputStream((byte[]) value);
+        } else {
+            String s = castToString(value);
+            return new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Override
+    public InputStream getBinaryStream(String columnLabel) throws SQLException {
+        int column = findColumn(columnLabel);
+        return getBinaryStream(column);
+    }
+
+    @Override
+    public Reader getCharacterStream(int column) throws SQLException {
+        int i = checkColumn(column);
+        Object value = this.rowItr.getObject(i);
+        this.column = column;
+        if (value == null) {
+            return null;
+        } else if (value instanceof SpooledLob) {
+            try {
+                return ((SpooledLob) value).getReader();
+            } catch (IOException e) {
+                throw new SQLException("Read LOB error", e);
+            }
+        } else if (value instanceof byte[]) {
+            InputStream in = new ByteArrayInputStream((byte[]) value);
+            return new InputStreamReader(in, StandardCharsets.UTF_8);
+        } else {
+            return new StringReader(castToString(value));
+        }
+    }
+
+    @Override
+    public Reader getCharacterStream(String columnLabel) throws SQLException {
+        int column = findColumn(columnLabel);
+        return getCharacterStream(column);
     }
 
     protected static SQLException castException(String type) {
@@ -134,20 +209,42 @@ public abstract class JdbcResultSet extends ResultSetAdapter {
 
     @Override
     public int getInt(String columnLabel) throws SQLException {
-        Object value = getObject(columnLabel);
-        return castToInt(value);
+        int column = findColumn(columnLabel);
+        return getInt(column);
     }
 
     @Override
     public int getInt(int column) throws SQLException {
-        Object value = getObject(column);
-        return castToInt(value);
+        int i = checkColumn(column);
+        RowIterator itr = this.rowItr;
+        this.column = column;
+        switch (itr.getType(i)) {
+            case TYPE_OBJ_INT:
+                return (int) itr.getLong(i);
+            case TYPE_OBJ_REAL:
+                return (int) itr.getDouble(i);
+            case TYPE_OBJ_NULL:
+                return 0;
+            default:
+                return castToInt(itr.getObject(i));
+        }
     }
 
     @Override
     public long getLong(int column) throws SQLException {
-        Object value = getObject(column);
-        return castToLong(value);
+        int i = checkColumn(column);
+        RowIterator itr = this.rowItr;
+        this.column = column;
+        switch (itr.getType(i)) {
+            case TYPE_OBJ_INT:
+                return itr.getLong(i);
+            case TYPE_OBJ_REAL:
+                return (long) itr.getDouble(i);
+            case TYPE_OBJ_NULL:
+                return 0;
+            default:
+                return castToLong(itr.getObject(i));
+        }
     }
 
     @Override
@@ -181,8 +278,19 @@ public abstract class JdbcResultSet extends ResultSetAdapter {
 
     @Override
     public double getDouble(int column) throws SQLException {
-        Object value = getObject(column);
-        return castToDouble(value);
+        int i = checkColumn(column);
+        RowIterator itr = this.rowItr;
+        this.column = column;
+        switch (itr.getType(i)) {
+            case TYPE_OBJ_INT:
+                return itr.getLong(i);
+            case TYPE_OBJ_REAL:
+                return itr.getDouble(i);
+            case TYPE_OBJ_NULL:
+                return 0.0;
+            default:
+                return castToDouble(itr.getObject(i));
+        }
     }
 
     @Override
@@ -294,8 +402,8 @@ public abstract class JdbcResultSet extends ResultSetAdapter {
 
     @Override
     public String getString(String columnLabel) throws SQLException {
-        Object value = getObject(columnLabel);
-        return castToString(value);
+        int column = findColumn(columnLabel);
+        return getString(column);
     }
 
     protected String castToString(Object value) throws SQLException {
@@ -344,14 +452,8 @@ public abstract class JdbcResultSet extends ResultSetAdapter {
             return new Date(n.longValue() * 1000L);
         } else if (value instanceof String) {
             String s = (String) value;
-            DateFormat f = new SimpleDateFormat(DATE_FORMAT);
-            f.setTimeZone(cal.getTimeZone());
-            try {
-                long millis = f.parse(s).getTime();
-                return new Date(millis);
-            } catch (ParseException e) {
-                throw new SQLException("Parsing date error", e);
-            }
+            long millis = parseMillis(s, cal, "date");
+            return new Date(millis);
         } else {
             throw castException("Date");
         }
@@ -392,14 +494,8 @@ public abstract class JdbcResultSet extends ResultSetAdapter {
             return new Time(n.longValue() * 1000L);
         } else if (value instanceof String) {
             String s = (String) value;
-            DateFormat f = new SimpleDateFormat(DATE_FORMAT);
-            f.setTimeZone(cal.getTimeZone());
-            try {
-                long millis = f.parse(s).getTime();
-                return new Time(millis);
-            } catch (ParseException e) {
-                throw new SQLException("Parsing time error", e);
-            }
+            long millis = parseMillis(s, cal, "time");
+            return new Time(millis);
         } else {
             throw castException("Time");
         }
@@ -440,19 +536,32 @@ public abstract class JdbcResultSet extends ResultSetAdapter {
             return new Timestamp(n.longValue() * 1000L);
         } else if (value instanceof String) {
             String s = (String) value;
-            DateFormat f = new SimpleDateFormat(DATE_FORMAT);
-            f.setTimeZone(cal.getTimeZone());
-            try {
-                long millis = f.parse(s).getTime();
-                return new Timestamp(millis);
-            } catch (ParseException e) {
-                throw new SQLException("Parsing timestamp error", e);
-            }
+            LocalDateTime t = parseDateTime(s, "timestamp");
+            long secs = t.atZone(cal.getTimeZone().toZoneId()).toEpochSecond();
+            Timestamp ts = new Timestamp(secs * 1000L);
+            ts.setNanos(t.getNano());
+            return ts;
         } else {
             throw castException("Timestamp");
         }
     }
 
+    protected static LocalDateTime parseDateTime(String s, String type)
+            throws SQLException {
+        try {
+            return LocalDateTime.parse(s, DATE_FORMATTER);
+        } catch (DateTimeParseException e) {
+            throw new SQLException("Parsing " + type + " error", e);
+        }
+    }
+
+    protected static long parseMillis(String s, Calendar cal, String type)
+            throws SQLException {
+        LocalDateTime t = parseDateTime(s, type);
+        return t.atZone(cal.getTimeZone().toZoneId())
+                .toInstant().toEpochMilli();
+    }
+
     protected static Calendar julianDateToCalendar(Double d) {
         return julianDateToCalendar(d, Calendar.getInstance());
     }
@@ -537,8 +646,8 @@ public abstract class JdbcResultSet extends ResultSetAdapter {
 
     @Override
     public boolean wasNull() throws SQLException {
-        Object value = getObject(this.column);
-        return (value == null);
+        int i = checkColumn(this.column);
+        return this.rowItr.getType(i) == TYPE_OBJ_NULL;
     }
 
     protected void checkOpen() throws SQLException {
@@ -559,6 +668,7 @@ public abstract class JdbcResultSet extends ResultSetAdapter {
 
     @Override
     public void close() {
+        IOUtils.close(this.rowItr);
         this.rowItr = null;
         this.metaData = null;
         this.column = 0;
@@ -29,6 +29,10 @@ public class JdbcResultSetMetaData extends ResultSetMetaDataAdapter {
         this.metaData = metaData;
     }
 
+    public ResultSetMetaData getResultMetaData() {
+        return this.metaData;
+    }
+
     @Override
     public int getColumnCount() throws SQLException {
         return this.metaData.getColumnCount();
@@ -43,6 +43,15 @@ public abstract class DriverAdapter implements Driver {
         copy.putAll(info);
         info = copy;
 
+        Properties connProps = parseURL(url, info);
+        return connect(connProps.getProperty("db"), info, connProps);
+    }
+
+    /** Parse the url into the connection properties, and remove these
+     * client-side properties from the info. The database url with the
+     * remaining query parameters is set into the property "db".
+     */
+    public Properties parseURL(String url, Properties info) throws SQLException {
         // Parse url
         // jdbc:sqlited:[rmi|tcp:][//[HOST][:PORT]/][DB][?a=b&...]
         int i = DriverAdapter.PREFIX.length();
@@ -67,17 +76,35 @@ public abstract class DriverAdapter implements Driver {
 
         String host = DEFAULT_HOST;
         int port = getPort();
+        String endpoints = null;
         if (i < j) {
-            String s = url.substring(i, j - 1);
-            int k = s.indexOf(':');
-            if (k != -1) {
-                if (k > 0) {
-                    host = s.substring(0, k);
+            // HOST[:PORT][,HOST[:PORT]...]
+            String[] a = url.substring(i, j - 1).split(",", -1);
+            List<String> list = new ArrayList<>(a.length);
+            for (String s: a) {
+                String h = DEFAULT_HOST;
+                int p = getPort();
+                s = s.trim();
+                int k = s.indexOf(':');
+                if (k == -1) {
+                    if (s.length() > 0) h = s;
+                } else {
+                    if (k > 0) {
+                        h = s.substring(0, k);
+                    }
+                    if (k + 1 < s.length()) {
+                        s = s.substring(k + 1);
+                        p = Integer.decode(s);
+                    }
                 }
-                if (k + 1 < s.length()) {
-                    s = s.substring(k + 1);
-                    port = Integer.decode(s);
+                if (list.isEmpty()) {
+                    host = h;
+                    port = p;
                 }
+                list.add(h + ":" + p);
+            }
+            if (list.size() > 1) {
+                endpoints = String.join(",", list);
             }
         }
 
@@ -87,6 +114,13 @@ public abstract class DriverAdapter implements Driver {
         String loginTimeout = PropsUtils.remove(info, "loginTimeout");
         String connectTimeout = PropsUtils.remove(info, "connectTimeout");
         String readTimeout = PropsUtils.remove(info, "readTimeout");
+        String readOnly = PropsUtils.remove(info, "readOnly");
+        String replicas = PropsUtils.remove(info, "replicas");
+        String maxLag = PropsUtils.remove(info, "maxLag");
+        String loadBalance = PropsUtils.remove(info, "loadBalance");
+        String probeInterval = PropsUtils.remove(info, "probeInterval");
+        String mux = PropsUtils.remove(info, "mux");
+        String muxSessions = PropsUtils.remove(info, "muxSessions");
         i = url.indexOf('?', j);
         if (i != -1) {
             path = url.substring(0, i);
@@ -113,6 +147,27 @@ public abstract class DriverAdapter implements Driver {
                         case "readTimeout":
                             readTimeout = item[1];
                             break;
+                        case "readOnly":
+                            readOnly = item[1];
+                            break;
+                        case "replicas":
+                            replicas = item[1];
+                            break;
+                        case "maxLag":
+                            maxLag = item[1];
+                            break;
+                        case "loadBalance":
+                            loadBalance = item[1];
+                            break;
+                        case "probeInterval":
+                            probeInterval = item[1];
+                            break;
+                        case "mux":
+                            mux = item[1];
+                            break;
+                        case "muxSessions":
+                            muxSessions = item[1];
+                            break;
                         default:
                             np.add(s);
                             break;
@@ -130,7 +185,6 @@ public abstract class DriverAdapter implements Driver {
             url = url.substring(j);
         }
 
-        // Do connect
         final Properties connProps = new Properties();
         connProps.setProperty("host", host);
         connProps.setProperty("port", port + "");
@@ -140,8 +194,17 @@ public abstract class DriverAdapter implements Driver {
         PropsUtils.setNullSafe(connProps, "loginTimeout", loginTimeout);
         PropsUtils.setNullSafe(connProps, "connectTimeout", connectTimeout);
         PropsUtils.setNullSafe(connProps, "readTimeout", readTimeout);
+        PropsUtils.setNullSafe(connProps, "readOnly", readOnly);
+        PropsUtils.setNullSafe(connProps, "replicas", replicas);
+        PropsUtils.setNullSafe(connProps, "maxLag", maxLag);
+        PropsUtils.setNullSafe(connProps, "endpoints", endpoints);
+        PropsUtils.setNullSafe(connProps, "loadBalance", loadBalance);
+        PropsUtils.setNullSafe(connProps, "probeInterval", probeInterval);
+        PropsUtils.setNullSafe(connProps, "mux", mux);
+        PropsUtils.setNullSafe(connProps, "muxSessions", muxSessions);
+        connProps.setProperty("db", url);
 
-        return connect(url, info, SocketUtils.defaultConfig(connProps));
+        return SocketUtils.defaultConfig(connProps);
     }
 
     protected abstract Connection connect(String url, Properties info,
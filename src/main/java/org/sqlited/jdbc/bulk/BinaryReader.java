@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.jdbc.bulk;
+
+import org.sqlited.io.Transfer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/** Rows of an export in the binary format, which can be imported again
+ * by importRows() of the connection.
+ */
+public class BinaryReader implements Iterator<Object[]>, AutoCloseable {
+
+    protected final InputStream in;
+    protected final Transfer ch;
+    private String[] columns;
+    private Object[] next;
+    private boolean eof;
+
+    public BinaryReader(InputStream in) {
+        this.in = in;
+        this.ch = new Transfer(in, null, Integer.MAX_VALUE);
+    }
+
+    public String[] getColumns() {
+        if (this.columns == null) {
+            try {
+                this.columns = (String[]) this.ch.readArray();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (ClassCastException e) {
+                throw new UncheckedIOException(new IOException("Not an export header"));
+            }
+        }
+        return this.columns;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (this.next == null && !this.eof) {
+            int n = getColumns().length;
+            try {
+                Transfer ch = this.ch;
+                int flag = ch.read(true);
+                if (flag == 0) {
+                    this.eof = true;
+                } else if (flag == 1) {
+                    Object[] row = new Object[n];
+                    for (int i = 0; i < n; ++i) row[i] = ch.readObject();
+                    this.next = row;
+                } else {
+                    throw new IOException("Invalid row flag: " + flag);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return this.next != null;
+    }
+
+    @Override
+    public Object[] next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        Object[] row = this.next;
+        this.next = null;
+        return row;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.in.close();
+    }
+
+}
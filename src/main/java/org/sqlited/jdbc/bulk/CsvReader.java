@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.jdbc.bulk;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/** RFC 4180 CSV records as rows of String. An empty field not quoted is
+ * read as null, and "" as an empty string. Blank lines are skipped.
+ */
+public class CsvReader implements Iterator<Object[]>, AutoCloseable {
+
+    protected final Reader in;
+    protected final char delimiter;
+    private final StringBuilder field = new StringBuilder();
+    private Object[] next;
+    private boolean eof;
+    private long line = 1;
+
+    public CsvReader(Reader in) {
+        this(in, ',');
+    }
+
+    public CsvReader(Reader in, char delimiter) {
+        if (delimiter == '"' || delimiter == '\r' || delimiter == '\n') {
+            throw new IllegalArgumentException("Illegal delimiter '" + delimiter + "'");
+        }
+        if (in instanceof BufferedReader) this.in = in;
+        else this.in = new BufferedReader(in);
+        this.delimiter = delimiter;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (this.next == null && !this.eof) {
+            try {
+                this.next = readRecord();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return this.next != null;
+    }
+
+    @Override
+    public Object[] next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        Object[] record = this.next;
+        this.next = null;
+        return record;
+    }
+
+    protected Object[] readRecord() throws IOException {
+        Reader in = this.in;
+        StringBuilder field = this.field;
+        List<Object> record = new ArrayList<>();
+        boolean quoted = false, inQuotes = false;
+        field.setLength(0);
+
+        while (true) {
+            int c = in.read();
+            if (inQuotes) {
+                if (c == -1) {
+                    throw new IOException("Unclosed quote at line " + this.line);
+                } else if (c == '"') {
+                    in.mark(1);
+                    if (in.read() == '"') {
+                        field.append('"');
+                    } else {
+                        in.reset();
+                        inQuotes = false;
+                    }
+                } else {
+                    if (c == '\n') ++this.line;
+                    field.append((char) c);
+                }
+            } else if (c == this.delimiter) {
+                record.add(quoted || field.length() > 0? field.toString(): null);
+                field.setLength(0);
+                quoted = false;
+            } else if (c == '"' && field.length() == 0 && !quoted) {
+                quoted = inQuotes = true;
+            } else if (c == '\r' || c == '\n' || c == -1) {
+                if (c == '\r') {
+                    in.mark(1);
+                    if (in.read() != '\n') in.reset();
+                }
+                if (c == -1) this.eof = true;
+                else ++this.line;
+                if (record.isEmpty() && field.length() == 0 && !quoted) {
+                    // Blank line
+                    if (c == -1) return null;
+                    continue;
+                }
+                record.add(quoted || field.length() > 0? field.toString(): null);
+                return record.toArray();
+            } else {
+                if (quoted) {
+                    String s = "Illegal character after quote at line " + this.line;
+                    throw new IOException(s);
+                }
+                field.append((char) c);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.in.close();
+    }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.jdbc.bulk;
+
+public class ExportOptions {
+
+    protected Format format = Format.CSV;
+    protected boolean compress;
+    protected boolean header = true;
+    protected char delimiter = ',';
+
+    public Format getFormat() {
+        return this.format;
+    }
+
+    public void setFormat(Format format) {
+        if (format == null) throw new NullPointerException("format");
+        this.format = format;
+    }
+
+    /** Whether the chunks are deflated on the wire, and inflated by the
+     * client before written out.
+     */
+    public boolean isCompress() {
+        return this.compress;
+    }
+
+    public void setCompress(boolean compress) {
+        this.compress = compress;
+    }
+
+    /** Whether the first CSV record holds the column names. */
+    public boolean isHeader() {
+        return this.header;
+    }
+
+    public void setHeader(boolean header) {
+        this.header = header;
+    }
+
+    public char getDelimiter() {
+        return this.delimiter;
+    }
+
+    public void setDelimiter(char delimiter) {
+        this.delimiter = delimiter;
+    }
+
+    public enum Format {
+        /** RFC 4180 CSV in UTF-8: null as an empty field, an empty string
+         * as "", and BLOB in hex. */
+        CSV,
+        /** Compact binary rows read by BinaryReader. */
+        BINARY
+    }
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.jdbc.bulk;
+
+public class ImportOptions {
+
+    protected int batchSize = 8192;
+    protected int commitRows = 100000;
+    protected int maxErrors;
+    protected boolean header = true;
+    protected char delimiter = ',';
+    protected Progress progress;
+
+    /** Rows sent to the server in one chunk. */
+    public int getBatchSize() {
+        return this.batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        if (batchSize <= 0) throw new IllegalArgumentException("batchSize " + batchSize);
+        this.batchSize = batchSize;
+    }
+
+    /** Rows between commits in auto-commit mode, 0 to commit at the end only.
+     * A failed import then rolls back only the rows after the last of these
+     * commits. In a transaction of the connection, all rows are in that
+     * transaction, and a failed import rolls back all of them.
+     */
+    public int getCommitRows() {
+        return this.commitRows;
+    }
+
+    public void setCommitRows(int commitRows) {
+        this.commitRows = Math.max(commitRows, 0);
+    }
+
+    /** Failed rows allowed before the import is rolled back, to the last
+     * commit of commitRows in auto-commit mode.
+     */
+    public int getMaxErrors() {
+        return this.maxErrors;
+    }
+
+    public void setMaxErrors(int maxErrors) {
+        this.maxErrors = Math.max(maxErrors, 0);
+    }
+
+    /** Whether the first CSV record holds the column names. */
+    public boolean isHeader() {
+        return this.header;
+    }
+
+    public void setHeader(boolean header) {
+        this.header = header;
+    }
+
+    public char getDelimiter() {
+        return this.delimiter;
+    }
+
+    public void setDelimiter(char delimiter) {
+        this.delimiter = delimiter;
+    }
+
+    public Progress getProgress() {
+        return this.progress;
+    }
+
+    public void setProgress(Progress progress) {
+        this.progress = progress;
+    }
+
+    public interface Progress {
+        void progress(long imported, long failed);
+    }
+
+}
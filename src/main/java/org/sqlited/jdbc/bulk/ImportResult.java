@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.jdbc.bulk;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class ImportResult {
+
+    protected long imported;
+    protected long failed;
+    protected final List<ImportError> errors = new ArrayList<>();
+
+    public long getImported() {
+        return this.imported;
+    }
+
+    public long getFailed() {
+        return this.failed;
+    }
+
+    public List<ImportError> getErrors() {
+        return this.errors;
+    }
+
+    public void update(long imported, long failed) {
+        this.imported = imported;
+        this.failed = failed;
+    }
+
+    public void addError(ImportError error) {
+        this.errors.add(error);
+    }
+
+    @Override
+    public String toString() {
+        return "imported " + this.imported + ", failed " + this.failed;
+    }
+
+    public static class ImportError {
+        protected final long index;
+        protected final String message;
+        protected final Object[] row;
+
+        public ImportError(long index, String message, Object[] row) {
+            this.index = index;
+            this.message = message;
+            this.row = row;
+        }
+
+        /** 0-based index of the row in the import. */
+        public long getIndex() {
+            return this.index;
+        }
+
+        public String getMessage() {
+            return this.message;
+        }
+
+        public Object[] getRow() {
+            return this.row;
+        }
+
+        @Override
+        public String toString() {
+            return "row " + this.index + ": " + this.message;
+        }
+    }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.jdbc.lb;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class Endpoint {
+
+    // EWMA weight of a new latency sample
+    static final double ALPHA = 0.3;
+
+    protected final String host;
+    protected final int port;
+    // Connections opened or being opened through this endpoint
+    protected final AtomicInteger outstanding = new AtomicInteger();
+    private volatile double latency = -1;
+    private volatile boolean ejected;
+    private volatile int failures;
+
+    public Endpoint(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    public String getHost() {
+        return this.host;
+    }
+
+    public int getPort() {
+        return this.port;
+    }
+
+    public int getOutstanding() {
+        return this.outstanding.get();
+    }
+
+    /** Connect and login latency in millis, or -1 if not measured yet. */
+    public double getLatency() {
+        return this.latency;
+    }
+
+    public boolean isEjected() {
+        return this.ejected;
+    }
+
+    public int getFailures() {
+        return this.failures;
+    }
+
+    void acquire() {
+        this.outstanding.incrementAndGet();
+    }
+
+    public void release() {
+        this.outstanding.decrementAndGet();
+    }
+
+    synchronized void succeeded(double millis) {
+        double old = this.latency;
+        this.latency = old < 0? millis: (1 - ALPHA) * old + ALPHA * millis;
+        this.failures = 0;
+        this.ejected = false;
+    }
+
+    synchronized void failed() {
+        ++this.failures;
+        this.ejected = true;
+    }
+
+    synchronized void recovered() {
+        this.ejected = false;
+    }
+
+    @Override
+    public String toString() {
+        return this.host + ":" + this.port;
+    }
+
+}
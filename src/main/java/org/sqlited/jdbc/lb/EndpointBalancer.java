@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.jdbc.lb;
+
+import org.sqlited.util.logging.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLTransientConnectionException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.ToDoubleFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class EndpointBalancer {
+    static final Logger log = LoggerFactory.getLogger(EndpointBalancer.class);
+
+    public static final String LEAST_REQUESTS = "leastRequests";
+    public static final String LATENCY = "latency";
+
+    static final Map<String, EndpointBalancer> BALANCERS = new ConcurrentHashMap<>();
+    static final ScheduledExecutorService PROBER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "sqlited-lb-prober");
+        t.setDaemon(true);
+        return t;
+    });
+    static final Random RANDOM = new Random();
+
+    protected final List<Endpoint> endpoints;
+    protected final long probeInterval;
+    protected final int connectTimeout;
+    private ScheduledFuture<?> probeTask;
+
+    public EndpointBalancer(List<Endpoint> endpoints, long probeInterval,
+                            int connectTimeout) {
+        this.endpoints = Collections.unmodifiableList(new ArrayList<>(endpoints));
+        this.probeInterval = probeInterval;
+        this.connectTimeout = connectTimeout;
+    }
+
+    /** Shared balancer of the endpoints list "HOST:PORT,HOST:PORT...". */
+    public static EndpointBalancer get(String endpoints, Properties connProps) {
+        return BALANCERS.computeIfAbsent(endpoints, k -> {
+            List<Endpoint> list = new ArrayList<>();
+            for (String s: k.split(",")) {
+                int i = s.lastIndexOf(':');
+                String host = s.substring(0, i);
+                int port = Integer.decode(s.substring(i + 1));
+                list.add(new Endpoint(host, port));
+            }
+            long interval = Long.decode(connProps.getProperty("probeInterval", "5000"));
+            int timeout = Integer.decode(connProps.getProperty("connectTimeout", "10000"));
+            return new EndpointBalancer(list, interval, timeout);
+        });
+    }
+
+    public List<Endpoint> getEndpoints() {
+        return this.endpoints;
+    }
+
+    public <C> C connect(String policy, Connector<C> connector) throws SQLException {
+        SQLException error = null;
+        for (Endpoint ep: select(policy)) {
+            ep.acquire();
+            boolean failed = true;
+            try {
+                long start = System.nanoTime();
+                C conn = connector.connect(ep);
+                ep.succeeded((System.nanoTime() - start) / 1000000.0);
+                failed = false;
+                return conn;
+            } catch (SQLException e) {
+                if (!isEndpointFailure(e)) throw e;
+                log.log(Level.FINE, "Connect " + ep + " failure", e);
+                failed(ep);
+                if (error == null) error = e;
+                else error.addSuppressed(e);
+            } finally {
+                if (failed) ep.release();
+            }
+        }
+        throw error;
+    }
+
+    /** Endpoints in the order to try: healthy ones ordered by the policy,
+     * then the ejected ones as the last resort.
+     */
+    public List<Endpoint> select(String policy) throws SQLException {
+        List<Endpoint> healthy = new ArrayList<>();
+        List<Endpoint> ejected = new ArrayList<>();
+        for (Endpoint ep: this.endpoints) {
+            if (ep.isEjected()) ejected.add(ep);
+            else healthy.add(ep);
+        }
+        // Random order among the equals
+        Collections.shuffle(healthy, RANDOM);
+
+        if (policy == null || LEAST_REQUESTS.equals(policy)) {
+            sort(healthy, Endpoint::getOutstanding);
+        } else if (LATENCY.equals(policy)) {
+            orderByLatency(healthy);
+        } else {
+            throw new SQLException("Unknown load balance policy '" + policy + "'");
+        }
+        healthy.addAll(ejected);
+
+        return healthy;
+    }
+
+    protected static void orderByLatency(List<Endpoint> list) {
+        int n = list.size();
+        if (n < 2) return;
+
+        // Not measured ones are weighted as the fastest for exploring
+        double min = Double.MAX_VALUE;
+        for (Endpoint ep: list) {
+            double latency = ep.getLatency();
+            if (latency >= 0) min = Math.min(min, latency);
+        }
+        if (min == Double.MAX_VALUE) return;
+        double[] latencies = new double[n];
+        double total = 0;
+        for (int i = 0; i < n; ++i) {
+            double latency = list.get(i).getLatency();
+            latencies[i] = Math.max(latency < 0? min: latency, 0.01);
+            total += 1 / latencies[i];
+        }
+        // Pick the first by weight 1/latency, then the rest by latency
+        double r = RANDOM.nextDouble() * total;
+        int first = n - 1;
+        for (int i = 0; i < n; ++i) {
+            r -= 1 / latencies[i];
+            if (r < 0) {
+                first = i;
+                break;
+            }
+        }
+        Endpoint head = list.remove(first);
+        sort(list, ep -> Math.max(ep.getLatency(), 0));
+        list.add(0, head);
+    }
+
+    // Sort by a snapshot of the keys that are updated concurrently
+    protected static void sort(List<Endpoint> list, ToDoubleFunction<Endpoint> key) {
+        Map<Endpoint, Double> keys = new IdentityHashMap<>();
+        for (Endpoint ep: list) {
+            keys.put(ep, key.applyAsDouble(ep));
+        }
+        list.sort(Comparator.comparingDouble(keys::get));
+    }
+
+    protected static boolean isEndpointFailure(SQLException e) {
+        String sqlState = e.getSQLState();
+        return e instanceof SQLNonTransientConnectionException
+                || e instanceof SQLTransientConnectionException
+                || (sqlState != null && sqlState.startsWith("08"));
+    }
+
+    protected void failed(Endpoint ep) {
+        ep.failed();
+        log.warning(() -> String.format("Eject endpoint %s", ep));
+        synchronized (this) {
+            if (this.probeTask == null) {
+                long interval = this.probeInterval;
+                this.probeTask = PROBER.scheduleWithFixedDelay(this::probe,
+                        interval, interval, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    protected void probe() {
+        for (Endpoint ep: this.endpoints) {
+            if (ep.isEjected() && ping(ep)) {
+                ep.recovered();
+                log.info(() -> String.format("Endpoint %s recovered", ep));
+            }
+        }
+        synchronized (this) {
+            for (Endpoint ep: this.endpoints) {
+                if (ep.isEjected()) return;
+            }
+            this.probeTask.cancel(false);
+            this.probeTask = null;
+        }
+    }
+
+    protected boolean ping(Endpoint ep) {
+        try (Socket socket = new Socket()) {
+            InetSocketAddress address = new InetSocketAddress(ep.host, ep.port);
+            socket.connect(address, this.connectTimeout);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public interface Connector<C> {
+        C connect(Endpoint ep) throws SQLException;
+    }
+
+}
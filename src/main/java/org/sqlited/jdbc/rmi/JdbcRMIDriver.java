@@ -23,7 +23,7 @@ import org.sqlited.rmi.AuthSocketFactory;
 import org.sqlited.rmi.RMIConnection;
 import org.sqlited.rmi.RMIDriver;
 import org.sqlited.util.IOUtils;
-import org.sqlited.util.LruCache;
+import org.sqlited.util.ConcurrentLruCache;
 import org.sqlited.util.logging.LoggerFactory;
 
 import java.rmi.NoSuchObjectException;
@@ -42,7 +42,7 @@ public class JdbcRMIDriver extends DriverAdapter {
     static final Logger log = LoggerFactory.getLogger(JdbcRMIDriver.class);
     public static final String PREFIX = DriverAdapter.PREFIX + "rmi:";
 
-    final LruCache<RMIClientSocketFactory, Registry> regs = new LruCache<>(250);
+    final ConcurrentLruCache<String, Registry> regs = new ConcurrentLruCache<>(250);
 
     @Override
     protected Connection connect(String url, Properties info, Properties connProps)
@@ -50,25 +50,25 @@ public class JdbcRMIDriver extends DriverAdapter {
         String host = connProps.getProperty("host");
         int port = Integer.decode(connProps.getProperty("port"));
 
+        String endpoint = host + ":" + port;
         int retries = 0;
         while (true) {
-            RMIClientSocketFactory socketFactory = new AuthSocketFactory(connProps);
             Registry registry = null;
             boolean regCached = true;
             try {
                 AuthSocketFactory.attachProperties(connProps);
                 log.fine(() -> String.format("%s: locate remote registry",
                         Thread.currentThread().getName()));
-                synchronized (this.regs) {
-                    registry = this.regs.get(socketFactory);
-                }
+                registry = this.regs.get(endpoint);
                 if (registry == null) {
+                    RMIClientSocketFactory socketFactory = new AuthSocketFactory(connProps);
                     registry = LocateRegistry.getRegistry(host, port, socketFactory);
                     regCached = false;
                 }
                 log.fine(() -> String.format("%s: lookup remote driver",
                         Thread.currentThread().getName()));
                 RMIDriver rmiDriver = (RMIDriver) registry.lookup("SQLited");
+                if (!regCached) this.regs.put(endpoint, registry);
                 log.fine(() -> String.format("%s: get a remote connection",
                         Thread.currentThread().getName()));
                 RMIConnection rmiConn = rmiDriver.connect(url, info);
@@ -86,9 +86,7 @@ public class JdbcRMIDriver extends DriverAdapter {
                 }
                 // Do retry for obsolete reference
                 if (registry != null && regCached) {
-                    synchronized (this.regs) {
-                        this.regs.remove(socketFactory);
-                    }
+                    this.regs.remove(endpoint, registry);
                 }
             } catch (NotBoundException | RemoteException e) {
                 throw RMIUtils.wrap(e);
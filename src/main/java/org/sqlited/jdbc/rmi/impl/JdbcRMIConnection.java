@@ -16,11 +16,13 @@
 
 package org.sqlited.jdbc.rmi.impl;
 
+import org.sqlited.jdbc.JdbcDatabaseMetaData;
 import org.sqlited.jdbc.JdbcSavepoint;
 import org.sqlited.jdbc.adapter.ConnectionAdapter;
 import static org.sqlited.jdbc.rmi.util.RMIUtils.*;
 
 import org.sqlited.jdbc.rmi.util.VoidMethod;
+import org.sqlited.meta.Catalog;
 import org.sqlited.rmi.RMIConnection;
 import org.sqlited.rmi.RMIStatement;
 import org.sqlited.util.IOUtils;
@@ -34,6 +36,7 @@ public class JdbcRMIConnection extends ConnectionAdapter {
     protected final Properties props;
     protected final RMIConnection rmiConn;
     protected int status;
+    private JdbcDatabaseMetaData metaData;
 
     public JdbcRMIConnection(Properties props, RMIConnection rmiConn)
             throws SQLException {
@@ -145,6 +148,23 @@ public class JdbcRMIConnection extends ConnectionAdapter {
         }
     }
 
+    @Override
+    public DatabaseMetaData getMetaData() throws SQLException {
+        JdbcDatabaseMetaData metaData = this.metaData;
+        if (metaData == null) {
+            Properties props = this.props;
+            String url = props.getProperty("url");
+            String user = props.getProperty("user");
+            metaData = new JdbcDatabaseMetaData(this, url, user, this::getCatalog);
+            this.metaData = metaData;
+        }
+        return metaData;
+    }
+
+    public Catalog getCatalog(long version) throws SQLException {
+        return invoke(() -> this.rmiConn.getCatalog(version), this.props);
+    }
+
     @Override
     public void close() {
         IOUtils.close(this.rmiConn);
@@ -22,12 +22,17 @@ import org.sqlited.rmi.RMIStatement;
 import org.sqlited.jdbc.rmi.util.RMIUtils;
 
 import java.sql.SQLException;
+import java.util.concurrent.Future;
 
 public class JdbcRMIResultSet extends JdbcResultSet {
 
+    // At most one batch fetched ahead, so client buffering is bounded
+    private Future<RowIterator> prefetch;
+
     public JdbcRMIResultSet(JdbcRMIConnection conn, JdbcRMIStatement stmt,
                             RowIterator rowItr) {
         super(conn, stmt, rowItr);
+        prefetch(rowItr);
     }
 
     protected RMIStatement rmiStmt() throws SQLException {
@@ -44,29 +49,64 @@ public class JdbcRMIResultSet extends JdbcResultSet {
         return (JdbcRMIStatement)this.stmt;
     }
 
+    protected void prefetch(RowIterator rowItr) {
+        if (!rowItr.isLast()) {
+            JdbcRMIConnection conn = getConnection();
+            int size = ((JdbcRMIStatement)this.stmt).fetchSize;
+            this.prefetch = RMIUtils.submit(() -> rmiStmt().next(false, size),
+                    conn.props);
+        }
+    }
+
     @Override
     protected RowIterator fetchRows(boolean meta) throws SQLException {
-        JdbcRMIConnection conn = getConnection();
-        return RMIUtils.invoke(() -> rmiStmt().next(meta), conn.props);
+        Future<RowIterator> f = this.prefetch;
+        RowIterator rowItr;
+
+        this.prefetch = null;
+        if (f == null || meta) {
+            if (f != null) RMIUtils.await(f);
+            JdbcRMIConnection conn = getConnection();
+            int size = getStatement().fetchSize;
+            rowItr = RMIUtils.invoke(() -> rmiStmt().next(meta, size), conn.props);
+        } else {
+            rowItr = RMIUtils.await(f);
+        }
+        prefetch(rowItr);
+
+        return rowItr;
     }
 
     @Override
     public int getFetchSize() throws SQLException {
         checkOpen();
-        JdbcRMIConnection conn = getConnection();
-        return RMIUtils.invoke(rmiStmt()::getFetchSize, conn.props);
+        return getStatement().getFetchSize();
     }
 
     @Override
     public void setFetchSize(int fetchSize) throws SQLException {
         checkOpen();
-        JdbcRMIConnection conn = getConnection();
-        RMIUtils.invoke(() -> rmiStmt().setFetchSize(fetchSize), conn.props);
+        getStatement().setFetchSize(fetchSize);
+    }
+
+    /** Wait for the batch fetched ahead, kept for the next fetch, so that
+     * the remote statement isn't called concurrently.
+     */
+    protected void awaitPrefetch() throws SQLException {
+        Future<RowIterator> f = this.prefetch;
+        if (f == null) return;
+        try {
+            RMIUtils.await(f);
+        } catch (SQLException e) {
+            // The fetch error thrown by the next fetch
+            if (!f.isDone()) throw e;
+        }
     }
 
     @Override
     public int getFetchDirection() throws SQLException {
         checkOpen();
+        awaitPrefetch();
         JdbcRMIConnection conn = getConnection();
         return RMIUtils.invoke(rmiStmt()::getFetchDirection, conn.props);
     }
@@ -74,8 +114,23 @@ public class JdbcRMIResultSet extends JdbcResultSet {
     @Override
     public void setFetchDirection(int direction) throws SQLException {
         checkOpen();
+        awaitPrefetch();
         JdbcRMIConnection conn = getConnection();
         RMIUtils.invoke(() -> rmiStmt().setFetchDirection(direction), conn.props);
     }
 
+    @Override
+    public void close() {
+        Future<RowIterator> f = this.prefetch;
+        this.prefetch = null;
+        if (f != null) {
+            try {
+                RMIUtils.await(f);
+            } catch (SQLException ignore) {
+                // Ignore
+            }
+        }
+        super.close();
+    }
+
 }
@@ -30,6 +30,10 @@ public class JdbcRMIStatement extends StatementAdapter {
 
     protected final JdbcRMIConnection conn;
     protected final RMIStatement rmiStmt;
+    protected int fetchSize;
+    protected boolean closed;
+
+    protected JdbcRMIResultSet resultSet;
 
     public JdbcRMIStatement(JdbcRMIConnection conn, RMIStatement rmiStmt) {
         this.conn = conn;
@@ -38,19 +42,51 @@ public class JdbcRMIStatement extends StatementAdapter {
 
     @Override
     public ResultSet executeQuery(String sql) throws SQLException {
+        closeResultSet();
+        int fetchSize = this.fetchSize;
         return invoke(() -> {
-            RowIterator itr = this.rmiStmt.executeQuery(sql);
-            return new JdbcRMIResultSet(this.conn, this, itr);
+            // Execute and fetch the first rows in one round trip
+            RowIterator itr = this.rmiStmt.executeAndFetch(sql, fetchSize);
+            return (this.resultSet = new JdbcRMIResultSet(this.conn, this, itr));
         }, this.conn.props);
     }
 
     @Override
     public int executeUpdate(String sql) throws SQLException {
+        closeResultSet();
         return invoke(() -> this.rmiStmt.executeUpdate(sql), this.conn.props);
     }
 
+    @Override
+    public void setFetchSize(int rows) throws SQLException {
+        if (rows < 0) throw new SQLException("Fetch size negative: " + rows);
+        this.fetchSize = rows;
+    }
+
+    @Override
+    public int getFetchSize() throws SQLException {
+        return this.fetchSize;
+    }
+
+    protected void closeResultSet() {
+        // Note: waits for any in-flight prefetch on the remote statement
+        IOUtils.close(this.resultSet);
+        this.resultSet = null;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return this.closed;
+    }
+
     @Override
     public void close() {
+        if (this.closed) {
+            return;
+        }
+        // Release at most once: the server recycles its statement object
+        this.closed = true;
+        closeResultSet();
         IOUtils.close(this.rmiStmt);
     }
 
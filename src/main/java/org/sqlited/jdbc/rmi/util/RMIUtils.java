@@ -23,9 +23,19 @@ import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
 import java.sql.SQLException;
 import java.util.Properties;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 public final class RMIUtils {
 
+    static final AtomicLong WORKER_ID = new AtomicLong();
+    static final ExecutorService FETCH_POOL = Executors.newCachedThreadPool(r -> {
+        long id = WORKER_ID.incrementAndGet();
+        Thread t = new Thread(r, "sqlited-rmi-fetch-" + id);
+        t.setDaemon(true);
+        return t;
+    });
+
     private RMIUtils() {}
 
     public static SQLException wrap(Exception e) {
@@ -38,24 +48,44 @@ public final class RMIUtils {
     }
 
     public static void invoke(VoidMethod m, Properties props) throws SQLException {
-        AuthSocketFactory.attachProperties(props);
+        boolean attached = AuthSocketFactory.attachIfAbsent(props);
         try {
             m.invoke();
         } catch (RemoteException | NotBoundException e) {
             throw RMIUtils.wrap(e);
         } finally {
-            AuthSocketFactory.detachProperties();
+            if (attached) AuthSocketFactory.detachProperties();
         }
     }
 
     public static <R> R invoke(RMIMethod<R> m, Properties props) throws SQLException {
-        AuthSocketFactory.attachProperties(props);
+        boolean attached = AuthSocketFactory.attachIfAbsent(props);
         try {
             return m.invoke();
         } catch (RemoteException | NotBoundException e) {
             throw RMIUtils.wrap(e);
         } finally {
-            AuthSocketFactory.detachProperties();
+            if (attached) AuthSocketFactory.detachProperties();
+        }
+    }
+
+    public static <R> Future<R> submit(RMIMethod<R> m, Properties props) {
+        return FETCH_POOL.submit(() -> invoke(m, props));
+    }
+
+    public static <R> R await(Future<R> f) throws SQLException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Wait for remote call interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            } else {
+                throw new SQLException(cause);
+            }
         }
     }
 
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.jdbc.shard;
+
+import org.sqlited.jdbc.adapter.DriverAdapter;
+import org.sqlited.jdbc.rmi.JdbcRMIDriver;
+import org.sqlited.jdbc.shard.impl.JdbcShardConnection;
+import org.sqlited.jdbc.tcp.JdbcTcpDriver;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.*;
+
+public class JdbcShardDriver extends DriverAdapter {
+
+    public static final String PREFIX = DriverAdapter.PREFIX + "shard:";
+
+    @Override
+    public Connection connect(String url, Properties info) throws SQLException {
+        if (!isValidURL(url)) {
+            return null;
+        }
+
+        // Parse url
+        // jdbc:sqlited:shard:[rmi|tcp:]//HOST[:PORT]/DB[,HOST[:PORT]/DB...][?a=b&...]
+        String s = url.substring(PREFIX.length());
+        String scheme = "tcp:";
+        String lower = s.toLowerCase(Locale.ENGLISH);
+        if (lower.startsWith("rmi:") || lower.startsWith("tcp:")) {
+            scheme = lower.substring(0, 4);
+            s = s.substring(4);
+        }
+        if (!s.startsWith("//")) {
+            throw new SQLException("Malformed url '" + url + "'");
+        }
+        s = s.substring(2);
+
+        int vnodes = ShardRing.DEFAULT_VNODES;
+        String params = "";
+        int i = s.indexOf('?');
+        if (i != -1) {
+            List<String> np = new ArrayList<>();
+            for (String p: s.substring(i + 1).split("&")) {
+                String[] item = p.split("=", 2);
+                if (item.length != 2) {
+                    throw new SQLException("Malformed url '" + url + "'");
+                }
+                if ("vnodes".equals(item[0])) {
+                    vnodes = Integer.decode(item[1]);
+                } else {
+                    np.add(p);
+                }
+            }
+            if (np.size() > 0) {
+                params = "?" + String.join("&", np);
+            }
+            s = s.substring(0, i);
+        }
+
+        Map<String, String> urls = new LinkedHashMap<>();
+        for (String shard: s.split(",")) {
+            shard = shard.trim();
+            if (shard.indexOf('/') <= 0) {
+                throw new SQLException("Malformed url '" + url + "'");
+            }
+            String u = DriverAdapter.PREFIX + scheme + "//" + shard + params;
+            if (urls.put(shard, u) != null) {
+                throw new SQLException("Duplicated shard '" + shard + "'");
+            }
+        }
+        ShardRing ring = new ShardRing(new ArrayList<>(urls.keySet()), vnodes);
+        java.sql.Driver driver;
+        if ("rmi:".equals(scheme)) {
+            driver = new JdbcRMIDriver();
+        } else {
+            driver = new JdbcTcpDriver();
+        }
+        Properties copy = new Properties();
+        copy.putAll(info);
+
+        return new JdbcShardConnection(driver, ring, urls, copy);
+    }
+
+    @Override
+    protected Connection connect(String url, Properties info,
+                                 Properties connProps) throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    protected String getPrefix() {
+        return PREFIX;
+    }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.jdbc.shard;
+
+import org.sqlited.util.MDUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.*;
+
+public class ShardRing {
+
+    public static final int DEFAULT_VNODES = 160;
+
+    protected final List<String> shards;
+    protected final NavigableMap<Long, String> ring = new TreeMap<>();
+
+    public ShardRing(List<String> shards) {
+        this(shards, DEFAULT_VNODES);
+    }
+
+    public ShardRing(List<String> shards, int vnodes) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("No shards");
+        }
+        if (vnodes <= 0) {
+            throw new IllegalArgumentException("vnodes " + vnodes);
+        }
+        this.shards = Collections.unmodifiableList(new ArrayList<>(shards));
+        // Virtual nodes keyed by the shard name only, so adding or removing
+        // a shard just moves the keys around its own points
+        for (String shard: this.shards) {
+            for (int i = 0; i < vnodes; ++i) {
+                this.ring.putIfAbsent(hash(shard + "#" + i), shard);
+            }
+        }
+    }
+
+    public List<String> getShards() {
+        return this.shards;
+    }
+
+    public String locate(Object key) {
+        if (key == null) throw new NullPointerException("Shard key null");
+        Map.Entry<Long, String> e = this.ring.ceilingEntry(hash(key.toString()));
+        if (e == null) e = this.ring.firstEntry();
+        return e.getValue();
+    }
+
+    protected static long hash(String s) {
+        MessageDigest md = MDUtils.md5();
+        byte[] d = md.digest(s.getBytes(StandardCharsets.UTF_8));
+        long h = 0;
+        for (int i = 0; i < 8; ++i) {
+            h = (h << 8) | (d[i] & 0xff);
+        }
+        return h;
+    }
+
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.jdbc.shard.impl;
+
+import org.sqlited.jdbc.adapter.ConnectionAdapter;
+import org.sqlited.jdbc.shard.ShardRing;
+import org.sqlited.util.IOUtils;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class JdbcShardConnection extends ConnectionAdapter {
+
+    static final AtomicLong WORKER_ID = new AtomicLong();
+    static final ExecutorService FANOUT_POOL = Executors.newCachedThreadPool(r -> {
+        long id = WORKER_ID.incrementAndGet();
+        Thread t = new Thread(r, "sqlited-shard-worker-" + id);
+        t.setDaemon(true);
+        return t;
+    });
+
+    protected final Driver driver;
+    protected final ShardRing ring;
+    protected final Map<String, String> urls;
+    protected final Properties info;
+    protected final Map<String, Connection> conns = new ConcurrentHashMap<>();
+    // The shard connections are shared by the fan-out workers and not
+    // thread-safe: each use of one holds the lock of the shard
+    protected final Map<String, Lock> locks = new ConcurrentHashMap<>();
+    private volatile boolean autoCommit = true;
+    private volatile boolean closed;
+
+    public JdbcShardConnection(Driver driver, ShardRing ring,
+                               Map<String, String> urls, Properties info) {
+        this.driver = driver;
+        this.ring = ring;
+        this.urls = urls;
+        this.info = info;
+    }
+
+    public List<String> getShards() {
+        return this.ring.getShards();
+    }
+
+    public String locate(Object shardKey) {
+        return this.ring.locate(shardKey);
+    }
+
+    /** Get the physical connection of the shard key. The connection is
+     * shared with the fan-out commands of this connection, so it must not
+     * be used while a fan-out result set is open or in another thread.
+     */
+    public Connection getShard(Object shardKey) throws SQLException {
+        return getShardConnection(locate(shardKey));
+    }
+
+    public Connection getShardConnection(String shard) throws SQLException {
+        checkOpen();
+        Connection conn = this.conns.get(shard);
+        if (conn != null) {
+            return conn;
+        }
+
+        String url = this.urls.get(shard);
+        if (url == null) {
+            throw new SQLException("No shard '" + shard + "'");
+        }
+        conn = this.driver.connect(url, this.info);
+        boolean failed = true;
+        try {
+            if (!this.autoCommit) conn.setAutoCommit(false);
+            failed = false;
+        } finally {
+            if (failed) IOUtils.close(conn);
+        }
+        Connection old = this.conns.putIfAbsent(shard, conn);
+        if (old != null) {
+            IOUtils.close(conn);
+            return old;
+        }
+        if (this.closed) {
+            closeShards();
+            checkOpen();
+        }
+
+        return conn;
+    }
+
+    @Override
+    public Statement createStatement(int rsType, int rsConcur, int rsHold)
+            throws SQLException {
+        checkOpen();
+        if (rsType != ResultSet.TYPE_FORWARD_ONLY
+                || rsConcur != ResultSet.CONCUR_READ_ONLY) {
+            throw new SQLFeatureNotSupportedException();
+        }
+        return new JdbcShardStatement(this);
+    }
+
+    @Override
+    public void setAutoCommit(boolean autoCommit) throws SQLException {
+        checkOpen();
+        forEachShard(c -> c.setAutoCommit(autoCommit));
+        this.autoCommit = autoCommit;
+    }
+
+    @Override
+    public boolean getAutoCommit() throws SQLException {
+        return this.autoCommit;
+    }
+
+    // Shards commit one by one: no atomicity across shards
+    @Override
+    public void commit() throws SQLException {
+        checkOpen();
+        forEachShard(Connection::commit);
+    }
+
+    @Override
+    public void rollback() throws SQLException {
+        checkOpen();
+        forEachShard(Connection::rollback);
+    }
+
+    protected void forEachShard(ShardAction action) throws SQLException {
+        SQLException error = null;
+        for (Map.Entry<String, Connection> e: this.conns.entrySet()) {
+            Lock lock = lock(e.getKey());
+            lock.lock();
+            try {
+                action.apply(e.getValue());
+            } catch (SQLException cause) {
+                String s = "Shard '" + e.getKey() + "' failure";
+                SQLException x = new SQLException(s, cause.getSQLState(), cause);
+                if (error == null) error = x;
+                else error.addSuppressed(x);
+            } finally {
+                lock.unlock();
+            }
+        }
+        if (error != null) throw error;
+    }
+
+    Lock lock(String shard) {
+        return this.locks.computeIfAbsent(shard, k -> new ReentrantLock());
+    }
+
+    <R> Future<R> submit(Callable<R> task) {
+        return FANOUT_POOL.submit(task);
+    }
+
+    static <R> R await(Future<R> f) throws SQLException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Wait for shards interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            } else {
+                throw new SQLException(cause);
+            }
+        }
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> aClass) throws SQLException {
+        if (aClass.isInstance(this)) {
+            return aClass.cast(this);
+        } else {
+            return super.unwrap(aClass);
+        }
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> aClass) throws SQLException {
+        return aClass.isInstance(this);
+    }
+
+    @Override
+    public boolean isClosed() throws SQLException {
+        return this.closed;
+    }
+
+    protected void checkOpen() throws SQLException {
+        if (isClosed()) {
+            throw new SQLException("Connection closed", "08003");
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        this.closed = true;
+        closeShards();
+        super.close();
+    }
+
+    protected void closeShards() {
+        for (Iterator<Map.Entry<String, Connection>> i = this.conns.entrySet().iterator();
+             i.hasNext(); ) {
+            Map.Entry<String, Connection> e = i.next();
+            Lock lock = lock(e.getKey());
+            lock.lock();
+            try {
+                IOUtils.close(e.getValue());
+                i.remove();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    interface ShardAction {
+        void apply(Connection conn) throws SQLException;
+    }
+
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.jdbc.shard.impl;
+
+import org.sqlited.jdbc.JdbcResultSet;
+import org.sqlited.jdbc.JdbcResultSetMetaData;
+import org.sqlited.result.ResultSetMetaData;
+import org.sqlited.result.RowIterator;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+public class JdbcShardResultSet extends JdbcResultSet {
+
+    static final int DEFAULT_BATCH = 100;
+
+    protected final Gather gather;
+
+    protected JdbcShardResultSet(JdbcShardConnection conn, JdbcShardStatement stmt,
+                                 Gather gather, RowIterator rowItr) {
+        super(conn, stmt, rowItr);
+        this.gather = gather;
+    }
+
+    // Scatter the query to all shards, and gather the rows in arrival order
+    static JdbcShardResultSet scatter(JdbcShardConnection conn, JdbcShardStatement stmt,
+                                      String sql) throws SQLException {
+        List<String> shards = conn.getShards();
+        int batch = stmt.fetchSize > 0 ? stmt.fetchSize: DEFAULT_BATCH;
+        Gather gather = new Gather(stmt, shards.size());
+        for (String shard: shards) {
+            gather.futures.add(conn.submit(() -> {
+                gather.pull(shard, sql, batch);
+                return null;
+            }));
+        }
+
+        boolean failed = true;
+        try {
+            RowIterator rowItr = gather.next();
+            JdbcShardResultSet rs = new JdbcShardResultSet(conn, stmt, gather, rowItr);
+            failed = false;
+            return rs;
+        } finally {
+            if (failed) gather.close();
+        }
+    }
+
+    @Override
+    protected RowIterator fetchRows(boolean meta) throws SQLException {
+        return this.gather.next();
+    }
+
+    @Override
+    public void close() {
+        this.gather.close();
+        super.close();
+    }
+
+    static class Gather {
+        static final Object END = new Object();
+
+        final JdbcShardStatement stmt;
+        final BlockingQueue<Object> queue;
+        final List<Future<?>> futures;
+        private int remaining;
+        private ResultSetMetaData metaData;
+        private volatile boolean closed;
+
+        Gather(JdbcShardStatement stmt, int shards) {
+            this.stmt = stmt;
+            this.queue = new ArrayBlockingQueue<>(shards << 1);
+            this.futures = new ArrayList<>(shards);
+            this.remaining = shards;
+        }
+
+        void pull(String shard, String sql, int batch) {
+            if (this.closed) return;
+            JdbcShardStatement stmt = this.stmt;
+            Lock lock = stmt.conn.lock(shard);
+            try {
+                stmt.execute(shard, s -> {
+                    try (ResultSet rs = s.executeQuery(sql)) {
+                        List<Object[]> rows = new ArrayList<>();
+                        ResultSetMetaData meta = null;
+                        int n = 0;
+                        while (!this.closed && rs.next()) {
+                            if (meta == null) {
+                                JdbcResultSetMetaData d = (JdbcResultSetMetaData)rs.getMetaData();
+                                meta = d.getResultMetaData();
+                                n = meta.getColumnCount();
+                            }
+                            Object[] row = new Object[n];
+                            for (int i = 0; i < n; ++i) {
+                                row[i] = rs.getObject(i + 1);
+                            }
+                            rows.add(row);
+                            if (rows.size() >= batch) {
+                                put(lock, new Batch(meta, rows));
+                                rows = new ArrayList<>();
+                            }
+                        }
+                        if (rows.size() > 0) {
+                            put(lock, new Batch(meta, rows));
+                        }
+                    }
+                    return null;
+                });
+                put(END);
+            } catch (SQLException e) {
+                put(e);
+            } catch (RuntimeException e) {
+                put(new SQLException(e));
+            }
+        }
+
+        RowIterator next() throws SQLException {
+            while (this.remaining > 0) {
+                Object o = take();
+                if (o == END) {
+                    --this.remaining;
+                } else if (o instanceof SQLException) {
+                    // The other shards stop before the caller goes on
+                    close();
+                    throw (SQLException) o;
+                } else {
+                    Batch b = (Batch) o;
+                    ResultSetMetaData meta = this.metaData;
+                    if (meta == null) {
+                        this.metaData = b.metaData;
+                        return new RowIterator(b.rows, false, b.metaData);
+                    }
+                    if (meta.getColumnCount() != b.metaData.getColumnCount()) {
+                        close();
+                        throw new SQLException("Shard result columns mismatch");
+                    }
+                    return new RowIterator(b.rows, false, null);
+                }
+            }
+            // No meta data for an empty result, as a single server does
+            List<Object[]> rows = Collections.emptyList();
+            return new RowIterator(rows, true, null);
+        }
+
+        Object take() throws SQLException {
+            try {
+                return this.queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Wait for shards interrupted", e);
+            }
+        }
+
+        void put(Lock lock, Object o) {
+            // Not blocking the other users of the shard connection
+            lock.unlock();
+            try {
+                put(o);
+            } finally {
+                lock.lock();
+            }
+        }
+
+        void put(Object o) {
+            try {
+                while (!this.closed) {
+                    if (this.queue.offer(o, 100, TimeUnit.MILLISECONDS)) {
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void close() {
+            this.closed = true;
+            this.queue.clear();
+            // The workers stop after the current batch, and the shard
+            // connections are free when they exit
+            boolean interrupted = false;
+            for (Future<?> f: this.futures) {
+                while (true) {
+                    try {
+                        f.get();
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    } catch (ExecutionException e) {
+                        break;
+                    }
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+            this.queue.clear();
+        }
+    }
+
+    static class Batch {
+        final ResultSetMetaData metaData;
+        final List<Object[]> rows;
+
+        Batch(ResultSetMetaData metaData, List<Object[]> rows) {
+            this.metaData = metaData;
+            this.rows = rows;
+        }
+    }
+
+}
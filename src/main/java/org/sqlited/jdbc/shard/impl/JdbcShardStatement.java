@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.jdbc.shard.impl;
+
+import org.sqlited.jdbc.adapter.StatementAdapter;
+import org.sqlited.util.IOUtils;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+import java.util.regex.Pattern;
+
+public class JdbcShardStatement extends StatementAdapter {
+
+    // Leading comments, the CTE if any, then an insert verb
+    static final Pattern INSERT = Pattern.compile("^(\\s|--[^\n]*|/\\*.*?\\*/)*"
+            + "(with\\b.*?\\b)?(insert|replace)\\b",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    protected final JdbcShardConnection conn;
+    protected int fetchSize;
+    protected int queryTimeout;
+    // Shard statements in flight, for cancel()
+    protected final Set<Statement> running = ConcurrentHashMap.newKeySet();
+
+    protected JdbcShardResultSet resultSet;
+    protected long affectedRows = -1;
+    private volatile boolean closed;
+
+    public JdbcShardStatement(JdbcShardConnection conn) {
+        this.conn = conn;
+    }
+
+    @Override
+    public ResultSet executeQuery(String sql) throws SQLException {
+        checkOpen();
+        closeResultSet();
+        this.affectedRows = -1;
+        this.resultSet = JdbcShardResultSet.scatter(this.conn, this, sql);
+        return this.resultSet;
+    }
+
+    @Override
+    public int executeUpdate(String sql) throws SQLException {
+        checkOpen();
+        closeResultSet();
+        this.affectedRows = -1;
+        // An update or delete touches each row on its shard only, but an
+        // insert on every shard copies the rows
+        if (INSERT.matcher(sql).find()) {
+            String s = "Insert on all shards, route it by getShard(shardKey)";
+            throw new SQLFeatureNotSupportedException(s, "0A000");
+        }
+
+        List<String> shards = this.conn.getShards();
+        List<Future<Integer>> futures = new ArrayList<>(shards.size());
+        for (String shard: shards) {
+            futures.add(this.conn.submit(() -> execute(shard, stmt -> {
+                return stmt.executeUpdate(sql);
+            })));
+        }
+        long n = 0;
+        SQLException error = null;
+        for (Future<Integer> f: futures) {
+            try {
+                n += JdbcShardConnection.await(f);
+            } catch (SQLException e) {
+                if (error == null) error = e;
+                else error.addSuppressed(e);
+            }
+        }
+        if (error != null) throw error;
+
+        this.affectedRows = n;
+        return (int)n;
+    }
+
+    <R> R execute(String shard, ShardCall<R> call) throws SQLException {
+        Lock lock = this.conn.lock(shard);
+        lock.lock();
+        try {
+            Connection conn = this.conn.getShardConnection(shard);
+            try (Statement stmt = conn.createStatement()) {
+                if (this.fetchSize > 0) stmt.setFetchSize(this.fetchSize);
+                if (this.queryTimeout > 0) stmt.setQueryTimeout(this.queryTimeout);
+                this.running.add(stmt);
+                try {
+                    return call.apply(stmt);
+                } finally {
+                    this.running.remove(stmt);
+                }
+            }
+        } catch (SQLException e) {
+            String s = "Shard '" + shard + "' failure: " + e.getMessage();
+            throw new SQLException(s, e.getSQLState(), e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public ResultSet getResultSet() throws SQLException {
+        return this.resultSet;
+    }
+
+    @Override
+    public int getUpdateCount() throws SQLException {
+        return (int)this.affectedRows;
+    }
+
+    @Override
+    public int getQueryTimeout() throws SQLException {
+        return this.queryTimeout;
+    }
+
+    @Override
+    public void setQueryTimeout(int seconds) throws SQLException {
+        if (seconds < 0) {
+            throw new SQLException("Query timeout " + seconds, "S1009");
+        }
+        this.queryTimeout = seconds;
+    }
+
+    @Override
+    public void cancel() throws SQLException {
+        for (Statement stmt: this.running) {
+            stmt.cancel();
+        }
+    }
+
+    @Override
+    public void setFetchSize(int rows) throws SQLException {
+        if (rows < 0) throw new SQLException("Fetch size negative: " + rows);
+        this.fetchSize = rows;
+    }
+
+    @Override
+    public int getFetchSize() throws SQLException {
+        return this.fetchSize;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return this.conn;
+    }
+
+    @Override
+    public boolean isClosed() throws SQLException {
+        return this.closed;
+    }
+
+    protected void checkOpen() throws SQLException {
+        if (isClosed()) {
+            throw new SQLException("Statement closed");
+        }
+    }
+
+    protected void closeResultSet() {
+        IOUtils.close(this.resultSet);
+        this.resultSet = null;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        this.closed = true;
+        closeResultSet();
+    }
+
+    interface ShardCall<R> {
+        R apply(Statement stmt) throws SQLException;
+    }
+
+}
@@ -17,9 +17,12 @@
 package org.sqlited.jdbc.tcp;
 
 import org.sqlited.jdbc.adapter.DriverAdapter;
+import org.sqlited.jdbc.lb.EndpointBalancer;
 import org.sqlited.jdbc.tcp.impl.JdbcTcpConnection;
+import org.sqlited.jdbc.tcp.impl.JdbcTcpMux;
 import org.sqlited.net.AuthSocketFactory;
 import org.sqlited.util.IOUtils;
+import org.sqlited.util.logging.LoggerFactory;
 
 import javax.net.SocketFactory;
 import java.io.IOException;
@@ -27,22 +30,102 @@ import java.net.Socket;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.SQLNonTransientConnectionException;
-import java.util.Locale;
-import java.util.Properties;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public class JdbcTcpDriver extends DriverAdapter {
+    static final Logger log = LoggerFactory.getLogger(JdbcTcpDriver.class);
 
     public static final String PREFIX = DriverAdapter.PREFIX + "tcp:";
 
     @Override
     protected Connection connect(String url, Properties info, Properties connProps)
             throws SQLException {
-        SocketFactory socketFactory = new AuthSocketFactory(connProps);
-        String host = connProps.getProperty("host");
-        int port = Integer.decode(connProps.getProperty("port"));
+        boolean readOnly = Boolean.parseBoolean(connProps.getProperty("readOnly"));
+        String replicas = connProps.getProperty("replicas");
+
+        JdbcTcpConnection conn = null;
+        if (readOnly && replicas != null) {
+            conn = connectReplica(url, info, connProps, replicas);
+        }
+        if (conn == null) {
+            String endpoints = connProps.getProperty("endpoints");
+            if (endpoints == null) {
+                String host = connProps.getProperty("host");
+                int port = Integer.decode(connProps.getProperty("port"));
+                conn = connect(url, info, connProps, host, port);
+            } else {
+                conn = connectBalanced(url, info, connProps, endpoints);
+            }
+            if (readOnly) {
+                boolean failed = true;
+                try {
+                    conn.setReadOnly(true);
+                    failed = false;
+                } finally {
+                    if (failed) IOUtils.close(conn);
+                }
+            }
+        }
+
+        return conn;
+    }
+
+    protected JdbcTcpConnection connectReplica(String url, Properties info,
+                                               Properties connProps, String replicas) {
+        long maxLag = Long.decode(connProps.getProperty("maxLag", "5000"));
+        List<String> list = new ArrayList<>(Arrays.asList(replicas.split(",")));
+        Collections.shuffle(list);
 
+        for (String replica: list) {
+            String host = replica.trim();
+            int port = getPort();
+            int i = host.lastIndexOf(':');
+            if (i != -1) {
+                port = Integer.decode(host.substring(i + 1));
+                host = host.substring(0, i);
+            }
+            JdbcTcpConnection conn = null;
+            try {
+                conn = connect(url, info, connProps, host, port);
+                long lag = conn.getReplicationLag();
+                if (lag >= 0 && lag <= maxLag) {
+                    return conn;
+                }
+                log.fine(() -> String.format("replica %s lag %dms", replica, lag));
+            } catch (SQLException e) {
+                String s = "Connect replica " + replica + " failure";
+                log.log(Level.FINE, s, e);
+            }
+            IOUtils.close(conn);
+        }
+        // Fallback to the leader
+        return null;
+    }
+
+    protected JdbcTcpConnection connectBalanced(String url, Properties info,
+                                                Properties connProps, String endpoints)
+            throws SQLException {
+        EndpointBalancer balancer = EndpointBalancer.get(endpoints, connProps);
+        String policy = connProps.getProperty("loadBalance");
+        return balancer.connect(policy, ep -> {
+            String host = ep.getHost();
+            int port = ep.getPort();
+            JdbcTcpConnection conn = connect(url, info, connProps, host, port);
+            conn.setCloseHook(ep::release);
+            return conn;
+        });
+    }
+
+    protected JdbcTcpConnection connect(String url, Properties info, Properties connProps,
+                                        String host, int port) throws SQLException {
+        SocketFactory socketFactory = new AuthSocketFactory(connProps);
+        boolean mux = Boolean.parseBoolean(connProps.getProperty("mux"));
         try {
-            Socket socket = socketFactory.createSocket(host, port);
+            Socket socket;
+            if (mux) socket = JdbcTcpMux.open(connProps, host, port);
+            else socket = socketFactory.createSocket(host, port);
             boolean failed = true;
             try {
                 JdbcTcpConnection conn = new JdbcTcpConnection(connProps, socket);
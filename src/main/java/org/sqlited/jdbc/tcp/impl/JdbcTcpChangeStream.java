@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.jdbc.tcp.impl;
+
+import org.sqlited.cdc.Change;
+import org.sqlited.io.Transfer;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.List;
+
+/** The committed change stream of a database, which occupies the
+ * connection subscribed until closed.
+ * @threadunsafe
+ */
+public class JdbcTcpChangeStream implements AutoCloseable {
+
+    protected final JdbcTcpConnection conn;
+
+    public JdbcTcpChangeStream(JdbcTcpConnection conn) {
+        this.conn = conn;
+    }
+
+    /** Wait for the changes of the next commit.
+     * @return the changes of one commit in order
+     */
+    public List<Change> next() throws SQLException {
+        while (true) {
+            List<Change> batch = read();
+            // Skip heartbeat
+            if (!batch.isEmpty()) return batch;
+        }
+    }
+
+    /** Read the next message from the server.
+     * @return the changes of one commit, or empty list on heartbeat, which
+     * means that all changes before it have been delivered
+     */
+    public List<Change> read() throws SQLException {
+        Transfer ch = this.conn.ch;
+        try {
+            return Change.readBatch(ch);
+        } catch (IOException e) {
+            String s = "Read changes error";
+            throw this.conn.handle(s, e);
+        }
+    }
+
+    public boolean isClosed() throws SQLException {
+        return this.conn.isClosed();
+    }
+
+    @Override
+    public void close() throws SQLException {
+        this.conn.close();
+    }
+
+}
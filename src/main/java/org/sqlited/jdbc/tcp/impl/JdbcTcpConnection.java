@@ -17,23 +17,52 @@
 package org.sqlited.jdbc.tcp.impl;
 
 import org.sqlited.io.Transfer;
+import org.sqlited.jdbc.JdbcDatabaseMetaData;
 import org.sqlited.jdbc.JdbcSavepoint;
 import org.sqlited.jdbc.adapter.ConnectionAdapter;
+import org.sqlited.jdbc.bulk.CsvReader;
+import org.sqlited.jdbc.bulk.ExportOptions;
+import org.sqlited.jdbc.bulk.ExportOptions.Format;
+import org.sqlited.jdbc.bulk.ImportOptions;
+import org.sqlited.jdbc.bulk.ImportResult;
+import org.sqlited.meta.Catalog;
+import org.sqlited.net.AuthSocketFactory;
 import org.sqlited.util.IOUtils;
 
-import java.io.IOException;
+import javax.net.SocketFactory;
+import java.io.*;
 import java.net.Socket;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.InflaterOutputStream;
 
 public class JdbcTcpConnection extends ConnectionAdapter {
 
+    static final int CHUNK_SIZE = 1 << 16;
+    static final String CANCEL_KEY = "cancelKey";
+    // Server address -> sql -> {epoch, named id}
+    static final ConcurrentMap<String, ConcurrentMap<String, int[]>> NAMED
+            = new ConcurrentHashMap<>();
+
     protected final Properties props;
     protected final Socket socket;
     protected Transfer ch;
 
     protected int status;
+    // Cancel key of the server connection
+    protected long connId;
+    protected long cancelSecret;
+    private Runnable closeHook;
+    // The catalog epoch checked in this session
+    protected int namedEpoch;
+    private JdbcDatabaseMetaData metaData;
 
     public JdbcTcpConnection(Properties props, Socket socket) {
         this.props = props;
@@ -56,7 +85,35 @@ public class JdbcTcpConnection extends ConnectionAdapter {
             ch.writeString(name).writeString(value);
         }
         ch.flush();
-        readOK();
+        long[] a = readOK();
+        this.connId = a[0];
+        this.cancelSecret = a[1];
+    }
+
+    /** Cancel the statement executing on this connection through
+     * another connection to the server.
+     */
+    public void cancel() throws SQLException {
+        SocketFactory socketFactory = new AuthSocketFactory(this.props);
+        Socket socket = this.socket;
+        try (Socket so = socketFactory.createSocket(socket.getInetAddress(), socket.getPort())) {
+            String s = this.props.getProperty("maxBufferSize");
+            Transfer ch = new Transfer(so, Integer.decode(s));
+            String key = this.connId + ":" + this.cancelSecret;
+            ch.writeString("")
+                    .writeInt(1)
+                    .writeString(CANCEL_KEY)
+                    .writeString(key)
+                    .flush();
+            int result = ch.read(true);
+            if (Transfer.RESULT_ER == result) {
+                String message = ch.readString();
+                throw new SQLException(message, ch.readString(), ch.readInt());
+            }
+        } catch (IOException e) {
+            String s = "Cancel statement error";
+            throw new SQLNonTransientConnectionException(s, "08001", e);
+        }
     }
 
     protected long[] readOK() throws SQLException {
@@ -81,6 +138,13 @@ public class JdbcTcpConnection extends ConnectionAdapter {
             String s = ch.readString();
             String sqlState = ch.readString();
             int vendorCode = ch.readInt();
+            if ("HYT00".equals(sqlState)) {
+                throw new SQLTimeoutException(s, sqlState, vendorCode);
+            }
+            if ("53000".equals(sqlState)) {
+                // Server overload: retryable
+                throw new SQLTransientException(s, sqlState, vendorCode);
+            }
             throw new SQLException(s, sqlState, vendorCode);
         } else {
             String s = "Unknown server result type: " + result;
@@ -106,6 +170,34 @@ public class JdbcTcpConnection extends ConnectionAdapter {
         }
     }
 
+    /** Get the named statement {epoch, id} of the sql, registering it
+     * in the server catalog on the first use.
+     * @param renew true if the server has forgotten the named
+     */
+    protected int[] getNamed(String sql, boolean renew) throws SQLException {
+        Socket socket = this.socket;
+        String server = socket.getInetAddress().getHostAddress() + ":" + socket.getPort();
+        ConcurrentMap<String, int[]> named = NAMED.computeIfAbsent(server,
+                k -> new ConcurrentHashMap<>());
+        if (renew) named.clear();
+        int[] a = named.get(sql);
+        if (a != null) return a;
+
+        Transfer ch = this.ch;
+        try {
+            ch.write(Transfer.CMD_REGISTER)
+                    .writeString(sql)
+                    .flush();
+            long[] ok = readOK();
+            a = new int[] { (int) ok[0], (int) ok[1] };
+            named.put(sql, a);
+            return a;
+        } catch (IOException e) {
+            String s = "Register statement error";
+            throw handle(s, e);
+        }
+    }
+
     @Override
     public boolean isClosed() throws SQLException {
         return this.socket.isClosed();
@@ -272,12 +364,275 @@ public class JdbcTcpConnection extends ConnectionAdapter {
         }
     }
 
+    @Override
+    public DatabaseMetaData getMetaData() throws SQLException {
+        JdbcDatabaseMetaData metaData = this.metaData;
+        if (metaData == null) {
+            Properties props = this.props;
+            String url = props.getProperty("url");
+            String user = props.getProperty("user");
+            metaData = new JdbcDatabaseMetaData(this, url, user, this::getCatalog);
+            this.metaData = metaData;
+        }
+        return metaData;
+    }
+
+    /** Fetch the schema catalog of the main database.
+     * @return null if the catalog of the given version is current
+     */
+    public Catalog getCatalog(long version) throws SQLException {
+        Transfer ch = this.ch;
+        try {
+            ch.write(Transfer.CMD_CATALOG)
+                    .writeLong(version)
+                    .flush();
+            long[] a = readOK();
+            if (a[1] == 0) return null;
+            return Catalog.readCatalog(ch);
+        } catch (IOException e) {
+            String s = "Read catalog error";
+            throw handle(s, e);
+        }
+    }
+
+    /** Online backup of the database "db", e.g. "main", into the stream.
+     * @return the backup size
+     */
+    public long backup(String db, OutputStream out) throws SQLException {
+        Transfer ch = this.ch;
+        try {
+            ch.write(Transfer.CMD_BACKUP)
+                    .writeString(db)
+                    .flush();
+            readOK();
+            return ch.readChunks(out);
+        } catch (IOException e) {
+            String s = "Backup error";
+            throw handle(s, e);
+        }
+    }
+
+    /** Restore the database "db" from the backup stream.
+     * @return the backup size
+     */
+    public long restore(String db, InputStream in) throws SQLException {
+        Transfer ch = this.ch;
+        try {
+            ch.write(Transfer.CMD_RESTORE)
+                    .writeString(db);
+            ch.writeChunks(in, CHUNK_SIZE);
+            ch.flush();
+            return readOK()[1];
+        } catch (IOException e) {
+            String s = "Restore error";
+            throw handle(s, e);
+        }
+    }
+
+    /** Bulk import the rows into the table in one transaction, or
+     * in transactions of ImportOptions.commitRows in auto-commit mode:
+     * a failure then rolls back only the rows since the last commit.
+     * @param columns the column names, or null for all columns
+     */
+    public ImportResult importRows(String table, String[] columns,
+                                   Iterator<Object[]> rows, ImportOptions options)
+            throws SQLException {
+        return new JdbcTcpImport(this, options).run(table, columns, rows);
+    }
+
+    /** Bulk import the CSV records into the table.
+     * @see #importRows(String, String[], Iterator, ImportOptions)
+     */
+    public ImportResult importCsv(String table, Reader csv, ImportOptions options)
+            throws SQLException {
+        CsvReader reader = new CsvReader(csv, options.getDelimiter());
+        String[] columns = null;
+        try {
+            if (options.isHeader() && reader.hasNext()) {
+                Object[] header = reader.next();
+                columns = Arrays.copyOf(header, header.length, String[].class);
+            }
+        } catch (UncheckedIOException e) {
+            throw new SQLException("Read CSV header error", "22000", e);
+        }
+        return importRows(table, columns, reader, options);
+    }
+
+    /** Bulk export the query result into the stream in the format of the
+     * options, bypassing the result set: rows are encoded by the server
+     * and received in large chunks.
+     * @return the rows exported
+     */
+    public long export(String sql, OutputStream out, ExportOptions options)
+            throws SQLException {
+        Transfer ch = this.ch;
+        ExportSink sink = new ExportSink(out);
+        try {
+            ch.write(Transfer.CMD_EXPORT)
+                    .writeString(sql)
+                    .writeInt(options.getFormat() == Format.BINARY?
+                            Transfer.EXPORT_BINARY: Transfer.EXPORT_CSV)
+                    .writeBoolean(options.isCompress())
+                    .writeBoolean(options.isHeader())
+                    .writeInt(options.getDelimiter())
+                    .flush();
+            readOK();
+            if (options.isCompress()) {
+                InflaterOutputStream inflater = new InflaterOutputStream(sink);
+                ch.readChunks(inflater);
+                sink.guard(inflater::close);
+            } else {
+                ch.readChunks(sink);
+            }
+            long rows = readOK()[1];
+            sink.guard(out::flush);
+            if (sink.error != null) {
+                throw new SQLException("Export write error", "58030", sink.error);
+            }
+            return rows;
+        } catch (IOException e) {
+            String s = "Export error";
+            throw handle(s, e);
+        }
+    }
+
+    /** Bulk export the query result into the file.
+     * @see #export(String, OutputStream, ExportOptions)
+     */
+    public long export(String sql, File file, ExportOptions options)
+            throws SQLException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), CHUNK_SIZE)) {
+            return export(sql, out, options);
+        } catch (IOException e) {
+            throw new SQLException("Export file error: " + file, "58030", e);
+        }
+    }
+
+    /** The tuning pragmas in effect on the server database, and whether
+     * guarded by the server profile matching the database.
+     * @return the result set of PROFILE, NAME, VALUE, GUARDED
+     */
+    public ResultSet getPragmas() throws SQLException {
+        Transfer ch = this.ch;
+        try {
+            ch.write(Transfer.CMD_PRAGMAS).flush();
+            int n = (int) readOK()[1];
+            String profile = ch.readString();
+            List<Object[]> rows = new ArrayList<>(n);
+            for (int i = 0; i < n; ++i) {
+                rows.add(new Object[] { profile, ch.readString(),
+                        ch.readString(), ch.readBoolean() ? 1: 0 });
+            }
+            return JdbcDatabaseMetaData.result(this, rows,
+                    "PROFILE, NAME, VALUE, GUARDED:b");
+        } catch (IOException e) {
+            String s = "Get pragmas error";
+            throw handle(s, e);
+        }
+    }
+
+    /** The replication lag in millis of the server database.
+     * @return -1 if not a replica, or Long.MAX_VALUE if not in sync
+     */
+    public long getReplicationLag() throws SQLException {
+        Transfer ch = this.ch;
+        try {
+            ch.write(Transfer.CMD_REPL_LAG).flush();
+            return readOK()[1];
+        } catch (IOException e) {
+            String s = "Get replication lag error";
+            throw handle(s, e);
+        }
+    }
+
+    /** Subscribe to the committed changes of this database, then this
+     * connection is dedicated to the change stream.
+     * @param image whether to receive the row images
+     * @param tables the tables subscribed, all tables if none
+     */
+    public JdbcTcpChangeStream subscribe(boolean image, String... tables)
+            throws SQLException {
+        Transfer ch = this.ch;
+        try {
+            ch.write(Transfer.CMD_SUBSCRIBE)
+                    .writeBoolean(image)
+                    .writeInt(tables.length);
+            for (String table: tables) ch.writeString(table);
+            ch.flush();
+            readOK();
+            return new JdbcTcpChangeStream(this);
+        } catch (IOException e) {
+            String s = "Subscribe error";
+            throw handle(s, e);
+        }
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> aClass) throws SQLException {
+        if (aClass.isInstance(this)) {
+            return aClass.cast(this);
+        } else {
+            return super.unwrap(aClass);
+        }
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> aClass) throws SQLException {
+        return aClass.isInstance(this);
+    }
+
+    /** Run once when this connection is closed. */
+    public synchronized void setCloseHook(Runnable closeHook) {
+        this.closeHook = closeHook;
+    }
+
     @Override
     public void close() throws SQLException {
         IOUtils.close(this.socket);
+        Runnable hook;
+        synchronized (this) {
+            hook = this.closeHook;
+            this.closeHook = null;
+        }
+        if (hook != null) hook.run();
         super.close();
     }
 
+    /** Keeps reading chunks after a write failure of the client stream,
+     * for the protocol in sync.
+     */
+    static class ExportSink extends OutputStream {
+        final OutputStream out;
+        IOException error;
+
+        ExportSink(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) {
+            guard(() -> this.out.write(b));
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            guard(() -> this.out.write(b, off, len));
+        }
+
+        void guard(IOAction action) {
+            if (this.error != null) return;
+            try {
+                action.run();
+            } catch (IOException e) {
+                this.error = e;
+            }
+        }
+    }
+
+    interface IOAction {
+        void run() throws IOException;
+    }
+
     protected SQLException handle(IOException e) {
         String s = "Network failure";
         return handle(s, e);
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.jdbc.tcp.impl;
+
+import org.sqlited.io.Transfer;
+import org.sqlited.jdbc.bulk.ImportOptions;
+import org.sqlited.jdbc.bulk.ImportResult;
+import org.sqlited.jdbc.bulk.ImportResult.ImportError;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.SQLException;
+import java.text.SimpleDateFormat;
+import java.util.*;
+
+public class JdbcTcpImport {
+
+    protected static final String DATE_FORMAT = "yyyy-MM-dd HH:mm:ss.SSS";
+
+    protected final JdbcTcpConnection conn;
+    protected final ImportOptions options;
+    protected final ImportResult result = new ImportResult();
+    // Batches sent but not acknowledged: at most one ahead of the server
+    private final Deque<List<Object[]>> inflight = new ArrayDeque<>();
+    private long acked;
+    // Whether the end or abort has been sent
+    private boolean ended;
+
+    public JdbcTcpImport(JdbcTcpConnection conn, ImportOptions options) {
+        this.conn = conn;
+        this.options = options;
+    }
+
+    public ImportResult run(String table, String[] columns, Iterator<Object[]> rows)
+            throws SQLException {
+        JdbcTcpConnection conn = this.conn;
+        Transfer ch = conn.ch;
+        ImportOptions options = this.options;
+        try {
+            ch.write(Transfer.CMD_IMPORT)
+                    .writeString(table)
+                    .writeArray(columns)
+                    .writeInt(options.getCommitRows())
+                    .writeInt(options.getMaxErrors())
+                    .flush();
+            conn.readOK();
+
+            int batchSize = options.getBatchSize();
+            while (true) {
+                List<Object[]> batch = new ArrayList<>(batchSize);
+                try {
+                    while (batch.size() < batchSize && rows.hasNext()) {
+                        batch.add(toWire(rows.next()));
+                    }
+                } catch (SQLException | RuntimeException e) {
+                    abort();
+                    if (e instanceof SQLException) throw (SQLException) e;
+                    throw new SQLException("Read import rows error", "22000", e);
+                }
+                if (batch.isEmpty()) break;
+
+                ch.writeInt(batch.size());
+                for (Object[] row: batch) ch.writeArray(row);
+                ch.flush();
+                this.inflight.add(batch);
+                if (this.inflight.size() > 1) readAck();
+            }
+            ch.writeInt(0).flush();
+            this.ended = true;
+            while (!this.inflight.isEmpty()) readAck();
+            long[] a = conn.readOK();
+            this.result.update(a[0], a[1]);
+
+            return this.result;
+        } catch (IOException e) {
+            throw conn.handle("Import error", e);
+        }
+    }
+
+    protected void readAck() throws SQLException, IOException {
+        // In: OK(imported, failed), error rows [index, message, ...]
+        JdbcTcpConnection conn = this.conn;
+        long[] a;
+        try {
+            a = conn.readOK();
+        } catch (SQLException e) {
+            // The server discards the rest until the end
+            if (!this.ended) {
+                conn.ch.writeInt(0).flush();
+                this.ended = true;
+            }
+            throw e;
+        }
+        List<Object[]> batch = this.inflight.remove();
+        Object[] errors = (Object[]) conn.ch.readArray();
+        for (int i = 0; i < errors.length; i += 2) {
+            long index = (Long) errors[i];
+            String message = (String) errors[i + 1];
+            Object[] row = batch.get((int) (index - this.acked));
+            this.result.addError(new ImportError(index, message, row));
+        }
+        this.acked += batch.size();
+        this.result.update(a[0], a[1]);
+        ImportOptions.Progress progress = this.options.getProgress();
+        if (progress != null) progress.progress(a[0], a[1]);
+    }
+
+    protected void abort() throws SQLException {
+        JdbcTcpConnection conn = this.conn;
+        try {
+            conn.ch.writeInt(-1).flush();
+            this.ended = true;
+            while (!this.inflight.isEmpty()) readAck();
+            conn.readOK();
+        } catch (SQLException e) {
+            // Expected: import aborted
+        } catch (IOException e) {
+            throw conn.handle("Abort import error", e);
+        }
+    }
+
+    protected static Object[] toWire(Object[] row) throws SQLException {
+        if (row == null) return null;
+        int n = row.length;
+        Object[] a = new Object[n];
+        for (int i = 0; i < n; ++i) {
+            a[i] = toWire(row[i]);
+        }
+        return a;
+    }
+
+    protected static Object toWire(Object value) throws SQLException {
+        if (value == null || value instanceof Long || value instanceof Double
+                || value instanceof String || value instanceof byte[]) {
+            return value;
+        } else if (value instanceof Integer || value instanceof Short
+                || value instanceof Byte) {
+            return ((Number) value).longValue();
+        } else if (value instanceof Float) {
+            return ((Float) value).doubleValue();
+        } else if (value instanceof Boolean) {
+            return (Boolean) value? 1L: 0L;
+        } else if (value instanceof BigDecimal) {
+            return ((BigDecimal) value).toPlainString();
+        } else if (value instanceof BigInteger || value instanceof CharSequence
+                || value instanceof Character || value instanceof java.sql.Date
+                || value instanceof java.sql.Time) {
+            return value.toString();
+        } else if (value instanceof Date) {
+            return new SimpleDateFormat(DATE_FORMAT).format((Date) value);
+        } else {
+            String s = "Unsupported import value type: " + value.getClass().getName();
+            throw new SQLException(s, "22023");
+        }
+    }
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.jdbc.tcp.impl;
+
+import org.sqlited.io.Transfer;
+import org.sqlited.net.AuthSocketFactory;
+import org.sqlited.net.Multiplexer;
+import org.sqlited.util.IOUtils;
+import org.sqlited.util.MDUtils;
+import org.sqlited.util.logging.LoggerFactory;
+
+import javax.net.SocketFactory;
+import java.io.IOException;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/** The physical sockets shared by the connections of the same server
+ * and login, each connection as a logical session in one of these.
+ */
+public final class JdbcTcpMux {
+    static final Logger log = LoggerFactory.getLogger(JdbcTcpMux.class);
+
+    static final String MUX_KEY = "mux";
+    static final Map<String, List<Multiplexer>> MUXES = new HashMap<>();
+    static final AtomicLong ID = new AtomicLong();
+
+    private JdbcTcpMux() {}
+
+    public static Socket open(Properties props, String host, int port)
+            throws IOException {
+        int maxSessions = Integer.decode(props.getProperty("muxSessions", "256"));
+        String key = key(props, host, port);
+
+        synchronized (MUXES) {
+            List<Multiplexer> list = MUXES.computeIfAbsent(key, k -> new ArrayList<>());
+            list.removeIf(Multiplexer::isClosed);
+            for (Multiplexer mux: list) {
+                if (mux.getSessionCount() < maxSessions) return open(mux, props);
+            }
+            Multiplexer mux = connect(props, host, port);
+            list.add(mux);
+            return open(mux, props);
+        }
+    }
+
+    static Socket open(Multiplexer mux, Properties props) throws IOException {
+        Socket session = mux.open();
+        session.setSoTimeout(Integer.decode(props.getProperty("readTimeout")));
+        return session;
+    }
+
+    static Multiplexer connect(Properties props, String host, int port)
+            throws IOException {
+        SocketFactory socketFactory = new AuthSocketFactory(props);
+        Socket socket = socketFactory.createSocket(host, port);
+        boolean failed = true;
+        try {
+            // Switch the socket into multiplexing
+            String s = props.getProperty("maxBufferSize");
+            Transfer ch = new Transfer(socket, Integer.decode(s));
+            ch.writeString("")
+                    .writeInt(1)
+                    .writeString(MUX_KEY)
+                    .writeString("1")
+                    .flush();
+            int result = ch.read(true);
+            if (Transfer.RESULT_ER == result) {
+                throw new IOException(ch.readString());
+            }
+            ch.readInt();
+            ch.readLong();
+            ch.readLong();
+            // Read timeout by session
+            socket.setSoTimeout(0);
+            Multiplexer mux = new Multiplexer(socket, null);
+            Thread reader = new Thread(mux, "SQLited-mux-" + ID.incrementAndGet());
+            reader.setDaemon(true);
+            reader.start();
+            log.fine(() -> String.format("%s: open", mux));
+            failed = false;
+            return mux;
+        } finally {
+            if (failed) IOUtils.close(socket);
+        }
+    }
+
+    static String key(Properties props, String host, int port) {
+        // Login of the sessions is the one of the physical socket
+        MessageDigest md5 = MDUtils.md5();
+        String password = props.getProperty("password");
+        if (password != null) md5.update(password.getBytes(UTF_8));
+        String digest = Base64.getEncoder().encodeToString(md5.digest());
+        return props.getProperty("user") + ":" + digest + "@" + host + ":" + port;
+    }
+
+}
@@ -18,14 +18,19 @@ package org.sqlited.jdbc.tcp.impl;
 
 import org.sqlited.io.Transfer;
 import org.sqlited.jdbc.adapter.StatementAdapter;
+import org.sqlited.result.AutoGenKeysIterator;
 import org.sqlited.result.ResultSetMetaData;
 import org.sqlited.result.RowIterator;
+import org.sqlited.result.UnboxedRowIterator;
 import org.sqlited.util.IOUtils;
 import org.sqlited.util.logging.LoggerFactory;
 
 import java.io.IOException;
+import java.math.BigDecimal;
 import java.sql.*;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
 import java.util.logging.Logger;
 
@@ -35,17 +40,56 @@ public class JdbcTcpStatement extends StatementAdapter {
     protected final JdbcTcpConnection conn;
     protected final int id;
     protected int fetchSize;
+    protected int queryTimeout;
 
     protected JdbcTcpResultSet resultSet;
     protected long affectedRows;
     protected ResultSet generatedKeys;
+    // Delta-encoded key ranges, expanded in getGeneratedKeys()
+    protected long[] keyRanges;
     private boolean autoGeneratedKeys;
+    // The results after the current of a script: result sets or update counts
+    protected final Deque<Object> results = new ArrayDeque<>();
+    protected List<String> batch;
 
     public JdbcTcpStatement(JdbcTcpConnection conn, int id) {
         this.conn = conn;
         this.id = id;
     }
 
+    @Override
+    public int getQueryTimeout() throws SQLException {
+        return this.queryTimeout;
+    }
+
+    @Override
+    public void setQueryTimeout(int seconds) throws SQLException {
+        if (seconds < 0) {
+            throw new SQLException("Query timeout " + seconds, "S1009");
+        }
+        if (seconds == this.queryTimeout) return;
+        JdbcTcpConnection conn = this.conn;
+        Transfer ch = conn.ch;
+        try {
+            int millis = (int) Math.min(seconds * 1000L, Integer.MAX_VALUE);
+            ch.write(Transfer.CMD_SET_QT)
+                    .writeInt(this.id)
+                    .writeInt(millis)
+                    .flush();
+            conn.readOK();
+            this.queryTimeout = seconds;
+        } catch (IOException e) {
+            String s = "Set query timeout error";
+            throw conn.handle(s, e);
+        }
+    }
+
+    @Override
+    public void cancel() throws SQLException {
+        // Out-of-band: the connection is busy in executing
+        this.conn.cancel();
+    }
+
     @Override
     public ResultSet executeQuery(String sql) throws SQLException {
         execute(sql, Statement.NO_GENERATED_KEYS);
@@ -124,12 +168,7 @@ public class JdbcTcpStatement extends StatementAdapter {
             Object genColumns = columnIndexes == null?
                     columnNames: columnIndexes;
             // Init
-            IOUtils.close(this.resultSet);
-            this.resultSet = null;
-            this.affectedRows = 0;
-            this.autoGeneratedKeys = (RETURN_GENERATED_KEYS == autoGeneratedKeys);
-            IOUtils.close(this.generatedKeys);
-            this.generatedKeys = null;
+            reset(RETURN_GENERATED_KEYS == autoGeneratedKeys);
 
             // Send
             ch.write(Transfer.CMD_EXECUTE)
@@ -146,7 +185,7 @@ public class JdbcTcpStatement extends StatementAdapter {
             } else {
                 long[] a = this.conn.readOK(result);
                 this.affectedRows = a[1];
-                if (this.autoGeneratedKeys && getUpdateCount() > 0) {
+                if (this.autoGeneratedKeys) {
                     readGeneratedKeys();
                 }
                 return false;
@@ -157,13 +196,204 @@ public class JdbcTcpStatement extends StatementAdapter {
         }
     }
 
+    /** Execute the statements in one round trip, each sql of one or more
+     * statements separated by semicolons. The result sets are sent whole.
+     * @return true if the first result is a result set, and the rest
+     * results are got by getMoreResults()
+     */
+    public boolean executeScript(String... sqls) throws SQLException {
+        JdbcTcpConnection conn = this.conn;
+        Transfer ch = conn.ch;
+        try {
+            reset(false);
+            ch.write(Transfer.CMD_SCRIPT)
+                    .writeInt(this.id)
+                    .writeInt(sqls.length);
+            for (String sql: sqls) ch.writeString(sql);
+            ch.flush();
+            // Results in order, or an error in place of one
+            int n = (int) conn.readOK()[1];
+            for (int i = 0; i < n; ++i) {
+                int result = ch.read(true);
+                if (Transfer.RESULT_SET == result) {
+                    this.results.add(readResultSet(this));
+                } else {
+                    this.results.add(conn.readOK(result)[1]);
+                }
+            }
+        } catch (IOException e) {
+            String s = "Execute script error";
+            throw conn.handle(s, e);
+        }
+        return getMoreResults();
+    }
+
+    /** Execute the sql by the id of it in the server catalog, the sql
+     * registered on the first use and sent no more.
+     * @param params the parameters of null, Number, String or byte[]
+     * @return true if the result is a result set
+     */
+    public boolean executeNamed(String sql, Object... params) throws SQLException {
+        JdbcTcpConnection conn = this.conn;
+        Object[] values = params(params);
+        try {
+            return executeNamed(conn.getNamed(sql, false), values);
+        } catch (SQLException e) {
+            // Server restarted or catalog full and evicted: register again
+            if (!"26000".equals(e.getSQLState())) throw e;
+            return executeNamed(conn.getNamed(sql, true), values);
+        }
+    }
+
+    protected boolean executeNamed(int[] named, Object[] params) throws SQLException {
+        JdbcTcpConnection conn = this.conn;
+        Transfer ch = conn.ch;
+        int epoch = named[0];
+        try {
+            reset(false);
+            ch.write(Transfer.CMD_EXEC_NAMED)
+                    .writeInt(this.id)
+                    .writeInt(epoch == conn.namedEpoch? 0: epoch)
+                    .writeInt(named[1])
+                    .writeArray(params)
+                    .flush();
+            int result = ch.read(true);
+            if (Transfer.RESULT_SET == result) {
+                conn.namedEpoch = epoch;
+                this.resultSet = readResultSet(this);
+                return true;
+            } else {
+                long[] a = conn.readOK(result);
+                conn.namedEpoch = epoch;
+                this.affectedRows = a[1];
+                return false;
+            }
+        } catch (IOException e) {
+            String s = "Execute named statement error";
+            throw conn.handle(s, e);
+        }
+    }
+
+    static Object[] params(Object[] params) throws SQLException {
+        if (params == null || params.length == 0) return null;
+        Object[] values = new Object[params.length];
+        for (int i = 0; i < params.length; ++i) {
+            Object p = params[i];
+            if (p == null || p instanceof Integer || p instanceof Long
+                    || p instanceof Double || p instanceof String
+                    || p instanceof byte[]) {
+                values[i] = p;
+            } else if (p instanceof Boolean) {
+                values[i] = (Boolean) p? 1L: 0L;
+            } else if (p instanceof Short || p instanceof Byte) {
+                values[i] = ((Number) p).longValue();
+            } else if (p instanceof Float || p instanceof BigDecimal) {
+                values[i] = ((Number) p).doubleValue();
+            } else {
+                String s = "Unsupported parameter type: " + p.getClass().getName();
+                throw new SQLException(s, "22023");
+            }
+        }
+        return values;
+    }
+
+    protected void reset(boolean autoGeneratedKeys) {
+        IOUtils.close(this.resultSet);
+        this.resultSet = null;
+        this.affectedRows = 0;
+        this.autoGeneratedKeys = autoGeneratedKeys;
+        IOUtils.close(this.generatedKeys);
+        this.generatedKeys = null;
+        this.keyRanges = null;
+        this.results.clear();
+    }
+
+    @Override
+    public boolean getMoreResults() throws SQLException {
+        return getMoreResults(CLOSE_CURRENT_RESULT);
+    }
+
+    @Override
+    public boolean getMoreResults(int current) throws SQLException {
+        switch (current) {
+            case CLOSE_CURRENT_RESULT:
+            case CLOSE_ALL_RESULTS:
+                IOUtils.close(this.resultSet);
+                break;
+            case KEEP_CURRENT_RESULT:
+                break;
+            default:
+                throw new SQLException("Unknown current " + current, "S1009");
+        }
+        Object result = this.results.poll();
+        if (result instanceof JdbcTcpResultSet) {
+            this.resultSet = (JdbcTcpResultSet) result;
+            this.affectedRows = -1;
+            return true;
+        } else {
+            this.resultSet = null;
+            this.affectedRows = result == null? -1: (Long) result;
+            return false;
+        }
+    }
+
+    @Override
+    public void addBatch(String sql) throws SQLException {
+        if (this.batch == null) this.batch = new ArrayList<>();
+        this.batch.add(sql);
+    }
+
+    @Override
+    public void clearBatch() throws SQLException {
+        this.batch = null;
+    }
+
+    @Override
+    public int[] executeBatch() throws SQLException {
+        List<String> batch = this.batch;
+        this.batch = null;
+        if (batch == null) return new int[0];
+
+        List<Integer> counts = new ArrayList<>();
+        try {
+            boolean result = executeScript(batch.toArray(new String[0]));
+            while (!result && this.affectedRows != -1) {
+                counts.add((int) this.affectedRows);
+                result = getMoreResults();
+            }
+            if (result) {
+                String s = "Result set returned in batch";
+                throw new BatchUpdateException(s, "S1009", toArray(counts));
+            }
+        } catch (BatchUpdateException e) {
+            throw e;
+        } catch (SQLException e) {
+            // The update counts before the failed
+            for (Object result: this.results) {
+                if (result instanceof Long) counts.add(((Long) result).intValue());
+            }
+            this.results.clear();
+            throw new BatchUpdateException(e.getMessage(), e.getSQLState(),
+                    e.getErrorCode(), toArray(counts), e);
+        }
+        return toArray(counts);
+    }
+
+    static int[] toArray(List<Integer> list) {
+        int[] a = new int[list.size()];
+        for (int i = 0; i < a.length; ++i) a[i] = list.get(i);
+        return a;
+    }
+
     protected void readGeneratedKeys() throws SQLException {
         JdbcTcpConnection conn = this.conn;
         Transfer ch = conn.ch;
         try {
             log.fine("read auto-generated keys");
             int result = ch.read(true);
-            if (Transfer.RESULT_SET == result) {
+            if (Transfer.RESULT_KEYS == result) {
+                this.keyRanges = (long[]) ch.readArray();
+            } else if (Transfer.RESULT_SET == result) {
                 this.generatedKeys = readResultSet(this);
             } else {
                 conn.readOK(result);
@@ -189,6 +419,13 @@ public class JdbcTcpStatement extends StatementAdapter {
     public ResultSet getGeneratedKeys() throws SQLException {
         if (this.autoGeneratedKeys) {
             ResultSet rs = this.generatedKeys;
+            long[] keyRanges = this.keyRanges;
+            if (rs == null && keyRanges != null) {
+                ResultSetMetaData meta = ResultSetMetaData.AUTO_GEN_KEYS_META;
+                RowIterator rowItr = AutoGenKeysIterator.decode(keyRanges, meta);
+                rs = this.generatedKeys = new JdbcTcpResultSet(this.conn, this, rowItr);
+                this.keyRanges = null;
+            }
             if (rs == null) return emptyGeneratedKeys();
             else return rs;
         } else {
@@ -207,43 +444,17 @@ public class JdbcTcpStatement extends StatementAdapter {
     protected static RowIterator readRows(Transfer ch, ResultSetMetaData metaData)
             throws IOException {
         // Format: [row ..., ] null(row end), status
-        List<Object[]> rows = new ArrayList<>();
-        Object[] row = (Object[])ch.readArray();
-
-        while (row != null) {
-            rows.add(row);
-            row = (Object[])ch.readArray();
-        }
+        UnboxedRowIterator rows = UnboxedRowIterator.readRows(ch, false, metaData);
         int status = ch.read(true);
         boolean last = (status & 0x01) == 0x00;
+        rows.setLast(last);
 
-        return new RowIterator(rows, last, metaData);
+        return rows;
     }
 
     protected static ResultSetMetaData readMetaData(Transfer ch)
             throws IOException {
-        Object a = ch.readArray();
-
-        if (a == null) {
-            return null;
-        } else {
-            String[] names = (String[])a;
-            int[] metas = (int[])ch.readArray();
-            String[] typeNames = (String[]) ch.readArray();
-            int[] types = (int[]) ch.readArray();
-            int[] scales = (int[]) ch.readArray();
-            while (ch.readArray() != null);
-            int n = metas.length;
-            boolean[][] colMetas = new boolean[n][];
-            for (int i = 0; i < n; ++i) {
-                boolean[] meta = new boolean[3];
-                meta[0] = (metas[i] & 0x01) != 0x0;
-                meta[1] = (metas[i] & 0x02) != 0x0;
-                meta[2] = (metas[i] & 0x04) != 0x0;
-                colMetas[i] = meta;
-            }
-            return new ResultSetMetaData(names, colMetas, typeNames, types, scales);
-        }
+        return ResultSetMetaData.read(ch);
     }
 
     @Override
@@ -262,6 +473,20 @@ public class JdbcTcpStatement extends StatementAdapter {
         return (int)this.affectedRows;
     }
 
+    @Override
+    public <T> T unwrap(Class<T> aClass) throws SQLException {
+        if (aClass.isInstance(this)) {
+            return aClass.cast(this);
+        } else {
+            return super.unwrap(aClass);
+        }
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> aClass) throws SQLException {
+        return aClass.isInstance(this);
+    }
+
     @Override
     public void close() throws SQLException {
         try {
@@ -269,6 +494,7 @@ public class JdbcTcpStatement extends StatementAdapter {
             ch.write(Transfer.CMD_CLOSE_STMT)
                     .writeInt(this.id)
                     .flush();
+            this.conn.readOK();
         } catch (IOException e) {
             String s = "Close statement error";
             throw this.conn.handle(s, e);
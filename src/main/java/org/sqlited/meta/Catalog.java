@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.meta;
+
+import org.sqlited.io.Transfer;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/** A snapshot of the schema of a database at a schema version, from which
+ * the client answers DatabaseMetaData calls. Rows are of the pragma
+ * results, ordered by table.
+ */
+public class Catalog implements Externalizable {
+    private static final long serialVersionUID = 1L;
+
+    // Table row: name, type("table" or "view"), sql
+    public static final int TABLE_NAME = 0, TABLE_TYPE = 1, TABLE_SQL = 2;
+    // Column row: table, name, type, notnull, default, pk, hidden
+    public static final int COL_TABLE = 0, COL_NAME = 1, COL_TYPE = 2,
+            COL_NOTNULL = 3, COL_DEFAULT = 4, COL_PK = 5, COL_HIDDEN = 6;
+    // Index row: table, index, unique, seq, column, desc, partial
+    public static final int IDX_TABLE = 0, IDX_NAME = 1, IDX_UNIQUE = 2,
+            IDX_SEQ = 3, IDX_COLUMN = 4, IDX_DESC = 5, IDX_PARTIAL = 6;
+    // Foreign key row: table, id, seq, parent table, from, to,
+    // on update, on delete
+    public static final int FK_TABLE = 0, FK_ID = 1, FK_SEQ = 2,
+            FK_PARENT = 3, FK_FROM = 4, FK_TO = 5, FK_ON_UPDATE = 6,
+            FK_ON_DELETE = 7;
+
+    protected long version;
+    protected String productVersion;
+    protected List<Object[]> tables;
+    protected List<Object[]> columns;
+    protected List<Object[]> indexes;
+    protected List<Object[]> foreignKeys;
+
+    public Catalog() {
+        // For Externalizable
+    }
+
+    public Catalog(long version, String productVersion, List<Object[]> tables,
+                   List<Object[]> columns, List<Object[]> indexes,
+                   List<Object[]> foreignKeys) {
+        this.version = version;
+        this.productVersion = productVersion;
+        this.tables = tables;
+        this.columns = columns;
+        this.indexes = indexes;
+        this.foreignKeys = foreignKeys;
+    }
+
+    /** The "pragma schema_version" of the snapshot. */
+    public long getVersion() {
+        return this.version;
+    }
+
+    public String getProductVersion() {
+        return this.productVersion;
+    }
+
+    public List<Object[]> getTables() {
+        return Collections.unmodifiableList(this.tables);
+    }
+
+    public List<Object[]> getColumns() {
+        return Collections.unmodifiableList(this.columns);
+    }
+
+    public List<Object[]> getIndexes() {
+        return Collections.unmodifiableList(this.indexes);
+    }
+
+    public List<Object[]> getForeignKeys() {
+        return Collections.unmodifiableList(this.foreignKeys);
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        Transfer.writeExternal(out, this::write);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        Transfer ch = Transfer.readExternal(in);
+        read(ch);
+    }
+
+    public void write(Transfer ch) throws IOException {
+        // Format: version, product version, [row-count, row, ...] of
+        // tables, columns, indexes and foreign keys
+        ch.writeLong(this.version)
+                .writeString(this.productVersion);
+        writeRows(ch, this.tables);
+        writeRows(ch, this.columns);
+        writeRows(ch, this.indexes);
+        writeRows(ch, this.foreignKeys);
+    }
+
+    public static Catalog readCatalog(Transfer ch) throws IOException {
+        Catalog catalog = new Catalog();
+        catalog.read(ch);
+        return catalog;
+    }
+
+    protected void read(Transfer ch) throws IOException {
+        this.version = ch.readLong();
+        this.productVersion = ch.readString();
+        this.tables = readRows(ch);
+        this.columns = readRows(ch);
+        this.indexes = readRows(ch);
+        this.foreignKeys = readRows(ch);
+    }
+
+    static void writeRows(Transfer ch, List<Object[]> rows) throws IOException {
+        ch.writeInt(rows.size());
+        for (Object[] row : rows) ch.writeArray(row);
+    }
+
+    static List<Object[]> readRows(Transfer ch) throws IOException {
+        int n = ch.readInt();
+        List<Object[]> rows = new ArrayList<>(n);
+        for (int i = 0; i < n; ++i) rows.add((Object[]) ch.readArray());
+        return rows;
+    }
+
+}
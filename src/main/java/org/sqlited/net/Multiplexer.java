@@ -0,0 +1,213 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.net;
+
+import org.sqlited.util.IOUtils;
+import org.sqlited.util.logging.LoggerFactory;
+
+import java.io.*;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/** Carries many logical sessions over one physical socket. Each frame
+ * is tagged with the session id, and a large packet is split into
+ * frames for the sessions interleaved. A session sends at most a window
+ * of bytes unread by the peer, credited back as the peer reads, so the
+ * demux reader never waits on a slow session nor buffers without bound.
+ */
+public class Multiplexer implements Runnable, AutoCloseable {
+    static final Logger log = LoggerFactory.getLogger(Multiplexer.class);
+
+    // Frame: session-id, length or -1(session closed) or -2(credit),
+    // payload or the credit bytes
+    public static final int FRAME_SIZE = 16 << 10;
+    public static final int WINDOW = 16 * FRAME_SIZE;
+    static final int CLOSED = -1;
+    static final int CREDIT = -2;
+
+    protected final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final Map<Integer, MuxSocket> sessions = new ConcurrentHashMap<>();
+    // Accepts the sessions opened by the peer, null if not acceptable
+    private final Consumer<MuxSocket> acceptor;
+    private int nextId;
+    private int lastAccepted = -1;
+    private volatile boolean closed;
+
+    public Multiplexer(Socket socket, Consumer<MuxSocket> acceptor)
+            throws IOException {
+        this.socket = socket;
+        this.acceptor = acceptor;
+        InputStream in = socket.getInputStream();
+        OutputStream out = socket.getOutputStream();
+        this.in = new DataInputStream(new BufferedInputStream(in, FRAME_SIZE));
+        this.out = new DataOutputStream(new BufferedOutputStream(out, FRAME_SIZE + 8));
+    }
+
+    public Socket getSocket() {
+        return this.socket;
+    }
+
+    /** Open a new session, which is opened in the peer on the first frame.
+     */
+    public MuxSocket open() throws IOException {
+        synchronized (this.sessions) {
+            if (this.closed) throw new SocketException("Multiplexer closed");
+            int id;
+            do {
+                id = this.nextId++;
+                if (this.nextId < 0) this.nextId = 0;
+            } while (this.sessions.containsKey(id));
+            MuxSocket session = new MuxSocket(this, id);
+            this.sessions.put(id, session);
+            return session;
+        }
+    }
+
+    public int getSessionCount() {
+        return this.sessions.size();
+    }
+
+    @Override
+    public void run() {
+        try {
+            DataInputStream in = this.in;
+            while (!this.closed) {
+                int id = in.readInt();
+                int n = in.readInt();
+                MuxSocket session = this.sessions.get(id);
+                if (n == CLOSED) {
+                    if (session != null) session.peerClosed();
+                    continue;
+                }
+                if (n == CREDIT) {
+                    int credit = in.readInt();
+                    if (credit <= 0) throw new IOException("Invalid credit " + credit);
+                    if (session != null) session.credited(credit);
+                    continue;
+                }
+                if (n < 0 || n > FRAME_SIZE) {
+                    throw new IOException("Invalid frame length " + n);
+                }
+                byte[] data = new byte[n];
+                in.readFully(data);
+                if (session != null) {
+                    session.received(data);
+                } else if (this.acceptor != null && id > this.lastAccepted) {
+                    // Frames of the sessions closed here are dropped
+                    this.lastAccepted = id;
+                    session = new MuxSocket(this, id);
+                    this.sessions.put(id, session);
+                    session.received(data);
+                    this.acceptor.accept(session);
+                }
+            }
+        } catch (EOFException e) {
+            log.fine(() -> this + ": peer quit");
+        } catch (IOException e) {
+            if (!this.closed) log.log(Level.FINE, this + ": network failure", e);
+        } finally {
+            close();
+        }
+    }
+
+    void send(MuxSocket session, byte[] data, int off, int len) throws IOException {
+        // Flush each frame for the others not waiting a large packet
+        DataOutputStream out = this.out;
+        int id = session.getId();
+        while (len > 0) {
+            int n = session.acquire(Math.min(len, FRAME_SIZE));
+            synchronized (out) {
+                if (this.closed) throw new SocketException("Multiplexer closed");
+                boolean failed = true;
+                try {
+                    out.writeInt(id);
+                    out.writeInt(n);
+                    out.write(data, off, n);
+                    out.flush();
+                    failed = false;
+                } finally {
+                    if (failed) close();
+                }
+            }
+            off += n;
+            len -= n;
+        }
+    }
+
+    void credit(MuxSocket session, int credit) {
+        DataOutputStream out = this.out;
+        try {
+            synchronized (out) {
+                if (this.closed) return;
+                out.writeInt(session.getId());
+                out.writeInt(CREDIT);
+                out.writeInt(credit);
+                out.flush();
+            }
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    void closed(MuxSocket session, boolean notify) {
+        this.sessions.remove(session.getId());
+        if (notify && !this.closed) {
+            DataOutputStream out = this.out;
+            try {
+                synchronized (out) {
+                    out.writeInt(session.getId());
+                    out.writeInt(CLOSED);
+                    out.flush();
+                }
+            } catch (IOException e) {
+                close();
+            }
+        }
+    }
+
+    public boolean isClosed() {
+        return this.closed;
+    }
+
+    @Override
+    public void close() {
+        List<MuxSocket> sessions;
+        synchronized (this.sessions) {
+            if (this.closed) return;
+            this.closed = true;
+            sessions = new ArrayList<>(this.sessions.values());
+            this.sessions.clear();
+        }
+        IOUtils.close(this.socket);
+        for (MuxSocket session: sessions) session.peerClosed();
+    }
+
+    @Override
+    public String toString() {
+        return "mux-" + this.socket.getRemoteSocketAddress();
+    }
+
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.net;
+
+import java.io.*;
+import java.net.*;
+import java.util.ArrayDeque;
+
+/** A logical session over the physical socket of a multiplexer.
+ */
+public class MuxSocket extends Socket {
+
+    protected final Multiplexer mux;
+    protected final int id;
+    private final ArrayDeque<byte[]> received = new ArrayDeque<>();
+    private byte[] current;
+    private int pos;
+    private int soTimeout;
+    private boolean eof;
+    // Bytes this session may send, and the peer may send to it
+    private int sendWindow = Multiplexer.WINDOW;
+    private int recvWindow = Multiplexer.WINDOW;
+    // Bytes read and not credited to the peer yet
+    private int consumed;
+    private volatile boolean closed;
+    private final InputStream in = new SessionInputStream();
+    private final OutputStream out = new SessionOutputStream();
+
+    protected MuxSocket(Multiplexer mux, int id) {
+        this.mux = mux;
+        this.id = id;
+    }
+
+    public int getId() {
+        return this.id;
+    }
+
+    synchronized void received(byte[] data) throws IOException {
+        if (data.length > this.recvWindow) {
+            throw new IOException(this + ": window exceeded by the peer");
+        }
+        this.recvWindow -= data.length;
+        this.received.add(data);
+        notifyAll();
+    }
+
+    synchronized void credited(int credit) {
+        this.sendWindow += credit;
+        notifyAll();
+    }
+
+    /** Take up to len bytes of the send window, waiting for the peer to
+     * credit some if none left.
+     */
+    synchronized int acquire(int len) throws IOException {
+        while (this.sendWindow <= 0) {
+            if (this.closed) throw new SocketException("Socket is closed");
+            if (this.eof) throw new SocketException("Connection reset by peer");
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+        int n = Math.min(len, this.sendWindow);
+        this.sendWindow -= n;
+        return n;
+    }
+
+    /** Count the bytes read, and return the credit to send the peer if
+     * half of the window read.
+     */
+    private int consume(int n) {
+        this.consumed += n;
+        if (this.closed || this.eof || this.consumed < Multiplexer.WINDOW / 2) {
+            return 0;
+        }
+        int credit = this.consumed;
+        this.consumed = 0;
+        this.recvWindow += credit;
+        return credit;
+    }
+
+    synchronized void peerClosed() {
+        this.eof = true;
+        notifyAll();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        if (this.closed) throw new SocketException("Socket is closed");
+        return this.in;
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        if (this.closed) throw new SocketException("Socket is closed");
+        return this.out;
+    }
+
+    @Override
+    public synchronized void setSoTimeout(int timeout) throws SocketException {
+        if (timeout < 0) throw new IllegalArgumentException("timeout < 0");
+        this.soTimeout = timeout;
+    }
+
+    @Override
+    public synchronized int getSoTimeout() {
+        return this.soTimeout;
+    }
+
+    @Override
+    public void setTcpNoDelay(boolean on) {
+        // Frames flushed at once
+    }
+
+    @Override
+    public InetAddress getInetAddress() {
+        return this.mux.getSocket().getInetAddress();
+    }
+
+    @Override
+    public int getPort() {
+        return this.mux.getSocket().getPort();
+    }
+
+    @Override
+    public InetAddress getLocalAddress() {
+        return this.mux.getSocket().getLocalAddress();
+    }
+
+    @Override
+    public int getLocalPort() {
+        return this.mux.getSocket().getLocalPort();
+    }
+
+    @Override
+    public SocketAddress getRemoteSocketAddress() {
+        return this.mux.getSocket().getRemoteSocketAddress();
+    }
+
+    @Override
+    public SocketAddress getLocalSocketAddress() {
+        return this.mux.getSocket().getLocalSocketAddress();
+    }
+
+    @Override
+    public synchronized boolean isInputShutdown() {
+        // Closed by the peer and all read
+        byte[] current = this.current;
+        return this.eof && this.received.isEmpty()
+                && (current == null || this.pos >= current.length);
+    }
+
+    @Override
+    public boolean isConnected() {
+        return true;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return this.closed;
+    }
+
+    @Override
+    public void close() {
+        boolean notify;
+        synchronized (this) {
+            if (this.closed) return;
+            this.closed = true;
+            notify = !this.eof;
+            notifyAll();
+        }
+        this.mux.closed(this, notify);
+    }
+
+    @Override
+    public String toString() {
+        return this.mux + "#" + this.id;
+    }
+
+    class SessionInputStream extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+            MuxSocket so = MuxSocket.this;
+            int b, credit;
+            synchronized (so) {
+                if (available(true) == -1) return -1;
+                b = so.current[so.pos++] & 0xff;
+                credit = so.consume(1);
+            }
+            // Credit out of the lock, the demux reader waiting for it
+            if (credit > 0) so.mux.credit(so, credit);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            MuxSocket so = MuxSocket.this;
+            int n, credit;
+            synchronized (so) {
+                n = available(true);
+                if (n == -1) return -1;
+                n = Math.min(n, len);
+                System.arraycopy(so.current, so.pos, b, off, n);
+                so.pos += n;
+                credit = so.consume(n);
+            }
+            if (credit > 0) so.mux.credit(so, credit);
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            synchronized (MuxSocket.this) {
+                return Math.max(available(false), 0);
+            }
+        }
+
+        int available(boolean block) throws IOException {
+            MuxSocket so = MuxSocket.this;
+            long timeout = so.soTimeout;
+            long deadline = System.currentTimeMillis() + timeout;
+            while (so.current == null || so.pos >= so.current.length) {
+                if (so.closed) throw new SocketException("Socket is closed");
+                byte[] data = so.received.poll();
+                if (data != null) {
+                    so.current = data;
+                    so.pos = 0;
+                    continue;
+                }
+                if (so.eof) return -1;
+                if (!block) return 0;
+                long wait = 0;
+                if (timeout > 0) {
+                    wait = deadline - System.currentTimeMillis();
+                    if (wait <= 0) throw new SocketTimeoutException("Read timed out");
+                }
+                try {
+                    so.wait(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+            return so.current.length - so.pos;
+        }
+    }
+
+    class SessionOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            MuxSocket so = MuxSocket.this;
+            if (so.closed) throw new SocketException("Socket is closed");
+            if (so.eof) throw new SocketException("Connection reset by peer");
+            so.mux.send(so, b, off, len);
+        }
+    }
+
+}
@@ -22,6 +22,8 @@ import org.sqlited.util.logging.LoggerFactory;
 
 import java.io.*;
 import java.net.*;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
@@ -65,42 +67,89 @@ public final class SocketUtils {
     public static ServerSocket createServerSocket(Properties props, int port)
             throws IOException {
         String host = props.getProperty("host");
-        SocketAddress endpoint = new InetSocketAddress(host, port);
         ServerSocket server = new AuthServerSocket(props);
 
         boolean failed = true;
         try {
-            log.info(() -> String.format("Server bind %s:%d", host, port));
-            String s = props.getProperty("backlog", "150");
-            int backlog = Integer.decode(s);
-            long start = System.currentTimeMillis();
+            bind(props, server, host, port);
+            failed = false;
+            return server;
+        } finally {
+            if (failed) IOUtils.close(server);
+        }
+    }
+
+    /** Create the server channel, whose sockets are selectable, and
+     * handshaked by {@link #handshake(Properties, Socket)} of the caller.
+     */
+    public static ServerSocketChannel createServerChannel(Properties props, int port)
+            throws IOException {
+        String host = props.getProperty("host");
+        ServerSocketChannel server = ServerSocketChannel.open();
 
-            server.setReuseAddress(true);
-            while (true) {
+        boolean failed = true;
+        try {
+            bind(props, server.socket(), host, port);
+            failed = false;
+            return server;
+        } finally {
+            if (failed) IOUtils.close(server);
+        }
+    }
+
+    static void bind(Properties props, ServerSocket server, String host, int port)
+            throws IOException {
+        SocketAddress endpoint = new InetSocketAddress(host, port);
+        log.info(() -> String.format("Server bind %s:%d", host, port));
+        String s = props.getProperty("backlog", "150");
+        int backlog = Integer.decode(s);
+        long start = System.currentTimeMillis();
+
+        server.setReuseAddress(true);
+        while (true) {
+            try {
+                server.bind(endpoint, backlog);
+                break;
+            } catch (BindException e) {
+                long cur = System.currentTimeMillis();
+                if ( cur - start > 10000) {
+                    throw e;
+                }
                 try {
-                    server.bind(endpoint, backlog);
-                    break;
-                } catch (BindException e) {
-                    long cur = System.currentTimeMillis();
-                    if ( cur - start > 10000) {
-                        throw e;
-                    }
-                    try {
-                        Thread.sleep(100);
-                    } catch (InterruptedException cause) {
-                        Thread.currentThread().interrupt();
-                        throw e;
-                    }
+                    Thread.sleep(100);
+                } catch (InterruptedException cause) {
+                    Thread.currentThread().interrupt();
+                    throw e;
                 }
             }
+        }
+    }
+
+    public static Socket accept(Properties props, ServerSocketChannel server)
+            throws IOException {
+        SocketChannel channel = server.accept();
+        Socket socket = channel.socket();
 
+        boolean failed = true;
+        try {
+            String prop = props.getProperty("readTimeout");
+            int soTimeout = Integer.decode(prop);
+            prop = props.getProperty("tcpNoDelay");
+            boolean tcpNoDelay = Boolean.parseBoolean(prop);
+            socket.setSoTimeout(soTimeout);
+            socket.setTcpNoDelay(tcpNoDelay);
             failed = false;
-            return server;
+            return socket;
         } finally {
-            if (failed) IOUtils.close(server);
+            if (failed) IOUtils.close(channel);
         }
     }
 
+    public static void handshake(Properties props, Socket socket)
+            throws IOException {
+        AuthSocket.handshake(props, socket);
+    }
+
     public static Socket createSocket(Properties props, String host, int port)
             throws IOException {
         SocketAddress endpoint = new InetSocketAddress(host, port);
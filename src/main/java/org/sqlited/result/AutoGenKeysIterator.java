@@ -16,56 +16,99 @@
 
 package org.sqlited.result;
 
+import static org.sqlited.io.Protocol.*;
+
+import java.util.ArrayList;
 import java.util.List;
+import java.util.NoSuchElementException;
 
+/** Keys of the [min, max] ranges, expanded lazily. */
 public class AutoGenKeysIterator extends RowIterator {
     private static final long serialVersionUID = 1L;
 
-    protected final List<Long[]> keyRanges;
+    // Pairs of [min, max]
+    protected final long[] ranges;
     protected transient long key;
 
-    public AutoGenKeysIterator(List<Long[]> keyRanges, ResultSetMetaData metaData) {
+    public AutoGenKeysIterator(long[] ranges, ResultSetMetaData metaData) {
         super(null, true, metaData);
-        this.keyRanges = keyRanges;
+        if ((ranges.length & 1) != 0) {
+            throw new IllegalArgumentException("Key ranges not in pairs");
+        }
+        this.ranges = ranges;
+    }
+
+    public AutoGenKeysIterator(List<Long[]> keyRanges, ResultSetMetaData metaData) {
+        this(toArray(keyRanges), metaData);
     }
 
     public AutoGenKeysIterator(List<Long[]> keyRanges) {
         this(keyRanges, ResultSetMetaData.AUTO_GEN_KEYS_META);
     }
 
+    static long[] toArray(List<Long[]> keyRanges) {
+        long[] a = new long[keyRanges.size() << 1];
+        int i = 0;
+        for (Long[] range : keyRanges) {
+            a[i++] = range[0];
+            a[i++] = range[1];
+        }
+        return a;
+    }
+
+    /** Delta-encodes the first n / 2 ranges for the wire: min, max - min,
+     * next min - max, ... small in varints.
+     */
+    public static long[] encode(long[] ranges, int n) {
+        long[] a = new long[n];
+        long prev = 0;
+        for (int i = 0; i < n; ++i) {
+            a[i] = ranges[i] - prev;
+            prev = ranges[i];
+        }
+        return a;
+    }
+
+    public static AutoGenKeysIterator decode(long[] deltas, ResultSetMetaData metaData) {
+        long[] a = new long[deltas.length];
+        long prev = 0;
+        for (int i = 0; i < a.length; ++i) {
+            a[i] = prev += deltas[i];
+        }
+        return new AutoGenKeysIterator(a, metaData);
+    }
+
+    /** The number of keys in the ranges. */
+    public long size() {
+        long[] ranges = this.ranges;
+        long n = 0;
+        for (int i = 0; i < ranges.length; i += 2) {
+            n += ranges[i + 1] - ranges[i] + 1;
+        }
+        return n;
+    }
+
     @Override
     public boolean hasNext() {
-        List<Long[]> keyRanges = this.keyRanges;
-        long key = this.key;
         int index = this.index;
-
-        if (key != 0) {
-            long raMax = keyRanges.get(index)[1];
-            if (key < raMax) {
-                return true;
-            }
+        if (index >= 0 && this.key < this.ranges[(index << 1) + 1]) {
+            return true;
         }
-        return (index + 1 < keyRanges.size());
+        return ((index + 1) << 1) < this.ranges.length;
     }
 
     @Override
     public Long[] next() {
-        List<Long[]> keyRanges = this.keyRanges;
-        long key = this.key;
-        Long[] range;
-
-        if (key == 0) ++this.index;
-        range = keyRanges.get(this.index);
-        if (key < range[0]) {
-            key = range[0];
-        } else if (key < range[1]) {
-            key += 1;
+        int index = this.index;
+        if (index >= 0 && this.key < this.ranges[(index << 1) + 1]) {
+            ++this.key;
         } else {
-            range = keyRanges.get(++this.index);
-            key = range[0];
+            int i = (++index) << 1;
+            if (i >= this.ranges.length) throw new NoSuchElementException();
+            this.index = index;
+            this.key = this.ranges[i];
         }
-
-        return new Long[]{ this.key = key };
+        return new Long[]{ this.key };
     }
 
     @Override
@@ -75,13 +118,41 @@ public class AutoGenKeysIterator extends RowIterator {
 
     @Override
     public Long[] get() {
-        long key = this.key;
-        if (key == 0) {
+        return new Long[] { getLong(0) };
+    }
+
+    @Override
+    public int getType(int column) {
+        getLong(column);
+        return TYPE_OBJ_INT;
+    }
+
+    @Override
+    public long getLong(int column) {
+        if (this.index < 0) {
             String s = "next() not called";
             throw new IllegalStateException(s);
-        } else {
-            return new Long[] { key };
         }
+        return this.key;
+    }
+
+    @Override
+    public double getDouble(int column) {
+        return getLong(column);
+    }
+
+    @Override
+    public Object getObject(int column) {
+        return getLong(column);
+    }
+
+    protected Object writeReplace() {
+        // Expand keys into a plain row iterator for remote peer
+        AutoGenKeysIterator itr = new AutoGenKeysIterator(this.ranges,
+                this.metaData);
+        List<Object[]> rows = new ArrayList<>();
+        itr.forEachRemaining(rows::add);
+        return UnboxedRowIterator.of(rows, this.last, this.metaData);
     }
 
     @Override
@@ -16,30 +16,41 @@
 
 package org.sqlited.result;
 
-import java.io.Serializable;
+import org.sqlited.io.Transfer;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.sql.SQLException;
 import java.sql.Types;
 import java.util.HashMap;
+import java.util.Locale;
 import java.util.Map;
 
-public class ResultSetMetaData implements Serializable {
+public class ResultSetMetaData implements Externalizable {
 
     private static final long serialVersionUID = 1L;
     public static final ResultSetMetaData AUTO_GEN_KEYS_META = autoGeneratedKeysMetaData();
 
-    protected final String[] names;
-    protected final boolean[][] columnMetas;
-    protected final String[] columnTypeNames;
-    protected final int[] columnTypes;
-    protected final int[] scales;
+    protected String[] names;
+    protected boolean[][] columnMetas;
+    protected String[] columnTypeNames;
+    protected int[] columnTypes;
+    protected int[] scales;
 
-    protected transient final int[] columnIntMetas;
+    protected transient int[] columnIntMetas;
     protected transient Map<String, Integer> nameToIndex;
 
+    public ResultSetMetaData() {
+        // For Externalizable
+    }
+
     public ResultSetMetaData(String[] names, boolean[][] columnMetas,
                                 String[] columnTypeNames, int[] columnTypes,
                                 int[] scales) {
         this.names = names;
+        this.nameToIndex = indexColumns(names);
         this.columnIntMetas = null;
         this.columnMetas = columnMetas;
         this.columnTypeNames = columnTypeNames;
@@ -51,6 +62,7 @@ public class ResultSetMetaData implements Serializable {
                              String[] columnTypeNames, int[] columnTypes,
                              int[] scales) {
         this.names = names;
+        this.nameToIndex = indexColumns(names);
         this.columnMetas = null;
         this.columnIntMetas = columnIntMetas;
         this.columnTypeNames = columnTypeNames;
@@ -59,40 +71,28 @@ public class ResultSetMetaData implements Serializable {
     }
 
     public int findColumn(String name) throws SQLException {
-        Integer column = findColumnInCache(name);
+        Map<String, Integer> index = this.nameToIndex;
+        Integer column = index.get(name);
+        if (column == null) {
+            column = index.get(name.toLowerCase(Locale.ROOT));
+        }
         if (column != null) {
             return column;
         }
 
-        String[] names = this.names;
-        for (int i = 0; i < names.length; i++) {
-            if (name.equalsIgnoreCase(names[i])) {
-                return addColumnToCache(name, i + 1);
-            }
-        }
-
         throw new SQLException("No such column '"+name+"'");
     }
 
-    private int addColumnToCache(String name, int column) {
-        Map<String, Integer> cache = this.nameToIndex;
-
-        if (cache == null) {
-            cache = this.nameToIndex = new HashMap<>();
+    protected static Map<String, Integer> indexColumns(String[] names) {
+        // Label to column index map: the first one wins for duplicated labels
+        Map<String, Integer> index = new HashMap<>(names.length << 2);
+        for (int i = 0; i < names.length; i++) {
+            index.putIfAbsent(names[i], i + 1);
         }
-        cache.put(name, column);
-
-        return column;
-    }
-
-    private Integer findColumnInCache(String name) {
-        Map<String, Integer> cache = this.nameToIndex;
-
-        if (cache == null) {
-            return null;
-        } else {
-            return cache.get(name);
+        for (int i = 0; i < names.length; i++) {
+            index.putIfAbsent(names[i].toLowerCase(Locale.ROOT), i + 1);
         }
+        return index;
     }
 
     public int getColumnCount() throws SQLException {
@@ -168,6 +168,69 @@ public class ResultSetMetaData implements Serializable {
         return this.scales;
     }
 
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        Transfer.writeExternal(out, ch -> write(ch, this));
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        Transfer ch = Transfer.readExternal(in);
+        if (read(ch, this) == null) {
+            throw new IOException("No result set meta data");
+        }
+    }
+
+    public static void write(Transfer ch, ResultSetMetaData meta)
+            throws IOException {
+        // Format: names, metas, typeNames, types, scales, null(meta end)
+        if (meta != null) {
+            ch.writeArray(meta.getNames())
+                    .writeArray(meta.getColumnIntMetas())
+                    .writeArray(meta.getColumnTypeNames())
+                    .writeArray(meta.getColumnTypes())
+                    .writeArray(meta.getScales());
+        }
+        ch.writeArray(null);
+    }
+
+    public static ResultSetMetaData read(Transfer ch) throws IOException {
+        return read(ch, new ResultSetMetaData());
+    }
+
+    protected static ResultSetMetaData read(Transfer ch, ResultSetMetaData meta)
+            throws IOException {
+        Object a = ch.readArray();
+
+        if (a == null) {
+            return null;
+        } else {
+            String[] names = (String[])a;
+            int[] metas = (int[])ch.readArray();
+            String[] typeNames = (String[]) ch.readArray();
+            int[] types = (int[]) ch.readArray();
+            int[] scales = (int[]) ch.readArray();
+            while (ch.readArray() != null);
+            int n = metas.length;
+            boolean[][] colMetas = new boolean[n][];
+            for (int i = 0; i < n; ++i) {
+                boolean[] m = new boolean[3];
+                m[0] = (metas[i] & 0x01) != 0x0;
+                m[1] = (metas[i] & 0x02) != 0x0;
+                m[2] = (metas[i] & 0x04) != 0x0;
+                colMetas[i] = m;
+            }
+            meta.names = names;
+            meta.nameToIndex = indexColumns(names);
+            meta.columnMetas = colMetas;
+            meta.columnIntMetas = metas;
+            meta.columnTypeNames = typeNames;
+            meta.columnTypes = types;
+            meta.scales = scales;
+            return meta;
+        }
+    }
+
     private static ResultSetMetaData autoGeneratedKeysMetaData() {
         String[] names = { "GENERATED_KEY" };
         boolean[][] columnMetas = new boolean[1][];
@@ -16,21 +16,32 @@
 
 package org.sqlited.result;
 
-import java.io.Serializable;
+import org.sqlited.io.Protocol;
+import org.sqlited.io.Transfer;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.function.Consumer;
 
-public class RowIterator implements Iterator<Object[]>, Serializable {
+public class RowIterator implements Iterator<Object[]>, Externalizable, AutoCloseable {
     private static final long serialVersionUID = 1L;
 
-    protected final List<Object[]> rows;
-    protected final boolean last;
-    protected final ResultSetMetaData metaData;
+    protected List<Object[]> rows;
+    protected boolean last;
+    protected ResultSetMetaData metaData;
     // Row cursor
     protected transient int index = -1;
 
+    public RowIterator() {
+        // For Externalizable
+    }
+
     public RowIterator(List<Object[]> rows, boolean last,
                        ResultSetMetaData metaData) {
         this.rows = rows;
@@ -75,6 +86,35 @@ public class RowIterator implements Iterator<Object[]>, Serializable {
         return this.rows.get(this.index);
     }
 
+    // Typed cell accessors, column is 0-based in the current row
+
+    public int getType(int column) {
+        Object value = get()[column];
+        if (value == null) {
+            return Protocol.TYPE_OBJ_NULL;
+        } else if (value instanceof Long || value instanceof Integer) {
+            return Protocol.TYPE_OBJ_INT;
+        } else if (value instanceof Double) {
+            return Protocol.TYPE_OBJ_REAL;
+        } else if (value instanceof byte[]) {
+            return Protocol.TYPE_OBJ_BLOB;
+        } else {
+            return Protocol.TYPE_OBJ_TEXT;
+        }
+    }
+
+    public long getLong(int column) {
+        return ((Number) get()[column]).longValue();
+    }
+
+    public double getDouble(int column) {
+        return ((Number) get()[column]).doubleValue();
+    }
+
+    public Object getObject(int column) {
+        return get()[column];
+    }
+
     public boolean isLast() {
         return this.last;
     }
@@ -83,4 +123,50 @@ public class RowIterator implements Iterator<Object[]>, Serializable {
         return this.metaData;
     }
 
+    @Override
+    public void close() {
+        // Release resources of the rows
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        Transfer.writeExternal(out, this::write);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        Transfer ch = Transfer.readExternal(in);
+        read(ch);
+    }
+
+    protected void write(Transfer ch) throws IOException {
+        // Format: last, resultSetMeta, [row, ..., ] null(row end)
+        ch.writeBoolean(this.last);
+        ResultSetMetaData.write(ch, this.metaData);
+        int index = this.index;
+        try {
+            reset();
+            while (hasNext()) {
+                Object[] row = next();
+                ch.writeArray(row);
+            }
+            ch.writeArray(null);
+        } finally {
+            this.index = index;
+        }
+    }
+
+    protected void read(Transfer ch) throws IOException {
+        this.last = ch.readBoolean();
+        this.metaData = ResultSetMetaData.read(ch);
+        List<Object[]> rows = new ArrayList<>();
+        Object[] row = (Object[])ch.readArray();
+        while (row != null) {
+            rows.add(row);
+            row = (Object[])ch.readArray();
+        }
+        this.rows = rows;
+        this.index = -1;
+    }
+
 }
@@ -0,0 +1,377 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.result;
+
+import org.sqlited.io.SpooledLob;
+import org.sqlited.io.Transfer;
+import static org.sqlited.io.Protocol.*;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** A row iterator that keeps cells unboxed: INT and REAL cells are stored
+ * in a long array, TEXT and BLOB cells in an object array, and the cell
+ * type tags in a byte array. Typed accessors never allocate.
+ */
+public class UnboxedRowIterator extends RowIterator {
+    private static final long serialVersionUID = 1L;
+    // Chunked values larger than it are spooled into temp files
+    static final int LOB_SPOOL_SIZE = Integer.getInteger("sqlited.lobSpoolSize", 1 << 20);
+    static final int LOB_CHUNK_SIZE = 1 << 16;
+
+    protected int columns;
+    protected int size;
+    protected byte[] types;
+    protected long[] values;
+    protected Object[] objects;
+    // Current row offset in the cell arrays
+    protected transient int offset;
+    // Column cursor of the row being appended
+    private transient int fill;
+    private transient List<SpooledLob> lobs;
+    // Resumable read: in a row after its header, in a chunked value
+    private transient boolean inRow;
+    private transient SpooledLob.Spooler lob;
+
+    public UnboxedRowIterator() {
+        // For Externalizable
+        this.types = new byte[0];
+        this.values = new long[0];
+        this.objects = new Object[0];
+    }
+
+    public UnboxedRowIterator(int columns, int capacity, boolean last,
+                              ResultSetMetaData metaData) {
+        super(null, last, metaData);
+        int n = columns * Math.max(capacity, 1);
+        this.columns = columns;
+        this.types = new byte[n];
+        this.values = new long[n];
+        this.objects = new Object[n];
+    }
+
+    public static UnboxedRowIterator of(List<Object[]> rows, boolean last,
+                                        ResultSetMetaData metaData) {
+        int columns = rows.isEmpty()? 0: rows.get(0).length;
+        UnboxedRowIterator itr = new UnboxedRowIterator(columns, rows.size(),
+                last, metaData);
+        for (Object[] row: rows) {
+            for (Object value: row) {
+                itr.add(value);
+            }
+        }
+        return itr;
+    }
+
+    public static UnboxedRowIterator readRows(Transfer ch, boolean last,
+                                              ResultSetMetaData metaData)
+            throws IOException {
+        // Format: [row ..., ] null(row end)
+        UnboxedRowIterator itr = new UnboxedRowIterator(0, 0, last, metaData);
+        boolean failed = true;
+        try {
+            itr.readRowList(ch, null);
+            failed = false;
+            return itr;
+        } finally {
+            if (failed) itr.close();
+        }
+    }
+
+    public void add(Object value) {
+        int i = ensureCell();
+        if (value == null) {
+            this.types[i] = TYPE_OBJ_NULL;
+        } else if (value instanceof Long || value instanceof Integer) {
+            this.types[i] = TYPE_OBJ_INT;
+            this.values[i] = ((Number) value).longValue();
+        } else if (value instanceof Double) {
+            this.types[i] = TYPE_OBJ_REAL;
+            this.values[i] = Double.doubleToRawLongBits((Double) value);
+        } else if (value instanceof byte[]) {
+            this.types[i] = TYPE_OBJ_BLOB;
+            this.objects[i] = value;
+        } else {
+            this.types[i] = TYPE_OBJ_TEXT;
+            this.objects[i] = value.toString();
+        }
+    }
+
+    public void setLast(boolean last) {
+        this.last = last;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    private int ensureCell() {
+        int i = this.size * this.columns + this.fill;
+        if (i >= this.types.length) {
+            int n = Math.max(this.types.length << 1, Math.max(this.columns, 16));
+            this.types = Arrays.copyOf(this.types, n);
+            this.values = Arrays.copyOf(this.values, n);
+            this.objects = Arrays.copyOf(this.objects, n);
+        }
+        if (++this.fill == this.columns) {
+            this.fill = 0;
+            ++this.size;
+        }
+        return i;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return this.index + 1 < this.size;
+    }
+
+    @Override
+    public Object[] next() {
+        ++this.index;
+        this.offset = this.index * this.columns;
+        return get();
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("remove()");
+    }
+
+    @Override
+    public UnboxedRowIterator reset() {
+        super.reset();
+        this.offset = 0;
+        return this;
+    }
+
+    @Override
+    public Object[] get() {
+        int m = this.columns;
+        Object[] row = new Object[m];
+        for (int i = 0; i < m; ++i) {
+            row[i] = getObject(i);
+        }
+        return row;
+    }
+
+    @Override
+    public int getType(int column) {
+        return this.types[this.offset + column];
+    }
+
+    @Override
+    public long getLong(int column) {
+        int i = this.offset + column;
+        if (this.types[i] == TYPE_OBJ_REAL) {
+            return (long) Double.longBitsToDouble(this.values[i]);
+        } else {
+            return this.values[i];
+        }
+    }
+
+    @Override
+    public double getDouble(int column) {
+        int i = this.offset + column;
+        if (this.types[i] == TYPE_OBJ_REAL) {
+            return Double.longBitsToDouble(this.values[i]);
+        } else {
+            return this.values[i];
+        }
+    }
+
+    @Override
+    public Object getObject(int column) {
+        int i = this.offset + column;
+        switch (this.types[i]) {
+            case TYPE_OBJ_INT:
+                return this.values[i];
+            case TYPE_OBJ_REAL:
+                return Double.longBitsToDouble(this.values[i]);
+            case TYPE_OBJ_NULL:
+                return null;
+            default:
+                return this.objects[i];
+        }
+    }
+
+    @Override
+    protected void write(Transfer ch) throws IOException {
+        // Format: last, resultSetMeta, [row, ..., ] null(row end)
+        ch.writeBoolean(this.last);
+        ResultSetMetaData.write(ch, this.metaData);
+        int m = this.columns;
+        for (int r = 0, i = 0; r < this.size; ++r) {
+            ch.write(TYPE_ARR_Object).writeInt(m);
+            for (int j = 0; j < m; ++j, ++i) {
+                Object object = this.objects[i];
+                if (object instanceof SpooledLob) {
+                    // Streamed from the spool file in chunks again
+                    SpooledLob lob = (SpooledLob) object;
+                    ch.write(lob.isText()? TYPE_OBJ_TEXT_CHUNKED: TYPE_OBJ_BLOB_CHUNKED);
+                    try (InputStream in = lob.getInputStream()) {
+                        ch.writeChunks(in, LOB_CHUNK_SIZE);
+                    }
+                    continue;
+                }
+                byte type = this.types[i];
+                ch.write(type);
+                switch (type) {
+                    case TYPE_OBJ_INT:
+                    case TYPE_OBJ_REAL:
+                        ch.writeLong(this.values[i]);
+                        break;
+                    case TYPE_OBJ_TEXT:
+                        ch.writeString((String) object);
+                        break;
+                    case TYPE_OBJ_BLOB:
+                        ch.writeBytes((byte[]) object);
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+        ch.writeArray(null);
+    }
+
+    @Override
+    protected void read(Transfer ch) throws IOException {
+        this.last = ch.readBoolean();
+        this.metaData = ResultSetMetaData.read(ch);
+        this.columns = 0;
+        this.size = 0;
+        this.fill = 0;
+        readRowList(ch, null);
+    }
+
+    /** Read the rows until the row end into this iterator. After an
+     * EOFException the read can be resumed from the last checkpoint, run
+     * when a row header, a cell or a part of a chunked value is read, once
+     * more bytes received: the rows and cells read before are kept.
+     */
+    public void readRows(Transfer ch, Runnable checkpoint) throws IOException {
+        readRowList(ch, checkpoint);
+    }
+
+    protected void readRowList(Transfer ch, Runnable checkpoint) throws IOException {
+        while (true) {
+            if (!this.inRow) {
+                int type = ch.read(true);
+                if (type != TYPE_ARR_Object) {
+                    throw new IOException("Unknown row type: " + type);
+                }
+                int m = ch.readInt();
+                if (m == -1) {
+                    break;
+                }
+                if (this.size == 0) {
+                    this.columns = m;
+                } else if (m != this.columns) {
+                    throw new IOException("Row columns " + m + " != " + this.columns);
+                }
+                this.inRow = m > 0;
+                if (checkpoint != null) checkpoint.run();
+            }
+            while (this.inRow) {
+                readCell(ch, checkpoint);
+                this.inRow = this.fill != 0;
+                if (checkpoint != null) checkpoint.run();
+            }
+        }
+        this.index = -1;
+        this.offset = 0;
+    }
+
+    private void readCell(Transfer ch, Runnable checkpoint) throws IOException {
+        // The cell added when read all, for resuming the read at it
+        SpooledLob.Spooler lob = this.lob;
+        int type = 0;
+        long value = 0;
+        Object object = null;
+        if (lob == null) {
+            type = ch.read(true);
+            switch (type) {
+                case TYPE_OBJ_INT:
+                case TYPE_OBJ_REAL:
+                    value = ch.readLong();
+                    break;
+                case TYPE_OBJ_TEXT:
+                    object = ch.readString();
+                    break;
+                case TYPE_OBJ_BLOB:
+                    object = ch.readBytes();
+                    break;
+                case TYPE_OBJ_NULL:
+                    break;
+                case TYPE_OBJ_TEXT_CHUNKED:
+                case TYPE_OBJ_BLOB_CHUNKED:
+                    boolean text = type == TYPE_OBJ_TEXT_CHUNKED;
+                    lob = this.lob = new SpooledLob.Spooler(text, LOB_SPOOL_SIZE);
+                    if (checkpoint != null) checkpoint.run();
+                    break;
+                default:
+                    String s = "Unknown object type: " + type;
+                    throw new IOException(s);
+            }
+        }
+        if (lob != null) {
+            boolean failed = true;
+            try {
+                object = lob.read(ch, checkpoint);
+                failed = false;
+            } catch (EOFException e) {
+                // Kept for resuming from the checkpoint
+                if (checkpoint != null) failed = false;
+                throw e;
+            } finally {
+                if (failed) {
+                    this.lob = null;
+                    lob.close();
+                }
+            }
+            this.lob = null;
+            if (object instanceof SpooledLob) {
+                if (this.lobs == null) this.lobs = new ArrayList<>();
+                this.lobs.add((SpooledLob) object);
+            }
+            type = lob.isText()? TYPE_OBJ_TEXT: TYPE_OBJ_BLOB;
+        }
+        int i = ensureCell();
+        this.types[i] = (byte) type;
+        this.values[i] = value;
+        this.objects[i] = object;
+    }
+
+    @Override
+    public void close() {
+        List<SpooledLob> lobs = this.lobs;
+        if (lobs != null) {
+            lobs.forEach(SpooledLob::close);
+            this.lobs = null;
+        }
+        SpooledLob.Spooler lob = this.lob;
+        if (lob != null) {
+            lob.close();
+            this.lob = null;
+        }
+    }
+
+}
@@ -60,6 +60,16 @@ public class AuthSocketFactory extends org.sqlited.net.AuthSocketFactory
         LOCAL_PROPS.set(props);
     }
 
+    public static boolean attachIfAbsent(Properties props) {
+        // Skip re-attach in nested calls of the same connection
+        if (LOCAL_PROPS.get() == props) {
+            return false;
+        } else {
+            LOCAL_PROPS.set(props);
+            return true;
+        }
+    }
+
     public static void detachProperties() {
         LOCAL_PROPS.remove();
     }
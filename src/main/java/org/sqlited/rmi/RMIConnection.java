@@ -1,5 +1,7 @@
 package org.sqlited.rmi;
 
+import org.sqlited.meta.Catalog;
+
 import java.rmi.Remote;
 import java.rmi.RemoteException;
 import java.sql.SQLException;
@@ -36,4 +38,7 @@ public interface RMIConnection extends Remote, AutoCloseable {
 
     void setHoldability(int holdability) throws RemoteException, SQLException;
 
+    /** The schema catalog, or null if still of the version given. */
+    Catalog getCatalog(long version) throws RemoteException, SQLException;
+
 }
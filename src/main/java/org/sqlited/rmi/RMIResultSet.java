@@ -10,6 +10,9 @@ public interface RMIResultSet extends Remote, AutoCloseable {
 
     RowIterator next(boolean meta) throws RemoteException, SQLException;
 
+    RowIterator next(boolean meta, int fetchSize)
+            throws RemoteException, SQLException;
+
     org.sqlited.result.ResultSetMetaData getMetaData()
             throws RemoteException, SQLException;
 
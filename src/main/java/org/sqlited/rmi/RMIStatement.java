@@ -10,6 +10,9 @@ public interface RMIStatement extends RMIResultSet, Remote, AutoCloseable {
 
     RowIterator executeQuery(String s) throws RemoteException, SQLException;
 
+    RowIterator executeAndFetch(String s, int fetchSize)
+            throws RemoteException, SQLException;
+
     int executeUpdate(String s) throws RemoteException, SQLException;
 
     @Override
@@ -24,6 +24,8 @@ import org.sqlited.util.logging.LoggerFactory;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 import java.util.logging.Logger;
 
@@ -61,6 +63,58 @@ public class Config implements Cloneable {
     int tcpWorkPool = Integer.decode(DEFAULT.getProperty("tcp.workPool", "520"));
     int userMaxLength = Integer.decode(DEFAULT.getProperty("userMaxLength", "64"));
     int maxBufferSize = Integer.decode(DEFAULT.getProperty("maxBufferSize", "16777216"));
+    // RMI remote object leases
+    int rmiMaxConns = Integer.decode(DEFAULT.getProperty("rmi.maxConns", "520"));
+    int rmiMaxStmts = Integer.decode(DEFAULT.getProperty("rmi.maxStmts", "5200"));
+    int rmiStmtPool = Integer.decode(DEFAULT.getProperty("rmi.stmtPool", "8"));
+    int rmiIdleTimeout = Integer.decode(DEFAULT.getProperty("rmi.idleTimeout", this.readTimeout + ""));
+    int rmiStmtIdleTimeout = Integer.decode(DEFAULT.getProperty("rmi.stmtIdleTimeout", "60000"));
+    // Admission control: max active commands per database, 0 for disabled
+    int admissionDbLimit = Integer.decode(DEFAULT.getProperty("admission.dbLimit", "0"));
+    int admissionMaxQueue = Integer.decode(DEFAULT.getProperty("admission.maxQueue", "1024"));
+    int admissionMaxWait = Integer.decode(DEFAULT.getProperty("admission.maxWait", "5000"));
+    // Max execution millis of a statement, 0 for no limit
+    int statementTimeout = Integer.decode(DEFAULT.getProperty("statement.timeout", "0"));
+    // Values larger than it are sent in chunks of this size
+    int lobChunkSize = Integer.decode(DEFAULT.getProperty("lob.chunkSize", "1048576"));
+    // Sleep millis between online backup steps
+    int backupThrottle = Integer.decode(DEFAULT.getProperty("backup.throttle", "5"));
+    // Change data capture: disabled by default
+    boolean cdcEnabled = Boolean.parseBoolean(DEFAULT.getProperty("cdc.enabled", "false"));
+    int cdcQueueSize = Integer.decode(DEFAULT.getProperty("cdc.queueSize", "1024"));
+    int cdcHeartbeat = Integer.decode(DEFAULT.getProperty("cdc.heartbeat", "10000"));
+    // Read replica: "host:port" of the leader, and the databases replicated
+    String replicaOf = DEFAULT.getProperty("replica.of");
+    String replicaDbs = DEFAULT.getProperty("replica.dbs", "");
+    int replicaRetry = Integer.decode(DEFAULT.getProperty("replica.retry", "5000"));
+    // Query result cache: disabled by default
+    long queryCacheSize = Long.decode(DEFAULT.getProperty("queryCache.size", "0"));
+    boolean queryCacheDataVersion = Boolean.parseBoolean(DEFAULT.getProperty("queryCache.dataVersion", "false"));
+    // Hibernate the sessions idle for these millis, 0 for disabled
+    int hibernateIdle = Integer.decode(DEFAULT.getProperty("hibernate.idle", "0"));
+    // Max idle SQLite handles cached by database for the sessions waking up
+    int hibernateHandles = Integer.decode(DEFAULT.getProperty("hibernate.handles", "8"));
+    // Database files preloaded on startup or first open, none by default
+    String warmupDbs = DEFAULT.getProperty("warmup.dbs", "");
+    // Touch the pages by mmap instead of sequential reads
+    boolean warmupMmap = Boolean.parseBoolean(DEFAULT.getProperty("warmup.mmap", "false"));
+    // Max bytes read per second by the warmup, 0 for unlimited
+    long warmupRate = Long.decode(DEFAULT.getProperty("warmup.rate", "33554432"));
+    // The hot tables recorded at shutdown and warmed first on startup,
+    // relative to the data directory, empty for disabled
+    String warmupHotFile = DEFAULT.getProperty("warmup.hotFile", "warmup.hot");
+    int warmupHotTables = Integer.decode(DEFAULT.getProperty("warmup.hotTables", "16"));
+    // Max named statements registered in the server, evicted all when full
+    int namedMax = Integer.decode(DEFAULT.getProperty("named.max", "4096"));
+    // Max prepared named statements cached by session
+    int namedCached = Integer.decode(DEFAULT.getProperty("named.cached", "64"));
+    // Group commit of the autocommit writes: disabled by default
+    boolean groupCommit = Boolean.parseBoolean(DEFAULT.getProperty("groupCommit.enabled", "false"));
+    // Max statements of a group, and max micros the first waits for the rest
+    int groupCommitSize = Integer.decode(DEFAULT.getProperty("groupCommit.size", "64"));
+    long groupCommitDelay = Long.decode(DEFAULT.getProperty("groupCommit.delay", "500"));
+    // SQLite tuning profiles matched by database path in order
+    List<Profile> profiles = Profile.parse(DEFAULT);
 
     protected Config() {
 
@@ -95,6 +149,7 @@ public class Config implements Cloneable {
             throws IllegalArgumentException {
         int n = args.length;
         Config config = new Config();
+        List<Profile> profiles = null;
 
         for (int i = 0; i < n; ++i) {
             String arg = args[i];
@@ -133,12 +188,53 @@ public class Config implements Cloneable {
                     throw new IllegalArgumentException("No data-dir argv");
                 }
                 config.dataDir = args[i];
+            } else if ("--query-cache".equals(arg)) {
+                if (++i >= n) {
+                    throw new IllegalArgumentException("No query-cache argv");
+                }
+                config.queryCacheSize = Long.decode(args[i]);
+            } else if ("--replica-of".equals(arg)) {
+                if (++i >= n) {
+                    throw new IllegalArgumentException("No replica-of argv");
+                }
+                config.replicaOf = args[i];
+            } else if ("--replica-dbs".equals(arg)) {
+                if (++i >= n) {
+                    throw new IllegalArgumentException("No replica-dbs argv");
+                }
+                config.replicaDbs = args[i];
+            } else if ("--max-active".equals(arg)) {
+                if (++i >= n) {
+                    throw new IllegalArgumentException("No max-active argv");
+                }
+                config.admissionDbLimit = Integer.decode(args[i]);
+            } else if ("--hibernate".equals(arg)) {
+                if (++i >= n) {
+                    throw new IllegalArgumentException("No hibernate argv");
+                }
+                config.hibernateIdle = Integer.decode(args[i]);
+            } else if ("--warmup".equals(arg)) {
+                if (++i >= n) {
+                    throw new IllegalArgumentException("No warmup argv");
+                }
+                config.warmupDbs = args[i];
+            } else if ("--profile".equals(arg)) {
+                if (++i >= n) {
+                    throw new IllegalArgumentException("No profile argv");
+                }
+                if (profiles == null) profiles = new ArrayList<>();
+                profiles.add(Profile.parse(args[i]));
+            } else if ("--cdc".equals(arg)) {
+                config.cdcEnabled = true;
+            } else if ("--group-commit".equals(arg)) {
+                config.groupCommit = true;
             } else if ("--help".equals(arg) || "-?".equals(arg)) {
                 if (usage != null) usage.help(args);
             } else {
                 throw new IllegalArgumentException("Unknown arg: " + arg);
             }
         }
+        if (profiles != null) config.profiles = profiles;
         String dataDir = config.dataDir;
         if (!dataDir.startsWith(File.separator)) {
             config.dataDir = config.baseDir + File.separator + dataDir;
@@ -220,6 +316,150 @@ public class Config implements Cloneable {
         return this.maxBufferSize;
     }
 
+    public int getRMIMaxConns() {
+        return this.rmiMaxConns;
+    }
+
+    public int getRMIMaxStmts() {
+        return this.rmiMaxStmts;
+    }
+
+    public int getRMIStmtPool() {
+        return this.rmiStmtPool;
+    }
+
+    public int getRMIIdleTimeout() {
+        return this.rmiIdleTimeout;
+    }
+
+    public int getRMIStmtIdleTimeout() {
+        return this.rmiStmtIdleTimeout;
+    }
+
+    public int getAdmissionDbLimit() {
+        return this.admissionDbLimit;
+    }
+
+    public int getAdmissionMaxQueue() {
+        return this.admissionMaxQueue;
+    }
+
+    public int getAdmissionMaxWait() {
+        return this.admissionMaxWait;
+    }
+
+    public int getStatementTimeout() {
+        return this.statementTimeout;
+    }
+
+    public int getLobChunkSize() {
+        return this.lobChunkSize;
+    }
+
+    public int getBackupThrottle() {
+        return this.backupThrottle;
+    }
+
+    public String getReplicaOf() {
+        return this.replicaOf;
+    }
+
+    public boolean isReplica() {
+        return this.replicaOf != null;
+    }
+
+    public String[] getReplicaDbs() {
+        String s = this.replicaDbs.trim();
+        if (s.isEmpty()) return new String[0];
+        else return s.split("\\s*,\\s*");
+    }
+
+    public int getReplicaRetry() {
+        return this.replicaRetry;
+    }
+
+    public boolean isCdcEnabled() {
+        return this.cdcEnabled;
+    }
+
+    public int getCdcQueueSize() {
+        return this.cdcQueueSize;
+    }
+
+    public int getCdcHeartbeat() {
+        return this.cdcHeartbeat;
+    }
+
+    public long getQueryCacheSize() {
+        return this.queryCacheSize;
+    }
+
+    public boolean isQueryCacheDataVersion() {
+        return this.queryCacheDataVersion;
+    }
+
+    public int getHibernateIdle() {
+        return this.hibernateIdle;
+    }
+
+    public int getHibernateHandles() {
+        return this.hibernateHandles;
+    }
+
+    public boolean isWarmup() {
+        return !this.warmupDbs.trim().isEmpty();
+    }
+
+    public String getWarmupDbs() {
+        return this.warmupDbs;
+    }
+
+    public boolean isWarmupMmap() {
+        return this.warmupMmap;
+    }
+
+    public long getWarmupRate() {
+        return this.warmupRate;
+    }
+
+    public String getWarmupHotFile() {
+        String file = this.warmupHotFile;
+        if (file.isEmpty() || file.startsWith(File.separator)) return file;
+        return this.dataDir + File.separator + file;
+    }
+
+    public int getWarmupHotTables() {
+        return this.warmupHotTables;
+    }
+
+    public int getNamedMax() {
+        return this.namedMax;
+    }
+
+    public int getNamedCached() {
+        return this.namedCached;
+    }
+
+    public boolean isGroupCommit() {
+        return this.groupCommit;
+    }
+
+    public int getGroupCommitSize() {
+        return this.groupCommitSize;
+    }
+
+    public long getGroupCommitDelay() {
+        return this.groupCommitDelay;
+    }
+
+    public List<Profile> getProfiles() {
+        return this.profiles;
+    }
+
+    public Profile getProfile(String db) {
+        return Profile.find(this.profiles, this.dataDir, db);
+    }
+
     public Properties getConnProperties() {
         final Properties props = new Properties();
 
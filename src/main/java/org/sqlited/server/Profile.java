@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.server;
+
+import static org.sqlited.server.util.SQLiteUtils.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/** A SQLite tuning profile applied to the databases matched when opened.
+ * The pragmas of a profile are guarded: clients can't set them in the
+ * open properties or url, nor by "pragma" statements.
+ *
+ * <p>Config properties: "profiles" lists the profile names in matching
+ * order, "profile.NAME.match" the database path patterns relative to the
+ * data directory, and "profile.NAME.PRAGMA" the pragma values. Pattern
+ * "*" matches in a directory, "**" across directories.
+ * </p>
+ * @threadsafe
+ */
+public class Profile {
+
+    // Applied in this order, page_size first for new files
+    public static final List<String> PRAGMAS = Collections.unmodifiableList(Arrays.asList(
+            "page_size", "locking_mode", "busy_timeout", "mmap_size",
+            "cache_size", "synchronous", "temp_store"));
+
+    protected final String name;
+    protected final Pattern match;
+    protected final Map<String, String> pragmas;
+
+    public Profile(String name, String match, Map<String, String> pragmas)
+            throws IllegalArgumentException {
+        this.name = name;
+        this.match = dbPattern(match);
+        Map<String, String> ordered = new LinkedHashMap<>();
+        for (String pragma: PRAGMAS) {
+            String value = pragmas.get(pragma);
+            if (value != null) ordered.put(pragma, value);
+        }
+        for (String pragma: pragmas.keySet()) {
+            if (!ordered.containsKey(pragma)) {
+                throw new IllegalArgumentException("Unknown profile pragma: " + pragma);
+            }
+        }
+        this.pragmas = Collections.unmodifiableMap(ordered);
+    }
+
+    public static List<Profile> parse(Properties props) throws IllegalArgumentException {
+        List<Profile> profiles = new ArrayList<>();
+        String names = props.getProperty("profiles", "").trim();
+        if (names.isEmpty()) return profiles;
+
+        for (String name: names.split("\\s*,\\s*")) {
+            String prefix = "profile." + name + ".";
+            String match = props.getProperty(prefix + "match");
+            if (match == null) {
+                throw new IllegalArgumentException("No match of profile " + name);
+            }
+            Map<String, String> pragmas = new HashMap<>();
+            for (String key: props.stringPropertyNames()) {
+                if (key.startsWith(prefix) && !key.equals(prefix + "match")) {
+                    String value = props.getProperty(key).trim();
+                    pragmas.put(key.substring(prefix.length()), value);
+                }
+            }
+            profiles.add(new Profile(name, match, pragmas));
+        }
+        return profiles;
+    }
+
+    /** Parse the profile spec "NAME;match=PATTERN[;PRAGMA=VALUE...]".
+     */
+    public static Profile parse(String spec) throws IllegalArgumentException {
+        String[] items = spec.split("\\s*;\\s*");
+        String match = null;
+        Map<String, String> pragmas = new HashMap<>();
+        for (int i = 1; i < items.length; ++i) {
+            String[] kv = items[i].split("\\s*=\\s*", 2);
+            if (kv.length != 2) {
+                throw new IllegalArgumentException("Malformed profile: " + spec);
+            }
+            if ("match".equals(kv[0])) match = kv[1];
+            else pragmas.put(kv[0], kv[1]);
+        }
+        if (match == null) {
+            throw new IllegalArgumentException("No match of profile " + items[0]);
+        }
+        return new Profile(items[0], match, pragmas);
+    }
+
+    /** The first profile matched by the database file, or null.
+     * @param db the canonical database file, or null if private
+     */
+    public static Profile find(List<Profile> profiles, String dataDir, String db) {
+        if (db == null || profiles.isEmpty()) return null;
+        String path = dbPath(dataDir, db);
+        for (Profile profile: profiles) {
+            if (profile.match.matcher(path).matches()) return profile;
+        }
+        return null;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public Map<String, String> getPragmas() {
+        return this.pragmas;
+    }
+
+    public boolean isGuarded(String pragma) {
+        return this.pragmas.containsKey(pragma.toLowerCase(Locale.ENGLISH));
+    }
+
+    /** Apply the pragmas into the open properties, after checking that
+     * the client overrides none of them.
+     */
+    public Properties apply(String url, Properties info) throws SQLException {
+        int i = url.indexOf('?');
+        if (i != -1) {
+            for (String param: url.substring(i + 1).split("&")) {
+                String[] kv = param.split("=", 2);
+                if (kv.length == 2) check(kv[0], kv[1]);
+            }
+        }
+        for (String key: info.stringPropertyNames()) {
+            check(key, info.getProperty(key));
+        }
+        Properties props = new Properties();
+        props.putAll(info);
+        props.putAll(this.pragmas);
+        return props;
+    }
+
+    /** Check that the statement sets none of the guarded pragmas.
+     */
+    public void check(String sql) throws SQLException {
+        // Tokens out of comments: "pragma [schema.]name = value" or "(value)"
+        List<String> tokens = tokenize(sql);
+        int n = tokens.size();
+        for (int i = 0; i + 2 < n; ++i) {
+            if (!"pragma".equalsIgnoreCase(tokens.get(i))) continue;
+            int j = i + 1;
+            String pragma = unquote(tokens.get(j++));
+            if (".".equals(tokens.get(j)) && j + 1 < n) {
+                pragma = unquote(tokens.get(j + 1));
+                j += 2;
+            }
+            if (j < n && ("=".equals(tokens.get(j)) || "(".equals(tokens.get(j)))
+                    && isGuarded(pragma)) {
+                throw guarded(pragma);
+            }
+        }
+    }
+
+    /** Check that the database file to restore keeps the guarded page
+     * size, the one pragma of the profile persistent in the file.
+     */
+    public void checkRestore(File file) throws IOException, SQLException {
+        String guarded = this.pragmas.get("page_size");
+        if (guarded == null) return;
+        int size = pageSize(file);
+        if (size != 0 && size != Integer.decode(guarded)) {
+            throw guarded("page_size");
+        }
+    }
+
+    protected void check(String pragma, String value) throws SQLException {
+        String guarded = this.pragmas.get(pragma.toLowerCase(Locale.ENGLISH));
+        if (guarded != null && !guarded.equalsIgnoreCase(value.trim())) {
+            throw guarded(pragma);
+        }
+    }
+
+    protected SQLException guarded(String pragma) {
+        String f = "Pragma %s guarded by the server profile '%s'";
+        return new SQLException(String.format(f, pragma, this.name), "42501");
+    }
+
+    @Override
+    public String toString() {
+        return this.name;
+    }
+
+}
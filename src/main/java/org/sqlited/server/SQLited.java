@@ -42,8 +42,19 @@ public class SQLited {
                 "  --user|-u      <username>  Which user login the server, default '%s'%n" +
                 "  --password|-p  [password]  The user password%n" +
                 "  --base-dir|-B  [base-dir]  The server base directory, default '%s'%n" +
-                "  --data-dir|-D  [data-dir]  The server data directory, default '%s'%n";
-        System.out.printf(usage, def.protocol, def.host, def.port, def.user, def.baseDir, def.dataDir);
+                "  --data-dir|-D  [data-dir]  The server data directory, default '%s'%n" +
+                "  --query-cache  <bytes>     The query result cache size of tcp server, default %d(disabled)%n" +
+                "  --max-active   <n>         Max active commands per database of tcp server, default %d(unlimited)%n" +
+                "  --hibernate    <millis>    Hibernate the tcp sessions idle for this long, default %d(disabled)%n" +
+                "  --warmup       <db,...>    Preload the database files matched on startup, e.g. '**'%n" +
+                "  --profile      <spec>      SQLite tuning profile 'name;match=pattern;pragma=value...', repeatable%n" +
+                "  --cdc                      Enable change data capture subscriptions, default %s%n" +
+                "  --group-commit             Commit the autocommit writes of the sessions in groups, default %s%n" +
+                "  --replica-of   <host:port> Run as a read replica of the leader tcp server%n" +
+                "  --replica-dbs  <db,...>    The databases replicated from the leader%n";
+        System.out.printf(usage, def.protocol, def.host, def.port, def.user, def.baseDir, def.dataDir,
+                def.queryCacheSize, def.admissionDbLimit, def.hibernateIdle, def.cdcEnabled,
+                def.groupCommit);
         System.exit(exitCode);
     }
 
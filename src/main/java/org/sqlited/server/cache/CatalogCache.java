@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.server.cache;
+
+import org.sqlited.meta.Catalog;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** The catalog snapshots of the databases in this JVM, each one valid
+ * while the "pragma schema_version" of its database has not moved.
+ * @threadsafe
+ */
+public class CatalogCache {
+
+    static final Map<String, Catalog> CATALOGS = new ConcurrentHashMap<>();
+    static final int MAX_RETRIES = 3;
+
+    static final String TABLES = "select name, type, sql from sqlite_master " +
+            "where type in ('table', 'view') order by name";
+    static final String COLUMNS = "select m.name, p.name, p.type, p.\"notnull\", " +
+            "p.dflt_value, p.pk, p.hidden from sqlite_master m, " +
+            "pragma_table_xinfo(m.name) p where m.type in ('table', 'view') " +
+            "order by m.name, p.cid";
+    static final String INDEXES = "select m.name, l.name, l.\"unique\", i.seqno, " +
+            "i.name, i.\"desc\", l.partial from sqlite_master m, " +
+            "pragma_index_list(m.name) l, pragma_index_xinfo(l.name) i " +
+            "where m.type = 'table' and i.key = 1 order by m.name, l.name, i.seqno";
+    static final String FOREIGN_KEYS = "select m.name, f.id, f.seq, f.\"table\", " +
+            "f.\"from\", f.\"to\", f.on_update, f.on_delete from sqlite_master m, " +
+            "pragma_foreign_key_list(m.name) f where m.type = 'table' " +
+            "order by m.name, f.id, f.seq";
+
+    private CatalogCache() {}
+
+    /** The catalog of the database, or null if the schema is still of the
+     * version given.
+     * @param db the database file, or null if not cached e.g. in memory
+     */
+    public static Catalog get(Connection conn, String db, long version)
+            throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            long current = schemaVersion(stmt);
+            if (current == version) return null;
+            Catalog catalog = db == null? null: CATALOGS.get(db);
+            if (catalog != null && catalog.getVersion() == current) {
+                return catalog;
+            }
+            // The schema may be changed by another connection in loading
+            for (int i = 0; ; ) {
+                catalog = load(stmt, current);
+                long after = schemaVersion(stmt);
+                if (after == current) break;
+                if (++i >= MAX_RETRIES) {
+                    throw new SQLException("Schema changed in loading catalog", "40001");
+                }
+                current = after;
+            }
+            if (db != null) CATALOGS.put(db, catalog);
+            return catalog;
+        }
+    }
+
+    public static void invalidate(String db) {
+        if (db != null) CATALOGS.remove(db);
+    }
+
+    static long schemaVersion(Statement stmt) throws SQLException {
+        try (ResultSet rs = stmt.executeQuery("pragma main.schema_version")) {
+            return rs.next()? rs.getLong(1): 0;
+        }
+    }
+
+    static Catalog load(Statement stmt, long version) throws SQLException {
+        String productVersion;
+        try (ResultSet rs = stmt.executeQuery("select sqlite_version()")) {
+            productVersion = rs.next()? rs.getString(1): null;
+        }
+        return new Catalog(version, productVersion, query(stmt, TABLES),
+                query(stmt, COLUMNS), query(stmt, INDEXES),
+                query(stmt, FOREIGN_KEYS));
+    }
+
+    static List<Object[]> query(Statement stmt, String sql) throws SQLException {
+        List<Object[]> rows = new ArrayList<>();
+        try (ResultSet rs = stmt.executeQuery(sql)) {
+            int n = rs.getMetaData().getColumnCount();
+            while (rs.next()) {
+                Object[] row = new Object[n];
+                for (int i = 0; i < n; ++i) row[i] = rs.getObject(i + 1);
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+}
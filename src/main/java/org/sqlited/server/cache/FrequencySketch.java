@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.server.cache;
+
+/** A count-min sketch of 4-bit-like saturating counters for the TinyLFU
+ * admission policy. Counters are halved periodically so that the sketch
+ * follows the recent popularity of keys.
+ * @threadunsafe
+ */
+class FrequencySketch {
+
+    static final int ROWS = 4;
+    static final int MAX_COUNT = 15;
+    static final int[] SEEDS = { 0x97CB3127, 0xB3F1E2A5, 0xC2B2AE3D, 0x27D4EB2F };
+
+    private final byte[][] table;
+    private final int mask;
+    private final int sampleSize;
+    private int additions;
+
+    FrequencySketch(int expectedEntries) {
+        int width = Integer.highestOneBit(Math.max(expectedEntries, 64) - 1) << 1;
+        this.table = new byte[ROWS][width];
+        this.mask = width - 1;
+        this.sampleSize = 10 * width;
+    }
+
+    public int frequency(int hash) {
+        int min = MAX_COUNT;
+        for (int i = 0; i < ROWS; ++i) {
+            min = Math.min(min, this.table[i][index(hash, i)]);
+        }
+        return min;
+    }
+
+    public void increment(int hash) {
+        boolean added = false;
+        for (int i = 0; i < ROWS; ++i) {
+            byte[] row = this.table[i];
+            int j = index(hash, i);
+            if (row[j] < MAX_COUNT) {
+                ++row[j];
+                added = true;
+            }
+        }
+        if (added && ++this.additions >= this.sampleSize) {
+            reset();
+        }
+    }
+
+    protected void reset() {
+        for (byte[] row: this.table) {
+            for (int j = 0; j < row.length; ++j) {
+                row[j] >>>= 1;
+            }
+        }
+        this.additions >>>= 1;
+    }
+
+    private int index(int hash, int i) {
+        int h = (hash ^ SEEDS[i]) * SEEDS[(i + 1) & (ROWS - 1)];
+        h ^= h >>> 16;
+        return h & this.mask;
+    }
+
+}
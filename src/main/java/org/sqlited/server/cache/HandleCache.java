@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.server.cache;
+
+import org.sqlite.SQLiteConnection;
+import org.sqlited.util.IOUtils;
+
+import java.util.*;
+
+/** The idle SQLite handles released by the hibernated sessions, by the
+ * database url and the open properties, for the sessions waking up.
+ * @threadsafe
+ */
+public class HandleCache implements AutoCloseable {
+
+    protected final int maxIdle;
+    private final Map<String, ArrayDeque<SQLiteConnection>> handles = new HashMap<>();
+    private boolean closed;
+
+    public HandleCache(int maxIdle) {
+        this.maxIdle = maxIdle;
+    }
+
+    public static String key(String url, Properties info) {
+        return url + '\n' + new TreeMap<>(info);
+    }
+
+    /** Take an idle handle, or null if none.
+     */
+    public synchronized SQLiteConnection take(String key) {
+        ArrayDeque<SQLiteConnection> idle = this.handles.get(key);
+        if (idle == null) return null;
+        // The last released is the warmest
+        SQLiteConnection conn = idle.pollLast();
+        if (idle.isEmpty()) this.handles.remove(key);
+        return conn;
+    }
+
+    /** Cache the idle handle, which should be closed by the caller if
+     * the cache is full.
+     * @return true if cached
+     */
+    public synchronized boolean put(String key, SQLiteConnection conn) {
+        if (this.closed || this.maxIdle <= 0) return false;
+        ArrayDeque<SQLiteConnection> idle = this.handles.get(key);
+        if (idle == null) {
+            idle = new ArrayDeque<>();
+            this.handles.put(key, idle);
+        } else if (idle.size() >= this.maxIdle) {
+            return false;
+        }
+        idle.addLast(conn);
+        return true;
+    }
+
+    public synchronized int size() {
+        int n = 0;
+        for (ArrayDeque<SQLiteConnection> idle: this.handles.values()) {
+            n += idle.size();
+        }
+        return n;
+    }
+
+    @Override
+    public synchronized void close() {
+        this.closed = true;
+        for (ArrayDeque<SQLiteConnection> idle: this.handles.values()) {
+            for (SQLiteConnection conn: idle) IOUtils.close(conn);
+        }
+        this.handles.clear();
+    }
+
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.server.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/** A memory bounded query result cache shared by the connections of a
+ * server. Entries are the encoded response bytes of a query, and each one
+ * is tagged with the data version of its database at execution time: an
+ * entry is valid only while the version has not moved.
+ *
+ * <p>Eviction is W-TinyLFU: a small LRU window admits new entries, and an
+ * entry evicted from the window replaces the LRU victim of the main space
+ * only if it is more frequently requested.
+ * @threadsafe
+ */
+public class QueryCache {
+
+    // JVM-wide data versions by database file, bumped after commits
+    static final Map<String, AtomicLong> VERSIONS = new ConcurrentHashMap<>();
+
+    static final Pattern SELECT = Pattern.compile("^\\s*(select|values)\\b",
+            Pattern.CASE_INSENSITIVE);
+    // Non-deterministic or connection specific results
+    static final Pattern VOLATILE = Pattern.compile(
+            "random|'now'|\\bcurrent_|changes\\s*\\(|last_insert_rowid|sqlite_|" +
+            "\\bpragma\\b|\\btemp\\.", Pattern.CASE_INSENSITIVE);
+    // Statements that make the cache unsafe for the whole session
+    static final Pattern SESSIONAL = Pattern.compile(
+            "\\b(temp|temporary|attach|detach)\\b", Pattern.CASE_INSENSITIVE);
+
+    protected final long maxBytes;
+    protected final long maxEntryBytes;
+    private final long windowMax;
+    private final LinkedHashMap<String, Entry> window;
+    private final LinkedHashMap<String, Entry> main;
+    private final FrequencySketch sketch;
+    private long windowBytes;
+    private long mainBytes;
+
+    private long hits, misses;
+
+    public QueryCache(long maxBytes) {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = Math.max(maxBytes >>> 3, 1);
+        this.windowMax = Math.max(maxBytes / 100, 1);
+        this.window = new LinkedHashMap<>(16, 0.75f, true);
+        this.main = new LinkedHashMap<>(64, 0.75f, true);
+        long n = Math.min(maxBytes >>> 10, 1 << 20);
+        this.sketch = new FrequencySketch((int) n);
+    }
+
+    public static long version(String db) {
+        AtomicLong v = VERSIONS.get(db);
+        return v == null? 0: v.get();
+    }
+
+    public static void bump(String db) {
+        VERSIONS.computeIfAbsent(db, k -> new AtomicLong()).incrementAndGet();
+    }
+
+    public static boolean isCacheable(String sql) {
+        return SELECT.matcher(sql).find() && !VOLATILE.matcher(sql).find();
+    }
+
+    public static boolean isSessional(String sql) {
+        return SESSIONAL.matcher(sql).find();
+    }
+
+    public static String key(String url, String sql) {
+        return url + '\n' + sql;
+    }
+
+    public synchronized byte[] get(String key, long version) {
+        this.sketch.increment(key.hashCode());
+        Entry e = this.window.get(key);
+        boolean inWindow = e != null;
+        if (e == null) e = this.main.get(key);
+        if (e == null) {
+            ++this.misses;
+            return null;
+        }
+        if (e.version != version) {
+            if (inWindow) {
+                this.window.remove(key);
+                this.windowBytes -= e.weight;
+            } else {
+                this.main.remove(key);
+                this.mainBytes -= e.weight;
+            }
+            ++this.misses;
+            return null;
+        }
+        ++this.hits;
+        return e.data;
+    }
+
+    public synchronized boolean put(String key, long version, byte[] data) {
+        Entry e = new Entry(key, version, data);
+        if (e.weight > this.maxEntryBytes) {
+            return false;
+        }
+        Entry old = this.main.remove(key);
+        if (old != null) this.mainBytes -= old.weight;
+        old = this.window.put(key, e);
+        if (old != null) this.windowBytes -= old.weight;
+        this.windowBytes += e.weight;
+
+        // Move the window overflow into the main space by TinyLFU admission
+        Iterator<Entry> i = this.window.values().iterator();
+        while (this.windowBytes > this.windowMax && i.hasNext()) {
+            Entry candidate = i.next();
+            i.remove();
+            this.windowBytes -= candidate.weight;
+            admit(candidate);
+        }
+        return true;
+    }
+
+    private void admit(Entry candidate) {
+        long mainMax = this.maxBytes - this.windowMax;
+        int freq = this.sketch.frequency(candidate.key.hashCode());
+        Iterator<Entry> i = this.main.values().iterator();
+        while (this.mainBytes + candidate.weight > mainMax && i.hasNext()) {
+            Entry victim = i.next();
+            if (freq <= this.sketch.frequency(victim.key.hashCode())) {
+                return;
+            }
+            i.remove();
+            this.mainBytes -= victim.weight;
+        }
+        if (this.mainBytes + candidate.weight <= mainMax) {
+            this.main.put(candidate.key, candidate);
+            this.mainBytes += candidate.weight;
+        }
+    }
+
+    public synchronized void clear() {
+        this.window.clear();
+        this.main.clear();
+        this.windowBytes = this.mainBytes = 0;
+    }
+
+    public synchronized long getBytes() {
+        return this.windowBytes + this.mainBytes;
+    }
+
+    public synchronized int size() {
+        return this.window.size() + this.main.size();
+    }
+
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "QueryCache{size=%d, bytes=%d, hits=%d, misses=%d}",
+                size(), getBytes(), getHits(), getMisses());
+    }
+
+    static class Entry {
+        final String key;
+        final long version;
+        final byte[] data;
+        final long weight;
+
+        Entry(String key, long version, byte[] data) {
+            this.key = key;
+            this.version = version;
+            this.data = data;
+            this.weight = data.length + 2L * key.length() + 64;
+        }
+    }
+
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.server.cache;
+
+import java.security.SecureRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/** The server-wide catalog of the named statements: a statement is
+ * registered once by its SQL, then executed by the small id. The ids are
+ * valid in the epoch of this catalog: when full, the catalog is evicted
+ * as a whole into a new epoch, and the clients register again.
+ * @threadsafe
+ */
+public class StatementCatalog {
+
+    static final SecureRandom EPOCHS = new SecureRandom();
+
+    private final int capacity;
+    private volatile Epoch current;
+
+    public StatementCatalog(int capacity) {
+        this.capacity = capacity;
+        this.current = new Epoch(capacity, 0);
+    }
+
+    /** Register the sql.
+     * @return {epoch, id} of the named statement
+     */
+    public int[] register(String sql) {
+        Epoch e = this.current;
+        Integer id = e.ids.get(sql);
+        if (id != null) return new int[] { e.epoch, id };
+
+        synchronized (this) {
+            e = this.current;
+            id = e.ids.get(sql);
+            if (id != null) return new int[] { e.epoch, id };
+            int i = e.nextId;
+            if (i >= e.sqls.length()) {
+                e = this.current = new Epoch(this.capacity, e.epoch);
+                i = e.nextId;
+            }
+            // Published before the id is visible
+            e.sqls.set(i, sql);
+            e.ids.put(sql, i);
+            e.nextId = i + 1;
+            return new int[] { e.epoch, i };
+        }
+    }
+
+    /** The SQL of the named statement, or null if unknown in the epoch.
+     */
+    public String get(int epoch, int id) {
+        Epoch e = this.current;
+        if (epoch != e.epoch || id <= 0 || id >= e.sqls.length()) return null;
+        return e.sqls.get(id);
+    }
+
+    public int getEpoch() {
+        return this.current.epoch;
+    }
+
+    public synchronized int size() {
+        return this.current.nextId - 1;
+    }
+
+    static class Epoch {
+        final int epoch;
+        final ConcurrentMap<String, Integer> ids = new ConcurrentHashMap<>();
+        final AtomicReferenceArray<String> sqls;
+        int nextId = 1;
+
+        Epoch(int capacity, int last) {
+            int epoch;
+            do {
+                epoch = EPOCHS.nextInt();
+            } while (epoch == 0 || epoch == last);
+            this.epoch = epoch;
+            this.sqls = new AtomicReferenceArray<>(capacity + 1);
+        }
+    }
+
+}
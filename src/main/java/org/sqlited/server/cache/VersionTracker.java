@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.server.cache;
+
+import org.sqlite.SQLiteCommitListener;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/** Tracks the commits of one connection and bumps the data version of its
+ * database after them. The commit hook runs before the transaction becomes
+ * visible, so the version is only bumped by flush() once the command that
+ * committed has returned.
+ * @threadunsafe
+ */
+public class VersionTracker implements SQLiteCommitListener {
+
+    protected final String db;
+    private volatile boolean dirty;
+    private long dataVersion = -1;
+
+    public VersionTracker(String db) {
+        this.db = db;
+    }
+
+    @Override
+    public void onCommit() {
+        this.dirty = true;
+    }
+
+    @Override
+    public void onRollback() {
+        // Nothing changed
+    }
+
+    public void flush() {
+        if (this.dirty) {
+            this.dirty = false;
+            QueryCache.bump(this.db);
+        }
+    }
+
+    public long version() {
+        return QueryCache.version(this.db);
+    }
+
+    public void checkDataVersion(Statement stmt) throws SQLException {
+        // Detect the commits from other processes by "pragma data_version"
+        long dv;
+        try (ResultSet rs = stmt.executeQuery("pragma data_version")) {
+            rs.next();
+            dv = rs.getLong(1);
+        }
+        long last = this.dataVersion;
+        this.dataVersion = dv;
+        if (last != -1 && last != dv) {
+            QueryCache.bump(this.db);
+        }
+    }
+
+    public String getDb() {
+        return this.db;
+    }
+
+}
@@ -0,0 +1,384 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.server.cache;
+
+import org.sqlite.SQLiteConfig;
+import org.sqlite.SQLiteConnection;
+import org.sqlited.server.Config;
+import static org.sqlited.server.util.SQLiteUtils.*;
+import org.sqlited.util.IOUtils;
+import org.sqlited.util.logging.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/** Warms the OS page cache of the database files in a background reader
+ * rate-limited, so that the queries after a restart don't wait on disk.
+ *
+ * <p>The database files matched are preloaded by sequential reads or by
+ * touching a mapping, on startup or on the first open. The tables hit by
+ * the sampled queries are recorded into the hot file at shutdown, and on
+ * the next startup the b-tree pages of those tables and their indexes
+ * are read first.
+ * </p>
+ * @threadsafe
+ */
+public class Warmup implements Runnable, AutoCloseable {
+    static final Logger log = LoggerFactory.getLogger(Warmup.class);
+
+    static final int IO_SIZE = 1 << 20;
+    static final int MAP_SIZE = 64 << 20;
+    static final int TOUCH_SIZE = 4096;
+    static final byte[] MAGIC = "SQLite format 3\0".getBytes(StandardCharsets.US_ASCII);
+    // Record 1 of these queries
+    static final int SAMPLE_RATE = 8;
+    static final int MAX_TABLES = 256;
+    static final Pattern TABLE = Pattern.compile(
+            "\\b(?:from|join|into|update)\\s+(?:[\"\\w]+\\s*\\.\\s*)?[\"`\\[]?(\\w+)",
+            Pattern.CASE_INSENSITIVE);
+    // The common table expressions named in the statement aren't tables
+    static final Pattern CTE = Pattern.compile(
+            "(?:\\bwith(?:\\s+recursive)?|,)\\s*[\"`\\[]?(\\w+)[\"`\\]]?\\s*(?:\\([^)]*\\))?\\s*as\\s*\\(",
+            Pattern.CASE_INSENSITIVE);
+
+    protected final Config config;
+    protected final String dataDir;
+    protected final Pattern dbs;
+    protected final String hotFile;
+    protected final long rate;
+    private final BlockingDeque<Object[]> tasks = new LinkedBlockingDeque<>();
+    private final Set<String> warmed = ConcurrentHashMap.newKeySet();
+    private final Map<String, Map<String, LongAdder>> hits = new ConcurrentHashMap<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private volatile boolean stopped;
+    private volatile int sink;
+    private Thread runner;
+    // Rate limit: bytes read since the limiter started
+    private long limitStart, limitBytes;
+
+    public Warmup(Config config) {
+        this.config = config;
+        this.dataDir = config.getDataDir();
+        this.dbs = dbPattern(config.getWarmupDbs());
+        this.hotFile = config.getWarmupHotFile();
+        this.rate = config.getWarmupRate();
+    }
+
+    public Warmup start() {
+        // Hot tables first
+        Properties hot = loadHot();
+        for (String path: hot.stringPropertyNames()) {
+            File file = new File(this.dataDir, path);
+            String[] tables = hot.getProperty(path).split(",");
+            if (file.isFile()) add(new Object[] { file, tables });
+        }
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(Paths.get(this.dataDir))) {
+            scan(dir);
+        } catch (IOException | UncheckedIOException e) {
+            log.log(Level.WARNING, "Scan data dir error", e);
+        }
+        Thread runner = this.runner = new Thread(this, "warmup");
+        runner.setDaemon(true);
+        runner.start();
+        return this;
+    }
+
+    protected void scan(DirectoryStream<Path> dir) throws IOException {
+        for (Path path: dir) {
+            if (Files.isDirectory(path)) {
+                try (DirectoryStream<Path> sub = Files.newDirectoryStream(path)) {
+                    scan(sub);
+                }
+            } else {
+                opened(path.toFile().getCanonicalPath());
+            }
+        }
+    }
+
+    /** Preload the database file on the first open if matched.
+     * @param db the canonical database file, or null if private
+     */
+    public void opened(String db) {
+        if (db == null || this.stopped) return;
+        String path = dbPath(this.dataDir, db);
+        if (path.endsWith("-wal") || path.endsWith("-shm") || path.endsWith("-journal")
+                || !this.dbs.matcher(path).matches()) {
+            return;
+        }
+        if (this.warmed.add(db)) add(new Object[] { new File(db), null });
+    }
+
+    protected void add(Object[] task) {
+        this.pending.incrementAndGet();
+        this.tasks.add(task);
+    }
+
+    /** Record the tables hit by the statement, sampled.
+     */
+    public void record(String db, String sql) {
+        if (db == null || this.hotFile.isEmpty()) return;
+        if (ThreadLocalRandom.current().nextInt(SAMPLE_RATE) != 0) return;
+
+        Map<String, LongAdder> tables = this.hits.get(db);
+        if (tables == null) {
+            tables = new ConcurrentHashMap<>();
+            Map<String, LongAdder> old = this.hits.putIfAbsent(db, tables);
+            if (old != null) tables = old;
+        }
+        Set<String> ctes = null;
+        Matcher m = CTE.matcher(sql);
+        while (m.find()) {
+            if (ctes == null) ctes = new HashSet<>();
+            ctes.add(m.group(1).toLowerCase(Locale.ENGLISH));
+        }
+        m = TABLE.matcher(sql);
+        while (m.find()) {
+            String table = m.group(1).toLowerCase(Locale.ENGLISH);
+            if (ctes != null && ctes.contains(table)) continue;
+            LongAdder n = tables.get(table);
+            if (n == null) {
+                if (tables.size() >= MAX_TABLES) continue;
+                n = tables.computeIfAbsent(table, t -> new LongAdder());
+            }
+            n.increment();
+        }
+    }
+
+    public long getBytesRead() {
+        return this.bytesRead.get();
+    }
+
+    public boolean isIdle() {
+        return this.pending.get() == 0;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!this.stopped) {
+                Object[] task = this.tasks.poll();
+                if (task == null) {
+                    this.limitStart = 0;
+                    task = this.tasks.take();
+                }
+                File file = (File) task[0];
+                String[] tables = (String[]) task[1];
+                long bytes = this.bytesRead.get();
+                try {
+                    if (tables == null) preload(file);
+                    else warmTables(file, tables);
+                    long n = this.bytesRead.get() - bytes;
+                    log.fine(() -> String.format("Warmed '%s': %d bytes", file, n));
+                } catch (IOException | SQLException e) {
+                    String s = "Warm '" + file + "' error";
+                    log.log(Level.WARNING, s, e);
+                } finally {
+                    this.pending.decrementAndGet();
+                }
+            }
+        } catch (InterruptedException e) {
+            // Stopped
+        }
+        log.fine(() -> this + " stopped");
+    }
+
+    protected void preload(File file) throws IOException, InterruptedException {
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(MAGIC.length);
+            ch.read(magic, 0);
+            if (!Arrays.equals(magic.array(), MAGIC)) {
+                // Empty as just created, retry on the next open
+                this.warmed.remove(file.getPath());
+                return;
+            }
+        }
+        read(file);
+        File wal = new File(file.getPath() + "-wal");
+        if (wal.isFile()) read(wal);
+    }
+
+    protected void read(File file) throws IOException, InterruptedException {
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (this.config.isWarmupMmap()) {
+                int sink = 0;
+                for (long pos = 0; pos < size && !this.stopped; pos += MAP_SIZE) {
+                    int n = (int) Math.min(MAP_SIZE, size - pos);
+                    MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, pos, n);
+                    for (int i = 0; i < n && !this.stopped; i += TOUCH_SIZE) {
+                        sink += buf.get(i);
+                        limit(Math.min(TOUCH_SIZE, n - i));
+                    }
+                }
+                this.sink = sink;
+            } else {
+                ByteBuffer buf = ByteBuffer.allocateDirect(IO_SIZE);
+                for (long pos = 0; !this.stopped; ) {
+                    buf.clear();
+                    int n = ch.read(buf, pos);
+                    if (n <= 0) break;
+                    pos += n;
+                    limit(n);
+                }
+            }
+        }
+    }
+
+    /** Read the b-tree pages of the tables and their indexes. Overflow
+     * pages aren't followed, and the pages of a b-tree changed in the WAL
+     * may be missed, as it's walked in the main file.
+     */
+    protected void warmTables(File file, String[] tables)
+            throws IOException, SQLException, InterruptedException {
+        List<Integer> roots = new ArrayList<>();
+        SQLiteConfig readonly = new SQLiteConfig();
+        readonly.setReadOnly(true);
+        String url = "jdbc:sqlite:" + file.getPath();
+        String sql = "select rootpage from sqlite_master " +
+                "where tbl_name = ? collate nocase and rootpage > 0";
+        try (SQLiteConnection conn = open(url, readonly.toProperties());
+             PreparedStatement ps = conn.prepareStatement(sql)) {
+            for (String table: tables) {
+                ps.setString(1, table);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) roots.add(rs.getInt(1));
+                }
+            }
+        }
+
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(100);
+            if (ch.read(header, 0) < 100) return;
+            int pageSize = header.getShort(16) & 0xffff;
+            if (pageSize == 1) pageSize = 65536;
+            long pages = ch.size() / pageSize;
+            BitSet visited = new BitSet();
+            ByteBuffer page = ByteBuffer.allocate(pageSize);
+            Deque<Integer> stack = new ArrayDeque<>(roots);
+            while (!stack.isEmpty() && !this.stopped) {
+                int no = stack.pop();
+                if (no < 1 || no > pages || visited.get(no)) continue;
+                visited.set(no);
+                page.clear();
+                if (ch.read(page, (long) (no - 1) * pageSize) < pageSize) continue;
+                limit(pageSize);
+                // Interior pages: child pointers in the cells, then the right-most
+                int off = no == 1? 100: 0;
+                int type = page.get(off);
+                if (type != 0x02 && type != 0x05) continue;
+                int cells = page.getShort(off + 3) & 0xffff;
+                stack.push(page.getInt(off + 8));
+                for (int i = 0; i < cells; ++i) {
+                    int ptr = page.getShort(off + 12 + 2 * i) & 0xffff;
+                    if (ptr + 4 <= pageSize) stack.push(page.getInt(ptr));
+                }
+            }
+        }
+    }
+
+    protected void limit(int bytes) throws InterruptedException {
+        this.bytesRead.addAndGet(bytes);
+        long rate = this.rate;
+        if (rate <= 0) return;
+        long now = System.currentTimeMillis();
+        if (this.limitStart == 0) {
+            this.limitStart = now;
+            this.limitBytes = 0;
+        }
+        this.limitBytes += bytes;
+        long due = this.limitStart + this.limitBytes * 1000 / rate;
+        if (due > now) Thread.sleep(due - now);
+    }
+
+    protected Properties loadHot() {
+        Properties hot = new Properties();
+        File file = this.hotFile.isEmpty()? null: new File(this.hotFile);
+        if (file == null || !file.isFile()) return hot;
+        try (InputStream in = new FileInputStream(file)) {
+            hot.load(in);
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Load hot file error", e);
+        }
+        return hot;
+    }
+
+    /** Save the hottest tables of the databases into the hot file, keeping
+     * the databases not hit in this run.
+     */
+    protected void saveHot() throws IOException {
+        if (this.hotFile.isEmpty() || this.hits.isEmpty()) return;
+        Properties hot = loadHot();
+        int max = this.config.getWarmupHotTables();
+        for (Map.Entry<String, Map<String, LongAdder>> e: this.hits.entrySet()) {
+            List<Map.Entry<String, LongAdder>> tables = new ArrayList<>(e.getValue().entrySet());
+            if (tables.isEmpty()) continue;
+            tables.sort((a, b) -> Long.compare(b.getValue().sum(), a.getValue().sum()));
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0, n = Math.min(max, tables.size()); i < n; ++i) {
+                if (i > 0) sb.append(',');
+                sb.append(tables.get(i).getKey());
+            }
+            hot.setProperty(dbPath(this.dataDir, e.getKey()), sb.toString());
+        }
+        File file = new File(this.hotFile);
+        File temp = new File(this.hotFile + ".tmp");
+        try (OutputStream out = new FileOutputStream(temp)) {
+            hot.store(out, "Hot tables by database");
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (this.stopped) return;
+        this.stopped = true;
+        Thread runner = this.runner;
+        if (runner != null) runner.interrupt();
+        try {
+            saveHot();
+        } catch (IOException e) {
+            log.log(Level.WARNING, "Save hot file error", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "warmup";
+    }
+
+}
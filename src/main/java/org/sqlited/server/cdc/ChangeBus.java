@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.server.cdc;
+
+import org.sqlited.cdc.Change;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/** Delivers the committed changes to the subscribers of the databases,
+ * shared by the servers in this JVM.
+ */
+public final class ChangeBus {
+
+    static final Map<String, List<Subscription>> SUBSCRIPTIONS = new ConcurrentHashMap<>();
+    static final Map<String, Sequencer> SEQUENCERS = new ConcurrentHashMap<>();
+
+    private ChangeBus() {}
+
+    public static void subscribe(Subscription sub) {
+        SUBSCRIPTIONS.computeIfAbsent(sub.db, k -> new CopyOnWriteArrayList<>())
+                .add(sub);
+    }
+
+    public static void unsubscribe(Subscription sub) {
+        SUBSCRIPTIONS.computeIfPresent(sub.db, (k, subs) -> {
+            subs.remove(sub);
+            return subs.isEmpty()? null: subs;
+        });
+    }
+
+    public static boolean hasSubscribers(String db) {
+        return SUBSCRIPTIONS.containsKey(db);
+    }
+
+    public static boolean hasImageSubscribers(String db) {
+        List<Subscription> subs = SUBSCRIPTIONS.get(db);
+        if (subs != null) {
+            for (Subscription sub: subs) {
+                if (sub.image) return true;
+            }
+        }
+        return false;
+    }
+
+    /** Take the sequence of a batch in the commit hook, which runs in the
+     * commit order of the database.
+     */
+    public static long sequence(String db) {
+        return SEQUENCERS.computeIfAbsent(db, k -> new Sequencer()).next();
+    }
+
+    /** Publish the batch after the batches sequenced before it.
+     */
+    public static void publish(String db, long seq, List<Change> batch) {
+        SEQUENCERS.get(db).publish(db, seq, batch);
+    }
+
+    /** Overflow the subscribers of the database replaced, e.g. restored,
+     * so that they sync again.
+     */
+    public static void reset(String db) {
+        List<Subscription> subs = SUBSCRIPTIONS.get(db);
+        if (subs != null) {
+            for (Subscription sub: subs) sub.overflow();
+        }
+    }
+
+    static void deliver(String db, List<Change> batch) {
+        List<Subscription> subs = SUBSCRIPTIONS.get(db);
+        if (subs != null) {
+            for (Subscription sub: subs) sub.offer(batch);
+        }
+    }
+
+    static class Sequencer {
+        private final Map<Long, List<Change>> ready = new HashMap<>();
+        private long assigned, published;
+
+        synchronized long next() {
+            return ++this.assigned;
+        }
+
+        synchronized void publish(String db, long seq, List<Change> batch) {
+            this.ready.put(seq, batch);
+            while ((batch = this.ready.remove(this.published + 1)) != null) {
+                ++this.published;
+                deliver(db, batch);
+            }
+        }
+    }
+
+}
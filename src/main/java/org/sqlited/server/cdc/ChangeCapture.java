@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.server.cdc;
+
+import org.sqlite.SQLiteCommitListener;
+import org.sqlite.SQLiteUpdateListener;
+import org.sqlited.cdc.Change;
+import org.sqlited.util.logging.LoggerFactory;
+
+import static java.lang.String.*;
+import static org.sqlited.server.util.SQLiteUtils.*;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/** Captures the row changes of one connection by the update hook, and
+ * publishes them to the change bus per commit. As the commit hook runs
+ * before the transaction becomes visible, and no SQL can run in it, the
+ * changes are only published by flush() once the command that committed
+ * has returned. The commit hook takes the sequence of the batch, in the
+ * commit order of the database, and the bus delivers the batches in this
+ * order: the row images read after a commit are at least as new as it.
+ *
+ * <p>The update hook misses the rows deleted by the truncate optimization
+ * and the changes of the WITHOUT ROWID tables, so check() refuses them.
+ * </p>
+ * @threadunsafe
+ */
+public class ChangeCapture implements SQLiteUpdateListener, SQLiteCommitListener {
+    static final Logger log = LoggerFactory.getLogger(ChangeCapture.class);
+
+    protected final String db;
+    private List<Change> pending = new ArrayList<>();
+    // Batches by the commit sequence
+    private final Map<Long, List<Change>> committed = new LinkedHashMap<>();
+    private final Map<String, Integer> savepoints = new HashMap<>();
+
+    public ChangeCapture(String db) {
+        this.db = db;
+    }
+
+    @Override
+    public void onUpdate(Type type, String database, String table, long rowId) {
+        if (!ChangeBus.hasSubscribers(this.db)) return;
+        Change.Op op = Change.Op.valueOf(type.name());
+        this.pending.add(new Change(op, database, table, rowId));
+    }
+
+    @Override
+    public void onCommit() {
+        if (this.pending.isEmpty()) return;
+        // In the commit order: the write lock is held in the hook
+        long seq = ChangeBus.sequence(this.db);
+        this.committed.put(seq, this.pending);
+        this.pending = new ArrayList<>();
+        this.savepoints.clear();
+    }
+
+    @Override
+    public void onRollback() {
+        this.pending.clear();
+        this.savepoints.clear();
+    }
+
+    public void setSavepoint(Savepoint sp) throws SQLException {
+        this.savepoints.put(sp.getSavepointName(), this.pending.size());
+    }
+
+    public void rollback(Savepoint sp) throws SQLException {
+        Integer n = this.savepoints.get(sp.getSavepointName());
+        if (n != null) {
+            List<Change> a = this.pending;
+            if (n < a.size()) a.subList(n, a.size()).clear();
+        }
+    }
+
+    public void releaseSavepoint(Savepoint sp) throws SQLException {
+        this.savepoints.remove(sp.getSavepointName());
+    }
+
+    /** Publish the committed changes. Each batch sequenced must be
+     * published, or the later of the database are held back.
+     * @param stmt the statement for reading the row images, or null
+     */
+    public void flush(Statement stmt) {
+        if (this.committed.isEmpty()) return;
+
+        String db = this.db;
+        boolean image = stmt != null && ChangeBus.hasImageSubscribers(db);
+        for (Map.Entry<Long, List<Change>> e: this.committed.entrySet()) {
+            List<Change> batch = e.getValue();
+            if (image) {
+                try {
+                    readImages(stmt, batch);
+                } catch (SQLException cause) {
+                    log.log(Level.WARNING, "Read row images error", cause);
+                }
+            }
+            ChangeBus.publish(db, e.getKey(), batch);
+        }
+        this.committed.clear();
+    }
+
+    /** Check that the changes of the statements are captured.
+     */
+    public static void check(String sql) throws SQLException {
+        for (String stmt: splitStatements(sql)) {
+            List<String> tokens = tokenize(stmt);
+            int n = tokens.size();
+            for (int i = 0; i < n; ++i) {
+                String token = tokens.get(i);
+                if ("delete".equalsIgnoreCase(token) && i + 2 < n
+                        && "from".equalsIgnoreCase(tokens.get(i + 1))) {
+                    // "DELETE FROM [schema.]table" ended
+                    int j = i + 3;
+                    if (j + 1 < n && ".".equals(tokens.get(j))) j += 2;
+                    if (j == n || ";".equals(tokens.get(j))
+                            || "end".equalsIgnoreCase(tokens.get(j))) {
+                        throw notCaptured("Delete without WHERE");
+                    }
+                } else if ("without".equalsIgnoreCase(token) && i + 1 < n
+                        && "rowid".equalsIgnoreCase(tokens.get(i + 1))) {
+                    throw notCaptured("WITHOUT ROWID table");
+                }
+            }
+        }
+    }
+
+    /** Check that the changes of the tables in the database are captured.
+     */
+    public static void checkTables(Statement stmt) throws SQLException {
+        String s = "select name, sql from sqlite_master where type = 'table'";
+        try (ResultSet rs = stmt.executeQuery(s)) {
+            while (rs.next()) {
+                String sql = rs.getString(2);
+                if (sql == null) continue;
+                List<String> tokens = tokenize(sql);
+                int n = tokens.size();
+                if (n > 2 && "without".equalsIgnoreCase(tokens.get(n - 2))
+                        && "rowid".equalsIgnoreCase(tokens.get(n - 1))) {
+                    throw notCaptured("WITHOUT ROWID table " + rs.getString(1));
+                }
+            }
+        }
+    }
+
+    static SQLException notCaptured(String what) {
+        String s = what + " not captured in change data capture";
+        return new SQLFeatureNotSupportedException(s, "0A000");
+    }
+
+    protected void readImages(Statement stmt, List<Change> batch)
+            throws SQLException {
+        String f = "select * from '%s'.'%s' where rowid = %d";
+        for (Change c: batch) {
+            if (c.getOp() == Change.Op.DELETE) continue;
+            String s = format(f, c.getDatabase(), c.getTable(), c.getRowId());
+            try (ResultSet rs = stmt.executeQuery(s)) {
+                if (!rs.next()) continue;
+                ResultSetMetaData meta = rs.getMetaData();
+                int n = meta.getColumnCount();
+                Map<String, Object> image = new LinkedHashMap<>(n << 1);
+                for (int i = 1; i <= n; ++i) {
+                    image.put(meta.getColumnName(i), rs.getObject(i));
+                }
+                c.setImage(image);
+            }
+        }
+    }
+
+    public String getDb() {
+        return this.db;
+    }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.server.cdc;
+
+import org.sqlited.cdc.Change;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/** A change subscriber of a database, which receives the committed change
+ * batches in commit order, as sequenced by the commit hooks. The row images
+ * are read after the commits: an image may be newer than its batch, but
+ * not older. A subscriber that can't keep up, or of a database restored,
+ * is overflowed and should be dropped to sync again, rather than blocking
+ * the committers.
+ */
+public class Subscription {
+
+    protected final String db;
+    protected final boolean image;
+    protected final Set<String> tables;
+    private final BlockingQueue<List<Change>> queue;
+    private volatile boolean overflowed;
+
+    public Subscription(String db, boolean image, Set<String> tables, int queueSize) {
+        this.db = db;
+        this.image = image;
+        this.tables = tables;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+    }
+
+    void offer(List<Change> batch) {
+        if (this.overflowed) return;
+        Set<String> tables = this.tables;
+        if (tables != null) {
+            List<Change> a = new ArrayList<>(batch.size());
+            for (Change c: batch) {
+                if (tables.contains(c.getTable().toLowerCase())) a.add(c);
+            }
+            if (a.isEmpty()) return;
+            batch = a;
+        }
+        if (!this.queue.offer(batch)) overflow();
+    }
+
+    void overflow() {
+        this.overflowed = true;
+        this.queue.clear();
+    }
+
+    /** Take the next batch.
+     * @return the next batch, or null if timeout
+     */
+    public List<Change> poll(long timeout) throws InterruptedException {
+        return this.queue.poll(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isOverflowed() {
+        return this.overflowed;
+    }
+
+    public boolean isImage() {
+        return this.image;
+    }
+
+    public String getDb() {
+        return this.db;
+    }
+
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.server.repl;
+
+import org.sqlite.SQLiteConnection;
+import org.sqlited.cdc.Change;
+import org.sqlited.jdbc.tcp.JdbcTcpDriver;
+import org.sqlited.jdbc.tcp.impl.JdbcTcpChangeStream;
+import org.sqlited.jdbc.tcp.impl.JdbcTcpConnection;
+import org.sqlited.server.Config;
+import org.sqlited.server.cache.CatalogCache;
+import org.sqlited.server.cache.QueryCache;
+import static org.sqlited.server.util.SQLiteUtils.*;
+import org.sqlited.util.IOUtils;
+import org.sqlited.util.logging.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/** Replicates a database of the leader into the local copy: subscribes to
+ * the committed changes of the leader, then restores a backup of it and
+ * applies the change batches in commit order. The changes queued during
+ * restoring may be older than the backup, but they carry the row images
+ * after their commits, so that replaying them converges to the leader.
+ */
+public class Replicator implements Runnable, AutoCloseable {
+    static final Logger log = LoggerFactory.getLogger(Replicator.class);
+
+    static final Map<String, Replicator> REPLICAS = new ConcurrentHashMap<>();
+
+    protected final Config config;
+    protected final String db;
+    protected final String dbFile;
+    protected final String localUrl;
+    protected final String leaderUrl;
+    private final Map<String, PreparedStatement> upserts = new HashMap<>();
+    private final Map<String, PreparedStatement> deletes = new HashMap<>();
+
+    private volatile long lastSync;
+    private volatile boolean stopped;
+    private volatile Connection leader;
+    private Thread runner;
+
+    public Replicator(Config config, String db) {
+        this.config = config;
+        this.db = db;
+        this.localUrl = wrapURL(config.getDataDir(), db);
+        this.dbFile = dbFile(this.localUrl);
+        this.leaderUrl = JdbcTcpDriver.PREFIX + "//" + config.getReplicaOf() + "/" + db;
+    }
+
+    /** The replication lag of a database in millis.
+     * @return -1 if the database isn't a replica, or Long.MAX_VALUE if the
+     * replica isn't in sync with the leader
+     */
+    public static long lag(String dbFile) {
+        Replicator r = dbFile == null? null: REPLICAS.get(dbFile);
+        if (r == null) return -1;
+        long last = r.lastSync;
+        if (last == 0) return Long.MAX_VALUE;
+        return Math.max(System.currentTimeMillis() - last, 0);
+    }
+
+    public Replicator start() {
+        if (this.dbFile == null) {
+            throw new IllegalArgumentException("Not a file database: " + this.db);
+        }
+        if (REPLICAS.putIfAbsent(this.dbFile, this) != null) {
+            throw new IllegalStateException("Database replicated: " + this.db);
+        }
+        Thread runner = this.runner = new Thread(this, "replicator-" + this.db);
+        runner.setDaemon(true);
+        runner.start();
+        return this;
+    }
+
+    @Override
+    public void run() {
+        int retry = this.config.getReplicaRetry();
+        while (!this.stopped) {
+            try {
+                sync();
+            } catch (SQLException | IOException | RuntimeException e) {
+                this.lastSync = 0;
+                if (this.stopped) break;
+                String s = "Replicate '" + this.db + "' error";
+                log.log(Level.WARNING, s, e);
+                try {
+                    Thread.sleep(retry);
+                } catch (InterruptedException ie) {
+                    break;
+                }
+            }
+        }
+        log.info(() -> this + " stopped");
+    }
+
+    protected void sync() throws SQLException, IOException {
+        Config config = this.config;
+        Properties info = new Properties();
+        info.setProperty("user", config.getUser());
+        String password = config.getPassword();
+        if (password != null) info.setProperty("password", password);
+
+        JdbcTcpDriver driver = new JdbcTcpDriver();
+        try (Connection leader = driver.connect(this.leaderUrl, info);
+             SQLiteConnection local = open(this.localUrl, new Properties())) {
+            this.leader = leader;
+            if (this.stopped) return;
+            // Subscribe before backup for no change missed
+            JdbcTcpChangeStream cs = leader.unwrap(JdbcTcpConnection.class)
+                    .subscribe(true);
+            copyLeader(driver, info, local);
+            this.lastSync = System.currentTimeMillis();
+            log.info(() -> this + " in sync");
+
+            local.setAutoCommit(false);
+            while (!this.stopped) {
+                List<Change> batch = cs.read();
+                if (!batch.isEmpty()) apply(local, batch);
+                this.lastSync = System.currentTimeMillis();
+            }
+        } finally {
+            this.leader = null;
+            for (PreparedStatement ps: this.upserts.values()) IOUtils.close(ps);
+            for (PreparedStatement ps: this.deletes.values()) IOUtils.close(ps);
+            this.upserts.clear();
+            this.deletes.clear();
+        }
+    }
+
+    protected void copyLeader(JdbcTcpDriver driver, Properties info, SQLiteConnection local)
+            throws SQLException, IOException {
+        File file = File.createTempFile("replica-", ".tmp",
+                new File(this.config.getDataDir()));
+        try {
+            try (Connection src = driver.connect(this.leaderUrl, info);
+                 OutputStream out = new FileOutputStream(file)) {
+                src.unwrap(JdbcTcpConnection.class).backup("main", out);
+            }
+            restore(local, "main", file, 0);
+            invalidateCaches();
+        } finally {
+            deleteDb(file);
+        }
+    }
+
+    protected void apply(Connection local, List<Change> batch) throws SQLException {
+        boolean failed = true;
+        try {
+            for (Change c: batch) {
+                if (!"main".equals(c.getDatabase())) continue;
+                Map<String, Object> image = c.getImage();
+                if (c.getOp() == Change.Op.DELETE || image == null) {
+                    // No image: deleted after this change
+                    PreparedStatement ps = this.deletes.get(c.getTable());
+                    if (ps == null) {
+                        String s = "delete from " + quote(c.getTable()) + " where rowid = ?";
+                        ps = local.prepareStatement(s);
+                        this.deletes.put(c.getTable(), ps);
+                    }
+                    ps.setLong(1, c.getRowId());
+                    ps.executeUpdate();
+                } else {
+                    PreparedStatement ps = upsert(local, c.getTable(), image.keySet());
+                    int i = 0;
+                    ps.setLong(++i, c.getRowId());
+                    for (Object value: image.values()) ps.setObject(++i, value);
+                    ps.executeUpdate();
+                }
+            }
+            local.commit();
+            failed = false;
+        } finally {
+            if (failed) local.rollback();
+        }
+        invalidateCaches();
+    }
+
+    protected void invalidateCaches() {
+        // Not written by the sessions, whose commits do so
+        QueryCache.bump(this.dbFile);
+        CatalogCache.invalidate(this.dbFile);
+    }
+
+    protected PreparedStatement upsert(Connection local, String table, Collection<String> columns)
+            throws SQLException {
+        StringBuilder sb = new StringBuilder("insert or replace into ")
+                .append(quote(table)).append("(rowid");
+        for (String column: columns) sb.append(", ").append(quote(column));
+        sb.append(")values(?");
+        for (int i = 0, n = columns.size(); i < n; ++i) sb.append(", ?");
+        String s = sb.append(')').toString();
+
+        PreparedStatement ps = this.upserts.get(s);
+        if (ps == null) {
+            ps = local.prepareStatement(s);
+            this.upserts.put(s, ps);
+        }
+        return ps;
+    }
+
+    public String getDb() {
+        return this.db;
+    }
+
+    @Override
+    public void close() {
+        this.stopped = true;
+        REPLICAS.remove(this.dbFile, this);
+        IOUtils.close(this.leader);
+        Thread runner = this.runner;
+        if (runner != null) runner.interrupt();
+    }
+
+    @Override
+    public String toString() {
+        return "replicator-" + this.db;
+    }
+
+}
@@ -20,6 +20,7 @@ import org.sqlited.rmi.AuthServerSocketFactory;
 import org.sqlited.rmi.AuthSocketFactory;
 import org.sqlited.server.Config;
 import org.sqlited.server.Server;
+import org.sqlited.server.rmi.impl.LeaseManager;
 import org.sqlited.server.rmi.impl.RMIDriverImpl;
 import org.sqlited.server.rmi.util.ROUtils;
 import org.sqlited.util.IOUtils;
@@ -41,6 +42,7 @@ public class RMIServer implements Server {
     protected final String name;
     protected volatile Registry registry;
     private volatile AuthServerSocketFactory serverSocketFactory;
+    private volatile LeaseManager leaseManager;
     private volatile Remote driver;
     private volatile boolean stopped;
     private volatile boolean inited;
@@ -67,7 +69,9 @@ public class RMIServer implements Server {
         try {
             log.fine(() -> String.format("%s: create a registry", currentThread().getName()));
             this.registry = LocateRegistry.createRegistry(port, clientFactory, this.serverSocketFactory);
-            this.driver = new RMIDriverImpl(config, clientFactory, this.serverSocketFactory);
+            this.leaseManager = new LeaseManager(config, this.name);
+            this.driver = new RMIDriverImpl(config, this.leaseManager,
+                    clientFactory, this.serverSocketFactory);
             log.fine(() -> String.format("%s: rebind the driver", currentThread().getName()));
             this.registry.rebind(NAME, this.driver);
             String f = "%s: %s v%s listen on %d";
@@ -95,6 +99,7 @@ public class RMIServer implements Server {
             IOUtils.close(this.serverSocketFactory);
             ROUtils.unbind(registry, NAME);
             ROUtils.unexport(this.driver);
+            IOUtils.close(this.leaseManager);
             ROUtils.unexport(registry);
             this.registry = null;
         } finally {
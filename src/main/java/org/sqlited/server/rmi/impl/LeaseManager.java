@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.server.rmi.impl;
+
+import org.sqlited.server.Config;
+import org.sqlited.util.logging.LoggerFactory;
+
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class LeaseManager implements AutoCloseable {
+    static final Logger log = LoggerFactory.getLogger(LeaseManager.class);
+
+    protected final Config config;
+    private final Set<RMIConnectionImpl> conns = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger connCount = new AtomicInteger();
+    private final AtomicInteger stmtCount = new AtomicInteger();
+    private final ScheduledExecutorService reaper;
+
+    public LeaseManager(Config config, String name) {
+        this.config = config;
+        this.reaper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, name + "-reaper");
+            t.setDaemon(true);
+            return t;
+        });
+        long idle = Math.min(config.getRMIIdleTimeout(), config.getRMIStmtIdleTimeout());
+        long period = Math.max(idle / 4, 1000);
+        this.reaper.scheduleWithFixedDelay(this::reap, period, period,
+                TimeUnit.MILLISECONDS);
+    }
+
+    public void acquireConn(RMIConnectionImpl conn) throws SQLException {
+        int max = this.config.getRMIMaxConns();
+        if (this.connCount.incrementAndGet() > max) {
+            this.connCount.decrementAndGet();
+            String s = "Too many connections";
+            throw new SQLNonTransientConnectionException(s, "08001");
+        }
+        this.conns.add(conn);
+    }
+
+    public void releaseConn(RMIConnectionImpl conn) {
+        if (this.conns.remove(conn)) {
+            this.connCount.decrementAndGet();
+        }
+    }
+
+    public void acquireStmt() throws SQLException {
+        int max = this.config.getRMIMaxStmts();
+        if (this.stmtCount.incrementAndGet() > max) {
+            this.stmtCount.decrementAndGet();
+            throw new SQLException("Too many statements", "HY000");
+        }
+    }
+
+    public void releaseStmt() {
+        this.stmtCount.decrementAndGet();
+    }
+
+    public int getConnCount() {
+        return this.connCount.get();
+    }
+
+    public int getStmtCount() {
+        return this.stmtCount.get();
+    }
+
+    protected void reap() {
+        long now = System.currentTimeMillis();
+        long connIdle = this.config.getRMIIdleTimeout();
+        long stmtIdle = this.config.getRMIStmtIdleTimeout();
+
+        for (RMIConnectionImpl conn: this.conns) {
+            try {
+                if (now - conn.lastAccess > connIdle) {
+                    log.fine(() -> String.format("reap idle %s", conn));
+                    conn.close();
+                } else {
+                    // Statements and their result sets, leased or pooled
+                    conn.reapStatements(now, stmtIdle);
+                }
+            } catch (Exception e) {
+                log.log(Level.WARNING, "Reap " + conn + " error", e);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        this.reaper.shutdownNow();
+        for (RMIConnectionImpl conn: this.conns) {
+            try {
+                conn.close();
+            } catch (Exception e) {
+                log.log(Level.FINE, "Close " + conn + " error", e);
+            }
+        }
+    }
+
+}
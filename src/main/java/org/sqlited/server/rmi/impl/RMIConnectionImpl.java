@@ -17,13 +17,21 @@
 package org.sqlited.server.rmi.impl;
 
 import org.sqlited.jdbc.JdbcSavepoint;
+import org.sqlited.meta.Catalog;
 import org.sqlited.rmi.RMIConnection;
 import org.sqlited.rmi.RMIStatement;
 import org.sqlited.server.Config;
+import org.sqlited.server.Profile;
+import org.sqlited.server.cache.CatalogCache;
+import org.sqlited.server.cache.VersionTracker;
+import org.sqlited.server.cdc.ChangeCapture;
 import static org.sqlited.server.util.SQLiteUtils.*;
 
+import org.sqlited.server.rmi.util.ROUtils;
+import org.sqlited.server.util.SQLiteHooks;
 import org.sqlited.server.util.SQLiteUtils;
 import org.sqlited.util.IOUtils;
+import org.sqlited.util.logging.LoggerFactory;
 
 import java.rmi.RemoteException;
 import java.rmi.server.RMIClientSocketFactory;
@@ -33,27 +41,58 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Savepoint;
 import java.sql.Statement;
-import java.util.Properties;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public class RMIConnectionImpl extends UnicastRemoteObject implements RMIConnection {
+    static final Logger log = LoggerFactory.getLogger(RMIConnectionImpl.class);
 
     protected final RMIClientSocketFactory clientSocketFactory;
     protected final RMIServerSocketFactory serverSocketFactory;
     protected final Config config;
+    protected final LeaseManager leaseManager;
     protected final Connection sqlConn;
+    // Bound to the RMI thread during the calls that execute SQL
+    protected final SQLiteHooks hooks = new SQLiteHooks();
+    protected VersionTracker versionTracker;
+    protected ChangeCapture changeCapture;
+    protected String dbFile;
+    protected Profile profile;
+    private final Set<RMIStatementImpl> stmts = new HashSet<>();
+    private final Deque<RMIStatementImpl> stmtPool = new ArrayDeque<>();
+    volatile long lastAccess = System.currentTimeMillis();
     private boolean readonly;
     private Statement auxStmt;
+    private boolean closed;
 
     protected RMIConnectionImpl(String url, Properties info, Config config,
+                                LeaseManager leaseManager,
                                 RMIClientSocketFactory clientSocketFactory,
                                 RMIServerSocketFactory serverSocketFactory)
             throws RemoteException, SQLException {
         super(config.getPort(), clientSocketFactory, serverSocketFactory);
-        this.sqlConn = open(url, info);
-        this.config  = config;
-        this.clientSocketFactory = clientSocketFactory;
-        this.serverSocketFactory = serverSocketFactory;
-        init();
+        boolean failed = true;
+        try {
+            this.config  = config;
+            this.leaseManager = leaseManager;
+            this.clientSocketFactory = clientSocketFactory;
+            this.serverSocketFactory = serverSocketFactory;
+            leaseManager.acquireConn(this);
+            try {
+                Profile profile = config.getProfile(dbFile(url));
+                if (profile != null) info = profile.apply(url, info);
+                this.profile = profile;
+                this.sqlConn = open(url, info);
+            } catch (SQLException | RuntimeException e) {
+                leaseManager.releaseConn(this);
+                throw e;
+            }
+            init();
+            failed = false;
+        } finally {
+            if (failed) ROUtils.unexport(this);
+        }
     }
 
     protected void init() throws SQLException {
@@ -61,74 +100,196 @@ public class RMIConnectionImpl extends UnicastRemoteObject implements RMIConnect
         try {
             Statement stmt = getAuxStmt();
             this.readonly = queryOnly(this.sqlConn, stmt);
+            String db = this.dbFile = dbFile(this.sqlConn.getMetaData().getURL());
+            if (db != null) {
+                // Keep the query caches of other servers in this JVM valid
+                this.versionTracker = new VersionTracker(db);
+                this.hooks.addCommitListener(this.versionTracker);
+                if (this.config.isCdcEnabled()) {
+                    this.changeCapture = new ChangeCapture(db);
+                    this.hooks.addUpdateListener(this.changeCapture);
+                    this.hooks.addCommitListener(this.changeCapture);
+                }
+            }
             failed = false;
         } finally {
-            if (failed) IOUtils.close(this.sqlConn);
+            if (failed) {
+                IOUtils.close(this.sqlConn);
+                this.leaseManager.releaseConn(this);
+            }
+        }
+    }
+
+    protected void touch() {
+        this.lastAccess = System.currentTimeMillis();
+    }
+
+    protected void flushVersion() {
+        VersionTracker tracker = this.versionTracker;
+        if (tracker != null) tracker.flush();
+        ChangeCapture capture = this.changeCapture;
+        if (capture != null) {
+            try {
+                capture.flush(getAuxStmt());
+            } catch (SQLException e) {
+                log.log(Level.WARNING, "Flush changes error", e);
+            }
         }
     }
 
     @Override
     public int getStatus() throws RemoteException, SQLException {
+        touch();
         return SQLiteUtils.getStatus(this.sqlConn, this.readonly);
     }
 
     @Override
-    public RMIStatement createStatement() throws RemoteException, SQLException {
-        Statement stmt = this.sqlConn.createStatement();
+    public synchronized RMIStatement createStatement()
+            throws RemoteException, SQLException {
+        touch();
+        if (this.closed) {
+            throw new SQLException("Connection closed", "08003");
+        }
+        RMIStatementImpl s = this.stmtPool.pollFirst();
+        if (s != null) {
+            this.stmts.add(s);
+            return s.reuse();
+        }
+
+        this.leaseManager.acquireStmt();
+        Statement stmt = null;
         boolean failed = true;
         try {
-            RMIStatement s = new RMIStatementImpl(this, stmt);
+            stmt = this.sqlConn.createStatement();
+            s = new RMIStatementImpl(this, stmt);
+            this.stmts.add(s);
             failed = false;
             return s;
         } finally {
-            if (failed) IOUtils.close(stmt);
+            if (failed) {
+                IOUtils.close(stmt);
+                this.leaseManager.releaseStmt();
+            }
+        }
+    }
+
+    synchronized void release(RMIStatementImpl stmt) {
+        if (!this.stmts.remove(stmt)) {
+            return;
+        }
+        if (this.closed || this.stmtPool.size() >= this.config.getRMIStmtPool()) {
+            destroy(stmt);
+        } else {
+            this.stmtPool.offerFirst(stmt);
+        }
+    }
+
+    synchronized void reapStatements(long now, long idleTimeout) {
+        // The leased ones too, e.g. leaked by the client with the result set
+        Iterator<RMIStatementImpl> i = this.stmts.iterator();
+        while (i.hasNext()) {
+            RMIStatementImpl s = i.next();
+            if (now - s.lastAccess > idleTimeout) {
+                log.fine(() -> String.format("reap idle %s", s));
+                i.remove();
+                destroy(s);
+            }
+        }
+        // The pool is kept in LIFO order: the idlest ones are at the tail
+        RMIStatementImpl s;
+        while ((s = this.stmtPool.peekLast()) != null
+                && now - s.lastAccess > idleTimeout) {
+            this.stmtPool.pollLast();
+            destroy(s);
         }
     }
+
+    private void destroy(RMIStatementImpl stmt) {
+        stmt.destroy();
+        this.leaseManager.releaseStmt();
+    }
     @Override
     public boolean getAutoCommit() throws RemoteException, SQLException {
+        touch();
         return this.sqlConn.getAutoCommit();
     }
 
     @Override
     public void setAutoCommit(boolean autoCommit) throws RemoteException, SQLException {
-        this.sqlConn.setAutoCommit(autoCommit);
+        touch();
+        SQLiteHooks old = this.hooks.bind();
+        try {
+            this.sqlConn.setAutoCommit(autoCommit);
+        } finally {
+            SQLiteHooks.unbind(old);
+            flushVersion();
+        }
     }
 
     @Override
     public void commit() throws RemoteException, SQLException {
-        this.sqlConn.commit();
+        touch();
+        SQLiteHooks old = this.hooks.bind();
+        try {
+            this.sqlConn.commit();
+        } finally {
+            SQLiteHooks.unbind(old);
+            flushVersion();
+        }
     }
 
     @Override
     public void rollback() throws RemoteException, SQLException {
-        this.sqlConn.rollback();
+        touch();
+        SQLiteHooks old = this.hooks.bind();
+        try {
+            this.sqlConn.rollback();
+        } finally {
+            SQLiteHooks.unbind(old);
+        }
     }
 
     @Override
     public Savepoint setSavepoint(String name) throws RemoteException, SQLException {
+        touch();
         Savepoint sp;
         if (name == null) sp = this.sqlConn.setSavepoint();
         else sp = this.sqlConn.setSavepoint(name);
+        ChangeCapture capture = this.changeCapture;
+        if (capture != null) capture.setSavepoint(sp);
         return new JdbcSavepoint(sp);
     }
 
     @Override
     public void rollback(Savepoint savepoint) throws RemoteException, SQLException {
-        this.sqlConn.rollback(savepoint);
+        touch();
+        SQLiteHooks old = this.hooks.bind();
+        try {
+            this.sqlConn.rollback(savepoint);
+        } finally {
+            SQLiteHooks.unbind(old);
+        }
+        ChangeCapture capture = this.changeCapture;
+        if (capture != null) capture.rollback(savepoint);
     }
 
     @Override
     public void releaseSavepoint(Savepoint savepoint) throws RemoteException, SQLException {
+        touch();
         this.sqlConn.releaseSavepoint(savepoint);
+        ChangeCapture capture = this.changeCapture;
+        if (capture != null) capture.releaseSavepoint(savepoint);
     }
 
     @Override
     public boolean isReadonly() throws RemoteException, SQLException {
+        touch();
         return this.readonly;
     }
 
     @Override
     public void setReadOnly(boolean readonly) throws RemoteException, SQLException {
+        touch();
         if (this.readonly != readonly) {
             Statement stmt = getAuxStmt();
             setQueryOnly(stmt, readonly);
@@ -142,17 +303,42 @@ public class RMIConnectionImpl extends UnicastRemoteObject implements RMIConnect
 
     @Override
     public void setTransactionIsolation(int level) throws RemoteException, SQLException {
+        touch();
         this.sqlConn.setTransactionIsolation(level);
     }
 
     @Override
     public void setHoldability(int holdability) throws RemoteException, SQLException {
+        touch();
         this.sqlConn.setHoldability(holdability);
     }
 
+    @Override
+    public Catalog getCatalog(long version) throws RemoteException, SQLException {
+        touch();
+        return CatalogCache.get(this.sqlConn, this.dbFile, version);
+    }
+
     @Override
     public void close() throws RemoteException {
+        synchronized (this) {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            for (RMIStatementImpl s: this.stmts) {
+                destroy(s);
+            }
+            this.stmts.clear();
+            for (RMIStatementImpl s: this.stmtPool) {
+                destroy(s);
+            }
+            this.stmtPool.clear();
+        }
+        IOUtils.close(this.auxStmt);
         IOUtils.close(this.sqlConn);
+        this.leaseManager.releaseConn(this);
+        ROUtils.unexport(this);
     }
 
     protected Statement getAuxStmt() throws SQLException {
@@ -33,12 +33,15 @@ public class RMIDriverImpl extends UnicastRemoteObject implements RMIDriver {
     protected final RMIClientSocketFactory clientSocketFactory;
     protected final RMIServerSocketFactory serverSocketFactory;
     protected final Config config;
+    protected final LeaseManager leaseManager;
 
-    public RMIDriverImpl(Config config, RMIClientSocketFactory clientSocketFactory,
+    public RMIDriverImpl(Config config, LeaseManager leaseManager,
+                         RMIClientSocketFactory clientSocketFactory,
                          RMIServerSocketFactory serverSocketFactory)
             throws RemoteException {
         super(config.getPort(), clientSocketFactory, serverSocketFactory);
         this.config = config;
+        this.leaseManager = leaseManager;
         this.clientSocketFactory = clientSocketFactory;
         this.serverSocketFactory = serverSocketFactory;
     }
@@ -48,7 +51,7 @@ public class RMIDriverImpl extends UnicastRemoteObject implements RMIDriver {
             throws RemoteException, SQLException {
         Config config = this.config;
         url = SQLiteUtils.wrapURL(config.getDataDir(), url);
-        return new RMIConnectionImpl(url, info, config,
+        return new RMIConnectionImpl(url, info, config, this.leaseManager,
                 this.clientSocketFactory, this.serverSocketFactory);
     }
 
@@ -17,6 +17,7 @@
 package org.sqlited.server.rmi.impl;
 
 import org.sqlited.result.RowIterator;
+import org.sqlited.result.UnboxedRowIterator;
 import org.sqlited.rmi.RMIResultSet;
 import org.sqlited.util.IOUtils;
 
@@ -25,25 +26,39 @@ import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import static java.sql.ResultSetMetaData.*;
 import java.sql.SQLException;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
 public class RMIResultSetImpl implements RMIResultSet {
 
     protected static final int FETCH_SIZE_DEFAULT = 50;
-    protected static final int FETCH_SIZE_MAXIMUM = 500;
+    protected static final int FETCH_SIZE_MAXIMUM = 10000;
+    // Bound the bytes of one batch whatever the fetch size is
+    protected static final int FETCH_BYTES_MAXIMUM = 2 << 20;
 
     protected final ResultSet rs;
+    protected final int maxBytes;
+    private boolean pending;
 
     protected RMIResultSetImpl(ResultSet rs) {
+        this(rs, FETCH_BYTES_MAXIMUM);
+    }
+
+    protected RMIResultSetImpl(ResultSet rs, int maxBytes) {
         this.rs = rs;
+        this.maxBytes = Math.min(maxBytes, FETCH_BYTES_MAXIMUM);
     }
 
     @Override
     public RowIterator next(boolean meta) throws RemoteException, SQLException {
-        final int n, size = this.rs.getFetchSize();
-        if (size == 0) {
+        return next(meta, this.rs.getFetchSize());
+    }
+
+    @Override
+    public RowIterator next(boolean meta, int size)
+            throws RemoteException, SQLException {
+        final int n;
+        if (size <= 0) {
             n = FETCH_SIZE_DEFAULT;
         } else {
             n = Math.min(size, FETCH_SIZE_MAXIMUM);
@@ -53,26 +68,45 @@ public class RMIResultSetImpl implements RMIResultSet {
         if (meta && !this.rs.isClosed()) metaData = getMetaData();
         else metaData = null;
 
-        boolean next = this.rs.next();
+        // Cursor may be on the first row of this batch by the last call
+        boolean next = this.pending || this.rs.next();
+        this.pending = false;
         if (next) {
             ResultSetMetaData rsMeta = this.rs.getMetaData();
             int m = rsMeta.getColumnCount();
-            List<Object[]> rows = new ArrayList<>(n);
-            for (int i = 0; next && i < n; ++i) {
-                Object[] row = new Object[m];
+            int capacity = Math.min(n, FETCH_SIZE_DEFAULT);
+            UnboxedRowIterator rows = new UnboxedRowIterator(m, capacity,
+                    false, metaData);
+            int bytes = 0;
+            for (int i = 0; next && i < n && bytes < this.maxBytes; ++i) {
                 for (int j = 0; j < m; ++j) {
-                    row[j] = this.rs.getObject(j + 1);
+                    Object value = this.rs.getObject(j + 1);
+                    bytes += estimateSize(value);
+                    rows.add(value);
                 }
-                rows.add(row);
                 next = this.rs.next();
             }
-            return new RowIterator(rows, !next, metaData);
+            this.pending = next;
+            rows.setLast(!next);
+            return rows;
         } else {
             List<Object[]> rows = Collections.emptyList();
             return new RowIterator(rows, true, metaData);
         }
     }
 
+    protected static int estimateSize(Object value) {
+        if (value == null) {
+            return 1;
+        } else if (value instanceof String) {
+            return ((String) value).length() + 5;
+        } else if (value instanceof byte[]) {
+            return ((byte[]) value).length + 5;
+        } else {
+            return 10;
+        }
+    }
+
     @Override
     public org.sqlited.result.ResultSetMetaData getMetaData()
             throws RemoteException, SQLException {
@@ -20,6 +20,9 @@ import org.sqlited.result.ResultSetMetaData;
 import org.sqlited.result.RowIterator;
 import org.sqlited.rmi.RMIResultSet;
 import org.sqlited.rmi.RMIStatement;
+import org.sqlited.server.rmi.util.ROUtils;
+import org.sqlited.server.util.SQLiteHooks;
+import org.sqlited.server.Profile;
 import org.sqlited.util.IOUtils;
 
 import java.rmi.RemoteException;
@@ -31,6 +34,7 @@ public class RMIStatementImpl extends ConnRemoteObject implements RMIStatement {
 
     protected final Statement stmt;
     protected RMIResultSet rs;
+    volatile long lastAccess = System.currentTimeMillis();
 
     protected RMIStatementImpl(RMIConnectionImpl conn, Statement stmt)
             throws RemoteException {
@@ -38,14 +42,47 @@ public class RMIStatementImpl extends ConnRemoteObject implements RMIStatement {
         this.stmt = stmt;
     }
 
+    protected void touch() {
+        long now = System.currentTimeMillis();
+        this.lastAccess = now;
+        this.conn.lastAccess = now;
+    }
+
+    RMIStatementImpl reuse() throws SQLException {
+        touch();
+        this.stmt.clearWarnings();
+        this.stmt.setMaxRows(0);
+        this.stmt.setQueryTimeout(0);
+        return this;
+    }
+
     @Override
     public RowIterator executeQuery(String s)
             throws RemoteException, SQLException {
-        ResultSet rs = this.stmt.executeQuery(s);
+        touch();
+        return executeAndFetch(s, 0);
+    }
+
+    @Override
+    public RowIterator executeAndFetch(String s, int fetchSize)
+            throws RemoteException, SQLException {
+        touch();
+        IOUtils.close(this.rs);
+        this.rs = null;
+        check(s);
+        ResultSet rs;
+        SQLiteHooks old = this.conn.hooks.bind();
+        try {
+            rs = this.stmt.executeQuery(s);
+        } finally {
+            SQLiteHooks.unbind(old);
+            this.conn.flushVersion();
+        }
         boolean failed = true;
         try {
-            this.rs = new RMIResultSetImpl(rs);
-            RowIterator itr = next(true);
+            int maxBytes = this.conn.config.getMaxBufferSize();
+            this.rs = new RMIResultSetImpl(rs, maxBytes);
+            RowIterator itr = next(true, fetchSize);
             failed = false;
             return itr;
         } finally {
@@ -56,43 +93,77 @@ public class RMIStatementImpl extends ConnRemoteObject implements RMIStatement {
     @Override
     public int executeUpdate(String s)
             throws RemoteException, SQLException {
-        return this.stmt.executeUpdate(s);
+        touch();
+        check(s);
+        SQLiteHooks old = this.conn.hooks.bind();
+        try {
+            return this.stmt.executeUpdate(s);
+        } finally {
+            SQLiteHooks.unbind(old);
+            this.conn.flushVersion();
+        }
+    }
+
+    protected void check(String s) throws SQLException {
+        Profile profile = this.conn.profile;
+        if (profile != null) profile.check(s);
     }
 
     @Override
     public RowIterator next(boolean meta) throws RemoteException, SQLException {
+        touch();
         return this.rs.next(meta);
     }
 
+    @Override
+    public RowIterator next(boolean meta, int fetchSize)
+            throws RemoteException, SQLException {
+        touch();
+        return this.rs.next(meta, fetchSize);
+    }
+
     @Override
     public ResultSetMetaData getMetaData() throws RemoteException, SQLException {
+        touch();
         return this.rs.getMetaData();
     }
 
     @Override
     public int getFetchSize() throws RemoteException, SQLException {
+        touch();
         return this.rs.getFetchSize();
     }
 
     @Override
     public void setFetchSize(int rows) throws RemoteException, SQLException {
+        touch();
         this.rs.setFetchSize(rows);
     }
 
     @Override
     public int getFetchDirection() throws RemoteException, SQLException {
+        touch();
         return this.rs.getFetchDirection();
     }
 
     @Override
     public void setFetchDirection(int direction) throws RemoteException, SQLException {
+        touch();
         this.rs.setFetchDirection(direction);
     }
 
     @Override
     public void close() throws RemoteException {
         IOUtils.close(this.rs);
+        this.rs = null;
+        this.conn.release(this);
+    }
+
+    void destroy() {
+        IOUtils.close(this.rs);
+        this.rs = null;
         IOUtils.close(this.stmt);
+        ROUtils.unexport(this);
     }
 
 }
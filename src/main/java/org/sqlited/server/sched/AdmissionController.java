@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.server.sched;
+
+import org.sqlited.server.Config;
+
+import java.sql.SQLException;
+import java.sql.SQLTransientException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/** Admits the commands that run SQLite work, with the concurrency limit
+ * per database. The waiting commands of a database are
+ * scheduled by start-time fair queueing between clients: a client is
+ * charged the execution time of its commands, so that the clients of short
+ * point queries go ahead of the clients of long scans, and a chatty client
+ * can't starve the others. Commands are shed with the retryable SQLState
+ * 53000 when the wait queue is full or the wait timeout.
+ */
+public class AdmissionController {
+
+    static final String BUSY_STATE = "53000";
+
+    protected final int dbLimit;
+    protected final int maxQueue;
+    protected final long maxWait;
+    private final Map<String, Pool> pools = new HashMap<>();
+
+    public AdmissionController(Config config) {
+        this(config.getAdmissionDbLimit(), config.getAdmissionMaxQueue(),
+                config.getAdmissionMaxWait());
+    }
+
+    public AdmissionController(int dbLimit, int maxQueue, long maxWait) {
+        if (dbLimit <= 0) throw new IllegalArgumentException("dbLimit " + dbLimit);
+        this.dbLimit = dbLimit;
+        this.maxQueue = maxQueue;
+        this.maxWait = maxWait;
+    }
+
+    /** Register a client session of a database.
+     * @param db the database key
+     * @param client the client key, e.g. the remote host
+     */
+    public synchronized Session open(String db, String client) {
+        Pool pool = this.pools.computeIfAbsent(db, Pool::new);
+        Client c = pool.clients.computeIfAbsent(client, k -> new Client());
+        ++c.sessions;
+        ++pool.sessions;
+        return new Session(pool, client, c);
+    }
+
+    public synchronized void close(Session session) {
+        if (session.closed) return;
+        session.closed = true;
+        Pool pool = session.pool;
+        if (--session.client.sessions == 0) pool.clients.remove(session.clientKey);
+        if (--pool.sessions == 0 && pool.running == 0) this.pools.remove(pool.db);
+    }
+
+    /** Wait for admission of a command.
+     * @return the admission that must be released after the command
+     * @throws SQLTransientException if overload
+     */
+    public Admission admit(Session session) throws SQLException {
+        Pool pool = session.pool;
+        synchronized (this) {
+            if (pool.queue.isEmpty() && pool.running < this.dbLimit) {
+                return start(pool, session);
+            }
+            if (pool.queue.size() >= this.maxQueue) {
+                throw busy("Server busy: too many queued commands");
+            }
+            Client c = session.client;
+            Waiter w = new Waiter(session, Math.max(pool.vtime, c.finish), pool.seq++);
+            pool.queue.add(w);
+            long deadline = System.currentTimeMillis() + this.maxWait;
+            try {
+                while (w.admission == null) {
+                    long timeout = deadline - System.currentTimeMillis();
+                    if (timeout <= 0) {
+                        pool.queue.remove(w);
+                        throw busy("Server busy: admission timeout");
+                    }
+                    wait(timeout);
+                }
+            } catch (InterruptedException e) {
+                if (w.admission != null) {
+                    release(w.admission);
+                } else {
+                    pool.queue.remove(w);
+                }
+                Thread.currentThread().interrupt();
+                throw busy("Admission interrupted");
+            }
+            return w.admission;
+        }
+    }
+
+    public synchronized void release(Admission admission) {
+        if (admission.released) return;
+        admission.released = true;
+        Session session = admission.session;
+        Pool pool = session.pool;
+        --pool.running;
+        // Charge the client its service time
+        double cost = (System.nanoTime() - admission.startTime) / 1000_000.0;
+        Client c = session.client;
+        c.finish = Math.max(c.finish, admission.startTag) + cost;
+        dispatch(pool);
+        if (pool.sessions == 0 && pool.running == 0) this.pools.remove(pool.db);
+    }
+
+    protected Admission start(Pool pool, Session session) {
+        ++pool.running;
+        double startTag = Math.max(pool.vtime, session.client.finish);
+        pool.vtime = Math.max(pool.vtime, startTag);
+        return new Admission(session, startTag);
+    }
+
+    protected void dispatch(Pool pool) {
+        PriorityQueue<Waiter> queue = pool.queue;
+        boolean granted = false;
+        while (!queue.isEmpty() && pool.running < this.dbLimit) {
+            Waiter w = queue.poll();
+            w.admission = start(pool, w.session);
+            granted = true;
+        }
+        if (granted) notifyAll();
+    }
+
+    static SQLException busy(String message) {
+        return new SQLTransientException(message, BUSY_STATE);
+    }
+
+    public synchronized int getRunning(String db) {
+        Pool pool = this.pools.get(db);
+        return pool == null? 0: pool.running;
+    }
+
+    public synchronized int getQueued(String db) {
+        Pool pool = this.pools.get(db);
+        return pool == null? 0: pool.queue.size();
+    }
+
+    static class Pool {
+        final String db;
+        final Map<String, Client> clients = new HashMap<>();
+        final PriorityQueue<Waiter> queue = new PriorityQueue<>((a, b) -> {
+            int i = Double.compare(a.startTag, b.startTag);
+            return i != 0? i: Long.compare(a.seq, b.seq);
+        });
+        int sessions;
+        int running;
+        double vtime;
+        long seq;
+
+        Pool(String db) {
+            this.db = db;
+        }
+    }
+
+    static class Client {
+        int sessions;
+        // Virtual finish time of the last command, in millis of service
+        double finish;
+    }
+
+    static class Waiter {
+        final Session session;
+        final double startTag;
+        final long seq;
+        Admission admission;
+
+        Waiter(Session session, double startTag, long seq) {
+            this.session = session;
+            this.startTag = startTag;
+            this.seq = seq;
+        }
+    }
+
+    public static class Session {
+        final Pool pool;
+        final String clientKey;
+        final Client client;
+        boolean closed;
+
+        Session(Pool pool, String clientKey, Client client) {
+            this.pool = pool;
+            this.clientKey = clientKey;
+            this.client = client;
+        }
+    }
+
+    public static class Admission {
+        final Session session;
+        final double startTag;
+        final long startTime = System.nanoTime();
+        boolean released;
+
+        Admission(Session session, double startTag) {
+            this.session = session;
+            this.startTag = startTag;
+        }
+    }
+
+}
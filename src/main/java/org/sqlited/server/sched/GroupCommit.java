@@ -0,0 +1,390 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.server.sched;
+
+import org.sqlite.SQLiteConnection;
+import org.sqlited.server.Config;
+import org.sqlited.server.cache.VersionTracker;
+import org.sqlited.server.cdc.ChangeCapture;
+import org.sqlited.server.util.SQLiteHooks;
+import org.sqlited.server.util.SQLiteUtils;
+import org.sqlited.util.IOUtils;
+import org.sqlited.util.LruCache;
+import org.sqlited.util.logging.LoggerFactory;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import static java.util.regex.Pattern.CASE_INSENSITIVE;
+
+/** Coalesces the autocommit writes of the sessions on a database into
+ * shared transactions. A writer per database file runs the queued
+ * statements in one transaction, each under a savepoint so that a failed
+ * statement is rolled back alone, and commits when the group has maxSize
+ * statements or the first has waited maxDelay micros. The sessions of the
+ * group are acknowledged after the one commit and WAL sync.
+ */
+public class GroupCommit implements AutoCloseable {
+    static final Logger log = LoggerFactory.getLogger(GroupCommit.class);
+
+    static final Pattern DML = Pattern.compile("^\\s*(insert|update|delete|replace)\\s",
+            CASE_INSENSITIVE);
+    // Results or the conflict resolution that ends the shared transaction
+    static final Pattern EXCLUDED = Pattern.compile("\\b(returning|rollback)\\b",
+            CASE_INSENSITIVE);
+    static final long POLL_INTERVAL = 100;
+    static final long IDLE_TIMEOUT = 60000;
+    static final int PREPARED_CACHED = 64;
+
+    protected final int maxSize;
+    protected final long maxDelay;
+    protected final boolean cdc;
+    private final Map<String, Writer> writers = new HashMap<>();
+    private boolean closed;
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong statements = new AtomicLong();
+
+    public GroupCommit(Config config) {
+        this(config.getGroupCommitSize(), config.getGroupCommitDelay(),
+                config.isCdcEnabled());
+    }
+
+    public GroupCommit(int maxSize, long maxDelay, boolean cdc) {
+        if (maxSize <= 0) throw new IllegalArgumentException("maxSize " + maxSize);
+        this.maxSize = maxSize;
+        this.maxDelay = TimeUnit.MICROSECONDS.toNanos(maxDelay);
+        this.cdc = cdc;
+    }
+
+    /** Test whether the sql is a single write that can join a group.
+     */
+    public static boolean isGroupable(String sql) {
+        return DML.matcher(sql).find() && !EXCLUDED.matcher(sql).find()
+                && SQLiteUtils.splitStatements(sql).size() == 1;
+    }
+
+    /** Execute the write request in a group of the database, and wait for
+     * the group committed, or the request cancelled.
+     * @param url the url of the session, the writer opened by it if none
+     * @param db the canonical database file
+     * @return the update count
+     */
+    public int execute(Request r, String url, Properties info, String db)
+            throws SQLException {
+        synchronized (this) {
+            if (this.closed) {
+                throw new SQLNonTransientConnectionException("Group commit closed", "08006");
+            }
+            Writer w = this.writers.get(db);
+            if (w == null) {
+                w = new Writer(db, SQLiteUtils.open(url, info));
+                this.writers.put(db, w);
+                w.start();
+            }
+            r.writer = w;
+            w.queue.add(r);
+        }
+        return r.await();
+    }
+
+    /** Cancel the request: removed if queued, or the writer interrupted if
+     * executing it.
+     */
+    public void cancel(Request r) {
+        Writer w;
+        synchronized (this) {
+            w = r.writer;
+        }
+        if (w != null) w.cancel(r);
+    }
+
+    public long getCommits() {
+        return this.commits.get();
+    }
+
+    public long getStatements() {
+        return this.statements.get();
+    }
+
+    public synchronized int size() {
+        return this.writers.size();
+    }
+
+    @Override
+    public void close() {
+        List<Writer> writers;
+        synchronized (this) {
+            if (this.closed) return;
+            this.closed = true;
+            writers = new ArrayList<>(this.writers.values());
+            this.writers.clear();
+        }
+        for (Writer w: writers) w.closed = true;
+    }
+
+    synchronized boolean retire(Writer w) {
+        // Idle: no more requests queued after removed
+        if (!w.queue.isEmpty()) return false;
+        remove(w);
+        return true;
+    }
+
+    synchronized void remove(Writer w) {
+        if (this.writers.get(w.db) == w) this.writers.remove(w.db);
+    }
+
+    static SQLException cancelled() {
+        return new SQLException("Group commit request cancelled", "57014");
+    }
+
+    public static class Request {
+        final String sql;
+        final Object[] params;
+        final CountDownLatch done = new CountDownLatch(1);
+        Writer writer;
+        volatile boolean cancelled;
+        int count;
+        SQLException error;
+
+        /**
+         * @param params the parameters, or null for a plain statement
+         */
+        public Request(String sql, Object[] params) {
+            this.sql = sql;
+            this.params = params;
+        }
+
+        int await() throws SQLException {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    this.done.await();
+                    break;
+                } catch (InterruptedException e) {
+                    // Cancelled, but wait for the statement if running
+                    if (!interrupted) this.writer.cancel(this);
+                    interrupted = true;
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+            SQLException e = this.error;
+            if (e != null) {
+                throw new SQLException(e.getMessage(), e.getSQLState(), e.getErrorCode(), e);
+            }
+            return this.count;
+        }
+    }
+
+    class Writer implements Runnable {
+        final String db;
+        final SQLiteConnection conn;
+        final SQLiteHooks hooks = new SQLiteHooks();
+        final VersionTracker tracker;
+        final ChangeCapture capture;
+        final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+        final Map<String, PreparedStatement> prepared;
+        // The request executing, interrupted if cancelled
+        private Request current;
+        volatile boolean closed;
+
+        Writer(String db, SQLiteConnection conn) {
+            this.db = db;
+            this.conn = conn;
+            this.tracker = new VersionTracker(db);
+            this.hooks.addCommitListener(this.tracker);
+            if (cdc) {
+                this.capture = new ChangeCapture(db);
+                this.hooks.addUpdateListener(this.capture);
+                this.hooks.addCommitListener(this.capture);
+            } else {
+                this.capture = null;
+            }
+            this.prepared = new LruCache<String, PreparedStatement>(PREPARED_CACHED) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    boolean full = super.removeEldestEntry(eldest);
+                    if (full) IOUtils.close(eldest.getValue());
+                    return full;
+                }
+            };
+        }
+
+        void start() {
+            Thread t = new Thread(this, "group-commit");
+            t.setDaemon(true);
+            t.start();
+        }
+
+        @Override
+        public void run() {
+            SQLiteHooks old = this.hooks.bind();
+            List<Request> group = new ArrayList<>(maxSize);
+            try (Statement stmt = this.conn.createStatement()) {
+                long idle = 0;
+                while (!this.closed) {
+                    Request r = this.queue.poll(POLL_INTERVAL, TimeUnit.MILLISECONDS);
+                    if (r == null) {
+                        idle += POLL_INTERVAL;
+                        if (idle >= IDLE_TIMEOUT && retire(this)) break;
+                        continue;
+                    }
+                    idle = 0;
+                    group.add(r);
+                    long deadline = System.nanoTime() + maxDelay;
+                    while (group.size() < maxSize) {
+                        long timeout = deadline - System.nanoTime();
+                        if (timeout > 0) r = this.queue.poll(timeout, TimeUnit.NANOSECONDS);
+                        else r = this.queue.poll();
+                        if (r == null) break;
+                        group.add(r);
+                    }
+                    commit(stmt, group);
+                    group.clear();
+                }
+            } catch (InterruptedException e) {
+                // Exit
+            } catch (SQLException e) {
+                log.log(Level.WARNING, "Group commit error", e);
+            } finally {
+                // Nothing queued any more once removed
+                remove(this);
+                SQLException e = new SQLNonTransientConnectionException(
+                        "Group commit closed", "08006");
+                fail(group, e);
+                List<Request> rest = new ArrayList<>();
+                this.queue.drainTo(rest);
+                fail(rest, e);
+                for (PreparedStatement ps: this.prepared.values()) IOUtils.close(ps);
+                IOUtils.close(this.conn);
+                SQLiteHooks.unbind(old);
+            }
+        }
+
+        void commit(Statement stmt, List<Request> group) throws SQLException {
+            SQLiteConnection conn = this.conn;
+            ChangeCapture capture = this.capture;
+            conn.setAutoCommit(false);
+            try {
+                for (Request r: group) {
+                    if (!begin(r)) {
+                        r.error = cancelled();
+                        continue;
+                    }
+                    Savepoint sp = conn.setSavepoint();
+                    if (capture != null) capture.setSavepoint(sp);
+                    try {
+                        r.count = execute(stmt, r);
+                    } catch (SQLException e) {
+                        // Rolled back alone, or the group fails if the
+                        // transaction has been ended by SQLite
+                        conn.rollback(sp);
+                        if (capture != null) capture.rollback(sp);
+                        r.error = e;
+                    } finally {
+                        begin(null);
+                    }
+                    conn.releaseSavepoint(sp);
+                    if (capture != null) capture.releaseSavepoint(sp);
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                for (Request r: group) if (r.error == null) r.error = e;
+                try {
+                    conn.rollback();
+                } catch (SQLException cause) {
+                    log.log(Level.FINE, "Rollback group error", cause);
+                }
+            } finally {
+                try {
+                    conn.setAutoCommit(true);
+                } catch (SQLException e) {
+                    // Ended by SQLite, e.g. a statement interrupted
+                    log.log(Level.FINE, "End group error", e);
+                }
+            }
+            // Visible to the caches and subscribers before acknowledged
+            this.tracker.flush();
+            if (capture != null) capture.flush(stmt);
+            commits.incrementAndGet();
+            statements.addAndGet(group.size());
+            for (Request r: group) r.done.countDown();
+        }
+
+        int execute(Statement stmt, Request r) throws SQLException {
+            Object[] params = r.params;
+            if (params == null) return stmt.executeUpdate(r.sql);
+
+            PreparedStatement ps = this.prepared.remove(r.sql);
+            if (ps == null) ps = this.conn.prepareStatement(r.sql);
+            try {
+                for (int i = 0; i < params.length; ++i) ps.setObject(i + 1, params[i]);
+                int n = ps.executeUpdate();
+                ps.clearParameters();
+                this.prepared.put(r.sql, ps);
+                ps = null;
+                return n;
+            } finally {
+                IOUtils.close(ps);
+            }
+        }
+
+        synchronized boolean begin(Request r) {
+            if (r != null && r.cancelled) return false;
+            this.current = r;
+            return true;
+        }
+
+        synchronized void cancel(Request r) {
+            r.cancelled = true;
+            if (this.queue.remove(r)) {
+                r.error = cancelled();
+                r.done.countDown();
+            } else if (this.current == r) {
+                try {
+                    this.conn.getDatabase().interrupt();
+                } catch (SQLException e) {
+                    log.log(Level.FINE, "Interrupt group error", e);
+                }
+            }
+        }
+
+        void fail(List<Request> group, SQLException e) {
+            for (Request r: group) {
+                if (r.done.getCount() == 0) continue;
+                r.error = e;
+                r.done.countDown();
+            }
+        }
+    }
+
+}
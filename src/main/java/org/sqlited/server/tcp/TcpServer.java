@@ -17,21 +17,25 @@
 package org.sqlited.server.tcp;
 
 import org.sqlited.io.Transfer;
-import org.sqlited.net.AuthServerSocketFactory;
+import org.sqlited.net.SocketUtils;
 import org.sqlited.server.Config;
 import org.sqlited.server.Server;
+import org.sqlited.server.cache.HandleCache;
+import org.sqlited.server.cache.QueryCache;
+import org.sqlited.server.cache.StatementCatalog;
+import org.sqlited.server.cache.Warmup;
+import org.sqlited.server.repl.Replicator;
+import org.sqlited.server.sched.AdmissionController;
+import org.sqlited.server.sched.GroupCommit;
+import org.sqlited.server.tcp.impl.Hibernator;
 import org.sqlited.server.tcp.impl.TcpConnection;
 import org.sqlited.util.IOUtils;
 import org.sqlited.util.logging.LoggerFactory;
 
-import javax.net.ServerSocketFactory;
 import java.io.IOException;
-import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
-import java.util.Properties;
+import java.nio.channels.ServerSocketChannel;
+import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
@@ -45,17 +49,38 @@ public class TcpServer implements Server {
 
     protected final String name;
     protected final Config config;
+    protected final QueryCache queryCache;
+    protected final AdmissionController admission;
+    protected final HandleCache handleCache;
+    protected final Hibernator hibernator;
+    protected final Warmup warmup;
+    protected final StatementCatalog statements;
+    protected final GroupCommit groupCommit;
     private int nextConnId;
-    private final Map<Integer, TcpConnection> connMap = new HashMap<>();
+    private final Map<Integer, TcpConnection> connMap = new ConcurrentHashMap<>();
+    private final List<Replicator> replicators = new ArrayList<>();
 
-    protected volatile ServerSocket server;
+    protected volatile ServerSocketChannel server;
+    private volatile Properties socketProps;
     private volatile ThreadPoolExecutor workPool;
+    // Interrupts the statements timeout
+    private volatile ScheduledThreadPoolExecutor watchdog;
     private volatile boolean inited;
     private volatile boolean stopped;
 
     public TcpServer(Config config) {
         this.config = config;
         this.name = getName();
+        long cacheSize = config.getQueryCacheSize();
+        this.queryCache = cacheSize > 0? new QueryCache(cacheSize): null;
+        boolean admit = config.getAdmissionDbLimit() > 0;
+        this.admission = admit? new AdmissionController(config): null;
+        boolean hibernate = config.getHibernateIdle() > 0;
+        this.handleCache = hibernate? new HandleCache(config.getHibernateHandles()): null;
+        this.hibernator = hibernate? new Hibernator(this): null;
+        this.warmup = config.isWarmup()? new Warmup(config): null;
+        this.statements = new StatementCatalog(config.getNamedMax());
+        this.groupCommit = config.isGroupCommit()? new GroupCommit(config): null;
     }
 
     @Override
@@ -69,14 +94,14 @@ public class TcpServer implements Server {
 
         Config config = this.config.init();
         int port = config.getPort();
-        Properties props = config.getConnProperties();
-        ServerSocketFactory socketFactory = new AuthServerSocketFactory(props);
+        Properties props = SocketUtils.defaultConfig(config.getConnProperties());
+        this.socketProps = props;
 
         boolean failed = true;
         try {
             int poolSize = config.getTcpWorkPool();
             int corePool = Math.min(2 * (Config.PROCESSORS + 1), poolSize);
-            this.server = socketFactory.createServerSocket(port);
+            this.server = SocketUtils.createServerChannel(props, port);
             this.workPool = new ThreadPoolExecutor(corePool, poolSize,
                     120, TimeUnit.SECONDS, new SynchronousQueue<>(),
                     task -> {
@@ -86,6 +111,19 @@ public class TcpServer implements Server {
                         worker.setDaemon(true);
                         return worker;
                     });
+            if (config.isReplica()) {
+                for (String db: config.getReplicaDbs()) {
+                    this.replicators.add(new Replicator(config, db).start());
+                }
+            }
+            this.watchdog = new ScheduledThreadPoolExecutor(1, task -> {
+                Thread watchdog = new Thread(task, NAME + "-watchdog");
+                watchdog.setDaemon(true);
+                return watchdog;
+            });
+            this.watchdog.setRemoveOnCancelPolicy(true);
+            if (this.warmup != null) this.warmup.start();
+            if (this.hibernator != null) this.hibernator.start();
             String f = "%s: %s v%s listen on %d";
             log.info(() -> String.format(f, currentThread().getName(), this, VERSION, port));
             this.inited = true;
@@ -93,7 +131,10 @@ public class TcpServer implements Server {
         } catch (IOException e) {
             throw new IllegalStateException(e);
         } finally {
-            if (failed) IOUtils.close(this.server);
+            if (failed) {
+                IOUtils.close(this.server);
+                closeReplicators();
+            }
         }
     }
 
@@ -109,7 +150,22 @@ public class TcpServer implements Server {
         this.stopped = true;
         ExecutorService workPool = this.workPool;
         if (workPool != null) workPool.shutdown();
+        ExecutorService watchdog = this.watchdog;
+        if (watchdog != null) watchdog.shutdownNow();
+        IOUtils.close(this.hibernator);
+        IOUtils.close(this.handleCache);
+        IOUtils.close(this.warmup);
+        IOUtils.close(this.groupCommit);
         IOUtils.close(this.server);
+        closeReplicators();
+    }
+
+    protected void closeReplicators() {
+        List<Replicator> replicators = this.replicators;
+        synchronized (replicators) {
+            for (Replicator r: replicators) IOUtils.close(r);
+            replicators.clear();
+        }
     }
 
     @Override
@@ -126,9 +182,9 @@ public class TcpServer implements Server {
     public void run() {
         init();
         try {
-            ServerSocket server = this.server;
+            ServerSocketChannel server = this.server;
             while (!this.stopped) {
-                Socket conn = server.accept();
+                Socket conn = SocketUtils.accept(this.socketProps, server);
                 boolean failed = true;
                 try {
                     handle(conn);
@@ -150,12 +206,64 @@ public class TcpServer implements Server {
         }
     }
 
+    public TcpConnection getConnection(int id) {
+        return this.connMap.get(id);
+    }
+
+    /** Authenticate the accepted socket, in the worker of its connection. */
+    public void handshake(Socket socket) throws IOException {
+        SocketUtils.handshake(this.socketProps, socket);
+    }
+
+    public ScheduledExecutorService getWatchdog() {
+        return this.watchdog;
+    }
+
+    public AdmissionController getAdmission() {
+        return this.admission;
+    }
+
+    public HandleCache getHandleCache() {
+        return this.handleCache;
+    }
+
+    public Hibernator getHibernator() {
+        return this.hibernator;
+    }
+
+    public StatementCatalog getStatements() {
+        return this.statements;
+    }
+
+    public GroupCommit getGroupCommit() {
+        return this.groupCommit;
+    }
+
+    public Warmup getWarmup() {
+        return this.warmup;
+    }
+
+    /** Hand over the connection hibernated, which is executed again in
+     * a worker on the next command.
+     */
+    public void hibernate(TcpConnection conn) {
+        this.hibernator.add(conn);
+    }
+
+    public void execute(TcpConnection conn) throws RejectedExecutionException {
+        this.workPool.execute(conn);
+    }
+
+    public QueryCache getQueryCache() {
+        return this.queryCache;
+    }
+
     @Override
     public String toString() {
         return this.name;
     }
 
-    protected void handle(Socket conn) {
+    public synchronized void handle(Socket conn) {
         Config config = getConfig();
         try {
             removeClosed();
@@ -168,7 +276,7 @@ public class TcpServer implements Server {
                 if (old == null) break;
             } while (true);
 
-            TcpConnection tc = new TcpConnection(id, conn, config);
+            TcpConnection tc = new TcpConnection(this, id, conn);
             this.workPool.execute(tc);
             this.connMap.put(id, tc);
         } catch (RejectedExecutionException e) {
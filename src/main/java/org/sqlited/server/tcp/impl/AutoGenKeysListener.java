@@ -17,128 +17,87 @@
 package org.sqlited.server.tcp.impl;
 
 import org.sqlite.SQLiteUpdateListener;
+import org.sqlited.io.Transfer;
 import org.sqlited.result.AutoGenKeysIterator;
-import org.sqlited.result.ResultSetMetaData;
-import org.sqlited.result.RowIterator;
-import static org.sqlited.server.util.SQLiteUtils.*;
 import org.sqlited.util.logging.LoggerFactory;
+import static org.sqlited.server.util.SQLiteUtils.*;
 
 import static java.lang.String.*;
 import java.io.IOException;
 import java.sql.SQLException;
-import java.sql.Statement;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 import java.util.logging.Logger;
 
 public class AutoGenKeysListener implements SQLiteUpdateListener {
     static final Logger log = LoggerFactory.getLogger(AutoGenKeysListener.class);
 
     protected final TcpStatement ts;
-    protected final boolean autoCommit;
+    // The target of the insert, or null to take the first table inserted
+    protected final String[] target;
 
     protected String database;
     protected String table;
-    protected long min;
     protected long max;
-    protected boolean hasGap; // Optimize
-
-    protected final List<Long[]> keyRanges;
-    protected long rangeMin;
-    protected long rangeMax;
+    // Rowids of the inserts as [min, max] pairs in insert order
+    protected long[] ranges = new long[2];
+    protected int size;
 
-    protected boolean generated;
-
-    public AutoGenKeysListener(TcpStatement ts, boolean autoCommit) {
+    public AutoGenKeysListener(TcpStatement ts, String sql) {
         this.ts = ts;
-        this.autoCommit = autoCommit;
-        if (autoCommit) this.keyRanges = new ArrayList<>();
-        else this.keyRanges = null;
+        this.target = insertTarget(sql);
     }
 
     @Override
     public void onUpdate(Type type, String database, String table, long rowId) {
-        if (type == Type.INSERT) {
-            this.generated = true;
+        if (type != Type.INSERT) return;
+        // Rows inserted by a BEFORE trigger arrive first
+        String[] target = this.target;
+        if (target != null && (!table.equalsIgnoreCase(target[1])
+                || target[0] != null && !database.equalsIgnoreCase(target[0]))) {
+            return;
+        }
+        int n = this.size;
+        if (n == 0) {
             this.database = database;
             this.table = table;
-            // Whole range
-            if (this.min == 0) {
-                this.min = this.max = rowId;
-            }
-            long max = this.max;
-            if (max < rowId) {
-                if (max + 1 < rowId) this.hasGap = true;
-                this.max = rowId;
-            }
-
-            // A segment range for autocommit tx environment.
-            // Note: in autocommit tx, we shouldn't query auto-generated keys
-            // by the range [min, max].
-            List<Long[]> keyRanges = this.keyRanges;
-            if (keyRanges != null) {
-                if (this.rangeMin == 0) {
-                    this.rangeMin = this.rangeMax = rowId;
-                }
-                long raMax = this.rangeMax;
-                if (raMax + 1 == rowId) {
-                    // Increment without gap
-                    this.rangeMax = rowId;
-                } else if (raMax < rowId) {
-                    // Increment with gap, so generate a new segment
-                    keyRanges.add(new Long[]{ this.rangeMin, raMax });
-                    this.rangeMin = this.rangeMax = rowId;
-                }
-            }
-        }
-    }
-
-    public void sendResultSet() throws IOException, SQLException {
-        ResultSetMetaData meta = ResultSetMetaData.AUTO_GEN_KEYS_META;
-        TcpStatement ts = this.ts;
-        Statement stmt = ts.stmt;
-        String aiColumn;
-
-        if (!this.generated || (aiColumn = autoIncrementColumn(stmt,
-                this.database, this.table)) == null) {
-            sendEmptySet(meta);
+            this.max = rowId;
+        } else if (!table.equals(this.table) || !database.equals(this.database)) {
+            // Rows inserted by triggers
             return;
         }
-        log.fine(() -> format("auto-generated column '%s'", aiColumn));
+        if (this.max < rowId) this.max = rowId;
 
-        List<Long[]> keyRanges = this.keyRanges;
-        if (this.hasGap) {
-            if (keyRanges == null) {
-                sendResultSetByQuery(meta, aiColumn);
-                return;
-            }
+        long[] ranges = this.ranges;
+        if (n > 0 && ranges[n - 1] + 1 == rowId) {
+            // Increment without gap
+            ranges[n - 1] = rowId;
         } else {
-            log.fine(() -> format("auto-generated keys by key range [%d, %d]",
-                    this.min, this.max));
-            keyRanges = new ArrayList<>(1);
-            keyRanges.add(new Long[]{ this.min, this.max });
+            if (n == ranges.length) {
+                ranges = this.ranges = Arrays.copyOf(ranges, n << 1);
+            }
+            ranges[n] = ranges[n + 1] = rowId;
+            this.size = n + 2;
         }
-        RowIterator rowItr = new AutoGenKeysIterator(keyRanges, meta);
-        ts.sendResultSet(rowItr);
-    }
-
-    protected void sendEmptySet(ResultSetMetaData meta) throws IOException {
-        log.fine("no auto-generated keys");
-        RowIterator rowItr = RowIterator.empty(meta);
-        this.ts.sendResultSet(rowItr);
     }
 
-    protected void sendResultSetByQuery(ResultSetMetaData meta, String aiColumn)
-            throws SQLException, IOException {
+    public void sendKeys() throws IOException, SQLException {
+        // Format: RESULT_KEYS, delta-encoded [min, max] ranges as long[]
         TcpStatement ts = this.ts;
-        Statement stmt = ts.stmt;
-        String f = "select %s from '%s'.'%s' where %s between %d and %d";
-        String s = format(f, aiColumn, this.database, this.table, aiColumn,
-                this.min, this.max);
-        log.fine(() -> "auto-generated keys by " + s);
+        Transfer ch = ts.conn.ch;
+        long[] keys;
 
-        stmt.execute(s);
-        ts.sendResultSet(meta);
+        if (this.size == 0 || ts.conn.autoIncrementColumn(ts.stmt,
+                this.database, this.table) == null) {
+            log.fine("no auto-generated keys");
+            keys = new long[0];
+        } else {
+            log.fine(() -> format("auto-generated keys in %d ranges of '%s'",
+                    this.size >> 1, this.table));
+            keys = AutoGenKeysIterator.encode(this.ranges, this.size);
+        }
+        ch.write(Transfer.RESULT_KEYS)
+                .writeArray(keys)
+                .flush();
     }
 
 }
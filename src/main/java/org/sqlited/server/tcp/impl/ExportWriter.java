@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.server.tcp.impl;
+
+import org.sqlited.io.Protocol;
+import org.sqlited.io.Transfer;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/** Encodes the rows of a bulk export straight from the result set into
+ * the stream, in RFC 4180 CSV or the compact binary format.
+ */
+public abstract class ExportWriter implements AutoCloseable {
+
+    static final int BUFFER_SIZE = 1 << 16;
+
+    public static ExportWriter create(int format, OutputStream out,
+                                      boolean header, char delimiter)
+            throws SQLException {
+        switch (format) {
+            case Protocol.EXPORT_CSV:
+                if (delimiter == '"' || delimiter == '\r' || delimiter == '\n') {
+                    String s = "Illegal delimiter '" + delimiter + "'";
+                    throw new SQLException(s, "22023");
+                }
+                return new Csv(out, header, delimiter);
+            case Protocol.EXPORT_BINARY:
+                return new Binary(out);
+            default:
+                throw new SQLException("Unknown export format: " + format, "22023");
+        }
+    }
+
+    public abstract void writeHeader(String[] columns) throws IOException;
+
+    public abstract void writeRow(ResultSet rs, int columns)
+            throws IOException, SQLException;
+
+    @Override
+    public abstract void close() throws IOException;
+
+    static class Csv extends ExportWriter {
+        static final char[] HEX = "0123456789abcdef".toCharArray();
+
+        final Writer out;
+        final boolean header;
+        final char delimiter;
+
+        Csv(OutputStream out, boolean header, char delimiter) {
+            Writer w = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            this.out = new BufferedWriter(w, BUFFER_SIZE);
+            this.header = header;
+            this.delimiter = delimiter;
+        }
+
+        @Override
+        public void writeHeader(String[] columns) throws IOException {
+            if (!this.header) return;
+            Writer out = this.out;
+            for (int i = 0; i < columns.length; ++i) {
+                if (i > 0) out.write(this.delimiter);
+                writeText(columns[i]);
+            }
+            out.write("\r\n");
+        }
+
+        @Override
+        public void writeRow(ResultSet rs, int columns)
+                throws IOException, SQLException {
+            Writer out = this.out;
+            for (int i = 1; i <= columns; ++i) {
+                if (i > 1) out.write(this.delimiter);
+                Object value = rs.getObject(i);
+                // null as an empty field, and an empty string as ""
+                if (value == null) continue;
+                if (value instanceof String) {
+                    writeText((String) value);
+                } else if (value instanceof byte[]) {
+                    for (byte b : (byte[]) value) {
+                        out.write(HEX[(b >> 4) & 0x0f]);
+                        out.write(HEX[b & 0x0f]);
+                    }
+                } else {
+                    out.write(value.toString());
+                }
+            }
+            out.write("\r\n");
+        }
+
+        void writeText(String s) throws IOException {
+            Writer out = this.out;
+            int n = s.length();
+            boolean quote = n == 0;
+            for (int i = 0; i < n && !quote; ++i) {
+                char c = s.charAt(i);
+                quote = c == this.delimiter || c == '"' || c == '\r' || c == '\n';
+            }
+            if (!quote) {
+                out.write(s);
+                return;
+            }
+            out.write('"');
+            for (int i = 0; i < n; ++i) {
+                char c = s.charAt(i);
+                if (c == '"') out.write('"');
+                out.write(c);
+            }
+            out.write('"');
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.out.close();
+        }
+    }
+
+    /** Format: column-names(String[]), [1, value, ...] ... 0(end), values
+     * in the protocol object encoding, read by BinaryReader of the client.
+     */
+    static class Binary extends ExportWriter {
+        final Encoder out;
+
+        Binary(OutputStream out) {
+            this.out = new Encoder(out);
+        }
+
+        @Override
+        public void writeHeader(String[] columns) throws IOException {
+            this.out.writeArray(columns);
+        }
+
+        @Override
+        public void writeRow(ResultSet rs, int columns)
+                throws IOException, SQLException {
+            Encoder out = this.out;
+            out.write(1);
+            for (int i = 1; i <= columns; ++i) {
+                out.writeObject(rs.getObject(i));
+            }
+            if (out.getOutSize() >= BUFFER_SIZE) out.drainOut();
+        }
+
+        @Override
+        public void close() throws IOException {
+            Encoder out = this.out;
+            out.write(0);
+            out.drainOut();
+            out.close();
+        }
+    }
+
+    static class Encoder extends Transfer {
+        Encoder(OutputStream out) {
+            super(null, out, Integer.MAX_VALUE);
+        }
+
+        void drainOut() throws IOException {
+            drain();
+        }
+
+        void close() throws IOException {
+            this.out.close();
+        }
+    }
+
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.server.tcp.impl;
+
+import org.sqlited.server.tcp.TcpServer;
+import org.sqlited.util.IOUtils;
+import org.sqlited.util.logging.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/** The hibernated connections, which hold no SQLite handle nor worker
+ * thread, waited for the next command by a selector in the hibernator
+ * thread, apart from the statement timeouts of the server watchdog.
+ * @threadsafe
+ */
+public class Hibernator implements Runnable, AutoCloseable {
+    static final Logger log = LoggerFactory.getLogger(Hibernator.class);
+
+    // Millis between the idle timeout checks, and the polls of the
+    // multiplexed sessions that aren't selectable
+    public static final long POLL_INTERVAL = 10;
+
+    protected final TcpServer server;
+    private final Set<TcpConnection> conns = new HashSet<>();
+    // Registered by the hibernator thread, not blocked in select() then
+    private final List<TcpConnection> added = new ArrayList<>();
+    private Selector selector;
+    private boolean closed;
+
+    public Hibernator(TcpServer server) {
+        this.server = server;
+    }
+
+    public Hibernator start() throws IOException {
+        Selector selector = Selector.open();
+        synchronized (this.conns) {
+            if (this.closed) {
+                IOUtils.close(selector);
+                return this;
+            }
+            this.selector = selector;
+        }
+        Thread t = new Thread(this, "hibernator");
+        t.setDaemon(true);
+        t.start();
+        return this;
+    }
+
+    public void add(TcpConnection conn) {
+        Selector selector;
+        synchronized (this.conns) {
+            if (this.closed) {
+                selector = null;
+            } else {
+                this.conns.add(conn);
+                this.added.add(conn);
+                selector = this.selector;
+                if (selector == null) return;
+            }
+        }
+        if (selector == null) conn.close();
+        else selector.wakeup();
+    }
+
+    public int size() {
+        synchronized (this.conns) {
+            return this.conns.size();
+        }
+    }
+
+    @Override
+    public void run() {
+        Selector selector = this.selector;
+        try {
+            while (true) {
+                List<TcpConnection> added;
+                synchronized (this.conns) {
+                    if (this.closed) break;
+                    added = new ArrayList<>(this.added);
+                    this.added.clear();
+                }
+                for (TcpConnection conn: added) register(selector, conn);
+                selector.select(POLL_INTERVAL);
+                poll(selector);
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            log.log(Level.WARNING, "hibernator crash", e);
+        } finally {
+            close();
+            IOUtils.close(selector);
+        }
+    }
+
+    protected void register(Selector selector, TcpConnection conn) {
+        SocketChannel channel = conn.socket.getChannel();
+        if (channel == null) return;
+        try {
+            channel.configureBlocking(false);
+            channel.register(selector, SelectionKey.OP_READ, conn);
+        } catch (IOException e) {
+            // Closed: found in the next poll
+            log.log(Level.FINE, conn + ": register error", e);
+        }
+    }
+
+    protected void poll(Selector selector) throws IOException {
+        Set<SelectionKey> keys = selector.selectedKeys();
+        List<TcpConnection> ready = new ArrayList<>(keys.size());
+        for (SelectionKey key: keys) {
+            key.cancel();
+            ready.add((TcpConnection)key.attachment());
+        }
+        keys.clear();
+        // Deregister the cancelled channels before blocking them again
+        if (ready.size() > 0) selector.selectNow();
+
+        List<TcpConnection> woken = new ArrayList<>();
+        List<TcpConnection> closing = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (TcpConnection conn: ready) {
+            int state;
+            try {
+                conn.socket.getChannel().configureBlocking(true);
+                state = conn.poll(now, true);
+            } catch (IOException e) {
+                state = -1;
+            }
+            if (state > 0) woken.add(conn);
+            else if (state < 0) closing.add(conn);
+            else register(selector, conn);
+        }
+        synchronized (this.conns) {
+            for (TcpConnection conn: woken) this.conns.remove(conn);
+            for (TcpConnection conn: closing) this.conns.remove(conn);
+            Iterator<TcpConnection> i = this.conns.iterator();
+            while (i.hasNext()) {
+                TcpConnection conn = i.next();
+                int state = conn.poll(now, false);
+                if (state == 0) continue;
+                i.remove();
+                if (state > 0) woken.add(conn);
+                else closing.add(conn);
+            }
+        }
+
+        for (TcpConnection conn: closing) {
+            log.fine(() -> conn + ": close in hibernation");
+            conn.close();
+        }
+        for (TcpConnection conn: woken) {
+            try {
+                this.server.execute(conn);
+            } catch (RejectedExecutionException e) {
+                // Retry in the next poll
+                add(conn);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        List<TcpConnection> conns;
+        Selector selector;
+        synchronized (this.conns) {
+            this.closed = true;
+            selector = this.selector;
+            conns = new ArrayList<>(this.conns);
+            this.conns.clear();
+            this.added.clear();
+        }
+        if (selector != null) selector.wakeup();
+        for (TcpConnection conn: conns) conn.close();
+    }
+
+}
@@ -17,28 +17,83 @@
 package org.sqlited.server.tcp.impl;
 
 import org.sqlite.SQLiteConnection;
+import org.sqlited.cdc.Change;
+import org.sqlited.io.ChunkedOutputStream;
 import org.sqlited.io.Protocol;
 import org.sqlited.io.Transfer;
+import org.sqlited.meta.Catalog;
+import org.sqlited.net.Multiplexer;
 import org.sqlited.server.Config;
+import org.sqlited.server.Profile;
+import org.sqlited.server.cache.CatalogCache;
+import org.sqlited.server.cache.HandleCache;
+import org.sqlited.server.cache.QueryCache;
+import org.sqlited.server.cache.StatementCatalog;
+import org.sqlited.server.cache.VersionTracker;
+import org.sqlited.server.cache.Warmup;
+import org.sqlited.server.cdc.ChangeBus;
+import org.sqlited.server.cdc.ChangeCapture;
+import org.sqlited.server.cdc.Subscription;
+import org.sqlited.server.repl.Replicator;
+import org.sqlited.server.sched.AdmissionController;
+import org.sqlited.server.sched.AdmissionController.Admission;
+import org.sqlited.server.sched.GroupCommit;
+import org.sqlited.server.tcp.TcpServer;
+import org.sqlited.server.util.SQLiteHooks;
+import org.sqlited.server.util.SQLiteUtils;
 import static org.sqlited.server.util.SQLiteUtils.*;
 import org.sqlited.util.IOUtils;
+import org.sqlited.util.LruCache;
 import org.sqlited.util.logging.LoggerFactory;
 
 import static java.lang.Integer.*;
-import java.io.IOException;
+import java.io.*;
 import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
 import java.sql.*;
 import static java.sql.Statement.*;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.Properties;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 
 public class TcpConnection implements Protocol, Runnable, AutoCloseable {
     static final Logger log = LoggerFactory.getLogger(TcpConnection.class);
 
+    static final SecureRandom SECRETS = new SecureRandom();
+    static final String CANCEL_KEY = "cancelKey";
+    static final String MUX_KEY = "mux";
+    static final int CANCELLED = 1, TIMEOUT = 2;
+    static final int HIBERNATED = -2;
+    // The statements of these keep state in the handle
+    static final Pattern PINNING = Pattern.compile(
+            "\\b(temp|temporary|attach|detach|pragma)\\b", Pattern.CASE_INSENSITIVE);
+
+    /** Test whether the sql keeps state in the handle, including a
+     * transaction begun in SQL, which the driver autocommit doesn't tell.
+     */
+    static boolean isPinning(String sql) {
+        if (PINNING.matcher(sql).find()) return true;
+        for (String stmt: splitStatements(sql)) {
+            String first = tokenize(stmt).get(0);
+            if ("begin".equalsIgnoreCase(first) || "savepoint".equalsIgnoreCase(first)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    protected final TcpServer server;
     protected final Config config;
+    protected final QueryCache queryCache;
 
     // Conn management
     protected final int id;
@@ -46,8 +101,28 @@ public class TcpConnection implements Protocol, Runnable, AutoCloseable {
     protected final Socket socket;
     protected Transfer ch;
     protected SQLiteConnection sqlConn;
+    private String url;
+    private final SQLiteHooks hooks = new SQLiteHooks();
+    // Auto-increment columns by table and the schema version found in
+    private final Map<String, AutoIncrement> autoIncrements = new HashMap<>();
+    private VersionTracker versionTracker;
+    private ChangeCapture changeCapture;
+    private boolean queryCacheOff;
     private volatile boolean open = true;
     private boolean readonly;
+    // Cancel and timeout of the statement executing
+    protected final long secret;
+    private final Object execLock = new Object();
+    private long execSeq;
+    private boolean executing;
+    private int interrupted;
+    private GroupCommit.Request grouped;
+    // Admission control
+    protected final AdmissionController admission;
+    protected final Warmup warmup;
+    protected final GroupCommit groupCommit;
+    private AdmissionController.Session session;
+    private boolean inTx;
 
     // Stmt management
     private int nextStmtId;
@@ -57,24 +132,66 @@ public class TcpConnection implements Protocol, Runnable, AutoCloseable {
     // Tx management
     private final Map<Integer, Savepoint> spMap = new HashMap<>();
 
+    // Named statements prepared on the handle, and the catalog epoch
+    // checked in this session
+    private Map<Integer, PreparedStatement> namedMap;
+    private int namedEpoch;
+
+    // Hibernation: the handle released while idle, and the small state
+    // of the session restored on the next command
+    private Properties info;
+    private Profile profile;
+    private String db;
+    private String handleKey;
+    private boolean pinned;
+    private volatile boolean hibernated;
+    private int isolation, holdability;
+    private volatile long idleSince;
+
     public TcpConnection(int id, Socket socket, Config config) {
+        this(id, socket, config, null);
+    }
+
+    public TcpConnection(int id, Socket socket, Config config,
+                         QueryCache queryCache) {
+        this(null, id, socket, config, queryCache);
+    }
+
+    public TcpConnection(TcpServer server, int id, Socket socket) {
+        this(server, id, socket, server.getConfig(), server.getQueryCache());
+    }
+
+    protected TcpConnection(TcpServer server, int id, Socket socket,
+                            Config config, QueryCache queryCache) {
+        this.server = server;
         this.id = id;
         this.name = "tc-" + this.id;
         this.socket = socket;
         this.config = config;
+        this.queryCache = queryCache;
+        this.admission = server == null? null: server.getAdmission();
+        this.warmup = server == null? null: server.getWarmup();
+        this.groupCommit = server == null? null: server.getGroupCommit();
+        this.secret = SECRETS.nextLong();
     }
 
     @Override
     public void run() {
+        // This connection owns the worker thread until closed or hibernated
+        SQLiteHooks old = this.hooks.bind();
         try {
-            if (openDB()) {
+            if (this.hibernated? wakeUp(): openDB()) {
                 process();
             }
         } catch (IOException e) {
             String s = this + ": network failure";
             log.log(Level.FINE, s, e);
         } finally {
-            close();
+            boolean hibernated = this.hibernated;
+            SQLiteHooks.unbind(old);
+            // Handed over after this thread done with it
+            if (hibernated) this.server.hibernate(this);
+            else close();
         }
     }
 
@@ -82,11 +199,16 @@ public class TcpConnection implements Protocol, Runnable, AutoCloseable {
         Transfer ch = this.ch;
 
         while (true) {
-            final int cmd = ch.read();
+            final int cmd = readCommand();
+            if (cmd == HIBERNATED) {
+                log.fine(() -> this + ": hibernated");
+                break;
+            }
             if (cmd == -1) {
                 log.fine(() -> this + ": peer quit");
                 break;
             }
+            long outCount = ch.getOutCount();
             try {
                 switch (cmd) {
                     case CMD_CREATE_STMT:
@@ -95,12 +217,24 @@ public class TcpConnection implements Protocol, Runnable, AutoCloseable {
                     case CMD_EXECUTE:
                         processExecute();
                         break;
+                    case CMD_SCRIPT:
+                        processScript();
+                        break;
+                    case CMD_REGISTER:
+                        processRegister();
+                        break;
+                    case CMD_EXEC_NAMED:
+                        processExecNamed();
+                        break;
                     case CMD_FETCH_ROWS:
                         processFetch();
                         break;
                     case CMD_CLOSE_STMT:
                         processCloseStmt();
                         break;
+                    case CMD_SET_QT:
+                        processSetQueryTimeout();
+                        break;
                     case CMD_SET_RO:
                         processSetReadOnly();
                         break;
@@ -125,6 +259,30 @@ public class TcpConnection implements Protocol, Runnable, AutoCloseable {
                     case CMD_SET_HD:
                         processSetHoldability();
                         break;
+                    case CMD_BACKUP:
+                        processBackup();
+                        break;
+                    case CMD_RESTORE:
+                        processRestore();
+                        break;
+                    case CMD_REPL_LAG:
+                        processReplicationLag();
+                        break;
+                    case CMD_IMPORT:
+                        processImport();
+                        break;
+                    case CMD_EXPORT:
+                        processExport();
+                        break;
+                    case CMD_PRAGMAS:
+                        processPragmas();
+                        break;
+                    case CMD_CATALOG:
+                        processCatalog();
+                        break;
+                    case CMD_SUBSCRIBE:
+                        if (processSubscribe()) return;
+                        break;
                     default:
                         String s = "Unknown command: 0x" + toHexString(cmd);
                         ch.sendError(s, "08000");
@@ -132,12 +290,514 @@ public class TcpConnection implements Protocol, Runnable, AutoCloseable {
                         return;
                 }
             } catch (SQLException e) {
+                if (ch.getOutCount() != outCount) {
+                    // Part of the response has been sent
+                    log.log(Level.FINE, this + ": error in streaming", e);
+                    return;
+                }
                 ch.sendError(e);
                 log.log(Level.FINE, "SQL error", e);
+            } finally {
+                VersionTracker tracker = this.versionTracker;
+                if (tracker != null) tracker.flush();
+                flushChanges();
+            }
+        }
+    }
+
+    protected int readCommand() throws IOException {
+        Transfer ch = this.ch;
+        Socket socket = this.socket;
+        int idle = this.config.getHibernateIdle();
+        int soTimeout = socket.getSoTimeout();
+        this.idleSince = System.currentTimeMillis();
+        if (idle <= 0 || this.server == null || (soTimeout > 0 && soTimeout <= idle)
+                || !isHibernatable()) {
+            return ch.read();
+        }
+
+        socket.setSoTimeout(idle);
+        try {
+            return ch.read();
+        } catch (SocketTimeoutException e) {
+            // Nothing read in
+        } finally {
+            socket.setSoTimeout(soTimeout);
+        }
+        if (hibernate()) return HIBERNATED;
+        return ch.read();
+    }
+
+    protected boolean isHibernatable() {
+        // No transaction, cursor, private schema or pipelined command
+        if (this.pinned || !this.spMap.isEmpty() || this.ch.getInSize() > 0) {
+            return false;
+        }
+        try {
+            if (!this.sqlConn.getAutoCommit()) return false;
+            for (TcpStatement ts: this.stmtMap.values()) {
+                if (ts.hasResultSet()) return false;
+            }
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    protected boolean hibernate() {
+        SQLiteConnection conn = this.sqlConn;
+        try {
+            this.isolation = conn.getTransactionIsolation();
+            this.holdability = conn.getHoldability();
+        } catch (SQLException e) {
+            log.log(Level.FINE, this + ": hibernate error", e);
+            return false;
+        }
+        for (TcpStatement ts: this.stmtMap.values()) ts.release();
+        closeNamed();
+        IOUtils.close(this.auxStmt);
+        this.auxStmt = null;
+        this.sqlConn = null;
+        HandleCache cache = this.server.getHandleCache();
+        if (!cache.put(this.handleKey, conn)) IOUtils.close(conn);
+        this.hibernated = true;
+        return true;
+    }
+
+    protected boolean wakeUp() {
+        // Rehydrate the session on the next command
+        this.hibernated = false;
+        SQLiteConnection conn = this.server.getHandleCache().take(this.handleKey);
+        try {
+            if (conn == null) conn = open(this.url, this.info);
+            this.sqlConn = conn;
+            setQueryOnly(getAuxStmt(), this.readonly);
+            conn.setTransactionIsolation(this.isolation);
+            conn.setHoldability(this.holdability);
+            for (TcpStatement ts: this.stmtMap.values()) ts.rebind(conn);
+            log.fine(() -> this + ": woke up");
+            return true;
+        } catch (SQLException e) {
+            log.log(Level.WARNING, this + ": wake up error", e);
+            return false;
+        }
+    }
+
+    /** Poll the hibernated connection for the next command.
+     * @param ready the socket channel selected readable, in blocking mode again
+     * @return 1 if the command arrived, -1 if closed or idle timeout, otherwise 0
+     */
+    int poll(long now, boolean ready) {
+        Socket socket = this.socket;
+        try {
+            if (socket.isClosed() || socket.isInputShutdown()) return -1;
+            int timeout = socket.getSoTimeout();
+            if (ready) {
+                // Readable also when the peer closed: peek for EOF
+                socket.setSoTimeout(1);
+                try {
+                    return this.ch.peek() == -1? -1: 1;
+                } catch (SocketTimeoutException e) {
+                    return 0;
+                } finally {
+                    socket.setSoTimeout(timeout);
+                }
+            }
+            // The multiplexed sessions, not selectable, know their EOF
+            if (socket.getChannel() == null
+                    && socket.getInputStream().available() > 0) return 1;
+            if (timeout > 0 && now - this.idleSince >= timeout) return -1;
+            return 0;
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    protected void processCatalog() throws IOException, SQLException {
+        // In: schema version of the client catalog, -1 if none
+        // Out: OK(version, changed), catalog if changed
+        Transfer ch = this.ch;
+        long version = ch.readLong();
+        Catalog catalog = CatalogCache.get(this.sqlConn, dbFile(this.url), version);
+        if (catalog == null) {
+            sendOK(0, version, 0);
+        } else {
+            sendOK(0, catalog.getVersion(), 1);
+            catalog.write(ch);
+            ch.flush();
+        }
+    }
+
+    protected void processPragmas() throws IOException, SQLException {
+        // Out: OK(count), profile or null, [name, value, guarded, ...]
+        Transfer ch = this.ch;
+        Profile profile = this.profile;
+        List<String> pragmas = Profile.PRAGMAS;
+        String[] values = new String[pragmas.size()];
+        Statement stmt = getAuxStmt();
+        for (int i = 0; i < values.length; ++i) {
+            try (ResultSet rs = stmt.executeQuery("pragma " + pragmas.get(i))) {
+                if (rs.next()) values[i] = rs.getString(1);
+            }
+        }
+        sendOK(0, 0, values.length);
+        ch.writeString(profile == null? null: profile.getName());
+        for (int i = 0; i < values.length; ++i) {
+            String pragma = pragmas.get(i);
+            ch.writeString(pragma)
+                    .writeString(values[i])
+                    .writeBoolean(profile != null && profile.isGuarded(pragma));
+        }
+        ch.flush();
+    }
+
+    protected void processReplicationLag() throws IOException, SQLException {
+        // Out: OK(lag), lag -1 if not a replica
+        long lag = Replicator.lag(dbFile(this.url));
+        sendOK(0, 0, lag);
+    }
+
+    protected void processBackup() throws IOException, SQLException {
+        // In: db
+        // Out: OK(size), [chunk-length, chunk, ...] 0
+        Transfer ch = this.ch;
+        String db = ch.readString();
+        File file = createTempFile("backup");
+        Admission admission = admit();
+        try {
+            // Snapshot first: the backup restarts when the source is
+            // written by another connection, so pages can't go out early
+            backup(this.sqlConn, db, file, this.config.getBackupThrottle());
+            sendOK(0, 0, file.length());
+            try (InputStream in = new FileInputStream(file)) {
+                ch.writeChunks(in, this.config.getLobChunkSize());
+            }
+            ch.flush();
+        } finally {
+            release(admission);
+            deleteDb(file);
+        }
+    }
+
+    protected void processRestore() throws IOException, SQLException {
+        // In: db, [chunk-length, chunk, ...] 0
+        Transfer ch = this.ch;
+        String db = ch.readString();
+        File file = createTempFile("restore");
+        Admission admission = null;
+        try {
+            // Receive all chunks before restoring for protocol in sync
+            try (OutputStream out = new FileOutputStream(file)) {
+                ch.readChunks(out);
+            }
+            if (this.config.isReplica() || this.readonly) {
+                throw new SQLException("Read-only connection", "25006");
+            }
+            Profile profile = this.profile;
+            if (profile != null) profile.checkRestore(file);
+            admission = admit();
+            restore(this.sqlConn, db, file, this.config.getBackupThrottle());
+            VersionTracker tracker = this.versionTracker;
+            if (tracker != null) QueryCache.bump(tracker.getDb());
+            CatalogCache.invalidate(dbFile(this.url));
+            // No change captured: the subscribers sync again
+            ChangeBus.reset(dbFile(this.url));
+            sendOK(0, 0, file.length());
+        } finally {
+            release(admission);
+            deleteDb(file);
+        }
+    }
+
+    protected void processImport() throws IOException, SQLException {
+        // In: table, columns or null, commit-rows, max-errors,
+        //     [row-count, row, ...] ... 0 or -1(abort)
+        // Out: OK(columns), per batch OK(imported, failed) and error rows
+        //      [index, message, ...], OK(imported, failed) at last;
+        //      or ER in place of an OK, then the rest batches discarded
+        Transfer ch = this.ch;
+        String table = ch.readString();
+        String[] columns = (String[]) ch.readArray();
+        int commitRows = ch.readInt();
+        int maxErrors = ch.readInt();
+
+        if (this.config.isReplica() || this.readonly) {
+            throw new SQLException("Read-only connection", "25006");
+        }
+        SQLiteConnection conn = this.sqlConn;
+        String sql = importSQL(conn, table, columns);
+        log.fine(() -> String.format("import \"%s\"", sql));
+        Admission admission = admit();
+        Future<?> timer = beginExec(0);
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            int n = ps.getParameterMetaData().getParameterCount();
+            sendOK(0, 0, n);
+
+            // Own transaction committed periodically, so that a failure
+            // rolls back the rows since the last commit only; or a
+            // savepoint in the transaction of the client, all rolled back
+            boolean own = conn.getAutoCommit();
+            ChangeCapture capture = this.changeCapture;
+            Savepoint sp = null;
+            if (own) {
+                conn.setAutoCommit(false);
+            } else {
+                sp = conn.setSavepoint();
+                if (capture != null) capture.setSavepoint(sp);
+            }
+            long imported = 0, failed = 0, index = 0, uncommitted = 0;
+            boolean ended = false, done = false;
+            SQLException error = null;
+            try {
+                while (!ended) {
+                    int rows = ch.readInt();
+                    if (rows <= 0) {
+                        // 0: end, -1: aborted by the client
+                        if (rows < 0) error = new SQLException("Import aborted");
+                        ended = true;
+                        break;
+                    }
+                    // Timed out or cancelled between the rows
+                    error = interrupted(null);
+                    List<Object> errors = new ArrayList<>();
+                    for (int i = 0; i < rows; ++i, ++index) {
+                        Object[] row = (Object[]) ch.readArray();
+                        if (error != null) continue;
+                        try {
+                            if (row == null || row.length != n) {
+                                String s = "Row columns mismatch, expect " + n;
+                                throw new SQLException(s, "22023");
+                            }
+                            for (int j = 0; j < n; ++j) {
+                                ps.setObject(j + 1, row[j]);
+                            }
+                            ps.executeUpdate();
+                            ++imported;
+                            ++uncommitted;
+                        } catch (SQLException e) {
+                            // Not a row error if timed out or cancelled
+                            SQLException x = interrupted(e);
+                            if (x != e) {
+                                error = x;
+                                continue;
+                            }
+                            errors.add(index);
+                            errors.add(e.getMessage());
+                            if (++failed > maxErrors) {
+                                String s = "Import errors exceed " + maxErrors
+                                        + ", last at row " + index + ": " + e.getMessage();
+                                error = new SQLException(s, e.getSQLState(), e);
+                            }
+                        }
+                    }
+                    if (error != null) break;
+                    if (own && commitRows > 0 && uncommitted >= commitRows) {
+                        conn.commit();
+                        uncommitted = 0;
+                        VersionTracker tracker = this.versionTracker;
+                        if (tracker != null) tracker.flush();
+                        flushChanges();
+                    }
+                    sendOK(0, imported, failed);
+                    ch.writeArray(errors.toArray()).flush();
+                }
+                if (error == null) {
+                    if (own) conn.commit();
+                    else {
+                        conn.releaseSavepoint(sp);
+                        if (capture != null) capture.releaseSavepoint(sp);
+                    }
+                    done = true;
+                }
+            } catch (SQLException e) {
+                error = interrupted(e);
+            } finally {
+                if (!done) {
+                    if (own) conn.rollback();
+                    else {
+                        conn.rollback(sp);
+                        if (capture != null) capture.rollback(sp);
+                    }
+                }
+                if (own) conn.setAutoCommit(true);
             }
+
+            if (done) {
+                sendOK(0, imported, failed);
+            } else {
+                log.log(Level.FINE, "Import error", error);
+                ch.sendError(error);
+                while (!ended) {
+                    int rows = ch.readInt();
+                    if (rows <= 0) break;
+                    for (int i = 0; i < rows; ++i) ch.readArray();
+                }
+            }
+        } catch (SQLException e) {
+            throw interrupted(e);
+        } finally {
+            endExec(timer);
+            release(admission);
         }
     }
 
+    protected void processExport() throws IOException, SQLException {
+        // In: sql, format, compress, header, delimiter
+        // Out: OK(columns), [chunk-length, chunk, ...] 0, OK(rows);
+        //      or ER in place of an OK
+        Transfer ch = this.ch;
+        String sql = ch.readString();
+        int format = ch.readInt();
+        boolean compress = ch.readBoolean();
+        boolean header = ch.readBoolean();
+        char delimiter = (char) ch.readInt();
+
+        log.fine(() -> String.format("export \"%s\"", sql));
+        checkSql(sql);
+        Admission admission = admit();
+        Future<?> timer = beginExec(0);
+        try (Statement stmt = this.sqlConn.createStatement();
+             ResultSet rs = stmt.executeQuery(sql)) {
+            ResultSetMetaData meta = rs.getMetaData();
+            int n = meta.getColumnCount();
+            String[] columns = new String[n];
+            for (int i = 0; i < n; ++i) {
+                columns[i] = meta.getColumnLabel(i + 1);
+            }
+            int chunkSize = Math.min(this.config.getLobChunkSize(), 1 << 20);
+            OutputStream out = new ChunkedOutputStream(ch, chunkSize);
+            Deflater deflater = null;
+            if (compress) {
+                deflater = new Deflater(Deflater.BEST_SPEED);
+                out = new DeflaterOutputStream(out, deflater, 1 << 16);
+            }
+            ExportWriter writer = ExportWriter.create(format, out, header, delimiter);
+            sendOK(0, 0, n);
+
+            // Rows encoded straight into the chunks, and an error in
+            // streaming is sent after the end for the protocol in sync
+            long rows = 0;
+            SQLException error = null;
+            try {
+                writer.writeHeader(columns);
+                for (; rs.next(); ++rows) writer.writeRow(rs, n);
+            } catch (SQLException e) {
+                error = interrupted(e);
+            } finally {
+                try {
+                    writer.close();
+                } finally {
+                    if (deflater != null) deflater.end();
+                }
+            }
+            if (error == null) {
+                sendOK(0, 0, rows);
+            } else {
+                log.log(Level.FINE, "Export error", error);
+                ch.sendError(error);
+            }
+        } catch (SQLException e) {
+            throw interrupted(e);
+        } finally {
+            endExec(timer);
+            release(admission);
+        }
+    }
+
+    protected static String importSQL(Connection conn, String table, String[] columns)
+            throws SQLException {
+        String name = quoteTable(table);
+        StringBuilder sb = new StringBuilder("insert into ").append(name);
+        int n;
+        if (columns == null) {
+            try (PreparedStatement ps = conn.prepareStatement("select * from " + name)) {
+                n = ps.getMetaData().getColumnCount();
+            }
+        } else {
+            n = columns.length;
+            sb.append('(');
+            for (int i = 0; i < n; ++i) {
+                if (i > 0) sb.append(", ");
+                sb.append(quote(columns[i]));
+            }
+            sb.append(')');
+        }
+        sb.append(" values(");
+        for (int i = 0; i < n; ++i) {
+            sb.append(i > 0? ", ?": "?");
+        }
+        return sb.append(')').toString();
+    }
+
+    protected File createTempFile(String prefix) throws IOException {
+        File dir = new File(this.config.getDataDir());
+        return File.createTempFile(prefix + "-", ".tmp", dir);
+    }
+
+    protected boolean processSubscribe() throws IOException, SQLException {
+        // In: image, tables count(0: all), [table...]
+        // Out: OK, then change batches pushed until the peer quit
+        Transfer ch = this.ch;
+        boolean image = ch.readBoolean();
+        int n = ch.readInt();
+        Set<String> tables = null;
+        if (n > 0) {
+            tables = new HashSet<>();
+            for (int i = 0; i < n; ++i) {
+                tables.add(ch.readString().toLowerCase());
+            }
+        }
+        Config config = this.config;
+        ChangeCapture capture = this.changeCapture;
+        if (capture == null) {
+            String s = "Change data capture disabled or not a file database";
+            throw new SQLFeatureNotSupportedException(s, "0A000");
+        }
+        ChangeCapture.checkTables(getAuxStmt());
+        Subscription sub = new Subscription(capture.getDb(), image, tables,
+                config.getCdcQueueSize());
+        ChangeBus.subscribe(sub);
+        try {
+            sendOK();
+            int heartbeat = config.getCdcHeartbeat();
+            while (true) {
+                List<Change> batch = sub.poll(heartbeat);
+                if (sub.isOverflowed()) {
+                    log.warning(() -> this + ": change subscriber overflowed");
+                    break;
+                }
+                // Heartbeat if no change: an empty batch
+                if (batch == null) batch = Collections.emptyList();
+                Change.writeBatch(ch, batch, image);
+                ch.flush();
+            }
+        } catch (InterruptedException e) {
+            log.fine(() -> this + ": change subscriber interrupted");
+        } finally {
+            ChangeBus.unsubscribe(sub);
+        }
+        return true;
+    }
+
+    protected void flushChanges() {
+        ChangeCapture capture = this.changeCapture;
+        if (capture == null) return;
+        Statement stmt = null;
+        try {
+            stmt = getAuxStmt();
+        } catch (SQLException e) {
+            log.log(Level.WARNING, "Flush changes error", e);
+        }
+        // Published even without images, or the later ones held back
+        capture.flush(stmt);
+    }
+
+    protected void checkSql(String sql) throws SQLException {
+        Profile profile = this.profile;
+        if (profile != null) profile.check(sql);
+        if (this.changeCapture != null) ChangeCapture.check(sql);
+    }
+
     protected void processSetHoldability() throws IOException, SQLException {
         // In: holdability
         int holdability = this.ch.read(true) & 0xFF;
@@ -159,6 +819,8 @@ public class TcpConnection implements Protocol, Runnable, AutoCloseable {
 
         if (old == readonly) {
             sendOK();
+        } else if (this.config.isReplica()) {
+            throw new SQLException("Read-only replica", "25006");
         } else {
             Connection conn = this.sqlConn;
             Statement stmt = getAuxStmt();
@@ -185,6 +847,8 @@ public class TcpConnection implements Protocol, Runnable, AutoCloseable {
         String name = sp.getSavepointName();
         log.fine(() -> String.format("release %s", name));
         this.sqlConn.releaseSavepoint(sp);
+        ChangeCapture capture = this.changeCapture;
+        if (capture != null) capture.releaseSavepoint(sp);
         sendOK();
     }
 
@@ -196,6 +860,8 @@ public class TcpConnection implements Protocol, Runnable, AutoCloseable {
         else sp = this.sqlConn.setSavepoint(name);
         int id = sp.getSavepointId();
         this.spMap.put(id, sp);
+        ChangeCapture capture = this.changeCapture;
+        if (capture != null) capture.setSavepoint(sp);
         sendOK(id);
     }
 
@@ -204,6 +870,7 @@ public class TcpConnection implements Protocol, Runnable, AutoCloseable {
         Object savePoint = this.ch.readArray();
         if (savePoint == null) {
             this.sqlConn.rollback();
+            this.inTx = false;
             this.spMap.clear();
         } else {
             Object[] a = (Object[])savePoint;
@@ -216,12 +883,17 @@ public class TcpConnection implements Protocol, Runnable, AutoCloseable {
             String name = sp.getSavepointName();
             log.fine(() -> String.format("rollback to %s", name));
             this.sqlConn.rollback(sp);
+            ChangeCapture capture = this.changeCapture;
+            if (capture != null) capture.rollback(sp);
         }
         sendOK();
     }
 
     protected void processCommit() throws SQLException, IOException {
         this.sqlConn.commit();
+        this.inTx = false;
+        VersionTracker tracker = this.versionTracker;
+        if (tracker != null) tracker.flush();
         this.spMap.clear();
         sendOK();
     }
@@ -232,6 +904,7 @@ public class TcpConnection implements Protocol, Runnable, AutoCloseable {
         boolean ac = ch.readBoolean();
         Connection conn = this.sqlConn;
         conn.setAutoCommit(ac);
+        if (ac) this.inTx = false;
         sendOK();
     }
 
@@ -255,8 +928,163 @@ public class TcpConnection implements Protocol, Runnable, AutoCloseable {
             ch.sendError("Statement has been closed");
         } else {
             ts.stmt.setFetchSize(n);
-            ts.fetchRows();
+            Admission admission = admit();
+            Future<?> timer = beginExec(ts);
+            try {
+                ts.fetchRows();
+            } catch (SQLException e) {
+                throw interrupted(e);
+            } finally {
+                endExec(timer);
+                release(admission);
+            }
+        }
+    }
+
+    protected void processSetQueryTimeout() throws IOException, SQLException {
+        // In: id, timeout millis
+        Transfer ch = this.ch;
+        int id = ch.readInt();
+        int timeout = ch.readInt();
+
+        TcpStatement ts = this.stmtMap.get(id);
+        if (ts == null) {
+            ch.sendError("Statement has been closed");
+        } else {
+            ts.queryTimeout = Math.max(timeout, 0);
+            sendOK();
+        }
+    }
+
+    protected Future<?> beginExec(TcpStatement ts) {
+        return beginExec(ts.queryTimeout);
+    }
+
+    /** Begin the execution of a command, timed out by the timeout or the
+     * server statement timeout.
+     * @param timeout the query timeout in millis, 0 for the server one
+     */
+    protected Future<?> beginExec(int timeout) {
+        long seq;
+        synchronized (this.execLock) {
+            seq = ++this.execSeq;
+            this.executing = true;
+            this.interrupted = 0;
+        }
+        int max = this.config.getStatementTimeout();
+        if (timeout <= 0 || (max > 0 && max < timeout)) timeout = max;
+        TcpServer server = this.server;
+        if (timeout > 0 && server != null) {
+            return server.getWatchdog().schedule(() -> interrupt(seq, TIMEOUT),
+                    timeout, TimeUnit.MILLISECONDS);
+        }
+        return null;
+    }
+
+    protected void endExec(Future<?> timer) {
+        if (timer != null) timer.cancel(false);
+        synchronized (this.execLock) {
+            this.executing = false;
+        }
+    }
+
+    protected SQLException interrupted(SQLException e) {
+        int cause;
+        synchronized (this.execLock) {
+            cause = this.interrupted;
+        }
+        switch (cause) {
+            case TIMEOUT:
+                return new SQLTimeoutException("Query timeout", "HYT00", e);
+            case CANCELLED:
+                return new SQLException("Query cancelled", "57014", e);
+            default:
+                return e;
+        }
+    }
+
+    /** Interrupt the statement executing.
+     * @param seq the execution sequence, 0 for any
+     * @return true if interrupted
+     */
+    protected boolean interrupt(long seq, int cause) {
+        synchronized (this.execLock) {
+            if (!this.executing || (seq != 0 && seq != this.execSeq)) {
+                return false;
+            }
+            this.interrupted = cause;
+            GroupCommit.Request grouped = this.grouped;
+            if (grouped != null) {
+                this.groupCommit.cancel(grouped);
+                return true;
+            }
+            try {
+                this.sqlConn.getDatabase().interrupt();
+            } catch (SQLException e) {
+                log.log(Level.FINE, "Interrupt error", e);
+                return false;
+            }
         }
+        log.fine(() -> this + ": interrupt statement, cause " + cause);
+        return true;
+    }
+
+    public boolean cancel(long secret) {
+        // Constant time: the secret is a credential
+        if (!MessageDigest.isEqual(toBytes(secret), toBytes(this.secret))) {
+            return false;
+        }
+        return interrupt(0, CANCELLED);
+    }
+
+    static byte[] toBytes(long n) {
+        byte[] a = new byte[8];
+        for (int i = 0; i < 8; ++i) a[i] = (byte)(n >>> (i << 3));
+        return a;
+    }
+
+    protected void processCancel(String cancelKey) throws IOException {
+        // In: "connection-id:secret" as the login property
+        Transfer ch = this.ch;
+        TcpServer server = this.server;
+        int i = cancelKey.indexOf(':');
+        try {
+            int id = Integer.decode(cancelKey.substring(0, i));
+            long secret = Long.decode(cancelKey.substring(i + 1));
+            TcpConnection target = server == null? null: server.getConnection(id);
+            if (target != null) target.cancel(secret);
+        } catch (RuntimeException e) {
+            ch.sendError("Malformed cancel key", "08000");
+            return;
+        }
+        // Don't tell whether a statement executing
+        ch.sendOK(0);
+    }
+
+    protected void processMux() throws IOException {
+        // In: "mux" as the login property
+        // Out: OK, then the frames of the sessions till the socket closed
+        Transfer ch = this.ch;
+        TcpServer server = this.server;
+        if (server == null) {
+            ch.sendError("Multiplexing not supported", "0A000");
+            return;
+        }
+        ch.sendOK(0);
+        // Each session opened by the client runs as a connection,
+        // which authenticated by this socket
+        Socket socket = this.socket;
+        int soTimeout = socket.getSoTimeout();
+        Multiplexer mux = new Multiplexer(socket, session -> {
+            try {
+                session.setSoTimeout(soTimeout);
+            } catch (SocketException ignore) {
+                // Ignore
+            }
+            server.handle(session);
+        });
+        log.fine(() -> this + ": multiplexing");
+        mux.run();
     }
 
     protected void processExecute() throws IOException, SQLException {
@@ -273,37 +1101,381 @@ public class TcpConnection implements Protocol, Runnable, AutoCloseable {
             ch.sendError("Statement has been closed");
             return;
         }
+        checkSql(sql);
+        if (this.warmup != null) this.warmup.record(this.db, sql);
+        if (!this.pinned && isPinning(sql)) this.pinned = true;
 
         boolean autoGeneratedKeys = (RETURN_GENERATED_KEYS == genKeys);
-        AutoGenKeysListener listener = null;
         SQLiteConnection conn = this.sqlConn;
+        if (!autoGeneratedKeys && isGroupable(ts, conn, sql)) {
+            executeGrouped(ts, sql, null);
+            return;
+        }
+
+        QueryCache cache = this.queryCache;
+        VersionTracker tracker = this.versionTracker;
+        String cacheKey = null;
+        long version = 0;
+        if (cache != null && tracker != null && !this.queryCacheOff) {
+            if (QueryCache.isSessional(sql)) {
+                // Temp or attached schemas are private to this session
+                this.queryCacheOff = true;
+            } else if (!autoGeneratedKeys && conn.getAutoCommit()
+                    && QueryCache.isCacheable(sql)) {
+                if (this.config.isQueryCacheDataVersion()) {
+                    tracker.checkDataVersion(getAuxStmt());
+                }
+                version = tracker.version();
+                cacheKey = QueryCache.key(this.url, sql);
+                byte[] data = cache.get(cacheKey, version);
+                if (data != null) {
+                    ts.closeResultSet();
+                    ch.write(data).flush();
+                    return;
+                }
+            }
+        }
+
+        Admission admission = admit();
+        Future<?> timer = beginExec(ts);
+        try {
+            execute(ts, sql, autoGeneratedKeys, cacheKey, version);
+        } catch (SQLException e) {
+            throw interrupted(e);
+        } finally {
+            endExec(timer);
+            release(admission);
+            // The rest commands of a transaction are admitted with the first,
+            // or they'd wait for the slots taken by the waiters of its locks
+            this.inTx = !conn.getAutoCommit();
+        }
+    }
+
+    protected void processScript() throws IOException, SQLException {
+        // In: id, count, [sql, ...] of one or more statements each
+        // Out: OK(statements), [RESULT_SET of all rows or OK, ...];
+        //      or ER in place of an OK or result, ending the response
+        Transfer ch = this.ch;
+        int id = ch.readInt();
+        int n = ch.readInt();
+        List<String> sqls = new ArrayList<>();
+        for (int i = 0; i < n; ++i) {
+            sqls.addAll(splitStatements(ch.readString()));
+        }
+
+        TcpStatement ts = this.stmtMap.get(id);
+        if (ts == null) {
+            ch.sendError("Statement has been closed");
+            return;
+        }
+        for (String sql: sqls) {
+            checkSql(sql);
+            if (this.warmup != null) this.warmup.record(this.db, sql);
+            if (!this.pinned && isPinning(sql)) this.pinned = true;
+        }
+
+        SQLiteConnection conn = this.sqlConn;
+        VersionTracker tracker = this.versionTracker;
+        Admission admission = admit();
+        Future<?> timer = beginExec(ts);
+        try {
+            ch.writeOK(getStatus(conn, this.readonly), 0, sqls.size());
+            for (String sql: sqls) {
+                log.fine(() -> String.format("script \"%s\"", sql));
+                boolean result;
+                try {
+                    result = ts.stmt.execute(sql);
+                } catch (SQLException e) {
+                    // The results before are kept
+                    ch.writeError(interrupted(e));
+                    break;
+                } finally {
+                    if (tracker != null) tracker.flush();
+                }
+                if (result) {
+                    // Rows are buffered up to the lob chunk size, then sent
+                    // in parts: an error replaces the result not sent yet
+                    int size = ch.getOutSize();
+                    long count = ch.getOutCount();
+                    try {
+                        ts.writeResultSet(true, Integer.MAX_VALUE);
+                    } catch (SQLException e) {
+                        if (ch.getOutCount() != count) throw e;
+                        ch.truncate(size).writeError(interrupted(e));
+                        break;
+                    }
+                } else {
+                    int status = getStatus(conn, this.readonly);
+                    ch.writeOK(status, 0, ts.stmt.getUpdateCount());
+                }
+            }
+            if (conn.getAutoCommit()) this.spMap.clear();
+            ch.flush();
+        } finally {
+            endExec(timer);
+            release(admission);
+            this.inTx = !conn.getAutoCommit();
+        }
+    }
+
+    protected void processRegister() throws IOException, SQLException {
+        // In: sql
+        // Out: OK(epoch, id)
+        String sql = this.ch.readString();
+        StatementCatalog catalog = getStatements();
+        checkSql(sql);
+        // Only the valid statements take an id
+        IOUtils.close(this.sqlConn.prepareStatement(sql));
+        int[] named = catalog.register(sql);
+        log.fine(() -> String.format("register #%d \"%s\"", named[1], sql));
+        sendOK(0, named[0], named[1]);
+    }
+
+    protected void processExecNamed() throws IOException, SQLException {
+        // In: id, epoch or 0 if checked in this session, named id, params or null
+        // Out: as CMD_EXECUTE; or ER(26000) if the named statement unknown
+        Transfer ch = this.ch;
+        int id = ch.readInt();
+        int epoch = ch.readInt();
+        int namedId = ch.readInt();
+        Object[] params = (Object[]) ch.readArray();
+
+        TcpStatement ts = this.stmtMap.get(id);
+        if (ts == null) {
+            ch.sendError("Statement has been closed");
+            return;
+        }
+        StatementCatalog catalog = getStatements();
+        if (epoch != 0 && epoch != this.namedEpoch) {
+            // The ids of the last epoch reused
+            closeNamed();
+            this.namedEpoch = epoch;
+        }
+        String sql = catalog.get(this.namedEpoch, namedId);
+        if (sql == null) {
+            ch.sendError("Unknown named statement: " + namedId, "26000");
+            return;
+        }
+        log.fine(() -> String.format("execute #%d \"%s\"", namedId, sql));
+        if (this.warmup != null) this.warmup.record(this.db, sql);
+
+        SQLiteConnection conn = this.sqlConn;
+        if (isGroupable(ts, conn, sql) && !isPinning(sql)) {
+            checkSql(sql);
+            executeGrouped(ts, sql, params);
+            return;
+        }
+        VersionTracker tracker = this.versionTracker;
+        Admission admission = admit();
+        Future<?> timer = beginExec(ts);
+        PreparedStatement ps = null;
+        boolean failed = true;
+        try {
+            ps = takeNamed(namedId, sql);
+            int n = params == null? 0: params.length;
+            for (int i = 0; i < n; ++i) ps.setObject(i + 1, params[i]);
+            boolean result = ps.execute();
+            if (tracker != null) tracker.flush();
+            if (result) {
+                PreparedStatement named = ps;
+                ps = null;
+                if (!ts.writeResultSet(namedId, named, true)) ts.closeResultSet();
+                ch.flush();
+            } else {
+                sendOK(0, ps.getUpdateCount());
+            }
+            failed = false;
+        } catch (SQLException e) {
+            throw interrupted(e);
+        } finally {
+            if (ps != null) {
+                if (failed) IOUtils.close(ps);
+                else putNamed(namedId, ps);
+            }
+            endExec(timer);
+            release(admission);
+            this.inTx = !conn.getAutoCommit();
+        }
+    }
+
+    protected boolean isGroupable(TcpStatement ts, SQLiteConnection conn, String sql)
+            throws SQLException {
+        // Transactions, also begun in SQL and so pinned, and private schemas
+        // stay on the handle, and so do the writes of a session reading a
+        // cursor that'd block the group commit
+        if (this.groupCommit == null || this.db == null || this.readonly
+                || this.pinned || !conn.getAutoCommit()
+                || !GroupCommit.isGroupable(sql)) {
+            return false;
+        }
+        for (TcpStatement t: this.stmtMap.values()) {
+            if (t != ts && t.hasResultSet()) return false;
+        }
+        return true;
+    }
+
+    protected void executeGrouped(TcpStatement ts, String sql, Object[] params)
+            throws IOException, SQLException {
+        // Admitted and timed as on the handle: cancelled in the queue, or
+        // interrupted in the writer
+        log.fine(() -> String.format("execute grouped \"%s\"", sql));
+        ts.closeResultSet();
+        GroupCommit.Request r = new GroupCommit.Request(sql, params);
+        Admission admission = admit();
+        synchronized (this.execLock) {
+            this.grouped = r;
+        }
+        Future<?> timer = beginExec(ts);
+        int n;
+        try {
+            n = this.groupCommit.execute(r, this.url, this.info, this.db);
+        } catch (SQLException e) {
+            throw interrupted(e);
+        } finally {
+            endExec(timer);
+            synchronized (this.execLock) {
+                this.grouped = null;
+            }
+            release(admission);
+        }
+        sendOK(0, n);
+    }
+
+    protected StatementCatalog getStatements() throws SQLException {
+        TcpServer server = this.server;
+        if (server == null) {
+            throw new SQLFeatureNotSupportedException("Named statements unsupported");
+        }
+        return server.getStatements();
+    }
+
+    protected PreparedStatement takeNamed(int id, String sql) throws SQLException {
+        Map<Integer, PreparedStatement> namedMap = this.namedMap;
+        PreparedStatement ps = namedMap == null? null: namedMap.remove(id);
+        if (ps != null) return ps;
+
+        // Checked once by the handle
+        checkSql(sql);
+        if (!this.pinned && isPinning(sql)) this.pinned = true;
+        return this.sqlConn.prepareStatement(sql);
+    }
+
+    void putNamed(int id, PreparedStatement ps) {
+        try {
+            if (!this.open || ps.isClosed()) {
+                IOUtils.close(ps);
+                return;
+            }
+            ps.clearParameters();
+        } catch (SQLException e) {
+            IOUtils.close(ps);
+            return;
+        }
+        Map<Integer, PreparedStatement> namedMap = this.namedMap;
+        if (namedMap == null) {
+            int capacity = this.config.getNamedCached();
+            namedMap = this.namedMap = new LruCache<Integer, PreparedStatement>(capacity) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, PreparedStatement> eldest) {
+                    boolean full = super.removeEldestEntry(eldest);
+                    if (full) IOUtils.close(eldest.getValue());
+                    return full;
+                }
+            };
+        }
+        PreparedStatement old = namedMap.put(id, ps);
+        if (old != null && old != ps) IOUtils.close(old);
+    }
+
+    protected void closeNamed() {
+        Map<Integer, PreparedStatement> namedMap = this.namedMap;
+        if (namedMap == null) return;
+        for (PreparedStatement ps: namedMap.values()) IOUtils.close(ps);
+        namedMap.clear();
+    }
+
+    protected Admission admit() throws SQLException {
+        AdmissionController admission = this.admission;
+        if (admission == null || this.session == null || this.inTx) {
+            return null;
+        }
+        return admission.admit(this.session);
+    }
+
+    protected void release(Admission admission) {
+        if (admission != null) this.admission.release(admission);
+    }
+
+    protected void execute(TcpStatement ts, String sql, boolean autoGeneratedKeys,
+                           String cacheKey, long version)
+            throws IOException, SQLException {
+        Transfer ch = this.ch;
+        SQLiteConnection conn = this.sqlConn;
+        QueryCache cache = this.queryCache;
+        VersionTracker tracker = this.versionTracker;
+        AutoGenKeysListener listener = null;
         boolean result;
 
         if (autoGeneratedKeys) {
-            boolean ac = conn.getAutoCommit();
-            listener = new AutoGenKeysListener(ts, ac);
-            conn.addUpdateListener(listener);
+            listener = new AutoGenKeysListener(ts, sql);
+            this.hooks.addUpdateListener(listener);
             try {
                 result = ts.stmt.execute(sql);
             } finally {
-                conn.removeUpdateListener(listener);
+                this.hooks.removeUpdateListener(listener);
             }
         } else {
             result = ts.stmt.execute(sql);
         }
+        // Invalidate cached results before the client sees the commit
+        if (tracker != null) tracker.flush();
         if (result) {
-            ts.sendResultSet(true);
+            boolean more = ts.writeResultSet(true);
+            // Only cache the complete result in one batch
+            if (cacheKey != null && !more && !ts.isStreamed()) {
+                cache.put(cacheKey, version, ch.toByteArray());
+            }
+            ch.flush();
         } else {
             int affectedRows = ts.stmt.getUpdateCount();
             if (listener == null) {
                 sendOK(0, affectedRows);
             } else {
                 sendOK(listener.max, affectedRows);
-                listener.sendResultSet();
+                listener.sendKeys();
             }
         }
     }
 
+    protected String autoIncrementColumn(Statement stmt, String database, String table)
+            throws SQLException {
+        // The schema cookie changes on any schema change, also by other
+        // processes, and is much cheaper than the table info
+        long version;
+        String sql = "pragma '" + database + "'.schema_version";
+        try (ResultSet rs = stmt.executeQuery(sql)) {
+            version = rs.next()? rs.getLong(1): -1;
+        }
+        String key = database + "." + table;
+        AutoIncrement ai = this.autoIncrements.get(key);
+        if (ai == null || ai.version != version) {
+            String column = SQLiteUtils.autoIncrementColumn(stmt, database, table);
+            ai = new AutoIncrement(version, column);
+            this.autoIncrements.put(key, ai);
+        }
+        return ai.column;
+    }
+
+    static class AutoIncrement {
+        final long version;
+        final String column;
+
+        AutoIncrement(long version, String column) {
+            this.version = version;
+            this.column = column;
+        }
+    }
+
     protected void processCreateStmt() throws IOException, SQLException {
         // In: rsType, rsConcur, rsHold
         Connection conn = this.sqlConn;
@@ -312,7 +1484,7 @@ public class TcpConnection implements Protocol, Runnable, AutoCloseable {
         Statement stmt = conn.createStatement(rsType, rsConcur, rsHold);
         boolean failed = true;
         try {
-            TcpStatement ts = new TcpStatement(this, stmt);
+            TcpStatement ts = new TcpStatement(this, stmt, rsType, rsConcur, rsHold);
             Map<Integer, TcpStatement> stmtMap = this.stmtMap;
             while (true) {
                 int id = this.nextStmtId++;
@@ -331,6 +1503,8 @@ public class TcpConnection implements Protocol, Runnable, AutoCloseable {
 
     protected boolean openDB() throws IOException {
         int maxBuffer = this.config.getMaxBufferSize();
+        // The sessions of a multiplexed socket are authenticated by it
+        if (this.socket.getChannel() != null) this.server.handshake(this.socket);
         Transfer ch = this.ch = new Transfer(this.socket, maxBuffer);
         String url = ch.readString();
         int n = ch.readInt();
@@ -340,14 +1514,49 @@ public class TcpConnection implements Protocol, Runnable, AutoCloseable {
             String value = ch.readString();
             info.setProperty(name, value);
         }
+        String cancelKey = info.getProperty(CANCEL_KEY);
+        if (cancelKey != null) {
+            processCancel(cancelKey);
+            return false;
+        }
+        if (info.getProperty(MUX_KEY) != null) {
+            processMux();
+            return false;
+        }
         boolean failed = true;
         try {
             String dataDir = this.config.getDataDir();
             url = wrapURL(dataDir, url);
+            String db = dbFile(url);
+            Profile profile = this.config.getProfile(db);
+            if (profile != null) info = profile.apply(url, info);
             this.sqlConn = open(url, info);
+            this.url = url;
+            this.info = info;
+            this.profile = profile;
+            this.handleKey = HandleCache.key(url, info);
+            this.db = db;
+            if (this.warmup != null) this.warmup.opened(db);
+            if (db != null) {
+                this.versionTracker = new VersionTracker(db);
+                this.hooks.addCommitListener(this.versionTracker);
+                if (this.config.isCdcEnabled()) {
+                    this.changeCapture = new ChangeCapture(db);
+                    this.hooks.addUpdateListener(this.changeCapture);
+                    this.hooks.addCommitListener(this.changeCapture);
+                }
+            }
             Statement stmt = getAuxStmt();
+            if (this.config.isReplica()) setQueryOnly(stmt, true);
             this.readonly = queryOnly(this.sqlConn, stmt);
-            sendOK();
+            AdmissionController admission = this.admission;
+            if (admission != null) {
+                String client = this.socket.getInetAddress().getHostAddress();
+                String key = db == null? url: db;
+                this.session = admission.open(key, client);
+            }
+            // Cancel key: connection id and secret
+            sendOK(this.id, this.secret);
             failed = false;
             return true;
         } catch (SQLException e) {
@@ -393,9 +1602,12 @@ public class TcpConnection implements Protocol, Runnable, AutoCloseable {
 
     @Override
     public void close() {
+        AdmissionController.Session session = this.session;
+        if (session != null) this.admission.close(session);
         this.ch = null;
         this.stmtMap.clear();
         this.spMap.clear();
+        closeNamed();
         IOUtils.close(this.auxStmt);
         IOUtils.close(this.sqlConn);
         IOUtils.close(this.socket);
@@ -21,6 +21,8 @@ import org.sqlited.result.RowIterator;
 import org.sqlited.util.IOUtils;
 
 import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
@@ -31,57 +33,158 @@ import static java.sql.ResultSetMetaData.columnNullable;
 public class TcpStatement implements AutoCloseable {
 
     protected final TcpConnection conn;
-    protected final Statement stmt;
+    protected Statement stmt;
+    // For creating the statement again on another handle
+    protected final int rsType, rsConcur, rsHold;
 
     private ResultSet rs;
+    // The named statement of the result set, back to the session on closing
+    private PreparedStatement named;
+    private int namedId;
+    // Query timeout millis, 0 for no limit
+    protected int queryTimeout;
+    // Part of the current response has been sent
+    private boolean streamed;
 
-    public TcpStatement(TcpConnection conn, Statement stmt) {
+    public TcpStatement(TcpConnection conn, Statement stmt,
+                        int rsType, int rsConcur, int rsHold) {
         this.conn = conn;
         this.stmt = stmt;
+        this.rsType = rsType;
+        this.rsConcur = rsConcur;
+        this.rsHold = rsHold;
     }
 
     protected ResultSet initResultSet() throws SQLException {
-        IOUtils.close(this.rs);
+        closeResultSet();
         return (this.rs = this.stmt.getResultSet());
     }
 
+    protected ResultSet initResultSet(int id, PreparedStatement named)
+            throws SQLException {
+        closeResultSet();
+        this.named = named;
+        this.namedId = id;
+        return (this.rs = named.getResultSet());
+    }
+
+    protected void closeResultSet() {
+        IOUtils.close(this.rs);
+        this.rs = null;
+        PreparedStatement named = this.named;
+        if (named != null) {
+            this.named = null;
+            this.conn.putNamed(this.namedId, named);
+        }
+    }
+
+    protected boolean hasResultSet() throws SQLException {
+        ResultSet rs = this.rs;
+        return rs != null && !rs.isClosed();
+    }
+
+    protected void release() {
+        // The handle of the connection hibernating
+        closeResultSet();
+        IOUtils.close(this.stmt);
+    }
+
+    protected void rebind(Connection conn) throws SQLException {
+        this.stmt = conn.createStatement(this.rsType, this.rsConcur, this.rsHold);
+    }
+
     public void sendResultSet(boolean meta) throws IOException, SQLException {
+        writeResultSet(meta);
+        this.conn.ch.flush();
+    }
+
+    protected boolean writeResultSet(boolean meta) throws IOException, SQLException {
+        return writeResultSet(meta, 0);
+    }
+
+    /** Write the result set with the first batch of the rows.
+     * @param rows the batch size, 0 for by the fetch size
+     */
+    protected boolean writeResultSet(boolean meta, int rows)
+            throws IOException, SQLException {
+        initResultSet();
+        return writeCurrentResultSet(meta, rows);
+    }
+
+    /** Write the result set of the named statement, which is held until
+     * the result set closed.
+     */
+    protected boolean writeResultSet(int id, PreparedStatement named, boolean meta)
+            throws IOException, SQLException {
+        initResultSet(id, named);
+        return writeCurrentResultSet(meta, 0);
+    }
+
+    private boolean writeCurrentResultSet(boolean meta, int rows)
+            throws IOException, SQLException {
         // Format: ResultSet flag, status-1, resultSetMeta, rows, status-2
-        TcpConnection conn = this.conn;
-        ResultSet rs = initResultSet();
-        Transfer ch = conn.ch;
+        ResultSet rs = this.rs;
+        Transfer ch = this.conn.ch;
+        this.streamed = false;
         int status = meta? 0x1: 0x0;
         ch.write(Transfer.RESULT_SET)
                 .writeInt(status);
         boolean next = false;
         if (meta) next = writeResultSetMeta(rs);
         else ch.writeArray(null);
-        writeRows(next)
-        .flush();
+        return writeRowBatch(next, rows);
     }
 
+
     protected Transfer writeRows(boolean next) throws SQLException, IOException {
+        writeRowBatch(next, 0);
+        return this.conn.ch;
+    }
+
+    protected boolean writeRowBatch(boolean next, int n) throws SQLException, IOException {
         // Format: [row, ..., ] null(row end), status
         ResultSet rs = this.rs;
         Transfer ch = this.conn.ch;
         if (next || (next = rs.next())) {
             ResultSetMetaData metaData = rs.getMetaData();
             int m = metaData.getColumnCount();
-            int n = Math.min(Math.max(rs.getFetchSize(), 50), 500);
+            if (n <= 0) n = Math.min(Math.max(rs.getFetchSize(), 50), 500);
+            int chunkSize = this.conn.config.getLobChunkSize();
             int i = 0;
             do {
-                Object[] row = new Object[m];
-                for (int j = 0; j < m; ++j) {
-                    row[j] = rs.getObject(j + 1);
+                writeRow(rs, m, chunkSize);
+                // Send out a large batch in parts
+                if (ch.getOutSize() > chunkSize) {
+                    ch.flush();
+                    this.streamed = true;
                 }
-                ch.writeArray(row);
             } while (++i < n && (next = rs.next()));
         }
         // Row end
         ch.writeArray(null);
 
         int status = next? 0x01:0x00;
-        return ch.write(status);
+        ch.write(status);
+        return next;
+    }
+
+    protected void writeRow(ResultSet rs, int m, int chunkSize)
+            throws SQLException, IOException {
+        // Format: Object[] of INT/REAL/TEXT/BLOB/NULL or chunked TEXT/BLOB
+        Transfer ch = this.conn.ch;
+        ch.write(Transfer.TYPE_ARR_Object).writeInt(m);
+        for (int j = 0; j < m; ++j) {
+            Object value = rs.getObject(j + 1);
+            if (value instanceof byte[] && ((byte[]) value).length > chunkSize) {
+                ch.writeChunked((byte[]) value, chunkSize);
+                this.streamed = true;
+            } else if (value instanceof String && ((String) value).length() > chunkSize) {
+                ch.writeChunked((String) value, chunkSize);
+                this.streamed = true;
+            } else {
+                ch.writeObject(value);
+            }
+        }
     }
 
     protected boolean writeResultSetMeta(ResultSet rs) throws SQLException, IOException {
@@ -173,18 +276,14 @@ public class TcpStatement implements AutoCloseable {
             throws IOException {
         // Format: names, metas, typeNames, types, scales, null(meta end)
         Transfer ch = this.conn.ch;
-
-        if (meta != null) {
-            ch.writeArray(meta.getNames())
-                    .writeArray(meta.getColumnIntMetas())
-                    .writeArray(meta.getColumnTypeNames())
-                    .writeArray(meta.getColumnTypes())
-                    .writeArray(meta.getScales());
-        }
-        ch.writeArray(null);
+        org.sqlited.result.ResultSetMetaData.write(ch, meta);
         return this;
     }
 
+    protected boolean isStreamed() {
+        return this.streamed;
+    }
+
     public void fetchRows() throws IOException, SQLException {
         // Format: [row, ..., ] null(row end)
         writeRows(false)
@@ -193,7 +292,7 @@ public class TcpStatement implements AutoCloseable {
 
     @Override
     public void close() {
-        IOUtils.close(this.rs);
+        closeResultSet();
         IOUtils.close(this.stmt);
     }
 
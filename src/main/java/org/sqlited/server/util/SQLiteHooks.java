@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.server.util;
+
+import org.sqlite.SQLiteCommitListener;
+import org.sqlite.SQLiteConnection;
+import org.sqlite.SQLiteUpdateListener;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** The update and commit hook listeners of a connection.
+ *
+ * <p>sqlite-jdbc keeps only one native hook handler in the process, so that
+ * the hooks of every connection are delivered to the listeners of the
+ * connection that registered the last. The hooks run in the thread that
+ * executes the statement, so every connection installs the same dispatcher,
+ * which delivers the hooks to the listeners bound to the current thread.
+ * </p>
+ * @threadunsafe
+ */
+public class SQLiteHooks {
+
+    static final Dispatcher DISPATCHER = new Dispatcher();
+    static final ThreadLocal<SQLiteHooks> CURRENT = new ThreadLocal<>();
+
+    private final List<SQLiteUpdateListener> updateListeners = new ArrayList<>(2);
+    private final List<SQLiteCommitListener> commitListeners = new ArrayList<>(2);
+
+    public static void install(SQLiteConnection conn) {
+        conn.addUpdateListener(DISPATCHER);
+        conn.addCommitListener(DISPATCHER);
+    }
+
+    /** Bind this hooks to the current thread.
+     * @return the hooks bound before
+     */
+    public SQLiteHooks bind() {
+        SQLiteHooks old = CURRENT.get();
+        CURRENT.set(this);
+        return old;
+    }
+
+    public static void unbind(SQLiteHooks old) {
+        if (old == null) CURRENT.remove();
+        else CURRENT.set(old);
+    }
+
+    public void addUpdateListener(SQLiteUpdateListener listener) {
+        this.updateListeners.add(listener);
+    }
+
+    public void removeUpdateListener(SQLiteUpdateListener listener) {
+        this.updateListeners.remove(listener);
+    }
+
+    public void addCommitListener(SQLiteCommitListener listener) {
+        this.commitListeners.add(listener);
+    }
+
+    static class Dispatcher implements SQLiteUpdateListener, SQLiteCommitListener {
+
+        @Override
+        public void onUpdate(Type type, String database, String table, long rowId) {
+            SQLiteHooks hooks = CURRENT.get();
+            if (hooks == null) return;
+            List<SQLiteUpdateListener> a = hooks.updateListeners;
+            for (int i = 0, n = a.size(); i < n; ++i) {
+                a.get(i).onUpdate(type, database, table, rowId);
+            }
+        }
+
+        @Override
+        public void onCommit() {
+            SQLiteHooks hooks = CURRENT.get();
+            if (hooks == null) return;
+            List<SQLiteCommitListener> a = hooks.commitListeners;
+            for (int i = 0, n = a.size(); i < n; ++i) a.get(i).onCommit();
+        }
+
+        @Override
+        public void onRollback() {
+            SQLiteHooks hooks = CURRENT.get();
+            if (hooks == null) return;
+            List<SQLiteCommitListener> a = hooks.commitListeners;
+            for (int i = 0, n = a.size(); i < n; ++i) a.get(i).onRollback();
+        }
+    }
+
+}
@@ -18,12 +18,16 @@ package org.sqlited.server.util;
 
 import org.sqlite.JDBC;
 import org.sqlite.SQLiteConnection;
+import org.sqlite.core.DB;
 import org.sqlited.util.logging.LoggerFactory;
 
-import java.io.File;
+import java.io.*;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 
 import static java.lang.String.format;
 
@@ -31,12 +35,19 @@ public final class SQLiteUtils {
 
     static final Logger log = LoggerFactory.getLogger(SQLiteUtils.class);
 
+    static final int SQLITE_OK = 0;
+    static final int SQLITE_DONE = 101;
+    // Restarts of a throttled backup before the sleeps stop
+    static final int BACKUP_RESTARTS = 3;
+
     private SQLiteUtils() {}
 
     public static SQLiteConnection open(String url, Properties info)
             throws SQLException {
         log.fine(() -> String.format("Open DB '%s'", url));
-        return JDBC.createConnection(url, info);
+        SQLiteConnection conn = JDBC.createConnection(url, info);
+        if (conn != null) SQLiteHooks.install(conn);
+        return conn;
     }
 
     public static String wrapURL(String dataDir, String url) {
@@ -56,6 +67,279 @@ public final class SQLiteUtils {
         return url;
     }
 
+    public static String dbFile(String url) {
+        // Canonical file of the database, or null for a private database
+        String db = url;
+        if (db.startsWith(JDBC.PREFIX)) {
+            db = db.substring(JDBC.PREFIX.length());
+        }
+        int i = db.indexOf('?');
+        if (i != -1) {
+            db = db.substring(0, i);
+        }
+        if ("".equals(db) || db.contains(":memory:") || url.contains("mode=memory")) {
+            return null;
+        }
+        if (db.startsWith("file:")) {
+            db = db.substring(5);
+        }
+        File file = new File(db);
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException e) {
+            return file.getAbsolutePath();
+        }
+    }
+
+    /** The path of the database file relative to the data directory,
+     * separated by '/', or the full path if out of the data directory.
+     */
+    public static String dbPath(String dataDir, String db) {
+        String path = db;
+        try {
+            String dir = new File(dataDir).getCanonicalPath() + File.separator;
+            if (db.startsWith(dir)) path = db.substring(dir.length());
+        } catch (IOException e) {
+            // The full path
+        }
+        return path.replace(File.separatorChar, '/');
+    }
+
+    /** Compile the database path patterns "pattern[, ...]": "*" matches
+     * in a directory, "**" across directories and "?" one char.
+     */
+    public static Pattern dbPattern(String patterns) {
+        StringBuilder regex = new StringBuilder();
+        for (String pattern: patterns.trim().split("\\s*,\\s*")) {
+            if (regex.length() > 0) regex.append('|');
+            regex.append("(?:");
+            for (int i = 0, n = pattern.length(); i < n; ++i) {
+                char c = pattern.charAt(i);
+                if (c == '*') {
+                    if (i + 1 < n && pattern.charAt(i + 1) == '*') {
+                        regex.append(".*");
+                        ++i;
+                    } else {
+                        regex.append("[^/]*");
+                    }
+                } else if (c == '?') {
+                    regex.append("[^/]");
+                } else {
+                    regex.append(Pattern.quote(String.valueOf(c)));
+                }
+            }
+            regex.append(')');
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    /** Split the SQL into statements at the semicolons out of literals,
+     * identifiers and comments. As sqlite3_complete(), a trigger body only
+     * ends at "END;", and empty statements are skipped.
+     */
+    public static List<String> splitStatements(String sql) {
+        List<String> stmts = new ArrayList<>();
+        Lexer lexer = new Lexer(sql);
+        int start = 0, words = 0;
+        boolean empty = true, create = false, trigger = false;
+        String last = null;
+
+        while (lexer.next()) {
+            char c = sql.charAt(lexer.start);
+            if (c == ';') {
+                if (!trigger || "end".equalsIgnoreCase(last)) {
+                    if (!empty) stmts.add(sql.substring(start, lexer.start).trim());
+                    start = lexer.end;
+                    words = 0;
+                    empty = true;
+                    trigger = false;
+                }
+                last = null;
+            } else if (Character.isJavaIdentifierStart(c)) {
+                last = lexer.token();
+                // "CREATE [TEMP|TEMPORARY] TRIGGER"
+                if (++words == 1) create = "create".equalsIgnoreCase(last);
+                else if (create && words <= 3 && "trigger".equalsIgnoreCase(last)) trigger = true;
+                empty = false;
+            } else {
+                empty = false;
+                last = null;
+            }
+        }
+        if (!empty) stmts.add(sql.substring(start).trim());
+
+        return stmts;
+    }
+
+    /** Split the SQL into tokens, skipping whitespaces and comments: a word,
+     * a literal or quoted identifier with its quotes, or another char.
+     */
+    public static List<String> tokenize(String sql) {
+        List<String> tokens = new ArrayList<>();
+        Lexer lexer = new Lexer(sql);
+        while (lexer.next()) tokens.add(lexer.token());
+        return tokens;
+    }
+
+    /** The target of the insert statement as {schema or null, table},
+     * or null if not an insert.
+     */
+    public static String[] insertTarget(String sql) {
+        List<String> tokens = tokenize(sql);
+        int n = tokens.size(), i = 0;
+        if (n > 0 && "with".equalsIgnoreCase(tokens.get(0))) {
+            // Skip the common table expressions
+            for (int depth = 0; i < n; ++i) {
+                String token = tokens.get(i);
+                if ("(".equals(token)) ++depth;
+                else if (")".equals(token)) --depth;
+                else if (depth == 0 && ("insert".equalsIgnoreCase(token)
+                        || "replace".equalsIgnoreCase(token))) break;
+            }
+        }
+        if (i >= n) return null;
+        String verb = tokens.get(i++);
+        if ("insert".equalsIgnoreCase(verb)) {
+            // "INSERT OR action"
+            if (i + 1 < n && "or".equalsIgnoreCase(tokens.get(i))) i += 2;
+        } else if (!"replace".equalsIgnoreCase(verb)) {
+            return null;
+        }
+        if (i + 1 >= n || !"into".equalsIgnoreCase(tokens.get(i++))) return null;
+        String name = unquote(tokens.get(i++));
+        if (i + 1 < n && ".".equals(tokens.get(i))) {
+            return new String[] { name, unquote(tokens.get(i + 1)) };
+        }
+        return new String[] { null, name };
+    }
+
+    public static String unquote(String token) {
+        char c = token.charAt(0);
+        if (c == '\'' || c == '"' || c == '`' || c == '[') {
+            int end = token.length() - 1;
+            if (end > 0 && token.charAt(end) == (c == '['? ']': c)) {
+                return token.substring(1, end);
+            }
+            return token.substring(1);
+        }
+        return token;
+    }
+
+    static class Lexer {
+        final String sql;
+        // The current token
+        int start, end;
+
+        Lexer(String sql) {
+            this.sql = sql;
+        }
+
+        boolean next() {
+            String sql = this.sql;
+            int n = sql.length(), i = this.end;
+
+            while (i < n) {
+                char c = sql.charAt(i);
+                if (c == '\'' || c == '"' || c == '`' || c == '[') {
+                    int j = sql.indexOf(c == '['? ']': c, i + 1);
+                    return token(i, j == -1? n: j + 1);
+                } else if (c == '-' && sql.startsWith("--", i)) {
+                    int j = sql.indexOf('\n', i);
+                    i = j == -1? n: j + 1;
+                } else if (c == '/' && sql.startsWith("/*", i)) {
+                    int j = sql.indexOf("*/", i + 2);
+                    i = j == -1? n: j + 2;
+                } else if (Character.isJavaIdentifierStart(c)) {
+                    int j = i + 1;
+                    while (j < n && Character.isJavaIdentifierPart(sql.charAt(j))) ++j;
+                    return token(i, j);
+                } else if (Character.isWhitespace(c)) {
+                    ++i;
+                } else {
+                    return token(i, i + 1);
+                }
+            }
+            this.start = this.end = n;
+            return false;
+        }
+
+        boolean token(int start, int end) {
+            this.start = start;
+            this.end = end;
+            return true;
+        }
+
+        String token() {
+            return this.sql.substring(this.start, this.end);
+        }
+    }
+
+    public static void backup(SQLiteConnection conn, String db, File file, int throttle)
+            throws SQLException {
+        DB.ProgressObserver observer = throttle(throttle);
+        int rc = conn.getDatabase().backup(db, file.getAbsolutePath(), observer);
+        if (rc != SQLITE_OK && rc != SQLITE_DONE) {
+            throw new SQLException("Backup '" + db + "' failure: rc " + rc);
+        }
+    }
+
+    public static void restore(SQLiteConnection conn, String db, File file, int throttle)
+            throws SQLException {
+        DB.ProgressObserver observer = throttle(throttle);
+        int rc = conn.getDatabase().restore(db, file.getAbsolutePath(), observer);
+        if (rc != SQLITE_OK && rc != SQLITE_DONE) {
+            throw new SQLException("Restore '" + db + "' failure: rc " + rc);
+        }
+    }
+
+    /** Delete the database file with the journal, WAL and shm files
+     * SQLite left beside it, e.g. a backup copy opened in WAL mode.
+     */
+    public static void deleteDb(File file) {
+        String path = file.getPath();
+        for (String suffix: new String[] { "-journal", "-wal", "-shm", "" }) {
+            new File(path + suffix).delete();
+        }
+    }
+
+    /** The page size in the header of the database file, or 0 if empty.
+     */
+    public static int pageSize(File file) throws IOException {
+        byte[] header = new byte[18];
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            in.readFully(header);
+        } catch (EOFException e) {
+            return 0;
+        }
+        int size = (header[16] & 0xFF) << 8 | header[17] & 0xFF;
+        return size == 1? 65536: size;
+    }
+
+    static DB.ProgressObserver throttle(int millis) {
+        if (millis <= 0) {
+            return null;
+        }
+        // Sleep between backup steps: no lock is held then. A write by
+        // another connection restarts the copy, so the sleeps stop after
+        // a few restarts, for a last pass that keeps up with the writes
+        return new DB.ProgressObserver() {
+            int last = Integer.MAX_VALUE, restarts;
+
+            @Override
+            public void progress(int remaining, int pageCount) {
+                if (remaining > this.last) ++this.restarts;
+                this.last = remaining;
+                if (remaining > 0 && this.restarts < BACKUP_RESTARTS) {
+                    try {
+                        Thread.sleep(millis);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        };
+    }
+
     public static boolean queryOnly(Connection conn, Statement stmt)
             throws SQLException {
 
@@ -95,17 +379,33 @@ public final class SQLiteUtils {
         // Query auto-generated column
         String sql = format("pragma '%s'.table_info('%s')", database, table);
 
+        // Only a single "INTEGER" primary key is an alias of the rowid
+        String column = null;
         try (ResultSet rs = stmt.executeQuery(sql)) {
-            ResultSetMetaData md = rs.getMetaData();
             while (rs.next()) {
-                int c = rs.findColumn("pk");
-                if (rs.getInt(c) == 1 && (md.isAutoIncrement(c)
-                        || "INTEGER".equalsIgnoreCase(md.getColumnTypeName(c)))) {
-                    return rs.getString("name");
+                int pk = rs.getInt("pk");
+                if (pk == 1 && "INTEGER".equalsIgnoreCase(rs.getString("type"))) {
+                    column = rs.getString("name");
+                } else if (pk > 1) {
+                    return null;
                 }
             }
         }
-        return null;
+        return column;
+    }
+
+    public static String quote(String name) {
+        return '"' + name.replace("\"", "\"\"") + '"';
+    }
+
+    // Quote "schema.table" by parts
+    public static String quoteTable(String table) {
+        int i = table.indexOf('.');
+        if (i == -1) {
+            return quote(table);
+        } else {
+            return quote(table.substring(0, i)) + "." + quote(table.substring(i + 1));
+        }
     }
 
 }
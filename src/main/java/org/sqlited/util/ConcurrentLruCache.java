@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Concurrent approximate LRU cache: evicts the least recently accessed
+ * entry when the capacity is exceeded.
+ * @threadsafe
+ *
+ * @param <K> Key type
+ * @param <V> Value type
+ */
+public class ConcurrentLruCache<K, V> {
+
+    protected final int capacity;
+    private final ConcurrentHashMap<K, Node<V>> map;
+    private final AtomicLong clock = new AtomicLong();
+
+    public ConcurrentLruCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity " + capacity);
+        }
+        this.capacity = capacity;
+        this.map = new ConcurrentHashMap<>(Math.min(capacity, 1 << 10));
+    }
+
+    public V get(K key) {
+        Node<V> node = this.map.get(key);
+        if (node == null) {
+            return null;
+        }
+        node.stamp = this.clock.incrementAndGet();
+        return node.value;
+    }
+
+    public V put(K key, V value) {
+        Node<V> node = new Node<>(value, this.clock.incrementAndGet());
+        Node<V> old = this.map.put(key, node);
+        if (old == null && this.map.size() > this.capacity) {
+            evict();
+        }
+        return old == null? null: old.value;
+    }
+
+    public V remove(K key) {
+        Node<V> node = this.map.remove(key);
+        return node == null? null: node.value;
+    }
+
+    public boolean remove(K key, V value) {
+        Node<V> node = this.map.get(key);
+        return node != null && node.value == value && this.map.remove(key, node);
+    }
+
+    public int size() {
+        return this.map.size();
+    }
+
+    public void clear() {
+        this.map.clear();
+    }
+
+    protected void evict() {
+        while (this.map.size() > this.capacity) {
+            K eldest = null;
+            Node<V> victim = null;
+            for (Map.Entry<K, Node<V>> e: this.map.entrySet()) {
+                Node<V> node = e.getValue();
+                if (victim == null || node.stamp < victim.stamp) {
+                    eldest = e.getKey();
+                    victim = node;
+                }
+            }
+            if (victim == null) {
+                break;
+            }
+            this.map.remove(eldest, victim);
+        }
+    }
+
+    static class Node<V> {
+        final V value;
+        volatile long stamp;
+
+        Node(V value, long stamp) {
+            this.value = value;
+            this.stamp = stamp;
+        }
+    }
+
+}
@@ -52,4 +52,22 @@ public class TransferTest {
         }
     }
 
+    @Test
+    public void testOutBufferGrowth() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Transfer ch = new Transfer(null, out, 1 << 20);
+        byte[] data = new byte[100];
+        // Grown up to the max exactly
+        for (int i = 0; i < 10485; ++i) ch.write(data, 0, data.length);
+        assertEquals(1048500, ch.getOutSize());
+        try {
+            ch.write(data, 0, data.length);
+            fail();
+        } catch (IOException e) {
+            assertEquals("Output buffer overflow", e.getMessage());
+        }
+        ch.flush();
+        assertEquals(1048500, out.size());
+    }
+
 }
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.jdbc;
+
+import org.junit.Test;
+import org.sqlited.async.AsyncClient;
+import org.sqlited.async.AsyncConnection;
+import org.sqlited.async.AsyncResultSet;
+import org.sqlited.async.AsyncStatement;
+import org.sqlited.async.Flow;
+import static junit.framework.TestCase.*;
+
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class AsyncTest extends BaseTest {
+
+    @Test
+    public void testAsyncClient() throws Exception {
+        String url = getTcpUrl();
+        prepare(url);
+
+        try (AsyncClient client = new AsyncClient(2)) {
+            AsyncConnection conn = client.connect(url, new Properties()).get();
+            conn.executeUpdate("drop table if exists item").get();
+            conn.executeUpdate("create table item(id integer primary key, " +
+                    "conn int, name text)").get();
+
+            // Many connections and pipelined requests on a few threads
+            int n = 50, m = 20;
+            List<CompletableFuture<AsyncConnection>> connects = new ArrayList<>();
+            for (int i = 0; i < n; ++i) {
+                connects.add(client.connect(url, new Properties()));
+            }
+            List<AsyncConnection> conns = new ArrayList<>();
+            for (CompletableFuture<AsyncConnection> f: connects) {
+                conns.add(f.get(10, TimeUnit.SECONDS));
+            }
+            // One writer at a time: sqlite serializes writes anyway
+            for (int i = 0; i < n; ++i) {
+                AsyncConnection ac = conns.get(i);
+                List<CompletableFuture<Long>> updates = new ArrayList<>();
+                for (int j = 0; j < m; ++j) {
+                    String sql = "insert into item(conn, name) values(" + i + ", 'item-" + j + "')";
+                    updates.add(ac.executeUpdate(sql));
+                }
+                for (CompletableFuture<Long> f: updates) {
+                    assertEquals(1L, f.get(10, TimeUnit.SECONDS).longValue());
+                }
+            }
+            List<CompletableFuture<List<Object[]>>> counts = new ArrayList<>();
+            for (int i = 0; i < n; ++i) {
+                String sql = "select count(*) from item where conn = " + i;
+                counts.add(conns.get(i).createStatement()
+                        .thenCompose(s -> s.executeQuery(sql))
+                        .thenCompose(AsyncResultSet::fetchAll));
+            }
+            for (CompletableFuture<List<Object[]>> f: counts) {
+                List<Object[]> result = f.get(10, TimeUnit.SECONDS);
+                assertEquals(1, result.size());
+                assertEquals(m, ((Number)result.get(0)[0]).intValue());
+            }
+
+            // Fetch in batches
+            AsyncStatement stmt = conn.createStatement().get();
+            AsyncResultSet rs = stmt.executeQuery("select id, conn, name from item order by id").get();
+            assertEquals(3, rs.getMetaData().getColumnCount());
+            assertEquals("name", rs.getMetaData().getColumnName(3));
+            List<Object[]> rows = rs.fetchAll().get();
+            assertEquals(n * m, rows.size());
+            for (int i = 0; i < rows.size(); ++i) {
+                assertEquals(i + 1L, rows.get(i)[0]);
+            }
+            assertTrue(rs.isLast());
+            assertEquals(-1L, stmt.executeUpdate("select 1").get().longValue());
+
+            // Publisher with backpressure
+            List<Object[]> received = Collections.synchronizedList(new ArrayList<>());
+            CountDownLatch latch = new CountDownLatch(1);
+            AtomicReference<Flow.Subscription> sub = new AtomicReference<>();
+            AtomicReference<Throwable> error = new AtomicReference<>();
+            conn.query("select id from item order by id").subscribe(new Flow.Subscriber<Object[]>() {
+                public void onSubscribe(Flow.Subscription s) {
+                    sub.set(s);
+                    s.request(10);
+                }
+                public void onNext(Object[] row) {
+                    received.add(row);
+                }
+                public void onError(Throwable e) {
+                    error.set(e);
+                    latch.countDown();
+                }
+                public void onComplete() {
+                    latch.countDown();
+                }
+            });
+            for (int i = 0; i < 100 && received.size() < 10; ++i) Thread.sleep(10);
+            Thread.sleep(50);
+            assertEquals(10, received.size());
+            assertEquals(1, latch.getCount());
+            sub.get().request(Long.MAX_VALUE);
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+            assertNull(error.get());
+            assertEquals(n * m, received.size());
+            assertEquals((long) n * m, received.get(n * m - 1)[0]);
+
+            // Cancel
+            CountDownLatch first = new CountDownLatch(5);
+            conn.query("select id from item").subscribe(new Flow.Subscriber<Object[]>() {
+                Flow.Subscription s;
+                public void onSubscribe(Flow.Subscription s) {
+                    this.s = s;
+                    s.request(100);
+                }
+                public void onNext(Object[] row) {
+                    first.countDown();
+                    if (first.getCount() == 0) this.s.cancel();
+                }
+                public void onError(Throwable e) {
+                    error.set(e);
+                }
+                public void onComplete() {
+                    fail("Cancelled");
+                }
+            });
+            assertTrue(first.await(10, TimeUnit.SECONDS));
+
+            // Transaction
+            AsyncConnection tc = conns.get(0);
+            try {
+                tc.inTransaction(c -> c.executeUpdate("delete from item")
+                        .thenCompose(i -> c.executeUpdate("insert into no_table values(1)")))
+                        .get();
+                fail("Table not exists");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof SQLException);
+            }
+            rows = stmt.executeQuery("select count(*) from item").get().fetchAll().get();
+            assertEquals((long) n * m, rows.get(0)[0]);
+            long deleted = tc.inTransaction(c -> c.executeUpdate("delete from item where conn = 0")).get();
+            assertEquals(m, deleted);
+            rows = stmt.executeQuery("select count(*) from item").get().fetchAll().get();
+            assertEquals((long) (n - 1) * m, rows.get(0)[0]);
+
+            // Error then continue
+            try {
+                conn.executeUpdate("select * from no_table").get();
+                fail("Table not exists");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof SQLException);
+            }
+            assertEquals(1L, conn.executeUpdate("update item set name = 'x' where id = 21").get().longValue());
+
+            conn.close();
+            try {
+                conn.executeUpdate("select 1").get();
+                fail("Connection closed");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof SQLException);
+                assertTrue(conn.isClosed());
+            }
+            for (AsyncConnection c: conns) c.close();
+        }
+    }
+
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.jdbc;
+
+import org.junit.Test;
+import org.sqlited.jdbc.lb.Endpoint;
+import org.sqlited.jdbc.lb.EndpointBalancer;
+import org.sqlited.server.Config;
+import org.sqlited.server.Server;
+import static junit.framework.TestCase.*;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+public class BalanceTest extends BaseTest {
+
+    @Test
+    public void testLeastRequests() throws Exception {
+        Server a = startServer(3522);
+        Server b = startServer(3523);
+        try {
+            String endpoints = "localhost:3522,localhost:3523";
+            String url = getUrl("jdbc:sqlited://" + endpoints + "/test", "password", password);
+            List<Connection> conns = new ArrayList<>();
+            try {
+                for (int i = 0; i < 6; ++i) {
+                    Connection c = getConn(url);
+                    conns.add(c);
+                    query(c);
+                }
+                EndpointBalancer balancer = EndpointBalancer.get(endpoints, new Properties());
+                for (Endpoint ep: balancer.getEndpoints()) {
+                    assertEquals(3, ep.getOutstanding());
+                    assertFalse(ep.isEjected());
+                    assertTrue(ep.getLatency() >= 0);
+                }
+            } finally {
+                for (Connection c: conns) c.close();
+            }
+            EndpointBalancer balancer = EndpointBalancer.get(endpoints, new Properties());
+            for (Endpoint ep: balancer.getEndpoints()) {
+                assertEquals(0, ep.getOutstanding());
+            }
+
+            // Latency weighted
+            for (int i = 0; i < 4; ++i) {
+                try (Connection c = getConn(url + "&loadBalance=latency")) {
+                    query(c);
+                }
+            }
+            try {
+                getConn(url + "&loadBalance=random");
+                fail();
+            } catch (SQLException e) {
+                assertTrue(e.getMessage().contains("policy"));
+            }
+        } finally {
+            a.stop();
+            b.stop();
+        }
+    }
+
+    @Test
+    public void testFailover() throws Exception {
+        Server a = startServer(3522);
+        Server b = null;
+        try {
+            String endpoints = "localhost:3524,localhost:3522";
+            String url = getUrl("jdbc:sqlited://" + endpoints + "/test",
+                    "password", password) + "&probeInterval=100";
+            EndpointBalancer balancer = EndpointBalancer.get(endpoints, new Properties());
+            Endpoint down = balancer.getEndpoints().get(0);
+            for (int i = 0; i < 4; ++i) {
+                try (Connection c = getConn(url)) {
+                    query(c);
+                }
+            }
+            assertTrue(down.isEjected());
+            assertTrue(down.getFailures() > 0);
+            assertEquals(0, down.getOutstanding());
+            assertEquals(3522, balancer.select(null).get(0).getPort());
+
+            // Re-probed in background
+            b = startServer(3524);
+            long deadline = System.currentTimeMillis() + 10000;
+            while (down.isEjected() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertFalse(down.isEjected());
+
+            // All down
+            a.stop();
+            b.stop();
+            try {
+                getConn(url);
+                fail();
+            } catch (SQLNonTransientConnectionException e) {
+                assertEquals(1, e.getSuppressed().length);
+            }
+        } finally {
+            a.stop();
+            if (b != null) b.stop();
+        }
+    }
+
+    static Server startServer(int port) {
+        return Config.start(new String[]{
+                "-D", "temp", "-p", password, "-P", port + ""
+        });
+    }
+
+    static void query(Connection c) throws SQLException {
+        try (Statement s = c.createStatement();
+             ResultSet rs = s.executeQuery("select 1")) {
+            assertTrue(rs.next());
+            assertEquals(1, rs.getInt(1));
+        }
+    }
+
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.jdbc;
+
+import org.junit.Test;
+import org.sqlited.jdbc.tcp.impl.JdbcTcpStatement;
+import org.sqlited.server.Config;
+import org.sqlited.server.sched.GroupCommit;
+import org.sqlited.server.tcp.TcpServer;
+import static junit.framework.TestCase.*;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class GroupCommitTest extends BaseTest {
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        TcpServer server = (TcpServer) Config.start(new String[]{
+                "-D", "temp", "-p", password, "-P", "3530", "--group-commit"
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            String url = getUrl("jdbc:sqlited://localhost:3530/test", "password", password);
+            GroupCommit group = server.getGroupCommit();
+            try (Connection c = getConn(url);
+                 Statement s = c.createStatement()) {
+                s.executeUpdate("drop table if exists item");
+                s.executeUpdate("create table item(id integer primary key, name text)");
+            }
+            assertEquals(0, group.getStatements());
+
+            // Concurrent writers, one of them failing
+            int threads = 8, rows = 50;
+            AtomicInteger failed = new AtomicInteger();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < threads; ++i) {
+                int t = i;
+                futures.add(executor.submit(() -> {
+                    try (Connection c = getConn(url);
+                         Statement s = c.createStatement()) {
+                        for (int j = 0; j < rows; ++j) {
+                            int id = t * 1000 + j;
+                            String sql = "insert into item(id, name) values(" + id + ", 'item')";
+                            assertEquals(1, s.executeUpdate(sql));
+                            if (t == 0 && j == 10) {
+                                try {
+                                    s.executeUpdate(sql);
+                                    fail();
+                                } catch (SQLException e) {
+                                    failed.incrementAndGet();
+                                }
+                            }
+                        }
+                        // Read own writes
+                        try (ResultSet rs = s.executeQuery("select count(*) from item " +
+                                "where id >= " + t * 1000 + " and id < " + (t + 1) * 1000)) {
+                            assertTrue(rs.next());
+                            assertEquals(rows, rs.getInt(1));
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f: futures) f.get();
+            assertEquals(1, failed.get());
+            int n = threads * rows;
+            assertEquals(n + 1, group.getStatements());
+            assertTrue(group.getCommits() < n);
+            assertEquals(1, group.size());
+
+            try (Connection c = getConn(url);
+                 Statement s = c.createStatement()) {
+                query(s, n);
+                // Not grouped in a transaction
+                c.setAutoCommit(false);
+                assertEquals(1, s.executeUpdate("insert into item(name) values('x')"));
+                c.rollback();
+                c.setAutoCommit(true);
+                query(s, n);
+                assertEquals(n + 1, group.getStatements());
+
+                // Named statements with parameters
+                JdbcTcpStatement ts = s.unwrap(JdbcTcpStatement.class);
+                String sql = "update item set name = ? where id = ?";
+                assertFalse(ts.executeNamed(sql, "first", 0));
+                assertEquals(1, ts.getUpdateCount());
+                assertFalse(ts.executeNamed(sql, "none", -1));
+                assertEquals(0, ts.getUpdateCount());
+                assertEquals(n + 3, group.getStatements());
+                try (ResultSet rs = s.executeQuery("select name from item where id = 0")) {
+                    assertTrue(rs.next());
+                    assertEquals("first", rs.getString(1));
+                }
+                // Not grouped: results
+                try (ResultSet rs = s.executeQuery("select count(*) from item")) {
+                    assertTrue(rs.next());
+                }
+                assertEquals(n + 3, group.getStatements());
+
+                // Timed out as on the handle, and the writer goes on
+                s.setQueryTimeout(1);
+                try {
+                    s.executeUpdate("insert into item(name) select 'slow' from " +
+                            "(with recursive r(i) as (select 1 union all " +
+                            "select i + 1 from r where i < 1000000000) select i from r) " +
+                            "where i < 0");
+                    fail();
+                } catch (SQLTimeoutException e) {
+                    // OK
+                }
+                s.setQueryTimeout(0);
+                assertEquals(1, s.executeUpdate("insert into item(name) values('y')"));
+                query(s, n + 1);
+            }
+
+            // Nor in a transaction begun in SQL
+            try (Connection c = getConn(url);
+                 Statement s = c.createStatement()) {
+                long statements = group.getStatements();
+                s.execute("begin");
+                assertEquals(1, s.executeUpdate("insert into item(name) values('x')"));
+                s.execute("rollback");
+                query(s, n + 1);
+                assertEquals(statements, group.getStatements());
+            }
+        } finally {
+            executor.shutdownNow();
+            server.stop();
+        }
+    }
+
+    static void query(Statement s, int rows) throws SQLException {
+        try (ResultSet rs = s.executeQuery("select count(*) from item")) {
+            assertTrue(rs.next());
+            assertEquals(rows, rs.getInt(1));
+        }
+    }
+
+}
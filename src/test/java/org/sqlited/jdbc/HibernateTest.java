@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.jdbc;
+
+import org.junit.Test;
+import org.sqlited.server.Config;
+import org.sqlited.server.tcp.TcpServer;
+import static junit.framework.TestCase.*;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+
+public class HibernateTest extends BaseTest {
+
+    @Test
+    public void testHibernate() throws Exception {
+        TcpServer server = (TcpServer) Config.start(new String[]{
+                "-D", "temp", "-p", password, "-P", "3527", "--hibernate", "100"
+        });
+        try {
+            String url = getUrl("jdbc:sqlited://localhost:3527/test", "password", password);
+            prepare(url);
+            try (Connection c = getConn(url);
+                 Statement s = c.createStatement()) {
+                s.executeUpdate("drop table if exists item");
+                s.executeUpdate("create table item(id integer primary key, name text)");
+                for (int i = 0; i < 200; ++i) {
+                    s.executeUpdate("insert into item(name) values('item-" + i + "')");
+                }
+            }
+
+            List<Connection> conns = new ArrayList<>();
+            try {
+                for (int i = 0; i < 10; ++i) {
+                    Connection c = getConn(url);
+                    conns.add(c);
+                    query(c, 200);
+                }
+                awaitHibernated(server, 10);
+                // Handles kept for waking up, the rest closed
+                assertEquals(8, server.getHandleCache().size());
+                for (Connection c: conns) query(c, 200);
+            } finally {
+                for (Connection c: conns) c.close();
+            }
+            // Closed by the peer
+            awaitHibernated(server, 0);
+
+            try (Connection c = getConn(url);
+                 Connection witness = getConn(url)) {
+                // State restored on waking up
+                c.setReadOnly(true);
+                c.setTransactionIsolation(Connection.TRANSACTION_READ_UNCOMMITTED);
+                Statement s = c.createStatement();
+                awaitHibernated(server, 2);
+                try {
+                    s.executeUpdate("insert into item(name) values('x')");
+                    fail();
+                } catch (SQLException e) {
+                    // OK
+                }
+                assertTrue(c.isReadOnly());
+                assertEquals(Connection.TRANSACTION_READ_UNCOMMITTED, c.getTransactionIsolation());
+                c.setReadOnly(false);
+                assertEquals(1, s.executeUpdate("insert into item(name) values('x')"));
+
+                // Not in a transaction
+                c.setAutoCommit(false);
+                assertEquals(1, s.executeUpdate("insert into item(name) values('y')"));
+                assertAwake(server, witness);
+                c.rollback();
+                c.setAutoCommit(true);
+                query(c, 201);
+
+                // Nor with an open cursor
+                s.setFetchSize(50);
+                try (ResultSet rs = s.executeQuery("select id from item order by id")) {
+                    assertTrue(rs.next());
+                    assertAwake(server, witness);
+                    int n = 1;
+                    while (rs.next()) ++n;
+                    assertEquals(201, n);
+                }
+                awaitHibernated(server, 2);
+                query(c, 201);
+
+                // Nor with a temp table in the handle
+                s.executeUpdate("create temp table t(i int)");
+                assertAwake(server, witness);
+                assertEquals(1, s.executeUpdate("insert into t(i) values(1)"));
+                s.close();
+
+                // Nor in a transaction begun in SQL
+                try (Connection d = getConn(url);
+                     Statement t = d.createStatement()) {
+                    t.execute("/* tx */ begin");
+                    assertEquals(1, t.executeUpdate("insert into item(name) values('z')"));
+                    assertAwake(server, witness);
+                    t.execute("rollback");
+                }
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    // The session not hibernated: the witness, idle since later, hibernated alone
+    static void assertAwake(TcpServer server, Connection witness) throws Exception {
+        try (Statement s = witness.createStatement();
+             ResultSet rs = s.executeQuery("select 1")) {
+            assertTrue(rs.next());
+        }
+        awaitHibernated(server, 1);
+        assertEquals(1, server.getHibernator().size());
+    }
+
+    static void awaitHibernated(TcpServer server, int n) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (server.getHibernator().size() != n) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+    }
+
+    static void query(Connection c, int n) throws SQLException {
+        try (Statement s = c.createStatement();
+             ResultSet rs = s.executeQuery("select count(*) from item")) {
+            assertTrue(rs.next());
+            assertEquals(n, rs.getInt(1));
+        }
+    }
+
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.jdbc;
+
+import org.junit.Test;
+import static junit.framework.TestCase.*;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+public class MuxTest extends BaseTest {
+
+    @Test
+    public void testSessions() throws Exception {
+        String url = getTcpUrl() + "&mux=true&muxSessions=8";
+        prepare(url);
+
+        List<Connection> conns = new ArrayList<>();
+        try {
+            for (int i = 0; i < 20; ++i) {
+                conns.add(getConn(url));
+            }
+            // Sessions in the sockets each read by a thread
+            long sockets = Thread.getAllStackTraces().keySet().stream()
+                    .filter(t -> t.getName().startsWith("SQLited-mux-"))
+                    .count();
+            assertEquals(3, sockets);
+            Connection a = conns.get(0), b = conns.get(1);
+            try (Statement s = a.createStatement()) {
+                s.executeUpdate("drop table if exists item");
+                s.executeUpdate("create table item(id integer primary key, data blob)");
+            }
+
+            // Own transaction state by session
+            a.setAutoCommit(false);
+            try (Statement s = a.createStatement()) {
+                assertEquals(1, s.executeUpdate("insert into item(data) values(zeroblob(8))"));
+            }
+            try (Statement s = b.createStatement();
+                 ResultSet rs = s.executeQuery("select count(*) from item")) {
+                assertTrue(rs.next());
+                assertEquals(0, rs.getInt(1));
+            }
+            a.rollback();
+            a.setAutoCommit(true);
+            assertTrue(b.getAutoCommit());
+
+            try (Statement s = a.createStatement()) {
+                for (int i = 0; i < 100; ++i) {
+                    s.executeUpdate("insert into item(data) values(randomblob(65536))");
+                }
+            }
+
+            // A large result interleaved with the others
+            ExecutorService executor = Executors.newFixedThreadPool(conns.size());
+            try {
+                List<Future<Long>> futures = new ArrayList<>();
+                for (Connection c: conns) {
+                    boolean large = c == a;
+                    futures.add(executor.submit(() -> {
+                        String sql = large? "select data from item order by id":
+                                "select count(*) from item";
+                        long n = 0;
+                        for (int i = 0, m = large? 2: 50; i < m; ++i) {
+                            try (Statement s = c.createStatement();
+                                 ResultSet rs = s.executeQuery(sql)) {
+                                while (rs.next()) {
+                                    if (large) n += rs.getBytes(1).length;
+                                    else n += rs.getLong(1);
+                                }
+                            }
+                        }
+                        return n;
+                    }));
+                }
+                assertEquals(2L * 100 * (64 << 10), futures.get(0).get(30, TimeUnit.SECONDS).longValue());
+                for (int i = 1; i < futures.size(); ++i) {
+                    assertEquals(50L * 100, futures.get(i).get(30, TimeUnit.SECONDS).longValue());
+                }
+            } finally {
+                executor.shutdown();
+            }
+
+            // Closing a session doesn't affect the others
+            b.close();
+            assertTrue(b.isClosed());
+            for (Connection c: conns) {
+                if (c == b) continue;
+                try (Statement s = c.createStatement();
+                     ResultSet rs = s.executeQuery("select 1")) {
+                    assertTrue(rs.next());
+                    assertEquals(1, rs.getInt(1));
+                }
+            }
+            // An error in a session
+            try (Statement s = a.createStatement()) {
+                s.executeQuery("select * from no_such_table");
+                fail();
+            } catch (SQLException e) {
+                // OK
+            }
+            try (Statement s = a.createStatement();
+                 ResultSet rs = s.executeQuery("select count(*) from item")) {
+                assertTrue(rs.next());
+                assertEquals(100, rs.getInt(1));
+            }
+        } finally {
+            for (Connection c: conns) c.close();
+        }
+    }
+
+}
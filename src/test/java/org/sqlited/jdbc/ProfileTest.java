@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.jdbc;
+
+import org.junit.Test;
+import org.sqlited.jdbc.tcp.impl.JdbcTcpConnection;
+import org.sqlited.server.Config;
+import org.sqlited.server.Server;
+import static junit.framework.TestCase.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.sql.*;
+import java.util.HashMap;
+import java.util.Map;
+
+public class ProfileTest extends BaseTest {
+
+    @Test
+    public void testProfile() throws Exception {
+        Server server = Config.start(new String[]{
+                "-D", "temp", "-p", password, "-P", "3528",
+                "--profile", "tuned;match=tuned*;synchronous=0;cache_size=-4000;temp_store=2",
+                "--profile", "paged;match=paged*;page_size=4096"
+        });
+        try {
+            String url = getUrl("jdbc:sqlited://localhost:3528/tuned", "password", password);
+            try (Connection c = getConn(url);
+                 Statement s = c.createStatement()) {
+                Map<String, String[]> pragmas = pragmas(c);
+                assertEquals("0", pragmas.get("synchronous")[1]);
+                assertEquals("-4000", pragmas.get("cache_size")[1]);
+                assertEquals("2", pragmas.get("temp_store")[1]);
+                assertEquals("tuned", pragmas.get("synchronous")[0]);
+                assertEquals("true", pragmas.get("synchronous")[2]);
+                assertEquals("false", pragmas.get("page_size")[2]);
+
+                // Guarded against overriding
+                String[] sqls = {"pragma synchronous = 2", "PRAGMA main.cache_size(100)",
+                        "pragma \"temp_store\"=0", "select 1; pragma synchronous=full",
+                        "pragma/**/synchronous=off", "pragma [main].synchronous=off",
+                        "pragma main -- schema\n . `cache_size` = 1"};
+                for (String sql: sqls) {
+                    try {
+                        s.execute(sql);
+                        fail(sql);
+                    } catch (SQLException e) {
+                        assertEquals("42501", e.getSQLState());
+                    }
+                }
+                try (ResultSet rs = s.executeQuery("pragma synchronous")) {
+                    assertTrue(rs.next());
+                    assertEquals(0, rs.getInt(1));
+                }
+                s.execute("pragma busy_timeout = 1000");
+            }
+
+            try (Connection c = getConn(url + "&synchronous=2")) {
+                fail();
+            } catch (SQLException e) {
+                assertEquals("42501", e.getSQLState());
+            }
+            try (Connection c = getConn(url + "&synchronous=0")) {
+                assertEquals("0", pragmas(c).get("synchronous")[1]);
+            }
+
+            url = getUrl("jdbc:sqlited://localhost:3528/test", "password", password);
+            try (Connection c = getConn(url);
+                 Statement s = c.createStatement()) {
+                Map<String, String[]> pragmas = pragmas(c);
+                assertNull(pragmas.get("synchronous")[0]);
+                assertEquals("false", pragmas.get("synchronous")[2]);
+                s.execute("pragma synchronous = 1");
+                assertEquals("1", pragmas(c).get("synchronous")[1]);
+            }
+
+            // The page size persistent in the file guarded against restoring
+            url = getUrl("jdbc:sqlited://localhost:3528/big8k", "password", password);
+            ByteArrayOutputStream paged8k = new ByteArrayOutputStream();
+            try (Connection c = getConn(url + "&page_size=8192");
+                 Statement s = c.createStatement()) {
+                s.execute("create table if not exists t(id integer primary key)");
+                c.unwrap(JdbcTcpConnection.class).backup("main", paged8k);
+            }
+            url = getUrl("jdbc:sqlited://localhost:3528/paged", "password", password);
+            try (Connection c = getConn(url);
+                 Statement s = c.createStatement()) {
+                s.execute("create table if not exists t(id integer primary key)");
+                JdbcTcpConnection tc = c.unwrap(JdbcTcpConnection.class);
+                ByteArrayOutputStream paged = new ByteArrayOutputStream();
+                tc.backup("main", paged);
+                tc.restore("main", new ByteArrayInputStream(paged.toByteArray()));
+                try {
+                    tc.restore("main", new ByteArrayInputStream(paged8k.toByteArray()));
+                    fail();
+                } catch (SQLException e) {
+                    assertEquals("42501", e.getSQLState());
+                }
+                try (ResultSet rs = s.executeQuery("pragma page_size")) {
+                    assertTrue(rs.next());
+                    assertEquals(4096, rs.getInt(1));
+                }
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    static Map<String, String[]> pragmas(Connection c) throws SQLException {
+        JdbcTcpConnection tc = c.unwrap(JdbcTcpConnection.class);
+        Map<String, String[]> pragmas = new HashMap<>();
+        try (ResultSet rs = tc.getPragmas()) {
+            while (rs.next()) {
+                String[] a = {rs.getString("PROFILE"), rs.getString("VALUE"),
+                        rs.getBoolean("GUARDED") + ""};
+                pragmas.put(rs.getString("NAME"), a);
+            }
+        }
+        return pragmas;
+    }
+
+}
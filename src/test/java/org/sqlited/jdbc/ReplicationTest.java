@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.jdbc;
+
+import org.junit.Test;
+import org.sqlited.jdbc.tcp.impl.JdbcTcpConnection;
+import org.sqlited.server.Config;
+import org.sqlited.server.Server;
+import static junit.framework.TestCase.*;
+
+import java.sql.*;
+
+public class ReplicationTest extends BaseTest {
+
+    @Test
+    public void testReadReplica() throws Exception {
+        prepare(getTcpUrl());
+        Server leader = Config.start(new String[]{
+                "-D", "temp", "-p", password, "-P", "3519", "--cdc"
+        });
+        Server follower = Config.start(new String[]{
+                "-D", "temp/replica", "-p", password, "-P", "3520",
+                "--replica-of", "localhost:3519", "--replica-dbs", "test"
+        });
+        try {
+            String leaderUrl = getUrl("jdbc:sqlited:tcp://:3519/test", "password", password);
+            String replicaUrl = getUrl("jdbc:sqlited:tcp://:3520/test", "password", password);
+            String routeUrl = leaderUrl + "&readOnly=true&replicas=localhost:3520&maxLag=60000";
+            try (Connection c = getConn(leaderUrl);
+                 Statement s = c.createStatement()) {
+                s.executeUpdate("insert into account(id, name, balance)values(2, 'Ted', 100)");
+                waitFor(replicaUrl, "select name from account where id = 2", "Ted");
+                s.executeUpdate("update account set name = 'Tim' where id = 2");
+                waitFor(replicaUrl, "select name from account where id = 2", "Tim");
+                s.executeUpdate("delete from account where id = 1");
+                waitFor(replicaUrl, "select count(*) from account where id = 1", "0");
+                // Not captured by the update hook
+                String[] sqls = {"delete from account", "delete from main.'account' -- all",
+                        "create table t(id int primary key) without rowid"};
+                for (String sql: sqls) {
+                    try {
+                        s.executeUpdate(sql);
+                        fail(sql);
+                    } catch (SQLException e) {
+                        assertEquals("0A000", e.getSQLState());
+                    }
+                }
+
+                // Read-only routing to the replica
+                try (Connection r = getConn(routeUrl);
+                     Statement t = r.createStatement()) {
+                    JdbcTcpConnection tc = r.unwrap(JdbcTcpConnection.class);
+                    long lag = tc.getReplicationLag();
+                    assertTrue(lag >= 0 && lag <= 60000);
+                    assertTrue(r.isReadOnly());
+                    ResultSet rs = t.executeQuery("select name from account where id = 2");
+                    assertTrue(rs.next());
+                    assertEquals("Tim", rs.getString(1));
+                    rs.close();
+                    try {
+                        t.executeUpdate("delete from account");
+                        fail();
+                    } catch (SQLException e) {
+                        // Expected
+                    }
+                    try {
+                        r.setReadOnly(false);
+                        fail();
+                    } catch (SQLException e) {
+                        assertEquals("25006", e.getSQLState());
+                    }
+                }
+                // Fallback to the leader when the lag exceeds
+                follower.stop();
+                try (Connection r = getConn(routeUrl)) {
+                    JdbcTcpConnection tc = r.unwrap(JdbcTcpConnection.class);
+                    assertEquals(-1, tc.getReplicationLag());
+                    assertTrue(r.isReadOnly());
+                }
+            }
+        } finally {
+            follower.stop();
+            leader.stop();
+        }
+    }
+
+    static void waitFor(String url, String sql, String expected) throws Exception {
+        String value = null;
+        for (int i = 0; i < 100; ++i) {
+            try (Connection c = getConn(url);
+                 Statement s = c.createStatement();
+                 ResultSet rs = s.executeQuery(sql)) {
+                if (rs.next()) value = rs.getString(1);
+            } catch (SQLException e) {
+                // Not in sync
+            }
+            if (expected.equals(value)) return;
+            Thread.sleep(100);
+        }
+        assertEquals(expected, value);
+    }
+
+}
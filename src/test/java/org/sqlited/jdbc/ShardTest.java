@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.jdbc;
+
+import org.junit.Test;
+import org.sqlited.jdbc.shard.ShardRing;
+import org.sqlited.jdbc.shard.impl.JdbcShardConnection;
+import static junit.framework.TestCase.*;
+
+import java.sql.*;
+import java.util.*;
+
+public class ShardTest extends BaseTest {
+
+    @Test
+    public void testShardRing() {
+        List<String> shards = Arrays.asList("a:3525/s0", "a:3525/s1", "b:3525/s2");
+        ShardRing ring = new ShardRing(shards);
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 3000; ++i) {
+            String shard = ring.locate("tenant-" + i);
+            assertEquals(shard, ring.locate("tenant-" + i));
+            counts.merge(shard, 1, Integer::sum);
+        }
+        assertEquals(3, counts.size());
+        for (int n: counts.values()) {
+            assertTrue(n > 500);
+        }
+
+        // Consistent: only the keys of the removed shard move
+        ShardRing less = new ShardRing(shards.subList(0, 2));
+        for (int i = 0; i < 3000; ++i) {
+            String shard = ring.locate("tenant-" + i);
+            if (!"b:3525/s2".equals(shard)) {
+                assertEquals(shard, less.locate("tenant-" + i));
+            }
+        }
+    }
+
+    @Test
+    public void testShardConnection() throws Exception {
+        String url = getUrl("jdbc:sqlited:shard://localhost/shard0,localhost/shard1,"
+                + "localhost:3525/shard2", "password", password);
+        try (Connection c = getConn(url)) {
+            JdbcShardConnection sc = c.unwrap(JdbcShardConnection.class);
+            assertEquals(3, sc.getShards().size());
+            try (Statement s = c.createStatement()) {
+                s.executeUpdate("drop table if exists tenant");
+                s.executeUpdate("create table tenant(id integer primary key, " +
+                        "name varchar(20) not null, balance integer not null)");
+            }
+
+            Set<String> used = new HashSet<>();
+            for (int i = 1; i <= 30; ++i) {
+                used.add(sc.locate(i));
+                Connection shard = sc.getShard(i);
+                try (Statement s = shard.createStatement()) {
+                    String sql = String.format("insert into tenant(id, name, balance) " +
+                            "values(%d, 't-%d', %d)", i, i, i * 10);
+                    assertEquals(1, s.executeUpdate(sql));
+                }
+            }
+            assertEquals(3, used.size());
+            try (Statement s = sc.getShard(7).createStatement();
+                 ResultSet rs = s.executeQuery("select name from tenant where id = 7")) {
+                assertTrue(rs.next());
+                assertEquals("t-7", rs.getString(1));
+            }
+
+            // Fan-out query and update
+            try (Statement s = c.createStatement()) {
+                s.setFetchSize(4);
+                ResultSet rs = s.executeQuery("select id, name, balance from tenant");
+                assertEquals(3, rs.getMetaData().getColumnCount());
+                Set<Integer> ids = new HashSet<>();
+                while (rs.next()) {
+                    int id = rs.getInt("id");
+                    assertEquals("t-" + id, rs.getString(2));
+                    assertEquals(id * 10, rs.getInt(3));
+                    assertTrue(ids.add(id));
+                }
+                assertEquals(30, ids.size());
+                rs.close();
+
+                rs = s.executeQuery("select count(*), sum(balance) from tenant");
+                int count = 0, shards = 0;
+                long sum = 0;
+                while (rs.next()) {
+                    count += rs.getInt(1);
+                    sum += rs.getLong(2);
+                    ++shards;
+                }
+                assertEquals(3, shards);
+                assertEquals(30, count);
+                assertEquals(4650, sum);
+
+                assertEquals(30, s.executeUpdate("update tenant set balance = balance + 1"));
+                String[] inserts = {"insert into tenant values(100, 't-100', 0)",
+                        "/* copy */ REPLACE into tenant values(100, 't-100', 0)",
+                        "with v(id) as (select 100) insert into tenant select id, 'v', 0 from v"};
+                for (String sql: inserts) {
+                    try {
+                        s.executeUpdate(sql);
+                        fail(sql);
+                    } catch (SQLException e) {
+                        assertEquals("0A000", e.getSQLState());
+                    }
+                }
+                rs = s.executeQuery("select * from tenant where id < 0");
+                assertFalse(rs.next());
+                try {
+                    s.executeQuery("select * from no_such_table");
+                    fail();
+                } catch (SQLException e) {
+                    assertTrue(e.getMessage().startsWith("Shard '"));
+                }
+            }
+
+            // Transactions are applied on each opened shard
+            c.setAutoCommit(false);
+            try (Statement s = c.createStatement()) {
+                s.executeUpdate("delete from tenant");
+                c.rollback();
+                ResultSet rs = s.executeQuery("select count(*) from tenant");
+                int count = 0;
+                while (rs.next()) count += rs.getInt(1);
+                assertEquals(30, count);
+            }
+            c.setAutoCommit(true);
+        }
+    }
+
+}
@@ -17,9 +17,23 @@
 package org.sqlited.jdbc;
 
 import org.junit.Test;
+import org.sqlited.cdc.Change;
+import org.sqlited.jdbc.bulk.BinaryReader;
+import org.sqlited.jdbc.bulk.CsvReader;
+import org.sqlited.jdbc.bulk.ExportOptions;
+import org.sqlited.jdbc.bulk.ImportOptions;
+import org.sqlited.jdbc.bulk.ImportResult;
+import org.sqlited.jdbc.tcp.impl.JdbcTcpChangeStream;
+import org.sqlited.jdbc.tcp.impl.JdbcTcpConnection;
+import org.sqlited.jdbc.tcp.impl.JdbcTcpStatement;
+import org.sqlited.server.Config;
+import org.sqlited.server.cache.QueryCache;
+import org.sqlited.server.tcp.TcpServer;
 import static junit.framework.TestCase.*;
+import java.io.*;
 
 import java.sql.*;
+import java.util.*;
 
 public class StatementTest extends BaseTest {
 
@@ -150,6 +164,893 @@ public class StatementTest extends BaseTest {
             rs = s.getGeneratedKeys();
             assertNotNull(rs);
             assertFalse(rs.next());
+
+            // Keys from rowids with gaps in a transaction, without trigger rows
+            s.execute("drop table if exists gk");
+            s.execute("create table gk(id integer primary key, v)");
+            s.execute("create table if not exists gk_log(id integer primary key, v)");
+            s.execute("create trigger if not exists gk_ins after insert on gk begin " +
+                    "insert into gk_log(v) values(new.v); end");
+            c.setAutoCommit(false);
+            sql = "insert into gk(id, v) values(10, 'a'), (11, 'b'), (20, 'c'), (5, 'd'), (null, 'e')";
+            assertEquals(5, s.executeUpdate(sql, Statement.RETURN_GENERATED_KEYS));
+            c.commit();
+            c.setAutoCommit(true);
+            rs = s.getGeneratedKeys();
+            for (long key : new long[]{ 10, 11, 20, 5, 21 }) {
+                assertTrue(rs.next());
+                assertEquals(key, rs.getLong(1));
+            }
+            assertFalse(rs.next());
+            sql = "insert into gk(v) select v from gk where 0";
+            assertEquals(0, s.executeUpdate(sql, Statement.RETURN_GENERATED_KEYS));
+            assertFalse(s.getGeneratedKeys().next());
+            assertEquals(5, count(s, "select count(*) from gk"));
+
+            // Rows of a BEFORE trigger inserted first, not the keys
+            s.execute("create trigger if not exists gk_pre before insert on gk begin " +
+                    "insert into gk_log(v) values('pre ' || new.v); end");
+            sql = "/* keys */ insert or abort into main.\"GK\"(id, v) values(30, 'f'), (31, 'g')";
+            assertEquals(2, s.executeUpdate(sql, Statement.RETURN_GENERATED_KEYS));
+            rs = s.getGeneratedKeys();
+            for (long key : new long[]{ 30, 31 }) {
+                assertTrue(rs.next());
+                assertEquals(key, rs.getLong(1));
+            }
+            assertFalse(rs.next());
+
+            // Schema changed: no rowid alias
+            s.execute("drop table gk");
+            s.execute("create table gk(k varchar(10) primary key, v)");
+            sql = "insert into gk(k, v) values('a', 1)";
+            assertEquals(1, s.executeUpdate(sql, Statement.RETURN_GENERATED_KEYS));
+            assertFalse(s.getGeneratedKeys().next());
+        }
+    }
+
+    @Test
+    public void testFetchRows() throws Exception {
+        doTestFetchRows(getTcpUrl());
+        doTestFetchRows(getRMIUrl());
+    }
+
+    @Test
+    public void testQueryCache() throws Exception {
+        prepare(getTcpUrl());
+        TcpServer server = (TcpServer) Config.start(new String[]{
+                "-D", "temp", "-p", password, "-P", "3517", "--query-cache", "1048576"
+        });
+        try {
+            QueryCache cache = server.getQueryCache();
+            assertNotNull(cache);
+            String url = getUrl("jdbc:sqlited:tcp://:3517/test", "password", password);
+            String sql = "select id, name, balance from account order by id";
+            try (Connection c = getConn(url);
+                 Connection d = getConn(url);
+                 Statement s = c.createStatement();
+                 Statement t = d.createStatement()) {
+                for (int i = 0; i < 3; ++i) {
+                    ResultSet rs = s.executeQuery(sql);
+                    assertTrue(rs.next());
+                    assertEquals(1, rs.getInt(1));
+                    assertEquals("Tom", rs.getString(2));
+                    assertFalse(rs.next());
+                }
+                assertEquals(2, cache.getHits());
+                ResultSet rs = t.executeQuery(sql);
+                assertTrue(rs.next());
+                rs.close();
+                assertEquals(3, cache.getHits());
+
+                // Invalidated by a commit of this server
+                t.executeUpdate("update account set name = 'Tim' where id = 1");
+                rs = s.executeQuery(sql);
+                assertTrue(rs.next());
+                assertEquals("Tim", rs.getString(2));
+                rs.close();
+
+                // Invalidated by a commit of another server in this JVM
+                try (Connection r = getConn(getRMIUrl());
+                     Statement u = r.createStatement()) {
+                    u.executeUpdate("update account set name = 'Ted' where id = 1");
+                }
+                rs = s.executeQuery(sql);
+                assertTrue(rs.next());
+                assertEquals("Ted", rs.getString(2));
+                rs.close();
+
+                // No caching in a transaction or of non-deterministic queries
+                d.setAutoCommit(false);
+                t.executeUpdate("update account set name = 'Tod' where id = 1");
+                rs = t.executeQuery(sql);
+                assertTrue(rs.next());
+                assertEquals("Tod", rs.getString(2));
+                rs.close();
+                d.rollback();
+                rs = s.executeQuery(sql);
+                assertTrue(rs.next());
+                assertEquals("Ted", rs.getString(2));
+                rs.close();
+                long hits = cache.getHits();
+                for (int i = 0; i < 2; ++i) {
+                    rs = s.executeQuery("select random()");
+                    assertTrue(rs.next());
+                    rs.close();
+                }
+                assertEquals(hits, cache.getHits());
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testLobStreaming() throws Exception {
+        String url = getTcpUrl();
+        int n = 20 << 20, m = 700000;
+        try (Connection c = getConn(url);
+             Statement s = c.createStatement()) {
+            s.executeUpdate("drop table if exists lob");
+            s.executeUpdate("create table lob(id integer primary key, b blob, t text)");
+            s.executeUpdate("insert into lob(id, b, t) values(1, randomblob(" + n + "), " +
+                    "replace(hex(zeroblob(" + m + ")), '00', '\u00e9'))");
+            s.executeUpdate("insert into lob(id, b, t) values(2, x'0102', 'abc')");
+
+            ResultSet rs = s.executeQuery("select id, b, t, hex(substr(b, 10000001, 16)) " +
+                    "from lob order by id");
+            assertTrue(rs.next());
+            assertEquals(1, rs.getInt(1));
+            byte[] part = new byte[16];
+            long total = 0;
+            try (java.io.InputStream in = rs.getBinaryStream(2)) {
+                byte[] buf = new byte[8192];
+                for (int i; (i = in.read(buf)) != -1; total += i) {
+                    int from = (int) Math.max(total, 10000000);
+                    int to = (int) Math.min(total + i, 10000016);
+                    if (from < to) {
+                        System.arraycopy(buf, (int)(from - total), part, from - 10000000, to - from);
+                    }
+                }
+            }
+            assertEquals(n, total);
+            StringBuilder hex = new StringBuilder();
+            for (byte b: part) hex.append(String.format("%02X", b));
+            assertEquals(rs.getString(4), hex.toString());
+            assertEquals(n, rs.getBytes(2).length);
+            String t = rs.getString(3);
+            assertEquals(m, t.length());
+            assertEquals('\u00e9', t.charAt(m - 1));
+
+            assertTrue(rs.next());
+            assertEquals(2, rs.getInt(1));
+            assertEquals(2, rs.getBytes(2).length);
+            try (java.io.Reader r = rs.getCharacterStream(3)) {
+                char[] a = new char[8];
+                assertEquals(3, r.read(a));
+            }
+            assertFalse(rs.next());
+            s.executeUpdate("drop table lob");
+        }
+    }
+
+    @Test
+    public void testBackupRestore() throws Exception {
+        String url = getTcpUrl();
+        prepare(url);
+
+        try (Connection c = getConn(url);
+             Statement s = c.createStatement()) {
+            JdbcTcpConnection tc = c.unwrap(JdbcTcpConnection.class);
+            assertTrue(c.isWrapperFor(JdbcTcpConnection.class));
+            java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+            long n = tc.backup("main", out);
+            assertTrue(n > 0);
+            assertEquals(n, out.size());
+
+            s.executeUpdate("update account set name = 'Tim' where id = 1");
+            s.executeUpdate("create table if not exists bak(id integer primary key)");
+            byte[] a = out.toByteArray();
+            assertEquals(n, tc.restore("main", new java.io.ByteArrayInputStream(a)));
+            ResultSet rs = s.executeQuery("select name from account where id = 1");
+            assertTrue(rs.next());
+            assertEquals("Tom", rs.getString(1));
+            rs.close();
+            rs = s.executeQuery("select count(*) from sqlite_master where name = 'bak'");
+            assertTrue(rs.next());
+            assertEquals(0, rs.getInt(1));
+            rs.close();
+
+            c.setReadOnly(true);
+            try {
+                tc.restore("main", new java.io.ByteArrayInputStream(a));
+                fail();
+            } catch (SQLException e) {
+                assertEquals("25006", e.getSQLState());
+            }
+            c.setReadOnly(false);
+
+            try {
+                tc.backup("nodb", new java.io.ByteArrayOutputStream());
+                fail();
+            } catch (SQLException e) {
+                if ("08000".equals(e.getSQLState())) throw e;
+            }
+            rs = s.executeQuery("select 1");
+            assertTrue(rs.next());
+            rs.close();
+        }
+    }
+
+    @Test
+    public void testBulkImport() throws Exception {
+        String url = getTcpUrl();
+        prepare(url);
+
+        try (Connection c = getConn(url);
+             Statement s = c.createStatement()) {
+            JdbcTcpConnection tc = c.unwrap(JdbcTcpConnection.class);
+            s.executeUpdate("drop table if exists bulk");
+            s.executeUpdate("create table bulk(id integer primary key, " +
+                    "name varchar(20) not null, score real)");
+
+            // Rows
+            int n = 200000;
+            Iterator<Object[]> rows = new Iterator<Object[]>() {
+                int i;
+                public boolean hasNext() { return i < n; }
+                public Object[] next() {
+                    ++i;
+                    return new Object[]{ i, "name-" + i, i / 2.0 };
+                }
+            };
+            ImportOptions options = new ImportOptions();
+            options.setBatchSize(10000);
+            options.setCommitRows(50000);
+            long[] progress = new long[2];
+            options.setProgress((imported, failed) -> {
+                assertTrue(imported >= progress[1]);
+                ++progress[0];
+                progress[1] = imported;
+            });
+            long ts = System.currentTimeMillis();
+            ImportResult result = tc.importRows("bulk", null, rows, options);
+            ts = Math.max(System.currentTimeMillis() - ts, 1);
+            log.info(String.format("import %d rows in %dms: %d rows/s", n, ts, n * 1000L / ts));
+            assertEquals(n, result.getImported());
+            assertEquals(0, result.getFailed());
+            assertEquals(20, progress[0]);
+            assertEquals(n, progress[1]);
+            ResultSet rs = s.executeQuery("select count(*), sum(score) from bulk");
+            assertTrue(rs.next());
+            assertEquals(n, rs.getInt(1));
+            assertEquals(n * (n + 1L) / 4.0, rs.getDouble(2));
+            rs.close();
+
+            // CSV with error rows captured
+            String csv = "score,id,name\r\n" +
+                    "1.5,300001,\"Tom, \"\"T\"\"\"\n" +
+                    "2,1,dup\n" +
+                    "\n" +
+                    "3,300002,\n" +
+                    "4,300003,\"multi\nline\"\n" +
+                    "5,300004,\"\"";
+            options = new ImportOptions();
+            options.setMaxErrors(2);
+            result = tc.importCsv("bulk", new java.io.StringReader(csv), options);
+            assertEquals(3, result.getImported());
+            assertEquals(2, result.getFailed());
+            assertEquals(2, result.getErrors().size());
+            assertEquals(1, result.getErrors().get(0).getIndex());
+            assertEquals("dup", result.getErrors().get(0).getRow()[2]);
+            assertEquals(2, result.getErrors().get(1).getIndex());
+            assertNull(result.getErrors().get(1).getRow()[2]);
+            rs = s.executeQuery("select name from bulk where id > 300000 order by id");
+            assertTrue(rs.next());
+            assertEquals("Tom, \"T\"", rs.getString(1));
+            assertTrue(rs.next());
+            assertEquals("multi\nline", rs.getString(1));
+            assertTrue(rs.next());
+            assertEquals("", rs.getString(1));
+            assertFalse(rs.next());
+            rs.close();
+
+            // Too many errors: rollback all
+            options.setMaxErrors(0);
+            csv = "id,name\n400001,a\n400002,b\n1,c\n400003,d";
+            try {
+                tc.importCsv("bulk", new java.io.StringReader(csv), options);
+                fail();
+            } catch (SQLException e) {
+                assertTrue(e.getMessage().contains("row 2"));
+            }
+            assertEquals(0, count(s, "select count(*) from bulk where id > 400000"));
+
+            // Abort by the client
+            Iterator<Object[]> bad = Arrays.asList(new Object[]{ 500001, "a" },
+                    new Object[]{ 500002, new Object() }).iterator();
+            try {
+                tc.importRows("bulk", new String[]{"id", "name"}, bad, options);
+                fail();
+            } catch (SQLException e) {
+                assertEquals("22023", e.getSQLState());
+            }
+            assertEquals(0, count(s, "select count(*) from bulk where id > 500000"));
+
+            // In the transaction of the connection
+            c.setAutoCommit(false);
+            bad = Collections.singletonList(new Object[]{ 600001, "a", null }).iterator();
+            result = tc.importRows("bulk", null, bad, options);
+            assertEquals(1, result.getImported());
+            assertEquals(1, count(s, "select count(*) from bulk where id > 600000"));
+            c.rollback();
+            c.setAutoCommit(true);
+            assertEquals(0, count(s, "select count(*) from bulk where id > 600000"));
+            assertEquals(n + 3, count(s, "select count(*) from bulk"));
+        }
+    }
+
+    @Test
+    public void testBulkExport() throws Exception {
+        String url = getTcpUrl();
+        prepare(url);
+
+        try (Connection c = getConn(url);
+             Statement s = c.createStatement()) {
+            JdbcTcpConnection tc = c.unwrap(JdbcTcpConnection.class);
+            s.executeUpdate("drop table if exists dump");
+            s.executeUpdate("create table dump(id integer primary key, name, score, data)");
+            int n = 100000;
+            Iterator<Object[]> rows = new Iterator<Object[]>() {
+                int i;
+                public boolean hasNext() { return i < n; }
+                public Object[] next() {
+                    ++i;
+                    return new Object[]{ i, "name-" + i, i / 2.0, null };
+                }
+            };
+            tc.importRows("dump", null, rows, new ImportOptions());
+            s.executeUpdate("insert into dump values(0, 'a,\"b\"', null, x'0aff')");
+            s.executeUpdate("insert into dump values(-1, '', 1, 'multi\nline')");
+
+            // CSV
+            ExportOptions options = new ExportOptions();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            String sql = "select * from dump where id <= 1 order by id";
+            assertEquals(3, tc.export(sql, out, options));
+            assertEquals("id,name,score,data\r\n" +
+                    "-1,\"\",1,\"multi\nline\"\r\n" +
+                    "0,\"a,\"\"b\"\"\",,0aff\r\n" +
+                    "1,name-1,0.5,\r\n", out.toString("UTF-8"));
+            CsvReader csv = new CsvReader(new StringReader(out.toString("UTF-8")));
+            assertEquals("name", csv.next()[1]);
+            assertEquals("", csv.next()[1]);
+            assertNull(csv.next()[2]);
+
+            // Binary with compression: round trip by import
+            options.setFormat(ExportOptions.Format.BINARY);
+            options.setCompress(true);
+            out = new ByteArrayOutputStream();
+            long ts = System.currentTimeMillis();
+            assertEquals(n + 2, tc.export("select * from dump", out, options));
+            ts = Math.max(System.currentTimeMillis() - ts, 1);
+            log.info(String.format("export %d rows in %dms: %d rows/s", n, ts, n * 1000L / ts));
+            s.executeUpdate("drop table if exists dump2");
+            s.executeUpdate("create table dump2(id integer primary key, name, score, data)");
+            try (BinaryReader reader = new BinaryReader(new ByteArrayInputStream(out.toByteArray()))) {
+                assertEquals("data", reader.getColumns()[3]);
+                ImportResult result = tc.importRows("dump2", reader.getColumns(), reader,
+                        new ImportOptions());
+                assertEquals(n + 2, result.getImported());
+            }
+            assertEquals(0, count(s, "select count(*) from dump a join dump2 b on a.id = b.id " +
+                    "where a.name is not b.name or a.score is not b.score or a.data is not b.data"));
+            assertEquals(n + 2, count(s, "select count(*) from dump2"));
+
+            // Empty, errors and a failed client stream
+            out = new ByteArrayOutputStream();
+            assertEquals(0, tc.export("select * from dump where 0", out, options));
+            try (BinaryReader reader = new BinaryReader(new ByteArrayInputStream(out.toByteArray()))) {
+                assertEquals(4, reader.getColumns().length);
+                assertFalse(reader.hasNext());
+            }
+            try {
+                tc.export("select * from no_table", out, options);
+                fail();
+            } catch (SQLException e) {
+                assertTrue(e.getMessage().contains("no_table"));
+            }
+            options.setCompress(false);
+            OutputStream broken = new OutputStream() {
+                public void write(int b) throws IOException {
+                    throw new IOException("disk full");
+                }
+            };
+            try {
+                tc.export("select * from dump", broken, options);
+                fail();
+            } catch (SQLException e) {
+                assertEquals("disk full", e.getCause().getMessage());
+            }
+            assertEquals(n + 2, count(s, "select count(*) from dump"));
+        }
+    }
+
+    static int count(Statement s, String sql) throws SQLException {
+        try (ResultSet rs = s.executeQuery(sql)) {
+            assertTrue(rs.next());
+            return rs.getInt(1);
+        }
+    }
+
+    @Test
+    public void testChangeCapture() throws Exception {
+        prepare(getTcpUrl());
+        TcpServer server = (TcpServer) Config.start(new String[]{
+                "-D", "temp", "-p", password, "-P", "3518", "--cdc"
+        });
+        try {
+            String url = getUrl("jdbc:sqlited:tcp://:3518/test", "password", password);
+            try (Connection c = getConn(url);
+                 Connection d = getConn(url);
+                 Statement s = d.createStatement()) {
+                JdbcTcpChangeStream cs = c.unwrap(JdbcTcpConnection.class)
+                        .subscribe(true, "Account");
+                s.executeUpdate("create table if not exists kv(k varchar(50), v varchar(250))");
+                s.executeUpdate("insert into kv(k, v)values('a', '1')");
+                s.executeUpdate("insert into account(id, name, balance)values(2, 'Ted', 100)");
+                List<Change> batch = cs.next();
+                assertEquals(1, batch.size());
+                Change change = batch.get(0);
+                assertEquals(Change.Op.INSERT, change.getOp());
+                assertEquals("account", change.getTable());
+                assertEquals(2, change.getRowId());
+                assertEquals("Ted", change.getImage().get("name"));
+
+                // Delivered only after commit, without the rolled back
+                d.setAutoCommit(false);
+                s.executeUpdate("update account set balance = 200 where id = 2");
+                Savepoint sp = d.setSavepoint();
+                s.executeUpdate("delete from account where id = 1");
+                d.rollback(sp);
+                s.executeUpdate("insert into account(id, name, balance)values(3, 'Tim', 300)");
+                d.rollback();
+                s.executeUpdate("delete from account where id = 2");
+                d.commit();
+                batch = cs.next();
+                assertEquals(1, batch.size());
+                change = batch.get(0);
+                assertEquals(Change.Op.DELETE, change.getOp());
+                assertEquals(2, change.getRowId());
+                assertNull(change.getImage());
+
+                s.executeUpdate("update account set balance = 200 where id = 1");
+                sp = d.setSavepoint();
+                s.executeUpdate("delete from account where id = 1");
+                d.rollback(sp);
+                d.commit();
+                batch = cs.next();
+                assertEquals(1, batch.size());
+                change = batch.get(0);
+                assertEquals(Change.Op.UPDATE, change.getOp());
+                assertEquals(1, change.getRowId());
+                assertEquals(200, ((Number) change.getImage().get("balance")).intValue());
+                cs.close();
+                assertTrue(cs.isClosed());
+                s.executeUpdate("drop table kv");
+                d.commit();
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testTimeoutAndCancel() throws Exception {
+        String url = getTcpUrl();
+        prepare(url);
+        String sql = "with recursive c(x) as (select 1 union all select x + 1 from c) " +
+                "select count(*) from c";
+
+        try (Connection c = getConn(url);
+             Statement s = c.createStatement()) {
+            assertEquals(0, s.getQueryTimeout());
+            s.setQueryTimeout(1);
+            assertEquals(1, s.getQueryTimeout());
+            long start = System.currentTimeMillis();
+            try {
+                s.executeQuery(sql);
+                fail();
+            } catch (SQLTimeoutException e) {
+                assertEquals("HYT00", e.getSQLState());
+            }
+            assertTrue(System.currentTimeMillis() - start < 10000);
+            ResultSet rs = s.executeQuery("select count(*) from account");
+            assertTrue(rs.next());
+            assertEquals(1, rs.getInt(1));
+            rs.close();
+
+            s.setQueryTimeout(0);
+            Thread canceller = new Thread(() -> {
+                try {
+                    Thread.sleep(500);
+                    s.cancel();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            });
+            canceller.start();
+            try {
+                s.executeQuery(sql);
+                fail();
+            } catch (SQLException e) {
+                assertEquals("57014", e.getSQLState());
+            }
+            canceller.join();
+            // Nothing to cancel
+            s.cancel();
+            rs = s.executeQuery("select count(*) from account");
+            assertTrue(rs.next());
+            assertEquals(1, rs.getInt(1));
+            rs.close();
+
+            // Export cancelled as the statements
+            JdbcTcpConnection tc = c.unwrap(JdbcTcpConnection.class);
+            canceller = new Thread(() -> {
+                try {
+                    Thread.sleep(500);
+                    tc.cancel();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            });
+            canceller.start();
+            try {
+                tc.export(sql, new ByteArrayOutputStream(), new ExportOptions());
+                fail();
+            } catch (SQLException e) {
+                assertEquals("57014", e.getSQLState());
+            }
+            canceller.join();
+            assertEquals(1, count(s, "select count(*) from account"));
+        }
+    }
+
+    @Test
+    public void testAdmission() throws Exception {
+        prepare(getTcpUrl());
+        TcpServer server = (TcpServer) Config.start(new String[]{
+                "-D", "temp", "-p", password, "-P", "3521", "--max-active", "1"
+        });
+        try {
+            assertNotNull(server.getAdmission());
+            String url = getUrl("jdbc:sqlited:tcp://:3521/test", "password", password);
+            try (Connection c = getConn(url);
+                 Connection d = getConn(url);
+                 Statement s = c.createStatement();
+                 Statement t = d.createStatement()) {
+                // A transaction doesn't hold the slot between its commands
+                c.setAutoCommit(false);
+                s.executeUpdate("update account set balance = 1 where id = 1");
+                ResultSet rs = t.executeQuery("select balance from account where id = 1");
+                assertTrue(rs.next());
+                assertEquals(5000000, rs.getInt(1));
+                rs.close();
+                s.executeUpdate("update account set balance = 2 where id = 1");
+                c.commit();
+                rs = t.executeQuery("select balance from account where id = 1");
+                assertTrue(rs.next());
+                assertEquals(2, rs.getInt(1));
+                rs.close();
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testScript() throws Exception {
+        String url = getTcpUrl();
+        prepare(url);
+
+        try (Connection c = getConn(url);
+             Statement s = c.createStatement()) {
+            JdbcTcpStatement ts = s.unwrap(JdbcTcpStatement.class);
+            String script = "drop table if exists log; drop trigger if exists t_log;\n" +
+                    "create table log(id integer primary key, msg text);\n" +
+                    "-- a comment; not a statement\n" +
+                    "create trigger t_log after update on account begin\n" +
+                    "  insert into log(msg) values('updated; ' || new.name);\n" +
+                    "end;\n" +
+                    "update account set name = 'Tim' where id = 1;;\n" +
+                    "select msg from log /* ; */";
+            assertFalse(ts.executeScript(script, "select count(*) from log",
+                    "update account set name = 'Tom' where id = 1"));
+            assertEquals(0, s.getUpdateCount());
+            assertFalse(s.getMoreResults());
+            assertEquals(0, s.getUpdateCount());
+            assertFalse(s.getMoreResults());
+            assertFalse(s.getMoreResults());
+            assertFalse(s.getMoreResults());
+            assertEquals(1, s.getUpdateCount());
+            assertTrue(s.getMoreResults());
+            assertEquals(-1, s.getUpdateCount());
+            ResultSet rs = s.getResultSet();
+            assertTrue(rs.next());
+            assertEquals("updated; Tim", rs.getString(1));
+            assertTrue(s.getMoreResults(Statement.KEEP_CURRENT_RESULT));
+            assertFalse(rs.isClosed());
+            assertFalse(rs.next());
+            ResultSet count = s.getResultSet();
+            assertTrue(count.next());
+            assertEquals(1, count.getInt(1));
+            assertFalse(s.getMoreResults());
+            assertTrue(count.isClosed());
+            assertEquals(1, s.getUpdateCount());
+            assertFalse(s.getMoreResults());
+            assertEquals(-1, s.getUpdateCount());
+            assertNull(s.getResultSet());
+
+            // Stops at the failed, but keeps the changes before
+            try {
+                ts.executeScript("insert into log(msg) values('a'); insert into nolog values(1); " +
+                        "insert into log(msg) values('b')");
+                fail();
+            } catch (SQLException e) {
+                if ("08000".equals(e.getSQLState())) throw e;
+            }
+            // Also at an error in stepping the rows
+            try {
+                ts.executeScript("select 1; select abs(x) from " +
+                        "(select 1 x union all select -9223372036854775807 - 1)");
+                fail();
+            } catch (SQLException e) {
+                if ("08000".equals(e.getSQLState())) throw e;
+            }
+            rs = s.executeQuery("select count(*) from log");
+            assertTrue(rs.next());
+            assertEquals(3, rs.getInt(1));
+            assertFalse(s.getMoreResults());
+            assertTrue(rs.isClosed());
+
+            s.addBatch("insert into log(msg) values('c')");
+            s.addBatch("update log set msg = msg || '!'");
+            assertTrue(Arrays.equals(new int[] {1, 4}, s.executeBatch()));
+            assertEquals(0, s.executeBatch().length);
+            s.addBatch("delete from log where msg = 'c!'");
+            s.addBatch("insert into nolog values(1)");
+            try {
+                s.executeBatch();
+                fail();
+            } catch (BatchUpdateException e) {
+                assertTrue(Arrays.equals(new int[] {1}, e.getUpdateCounts()));
+            }
+            s.executeUpdate("drop trigger t_log");
+            s.executeUpdate("drop table log");
+        }
+    }
+
+    @Test
+    public void testNamed() throws Exception {
+        String url = getTcpUrl();
+        prepare(url);
+
+        String query = "select name, balance from account where id = ?";
+        String update = "update account set balance = balance + ? where id = ?";
+        try (Connection c = getConn(url);
+             Statement s = c.createStatement();
+             Statement t = c.createStatement()) {
+            JdbcTcpStatement ts = s.unwrap(JdbcTcpStatement.class);
+            for (int i = 0; i < 3; ++i) {
+                assertTrue(ts.executeNamed(query, 1));
+                ResultSet rs = ts.getResultSet();
+                assertTrue(rs.next());
+                assertEquals("Tom", rs.getString(1));
+                assertEquals(5000000 + i, rs.getLong(2));
+                assertFalse(rs.next());
+                assertFalse(ts.executeNamed(update, 1, 1));
+                assertEquals(1, ts.getUpdateCount());
+            }
+            assertFalse(ts.executeNamed(update, 0, 2));
+            assertEquals(0, ts.getUpdateCount());
+            assertFalse(ts.executeNamed("insert into account(id, name, balance) " +
+                    "values(?, ?, ?)", 2, "Tim", 1.5f));
+            assertEquals(1, ts.getUpdateCount());
+
+            // Cursor held across the statements
+            s.setFetchSize(1);
+            assertTrue(ts.executeNamed("select id from account order by id"));
+            ResultSet rs = ts.getResultSet();
+            assertTrue(rs.next());
+            JdbcTcpStatement tt = t.unwrap(JdbcTcpStatement.class);
+            assertTrue(tt.executeNamed(query, 2L));
+            ResultSet r = tt.getResultSet();
+            assertTrue(r.next());
+            assertEquals("Tim", r.getString(1));
+            assertEquals(1.5, r.getDouble(2));
+            assertTrue(rs.next());
+            assertEquals(2, rs.getInt(1));
+            assertFalse(rs.next());
+
+            // Not registered if invalid
+            TcpServer server = (TcpServer) this.server;
+            int size = server.getStatements().size();
+            try {
+                ts.executeNamed("select * from not_exists");
+                fail();
+            } catch (SQLException e) {
+                // ok
+            }
+            assertEquals(size, server.getStatements().size());
+            try {
+                ts.executeNamed(query, new Object());
+                fail();
+            } catch (SQLException e) {
+                assertEquals("22023", e.getSQLState());
+            }
+        }
+
+        // Same ids in other sessions
+        TcpServer server = (TcpServer) this.server;
+        int size = server.getStatements().size();
+        try (Connection c = getConn(url);
+             Statement s = c.createStatement()) {
+            JdbcTcpStatement ts = s.unwrap(JdbcTcpStatement.class);
+            assertTrue(ts.executeNamed(query, 2));
+            ResultSet rs = ts.getResultSet();
+            assertTrue(rs.next());
+            assertEquals("Tim", rs.getString(1));
+        }
+        assertEquals(size, server.getStatements().size());
+    }
+
+    @Test
+    public void testMetaData() throws Exception {
+        doTestMetaData(getTcpUrl());
+        doTestMetaData(getRMIUrl());
+    }
+
+    void doTestMetaData(String url) throws Exception {
+        prepare(url);
+
+        try (Connection c = getConn(url);
+             Statement s = c.createStatement()) {
+            s.executeUpdate("drop view if exists v_item");
+            s.executeUpdate("drop table if exists item");
+            s.executeUpdate("drop table if exists store");
+            s.executeUpdate("create table store(id integer primary key, " +
+                    "name varchar(20) not null)");
+            s.executeUpdate("create table item(store_id int, no int, " +
+                    "price decimal(10, 2) default 0, " +
+                    "primary key(store_id, no), foreign key(store_id) " +
+                    "references store on delete cascade)");
+            s.executeUpdate("create unique index item_price on item(price desc, no)");
+            s.executeUpdate("create view v_item as select * from item");
+
+            DatabaseMetaData md = c.getMetaData();
+            assertSame(md, c.getMetaData());
+            assertSame(c, md.getConnection());
+            assertEquals("SQLite", md.getDatabaseProductName());
+            assertEquals(3, md.getDatabaseMajorVersion());
+
+            ResultSet rs = md.getTables(null, null, "%", new String[]{ "TABLE" });
+            Set<String> tables = new HashSet<>();
+            while (rs.next()) tables.add(rs.getString("TABLE_NAME"));
+            assertTrue(tables.containsAll(Arrays.asList("account", "item", "store")));
+            assertFalse(tables.contains("v_item"));
+            rs = md.getTables(null, null, "V\\_%", null);
+            assertTrue(rs.next());
+            assertEquals("v_item", rs.getString(3));
+            assertEquals("VIEW", rs.getString("TABLE_TYPE"));
+            assertFalse(rs.next());
+
+            rs = md.getColumns(null, null, "store", null);
+            assertTrue(rs.next());
+            assertEquals("id", rs.getString("COLUMN_NAME"));
+            assertEquals(Types.INTEGER, rs.getInt("DATA_TYPE"));
+            assertEquals("YES", rs.getString("IS_AUTOINCREMENT"));
+            assertEquals(DatabaseMetaData.columnNoNulls, rs.getInt("NULLABLE"));
+            assertTrue(rs.next());
+            assertEquals("name", rs.getString("COLUMN_NAME"));
+            assertEquals(Types.VARCHAR, rs.getInt("DATA_TYPE"));
+            assertEquals(20, rs.getInt("COLUMN_SIZE"));
+            assertEquals(2, rs.getInt("ORDINAL_POSITION"));
+            assertFalse(rs.next());
+            rs = md.getColumns(null, null, "item", "pri%");
+            assertTrue(rs.next());
+            assertEquals(Types.DECIMAL, rs.getInt("DATA_TYPE"));
+            assertEquals(2, rs.getInt("DECIMAL_DIGITS"));
+            assertEquals("0", rs.getString("COLUMN_DEF"));
+            assertEquals("NO", rs.getString("IS_AUTOINCREMENT"));
+            assertFalse(rs.next());
+
+            rs = md.getPrimaryKeys(null, null, "item");
+            assertTrue(rs.next());
+            assertEquals("no", rs.getString("COLUMN_NAME"));
+            assertEquals(2, rs.getInt("KEY_SEQ"));
+            assertTrue(rs.next());
+            assertEquals("store_id", rs.getString("COLUMN_NAME"));
+            assertEquals(1, rs.getInt("KEY_SEQ"));
+            assertFalse(rs.next());
+
+            rs = md.getIndexInfo(null, null, "item", true, false);
+            int unique = 0;
+            while (rs.next()) {
+                assertFalse(rs.getBoolean("NON_UNIQUE"));
+                if ("item_price".equals(rs.getString("INDEX_NAME"))) {
+                    ++unique;
+                    assertEquals(unique, rs.getInt("ORDINAL_POSITION"));
+                    assertEquals(unique == 1 ? "D": "A", rs.getString("ASC_OR_DESC"));
+                }
+            }
+            assertEquals(2, unique);
+
+            rs = md.getImportedKeys(null, null, "item");
+            assertTrue(rs.next());
+            assertEquals("store", rs.getString("PKTABLE_NAME"));
+            assertEquals("id", rs.getString("PKCOLUMN_NAME"));
+            assertEquals("store_id", rs.getString("FKCOLUMN_NAME"));
+            assertEquals(DatabaseMetaData.importedKeyCascade, rs.getInt("DELETE_RULE"));
+            assertEquals(DatabaseMetaData.importedKeyNoAction, rs.getInt("UPDATE_RULE"));
+            assertFalse(rs.next());
+            rs = md.getExportedKeys(null, null, "store");
+            assertTrue(rs.next());
+            assertEquals("item", rs.getString("FKTABLE_NAME"));
+            assertFalse(rs.next());
+
+            rs = md.getCatalogs();
+            assertEquals(1, rs.getMetaData().getColumnCount());
+            assertFalse(rs.next());
+
+            // Refreshed after a schema change
+            s.executeUpdate("alter table store add column city text");
+            rs = md.getColumns(null, null, "store", "city");
+            assertTrue(rs.next());
+            assertEquals(3, rs.getInt("ORDINAL_POSITION"));
+            assertFalse(rs.next());
+            s.executeUpdate("drop view v_item");
+            rs = md.getTables(null, null, "v_item", null);
+            assertFalse(rs.next());
+        }
+    }
+
+    void doTestFetchRows(String url) throws Exception {
+        prepare(url);
+
+        try (Connection c = getConn(url);
+             Statement s = c.createStatement()) {
+            int n = 1234;
+            c.setAutoCommit(false);
+            for (int i = 2; i <= n; ++i) {
+                s.executeUpdate("insert into account(id, name, balance)" +
+                        "values(" + i + ", 'Tom-" + i + "', " + i + ")");
+            }
+            c.commit();
+            c.setAutoCommit(true);
+
+            for (int size: new int[]{ 0, 1, 100, 1000, 100000 }) {
+                s.setFetchSize(size);
+                assertEquals(size, s.getFetchSize());
+                ResultSet rs = s.executeQuery("select id, name from account order by id");
+                int i = 0;
+                while (rs.next()) {
+                    ++i;
+                    assertEquals(i, rs.getInt(1));
+                    if (i > 1) assertEquals("Tom-" + i, rs.getString(2));
+                    // Set while a batch is fetched ahead
+                    if (i == 1 && size == 1 && url.contains(":rmi:")) {
+                        rs.setFetchDirection(ResultSet.FETCH_FORWARD);
+                        assertEquals(ResultSet.FETCH_FORWARD, rs.getFetchDirection());
+                    }
+                }
+                assertEquals(n, i);
+                assertTrue(rs.isClosed());
+
+                // Close before reading all rows
+                rs = s.executeQuery("select id from account order by id");
+                assertTrue(rs.next());
+                assertEquals(1, rs.getInt(1));
+                rs.close();
+            }
         }
     }
 
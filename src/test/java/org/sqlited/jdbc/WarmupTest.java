@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.jdbc;
+
+import org.junit.Test;
+import org.sqlited.server.Config;
+import org.sqlited.server.cache.Warmup;
+import org.sqlited.server.tcp.TcpServer;
+import static junit.framework.TestCase.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.sql.*;
+import java.util.Properties;
+
+public class WarmupTest extends BaseTest {
+
+    @Test
+    public void testWarmup() throws Exception {
+        String[] args = {"-D", "temp", "-p", password, "-P", "3529", "--warmup", "warm*"};
+        File hotFile = new File(getBaseDir(), "warmup.hot");
+        hotFile.delete();
+        File db = new File(getBaseDir(), "warmup");
+        db.delete();
+        String url = getUrl("jdbc:sqlited://localhost:3529/warmup", "password", password);
+
+        TcpServer server = (TcpServer) Config.start(args);
+        try {
+            try (Connection c = getConn(url);
+                 Statement s = c.createStatement()) {
+                s.executeUpdate("drop table if exists item");
+                s.executeUpdate("create table item(id integer primary key, name text)");
+                s.executeUpdate("create index item_name on item(name)");
+                s.executeUpdate("insert into item(name) select hex(randomblob(64)) " +
+                        "from (with recursive n(i) as (select 1 union all " +
+                        "select i + 1 from n where i < 20000) select i from n)");
+                for (int i = 0; i < 200; ++i) {
+                    try (ResultSet rs = s.executeQuery("select name from item where id = " + i)) {
+                        assertEquals(i > 0, rs.next());
+                    }
+                }
+            }
+            Warmup warmup = server.getWarmup();
+            awaitIdle(warmup);
+            // Preloaded on the first open with data
+            getConn(url).close();
+            awaitIdle(warmup);
+            assertTrue(warmup.getBytesRead() > 0);
+        } finally {
+            server.stop();
+        }
+
+        // Hot tables recorded at shutdown
+        Properties hot = new Properties();
+        try (InputStream in = new FileInputStream(hotFile)) {
+            hot.load(in);
+        }
+        assertEquals("item", hot.getProperty("warmup"));
+
+        server = (TcpServer) Config.start(args);
+        try {
+            Warmup warmup = server.getWarmup();
+            awaitIdle(warmup);
+            // Hot pages, then the whole file
+            assertTrue(warmup.getBytesRead() > db.length());
+            try (Connection c = getConn(url);
+                 Statement s = c.createStatement();
+                 ResultSet rs = s.executeQuery("select count(*) from item")) {
+                assertTrue(rs.next());
+                assertEquals(20000, rs.getInt(1));
+            }
+        } finally {
+            server.stop();
+        }
+    }
+
+    static void awaitIdle(Warmup warmup) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!warmup.isIdle()) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+}
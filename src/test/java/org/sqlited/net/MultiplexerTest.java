@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.net;
+
+import org.junit.Test;
+import static junit.framework.TestCase.*;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class MultiplexerTest {
+
+    @Test
+    public void testFlowControl() throws Exception {
+        BlockingQueue<MuxSocket> accepted = new LinkedBlockingQueue<>();
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try (ServerSocket server = new ServerSocket(0);
+             Socket client = new Socket("localhost", server.getLocalPort());
+             Socket peer = server.accept();
+             Multiplexer a = new Multiplexer(client, null);
+             Multiplexer b = new Multiplexer(peer, accepted::add)) {
+            executor.execute(a);
+            executor.execute(b);
+
+            // The writer waits for credit when the peer doesn't read
+            int total = 4 * Multiplexer.WINDOW;
+            AtomicLong sent = new AtomicLong();
+            MuxSocket slow = a.open();
+            Future<?> writer = executor.submit(() -> {
+                OutputStream out = slow.getOutputStream();
+                byte[] chunk = new byte[4096];
+                for (int i = 0; i < total; i += chunk.length) {
+                    out.write(chunk);
+                    sent.addAndGet(chunk.length);
+                }
+                return null;
+            });
+            MuxSocket slowPeer = accepted.poll(5, TimeUnit.SECONDS);
+            assertNotNull(slowPeer);
+            Thread.sleep(200);
+            assertFalse(writer.isDone());
+            assertTrue(sent.get() <= Multiplexer.WINDOW);
+
+            // The other sessions not blocked
+            MuxSocket s = a.open();
+            s.getOutputStream().write(new byte[] {1, 2, 3});
+            MuxSocket sPeer = accepted.poll(5, TimeUnit.SECONDS);
+            assertNotNull(sPeer);
+            byte[] buf = new byte[3];
+            new DataInputStream(sPeer.getInputStream()).readFully(buf);
+            assertEquals(3, buf[2]);
+
+            // Reading credits the writer to the end
+            DataInputStream in = new DataInputStream(slowPeer.getInputStream());
+            in.readFully(new byte[total]);
+            writer.get(5, TimeUnit.SECONDS);
+            assertEquals(total, sent.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+}
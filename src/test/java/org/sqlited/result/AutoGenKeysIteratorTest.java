@@ -65,4 +65,29 @@ public class AutoGenKeysIteratorTest {
         assertFalse(itr.hasNext());
     }
 
+    @Test
+    public void testDeltaEncoding() {
+        // Gaps, out of order and non-positive rowids
+        long[] ranges = { 100, 102, 5, 5, -2, 0, 0, 0 };
+        long[] deltas = AutoGenKeysIterator.encode(ranges, 6);
+        assertEquals(6, deltas.length);
+        assertEquals(100L, deltas[0]);
+        assertEquals(2L, deltas[1]);
+        assertEquals(-97L, deltas[2]);
+
+        AutoGenKeysIterator itr = AutoGenKeysIterator.decode(deltas,
+                ResultSetMetaData.AUTO_GEN_KEYS_META);
+        assertEquals(7, itr.size());
+        long[] keys = { 100, 101, 102, 5, -2, -1, 0 };
+        for (long key : keys) {
+            assertTrue(itr.hasNext());
+            assertEquals(key, (long) itr.next()[0]);
+            assertEquals(key, itr.getLong(0));
+        }
+        assertFalse(itr.hasNext());
+        itr.reset();
+        assertTrue(itr.hasNext());
+        assertEquals(100L, (long) itr.next()[0]);
+    }
+
 }
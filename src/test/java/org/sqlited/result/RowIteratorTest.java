@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.result;
+
+import org.junit.Test;
+import org.sqlited.io.Protocol;
+import org.sqlited.io.SpooledLob;
+import org.sqlited.io.Transfer;
+import static junit.framework.TestCase.*;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+public class RowIteratorTest {
+
+    @Test
+    public void testExternalize() throws Exception {
+        List<Object[]> rows = new ArrayList<>();
+        rows.add(new Object[]{ 1L, "Tom", 5000000.5, null, new byte[]{ 1, 2 } });
+        rows.add(new Object[]{ -2L, "", 0.0, "x", null });
+        ResultSetMetaData meta = ResultSetMetaData.AUTO_GEN_KEYS_META;
+        RowIterator itr = new RowIterator(rows, true, meta);
+
+        RowIterator copy = (RowIterator) copy(itr);
+        assertTrue(copy.isLast());
+        ResultSetMetaData m = copy.getMetaData();
+        assertNotNull(m);
+        assertEquals(1, m.getColumnCount());
+        assertEquals("GENERATED_KEY", m.getColumnName(1));
+        assertEquals(meta.getColumnType(1), m.getColumnType(1));
+        assertEquals(1, m.findColumn("generated_key"));
+
+        for (Object[] row : rows) {
+            assertTrue(copy.hasNext());
+            Object[] r = copy.next();
+            assertEquals(row.length, r.length);
+            for (int i = 0; i < row.length; ++i) {
+                if (row[i] instanceof byte[]) {
+                    assertTrue(java.util.Arrays.equals((byte[])row[i], (byte[])r[i]));
+                } else {
+                    assertEquals(row[i], r[i]);
+                }
+            }
+        }
+        assertFalse(copy.hasNext());
+
+        // No meta, empty rows
+        copy = (RowIterator) copy(RowIterator.empty(null));
+        assertTrue(copy.isLast());
+        assertNull(copy.getMetaData());
+        assertFalse(copy.hasNext());
+
+        // Auto-generated keys expanded
+        List<Long[]> ranges = new ArrayList<>();
+        ranges.add(new Long[]{ 1L, 2L });
+        ranges.add(new Long[]{ 5L, 5L });
+        copy = (RowIterator) copy(new AutoGenKeysIterator(ranges));
+        assertEquals(1L, copy.next()[0]);
+        assertEquals(2L, copy.next()[0]);
+        assertEquals(5L, copy.next()[0]);
+        assertFalse(copy.hasNext());
+    }
+
+    @Test
+    public void testUnboxed() throws Exception {
+        List<Object[]> rows = new ArrayList<>();
+        rows.add(new Object[]{ 1L, "Tom", 5000000.5, null, new byte[]{ 1, 2 } });
+        rows.add(new Object[]{ -2L, "", -0.25, "x", null });
+        ResultSetMetaData meta = ResultSetMetaData.AUTO_GEN_KEYS_META;
+        UnboxedRowIterator itr = UnboxedRowIterator.of(rows, false, meta);
+        assertEquals(2, itr.size());
+
+        RowIterator copy = (RowIterator) copy(itr);
+        assertTrue(copy instanceof UnboxedRowIterator);
+        assertFalse(copy.isLast());
+        assertTrue(copy.hasNext());
+        copy.next();
+        assertEquals(Protocol.TYPE_OBJ_INT, copy.getType(0));
+        assertEquals(1L, copy.getLong(0));
+        assertEquals(1.0, copy.getDouble(0));
+        assertEquals(Protocol.TYPE_OBJ_TEXT, copy.getType(1));
+        assertEquals("Tom", copy.getObject(1));
+        assertEquals(Protocol.TYPE_OBJ_REAL, copy.getType(2));
+        assertEquals(5000000.5, copy.getDouble(2));
+        assertEquals(5000000L, copy.getLong(2));
+        assertEquals(Protocol.TYPE_OBJ_NULL, copy.getType(3));
+        assertNull(copy.getObject(3));
+        assertEquals(Protocol.TYPE_OBJ_BLOB, copy.getType(4));
+        assertTrue(java.util.Arrays.equals(new byte[]{ 1, 2 }, (byte[])copy.getObject(4)));
+
+        Object[] r = copy.next();
+        assertEquals(-2L, r[0]);
+        assertEquals("", r[1]);
+        assertEquals(-0.25, r[2]);
+        assertEquals("x", r[3]);
+        assertNull(r[4]);
+        assertEquals(-2L, copy.getLong(0));
+        assertFalse(copy.hasNext());
+
+        copy.reset();
+        assertTrue(copy.hasNext());
+        assertEquals(1L, copy.next()[0]);
+    }
+
+    @Test
+    public void testResumedRead() throws Exception {
+        // Rows received in parts: each read resumes from the last checkpoint
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        Transfer out = new Transfer(null, buf, 1 << 20);
+        byte[] lob = new byte[UnboxedRowIterator.LOB_SPOOL_SIZE + 100];
+        for (int i = 0; i < lob.length; ++i) lob[i] = (byte) i;
+        for (int i = 0; i < 100; ++i) {
+            out.write(Protocol.TYPE_ARR_Object).writeInt(2);
+            out.write(Protocol.TYPE_OBJ_INT).writeLong(i);
+            out.write(Protocol.TYPE_OBJ_TEXT).writeString("row-" + i);
+        }
+        out.write(Protocol.TYPE_ARR_Object).writeInt(2);
+        out.write(Protocol.TYPE_OBJ_INT).writeLong(100);
+        out.writeChunked(lob, 64 << 10);
+        out.writeArray(null).flush();
+        byte[] data = buf.toByteArray();
+
+        class Parts extends InputStream {
+            int pos, end;
+            long served;
+
+            @Override
+            public int read() {
+                if (this.pos >= this.end) return -1;
+                ++this.served;
+                return data[this.pos++] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                int n = Math.min(len, this.end - this.pos);
+                if (n <= 0) return -1;
+                System.arraycopy(data, this.pos, b, off, n);
+                this.pos += n;
+                this.served += n;
+                return n;
+            }
+        }
+        Parts in = new Parts();
+        Transfer ch = new Transfer(in, null, 1 << 20);
+        int[] mark = new int[1];
+        UnboxedRowIterator itr = new UnboxedRowIterator(0, 0, true, null);
+        while (true) {
+            try {
+                itr.readRows(ch, () -> mark[0] = in.pos - ch.getInSize());
+                break;
+            } catch (EOFException e) {
+                in.pos = mark[0];
+                in.end = Math.min(in.end + 8192, data.length);
+            }
+        }
+        // Not decoded again from the start on each part
+        assertTrue(in.served < 2L * data.length);
+        assertEquals(101, itr.size());
+        for (int i = 0; i < 100; ++i) {
+            Object[] row = itr.next();
+            assertEquals((long) i, row[0]);
+            assertEquals("row-" + i, row[1]);
+        }
+        Object[] row = itr.next();
+        assertEquals(100L, row[0]);
+        SpooledLob spooled = (SpooledLob) row[1];
+        assertEquals(lob.length, spooled.length());
+        assertTrue(java.util.Arrays.equals(lob, spooled.getBytes()));
+
+        // The spooled value written in chunks again
+        itr.reset();
+        UnboxedRowIterator copy = (UnboxedRowIterator) copy(itr);
+        assertEquals(101, copy.size());
+        assertEquals("row-0", copy.next()[1]);
+        for (int i = 1; i < 100; ++i) copy.next();
+        row = copy.next();
+        assertEquals(100L, row[0]);
+        spooled = (SpooledLob) row[1];
+        assertTrue(java.util.Arrays.equals(lob, spooled.getBytes()));
+        copy.close();
+        itr.close();
+    }
+
+    static Object copy(Object o) throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(buf)) {
+            out.writeObject(o);
+        }
+        InputStream in = new ByteArrayInputStream(buf.toByteArray());
+        try (ObjectInputStream oin = new ObjectInputStream(in)) {
+            return oin.readObject();
+        }
+    }
+
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.server.cache;
+
+import org.junit.Test;
+import static junit.framework.TestCase.*;
+
+public class StatementCatalogTest {
+
+    @Test
+    public void testEvict() {
+        StatementCatalog catalog = new StatementCatalog(2);
+        int[] a = catalog.register("select 1");
+        int[] b = catalog.register("select 2");
+        assertEquals(a[0], b[0]);
+        assertEquals(1, a[1]);
+        assertEquals(2, b[1]);
+        assertEquals(a[1], catalog.register("select 1")[1]);
+        assertEquals("select 2", catalog.get(b[0], b[1]));
+        assertEquals(2, catalog.size());
+
+        // Full: all evicted in a new epoch
+        int[] c = catalog.register("select 3");
+        assertTrue(c[0] != a[0]);
+        assertEquals(1, c[1]);
+        assertEquals(c[0], catalog.getEpoch());
+        assertEquals(1, catalog.size());
+        assertNull(catalog.get(a[0], a[1]));
+        assertNull(catalog.get(b[0], b[1]));
+        assertEquals("select 3", catalog.get(c[0], c[1]));
+        assertNull(catalog.get(c[0], 2));
+        int[] d = catalog.register("select 1");
+        assertEquals(c[0], d[0]);
+        assertEquals(2, d[1]);
+    }
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2021 little-pan
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.sqlited.server.sched;
+
+import org.junit.Test;
+import org.sqlited.server.sched.AdmissionController.Admission;
+import org.sqlited.server.sched.AdmissionController.Session;
+import static junit.framework.TestCase.*;
+
+import java.sql.SQLTransientException;
+import java.util.List;
+import java.util.concurrent.*;
+
+public class AdmissionControllerTest {
+
+    @Test
+    public void testLimitAndShed() throws Exception {
+        AdmissionController ac = new AdmissionController(1, 1, 200);
+        Session s1 = ac.open("db", "a");
+        Session s2 = ac.open("db", "b");
+        Session s3 = ac.open("db", "c");
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            Admission a1 = ac.admit(s1);
+            assertEquals(1, ac.getRunning("db"));
+            Future<Admission> f2 = executor.submit(() -> ac.admit(s2));
+            while (ac.getQueued("db") == 0) Thread.sleep(1);
+            try {
+                ac.admit(s3);
+                fail();
+            } catch (SQLTransientException e) {
+                assertEquals("53000", e.getSQLState());
+            }
+            ac.release(a1);
+            Admission a2 = f2.get();
+            assertEquals(1, ac.getRunning("db"));
+
+            // Admission timeout
+            long start = System.currentTimeMillis();
+            try {
+                ac.admit(s3);
+                fail();
+            } catch (SQLTransientException e) {
+                assertEquals("53000", e.getSQLState());
+            }
+            assertTrue(System.currentTimeMillis() - start >= 200);
+            assertEquals(0, ac.getQueued("db"));
+            ac.release(a2);
+            ac.release(a2);
+            assertEquals(0, ac.getRunning("db"));
+            // Other databases are independent
+            Session other = ac.open("other", "a");
+            ac.release(ac.admit(other));
+            ac.close(other);
+        } finally {
+            executor.shutdownNow();
+            ac.close(s1);
+            ac.close(s2);
+            ac.close(s3);
+        }
+    }
+
+    @Test
+    public void testFairQueueing() throws Exception {
+        AdmissionController ac = new AdmissionController(1, 10, 5000);
+        Session heavy = ac.open("db", "heavy");
+        Session light = ac.open("db", "light");
+        Session blocker = ac.open("db", "blocker");
+        List<String> order = new CopyOnWriteArrayList<>();
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            // A long scan of the heavy client
+            Admission a = ac.admit(heavy);
+            Thread.sleep(50);
+            ac.release(a);
+
+            Admission b = ac.admit(blocker);
+            Future<?> f1 = executor.submit(() -> {
+                ac.release(ac.admit(heavy));
+                order.add("heavy");
+                return null;
+            });
+            while (ac.getQueued("db") < 1) Thread.sleep(1);
+            Future<?> f2 = executor.submit(() -> {
+                Admission c = ac.admit(light);
+                order.add("light");
+                ac.release(c);
+                return null;
+            });
+            while (ac.getQueued("db") < 2) Thread.sleep(1);
+            ac.release(b);
+            f1.get();
+            f2.get();
+            assertEquals("light", order.get(0));
+            assertEquals("heavy", order.get(1));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+}